@@ -740,7 +740,10 @@ public final class Conch {
         Users.shutdown();
         FundingMonitor.shutdown();
         ThreadPool.shutdown();
+        AsyncSubscriber.shutdown();
+        Generator.shutdown();
         BlockchainProcessorImpl.getInstance().shutdown();
+        AccountLedger.shutdown();
         Peers.shutdown();
         Db.shutdown();
         Logger.logShutdownMessage("COS server " + VERSION + " stopped.");
@@ -782,6 +785,7 @@ public final class Conch {
                 Account.init();
                 AccountRestrictions.init();
                 AccountLedger.init();
+                AccountRanking.init();
                 Alias.init();
 
                 DigitalGoodsStore.init();
@@ -811,6 +815,7 @@ public final class Conch {
 
                 PrunableMessage.init();
                 TaggedData.init();
+                TxStatistics.init();
                 StorageTxProcessorImpl.init();
                 StorageBackup.init();
                 FxtDistribution.init();
@@ -639,6 +639,18 @@ public final class Account {
 
     private static final DerivedDbTable accountGuaranteedBalanceTable = new DerivedDbTable("account_guaranteed_balance") {
 
+        @Override
+        public void rollback(int height) {
+            super.rollback(height);
+            GuaranteedBalanceIndex.rollback(height);
+        }
+
+        @Override
+        public void truncate() {
+            super.truncate();
+            GuaranteedBalanceIndex.reset();
+        }
+
         @Override
         public void trim(int height) {
             Connection con = null;
@@ -648,6 +660,7 @@ public final class Account {
                         + "WHERE height < ? AND height >= 0");
                 pstmtDelete.setInt(1, height - Constants.GUARANTEED_BALANCE_CONFIRMATIONS);
                 pstmtDelete.executeUpdate();
+                GuaranteedBalanceIndex.trim(height - Constants.GUARANTEED_BALANCE_CONFIRMATIONS);
             } catch (SQLException e) {
                 throw new RuntimeException(e.toString(), e);
             }finally {
@@ -1315,6 +1328,20 @@ public final class Account {
             balances[i] = lessors.get(i).getBalanceNQT();
         }
         int blockchainHeight = Conch.getBlockchain().getHeight();
+        int fromHeight = height - Constants.GUARANTEED_BALANCE_CONFIRMATIONS;
+        int toHeight = height < blockchainHeight ? height : Integer.MAX_VALUE;
+        long indexedTotal = 0;
+        for (int i = 0; i < lessorIds.length; i++) {
+            Long additions = GuaranteedBalanceIndex.getAdditions(lessorIds[i], fromHeight, toHeight);
+            if (additions == null) {
+                indexedTotal = -1;
+                break;
+            }
+            indexedTotal += Math.max(balances[i] - additions, 0);
+        }
+        if (indexedTotal >= 0) {
+            return indexedTotal;
+        }
         Connection con = null;
         try {
             con = Db.db.getConnection();
@@ -1324,7 +1351,7 @@ public final class Account {
                     + " GROUP BY account_id ORDER BY account_id");
             
             pstmt.setObject(1, lessorIds);
-            pstmt.setInt(2, height - Constants.GUARANTEED_BALANCE_CONFIRMATIONS);
+            pstmt.setInt(2, fromHeight);
             if (height < blockchainHeight) {
                 pstmt.setInt(3, height);
             }
@@ -1431,6 +1458,7 @@ public final class Account {
                     pstmtUpdate.executeUpdate(); 
                 }
             }
+            GuaranteedBalanceIndex.reload(con, this.id);
         } catch (SQLException e) {
             e.printStackTrace();
         } finally {
@@ -1455,6 +1483,10 @@ public final class Account {
 //                    || fromHeight > Conch.getBlockchain().getHeight()) {
 //                throw new IllegalArgumentException("Height " + fromHeight + " not available for guaranteed balance calculation");
 //            }
+            Long additions = GuaranteedBalanceIndex.getAdditions(this.id, fromHeight, currentHeight);
+            if (additions != null) {
+                return Math.max(Math.subtractExact(balanceNQT, additions), 0);
+            }
             Connection con = null;
             try {
                 con = Db.db.getConnection();
@@ -2100,6 +2132,7 @@ public final class Account {
                 pstmtUpdate.setInt(3, blockchainHeight);
                 pstmtUpdate.executeUpdate();
             }
+            GuaranteedBalanceIndex.add(this.id, blockchainHeight, amountNQT);
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }finally {
@@ -29,12 +29,18 @@ import org.conch.common.Constants;
 import org.conch.db.Db;
 import org.conch.db.DbUtils;
 import org.conch.db.DerivedDbTable;
+import org.conch.db.TransactionalDb;
 import org.conch.util.Listener;
 import org.conch.util.Listeners;
 import org.conch.util.Logger;
+import org.conch.util.ThreadPool;
 
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Maintain a ledger of changes to selected accounts
@@ -62,8 +68,24 @@ public class AccountLedger {
     /** Blockchain processor */
     private static final BlockchainProcessor blockchainProcessor = Conch.getBlockchainProcessor();
 
-    /** Pending ledger entries */
-    private static final List<LedgerEntry> pendingEntries = new ArrayList<>();
+    /** Write the ledger entries on a background thread after the block is committed */
+    private static final boolean asyncWriter = Conch.getBooleanProperty("sharder.ledgerAsyncWriter");
+
+    /** An entry was not saved by the background writer, its saved height must not move past it */
+    private static volatile boolean writerFailed;
+
+    /** Pending ledger entries in insert order */
+    private static final Map<LedgerEntry, LedgerEntry> pendingEntries = new LinkedHashMap<>();
+
+    /** Pending ledger entries in insert order by account, holding and holding identifier */
+    private static final Map<BalanceKey, List<LedgerEntry>> pendingBalances = new HashMap<>();
+
+    /** Background ledger writer */
+    private static final ExecutorService ledgerWriter = asyncWriter ? Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ledgerWriter");
+        thread.setDaemon(true);
+        return thread;
+    }) : null;
 
     /**
      * Process org.conch.ledgerAccounts
@@ -92,6 +114,33 @@ public class AccountLedger {
         logUnconfirmed = (temp >= 0 && temp <= 2 ? temp : 1);
     }
 
+    /**
+     * Ledger entries with the same account, holding and holding identifier share a running balance
+     */
+    private static final class BalanceKey {
+
+        private final long accountId;
+        private final LedgerHolding holding;
+        private final Long holdingId;
+
+        private BalanceKey(LedgerEntry ledgerEntry) {
+            this.accountId = ledgerEntry.getAccountId();
+            this.holding = ledgerEntry.getHolding();
+            this.holdingId = ledgerEntry.getHoldingId();
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(accountId) ^ (holding != null ? holding.getCode() : 0) ^ (holdingId != null ? Long.hashCode(holdingId) : 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return (obj instanceof BalanceKey) && accountId == ((BalanceKey)obj).accountId &&
+                    holding == ((BalanceKey)obj).holding && Objects.equals(holdingId, ((BalanceKey)obj).holdingId);
+        }
+    }
+
     /**
      * Account ledger table
      */
@@ -105,18 +154,53 @@ public class AccountLedger {
         }
 
         /**
-         * Insert an entry into the table
+         * Insert entries into the table
          *
-         * @param   ledgerEntry             Ledger entry
+         * The entries are inserted as a single batch unless their identifiers are needed.  A batch
+         * doesn't return the generated keys of all its rows, each entry is then inserted alone.
+         *
+         * @param   ledgerEntries           Ledger entries in insert order
+         * @param   getLedgerIds            Set the identifiers of the new entries
          */
-        public void insert(LedgerEntry ledgerEntry) {
-            try (Connection con = db.getConnection()) {
-                ledgerEntry.save(con);
+        public void insert(List<LedgerEntry> ledgerEntries, boolean getLedgerIds) {
+            try (Connection con = db.getConnection();
+                 PreparedStatement stmt = con.prepareStatement("INSERT INTO account_ledger "
+                        + "(account_id, event_type, event_id, holding_type, holding_id, change, balance, "
+                        + "block_id, height, timestamp) "
+                        + "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS)) {
+                for (LedgerEntry ledgerEntry : ledgerEntries) {
+                    ledgerEntry.save(stmt);
+                    if (!getLedgerIds) {
+                        stmt.addBatch();
+                        continue;
+                    }
+                    stmt.executeUpdate();
+                    try (ResultSet rs = stmt.getGeneratedKeys()) {
+                        if (rs.next()) {
+                            ledgerEntry.ledgerId = rs.getLong(1);
+                        }
+                    }
+                }
+                if (!getLedgerIds) {
+                    stmt.executeBatch();
+                }
             } catch (SQLException e) {
                 throw new RuntimeException(e.toString(), e);
             }
         }
 
+        @Override
+        public void rollback(int height) {
+            awaitWriter();
+            super.rollback(height);
+        }
+
+        @Override
+        public void truncate() {
+            awaitWriter();
+            super.truncate();
+        }
+
         /**
          * Trim the account ledger table
          *
@@ -126,6 +210,7 @@ public class AccountLedger {
         public void trim(int height) {
             if (trimKeep <= 0)
                 return;
+            awaitWriter();
             try (Connection con = db.getConnection();
                  PreparedStatement pstmt = con.prepareStatement("DELETE FROM account_ledger WHERE height <= ?")) {
                 int trimHeight = Math.max(blockchain.getHeight() - trimKeep, 0);
@@ -145,6 +230,53 @@ public class AccountLedger {
      * register our table
      */
     public static void init() {
+        if (ledgerEnabled) {
+            checkLedgerHeight();
+        }
+    }
+
+    /**
+     * Scan the blocks again from the last height saved by the background writer if the node
+     * stopped before the entries of the following blocks were saved
+     */
+    private static void checkLedgerHeight() {
+        try (Connection con = Db.db.getConnection();
+             Statement stmt = con.createStatement()) {
+            int ledgerHeight;
+            int height;
+            try (ResultSet rs = stmt.executeQuery("SELECT ledger_height, (SELECT MAX(height) FROM block) FROM ledger_writer")) {
+                rs.next();
+                ledgerHeight = rs.getInt(1);
+                height = rs.getInt(2);
+            }
+            if (ledgerHeight > 0 && ledgerHeight < height) {
+                Logger.logWarningMessage("The account ledger was only saved up to height " + ledgerHeight + " of " + height
+                        + ", the blocks are scanned again from this height");
+                try (PreparedStatement pstmt = con.prepareStatement("UPDATE scan SET rescan = TRUE, height = ?, checkpoint = 0 "
+                        + "WHERE rescan = FALSE OR height > ?")) {
+                    pstmt.setInt(1, ledgerHeight);
+                    pstmt.setInt(2, ledgerHeight);
+                    pstmt.executeUpdate();
+                }
+                height = ledgerHeight;
+            }
+            // zero when the entries are saved with the blocks
+            try (PreparedStatement pstmt = con.prepareStatement("UPDATE ledger_writer SET ledger_height = ?")) {
+                pstmt.setInt(1, ledgerWriter != null ? height : 0);
+                pstmt.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    /**
+     * Write the pending entries of the background writer and stop it
+     */
+    public static void shutdown() {
+        if (ledgerWriter != null) {
+            ThreadPool.shutdownExecutor("ledgerWriter", ledgerWriter, 10);
+        }
     }
 
     /**
@@ -230,36 +362,119 @@ public class AccountLedger {
             throw new IllegalStateException("Not in transaction");
         }
         //
-        // Combine multiple ledger entries
+        // Combine multiple ledger entries.  The entry being replaced is removed and the balances
+        // of the later entries with the same account and holding are computed again without it.
         //
-        int index = pendingEntries.indexOf(ledgerEntry);
-        if (index >= 0) {
-            LedgerEntry existingEntry = pendingEntries.remove(index);
+        List<LedgerEntry> balanceEntries = pendingBalances.computeIfAbsent(new BalanceKey(ledgerEntry), key -> new ArrayList<>());
+        LedgerEntry existingEntry = pendingEntries.remove(ledgerEntry);
+        if (existingEntry != null) {
             ledgerEntry.updateChange(existingEntry.getChange());
             long adjustedBalance = existingEntry.getBalance() - existingEntry.getChange();
-            for (; index < pendingEntries.size(); index++) {
-                existingEntry = pendingEntries.get(index);
-                if (existingEntry.getAccountId() == ledgerEntry.getAccountId() &&
-                        existingEntry.getHolding() == ledgerEntry.getHolding() &&
-                        ((existingEntry.getHoldingId() == null && ledgerEntry.getHoldingId() == null) ||
-                        (existingEntry.getHoldingId() != null && existingEntry.getHoldingId().equals(ledgerEntry.getHoldingId())))) {
-                    adjustedBalance += existingEntry.getChange();
-                    existingEntry.setBalance(adjustedBalance);
-                }
+            int index = balanceEntries.size() - 1;
+            while (balanceEntries.get(index) != existingEntry) {
+                index--;
+            }
+            balanceEntries.remove(index);
+            for (; index < balanceEntries.size(); index++) {
+                existingEntry = balanceEntries.get(index);
+                adjustedBalance += existingEntry.getChange();
+                existingEntry.setBalance(adjustedBalance);
             }
         }
-        pendingEntries.add(ledgerEntry);
+        pendingEntries.put(ledgerEntry, ledgerEntry);
+        balanceEntries.add(ledgerEntry);
     }
 
     /**
      * Commit pending ledger entries
+     *
+     * The entries are inserted as a single batch in the block transaction.  With the background
+     * writer they are instead written once the block transaction is committed, so the entries of
+     * the latest blocks may not be returned yet by the ledger queries.  The writer saves the height
+     * of the last block it wrote in the ledger_writer table, which the block transactions don't
+     * lock.  If the node stops before the entries of the following blocks are saved, they are lost
+     * and the blocks are scanned again from this height on the next start.
      */
     public static void commitEntries() {
-        for (LedgerEntry ledgerEntry : pendingEntries) {
-            accountLedgerTable.insert(ledgerEntry);
-            listeners.notify(ledgerEntry, Event.ADD_ENTRY);
+        if (ledgerWriter != null && ledgerEnabled) {
+            // the height is saved for the blocks without entries as well
+            List<LedgerEntry> ledgerEntries = new ArrayList<>(pendingEntries.values());
+            int height = blockchain.getHeight();
+            clearEntries();
+            Db.db.registerCallback(new TransactionalDb.TransactionCallback() {
+                @Override
+                public void commit() {
+                    try {
+                        ledgerWriter.execute(() -> writeEntries(ledgerEntries, height));
+                    } catch (RejectedExecutionException e) {
+                        writerFailed = true;
+                        Logger.logErrorMessage("Account ledger writer stopped, the entries of height " + height + " are not saved");
+                    }
+                }
+
+                @Override
+                public void rollback() {
+                }
+            });
+            return;
+        }
+        if (pendingEntries.isEmpty()) {
+            return;
+        }
+        List<LedgerEntry> ledgerEntries = new ArrayList<>(pendingEntries.values());
+        clearEntries();
+        accountLedgerTable.insert(ledgerEntries, listeners.hasListeners(Event.ADD_ENTRY));
+        ledgerEntries.forEach(ledgerEntry -> listeners.notify(ledgerEntry, Event.ADD_ENTRY));
+    }
+
+    /**
+     * Write committed ledger entries on the background writer
+     *
+     * @param   ledgerEntries               Ledger entries
+     * @param   height                      Block height
+     */
+    private static void writeEntries(List<LedgerEntry> ledgerEntries, int height) {
+        Db.db.beginTransaction();
+        try {
+            if (!ledgerEntries.isEmpty()) {
+                accountLedgerTable.insert(ledgerEntries, listeners.hasListeners(Event.ADD_ENTRY));
+            }
+            // the saved height stays before the first lost entries until the next start
+            if (!writerFailed) {
+                try (Connection con = Db.db.getConnection();
+                     PreparedStatement pstmt = con.prepareStatement("UPDATE ledger_writer SET ledger_height = ?")) {
+                    pstmt.setInt(1, height);
+                    pstmt.executeUpdate();
+                }
+            }
+            Db.db.commitTransaction();
+        } catch (Exception e) {
+            Db.db.rollbackTransaction();
+            writerFailed = true;
+            Logger.logErrorMessage("Unable to save the account ledger entries of height " + height, e);
+            return;
+        } finally {
+            Db.db.endTransaction();
+        }
+        ledgerEntries.forEach(ledgerEntry -> listeners.notify(ledgerEntry, Event.ADD_ENTRY));
+    }
+
+    /**
+     * Wait until the background writer has saved the committed entries
+     */
+    private static void awaitWriter() {
+        if (ledgerWriter == null) {
+            return;
+        }
+        try {
+            ledgerWriter.submit(() -> {}).get();
+        } catch (RejectedExecutionException e) {
+            // shutting down
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getMessage(), e);
         }
-        pendingEntries.clear();
     }
 
     /**
@@ -267,6 +482,7 @@ public class AccountLedger {
      */
     public static void clearEntries() {
         pendingEntries.clear();
+        pendingBalances.clear();
     }
 
     /**
@@ -855,38 +1071,27 @@ public class AccountLedger {
         }
 
         /**
-         * Save the ledger entry
+         * Set the values of the ledger entry in an insert statement
          *
-         * @param   con                     Database connection
+         * @param   stmt                    Insert statement
          * @throws  SQLException            Database error occurred
          */
-        private void save(Connection con) throws SQLException {
-            try (PreparedStatement stmt = con.prepareStatement("INSERT INTO account_ledger "
-                    + "(account_id, event_type, event_id, holding_type, holding_id, change, balance, "
-                    + "block_id, height, timestamp) "
-                    + "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS)) {
-                int i=0;
-                stmt.setLong(++i, accountId);
-                stmt.setByte(++i, (byte) event.getCode());
-                stmt.setLong(++i, eventId);
-                if (holding != null) {
-                    stmt.setByte(++i, (byte)holding.getCode());
-                } else {
-                    stmt.setByte(++i, (byte)-1);
-                }
-                DbUtils.setLong(stmt, ++i, holdingId);
-                stmt.setLong(++i, change);
-                stmt.setLong(++i, balance);
-                stmt.setLong(++i, blockId);
-                stmt.setInt(++i, height);
-                stmt.setInt(++i, timestamp);
-                stmt.executeUpdate();
-                try (ResultSet rs = stmt.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        ledgerId = rs.getLong(1);
-                    }
-                }
+        private void save(PreparedStatement stmt) throws SQLException {
+            int i=0;
+            stmt.setLong(++i, accountId);
+            stmt.setByte(++i, (byte) event.getCode());
+            stmt.setLong(++i, eventId);
+            if (holding != null) {
+                stmt.setByte(++i, (byte)holding.getCode());
+            } else {
+                stmt.setByte(++i, (byte)-1);
             }
+            DbUtils.setLong(stmt, ++i, holdingId);
+            stmt.setLong(++i, change);
+            stmt.setLong(++i, balance);
+            stmt.setLong(++i, blockId);
+            stmt.setInt(++i, height);
+            stmt.setInt(++i, timestamp);
         }
     }
 }
@@ -0,0 +1,229 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.account;
+
+import org.conch.Conch;
+import org.conch.chain.Block;
+import org.conch.chain.BlockchainProcessor;
+import org.conch.db.Db;
+import org.conch.db.TransactionalDb;
+import org.conch.util.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ranking of the accounts by forged balance.
+ * <p>
+ * The forged balances of the latest account rows are kept in memory and updated with the account
+ * rows of each applied block.  The ranking itself is sorted again on the first read after a block,
+ * a rank is then a binary search and the top accounts are the head of the ranking.  The balances
+ * are dropped when a block is popped off, a scan starts or the database transaction is rolled
+ * back, they are loaded again from the account table on the next read.  Balances which are not
+ * loaded when a block is applied are dropped again when its transaction is committed, since a read
+ * in between loads them without the block.
+ */
+public final class AccountRanking {
+
+    /**
+     * Accounts sorted by decreasing forged balance
+     */
+    public static final class Ranking {
+
+        private final long[] accountIds;
+        private final long[] forgedBalances;
+
+        private Ranking(long[] accountIds, long[] forgedBalances) {
+            this.accountIds = accountIds;
+            this.forgedBalances = forgedBalances;
+        }
+
+        public int size() {
+            return accountIds.length;
+        }
+
+        public long getAccountId(int index) {
+            return accountIds[index];
+        }
+
+        public long getForgedBalanceNQT(int index) {
+            return forgedBalances[index];
+        }
+
+        /**
+         * Return the number of accounts with a forged balance greater than or equal to a balance
+         */
+        private int countFrom(long forgedBalanceNQT) {
+            int low = 0;
+            int high = forgedBalances.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (forgedBalances[mid] >= forgedBalanceNQT) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    private static Map<Long, Long> forgedBalances;
+    private static Ranking ranking;
+
+    private static final TransactionalDb.TransactionCallback balancesCallback = new TransactionalDb.TransactionCallback() {
+        @Override
+        public void commit() {
+        }
+
+        @Override
+        public void rollback() {
+            reset();
+        }
+    };
+
+    private static final TransactionalDb.TransactionCallback resetCallback = new TransactionalDb.TransactionCallback() {
+        @Override
+        public void commit() {
+            reset();
+        }
+
+        @Override
+        public void rollback() {
+            reset();
+        }
+    };
+
+    static {
+        Conch.getBlockchainProcessor().addListener(AccountRanking::update, BlockchainProcessor.Event.AFTER_BLOCK_APPLY);
+        Conch.getBlockchainProcessor().addListener(block -> invalidate(), BlockchainProcessor.Event.BLOCK_POPPED);
+        Conch.getBlockchainProcessor().addListener(block -> invalidate(), BlockchainProcessor.Event.RESCAN_BEGIN);
+    }
+
+    public static void init() {}
+
+    private AccountRanking() {}
+
+    /**
+     * Return the accounts sorted by decreasing forged balance
+     */
+    public static synchronized Ranking getRanking() {
+        if (ranking == null) {
+            Map<Long, Long> balances = getForgedBalances();
+            List<Map.Entry<Long, Long>> entries = new ArrayList<>(balances.entrySet());
+            entries.sort((e1, e2) -> Long.compare(e2.getValue(), e1.getValue()));
+            long[] accountIds = new long[entries.size()];
+            long[] sortedBalances = new long[entries.size()];
+            for (int i = 0; i < entries.size(); i++) {
+                accountIds[i] = entries.get(i).getKey();
+                sortedBalances[i] = entries.get(i).getValue();
+            }
+            ranking = new Ranking(accountIds, sortedBalances);
+        }
+        return ranking;
+    }
+
+    /**
+     * Return the number of accounts with a forged balance greater than or equal to the forged
+     * balance of an account
+     *
+     * @param accountId Account id
+     * @return Rank or 0 if the account doesn't exist
+     */
+    public static synchronized long getRank(long accountId) {
+        Long forgedBalance = getForgedBalances().get(accountId);
+        if (forgedBalance == null) {
+            return 0;
+        }
+        return getRanking().countFrom(forgedBalance);
+    }
+
+    private static synchronized void reset() {
+        forgedBalances = null;
+        ranking = null;
+    }
+
+    /**
+     * Drop the balances now and again when the database transaction ends, the balances loaded by a
+     * read before the end are those of the last committed transaction
+     */
+    private static synchronized void invalidate() {
+        reset();
+        if (Db.db.isInTransaction()) {
+            Db.db.registerCallback(resetCallback);
+        }
+    }
+
+    private static synchronized void update(Block block) {
+        if (forgedBalances == null) {
+            invalidate();
+            return;
+        }
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT id, forged_balance, latest FROM account WHERE height = ?")) {
+            pstmt.setInt(1, block.getHeight());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    if (rs.getBoolean("latest")) {
+                        forgedBalances.put(rs.getLong("id"), rs.getLong("forged_balance"));
+                    } else {
+                        // deleted at this height
+                        forgedBalances.remove(rs.getLong("id"));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        ranking = null;
+        if (Db.db.isInTransaction()) {
+            Db.db.registerCallback(balancesCallback);
+        }
+    }
+
+    private static Map<Long, Long> getForgedBalances() {
+        if (forgedBalances == null) {
+            Map<Long, Long> balances = new HashMap<>();
+            try (Connection con = Db.db.getConnection();
+                 PreparedStatement pstmt = con.prepareStatement("SELECT id, forged_balance FROM account WHERE latest = TRUE")) {
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        balances.put(rs.getLong("id"), rs.getLong("forged_balance"));
+                    }
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e.toString(), e);
+            }
+            Logger.logDebugMessage("Loaded the forged balances of " + balances.size() + " accounts");
+            forgedBalances = balances;
+            ranking = null;
+        }
+        return forgedBalances;
+    }
+
+}
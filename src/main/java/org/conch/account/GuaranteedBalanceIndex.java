@@ -0,0 +1,330 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.account;
+
+import org.conch.Conch;
+import org.conch.common.Constants;
+import org.conch.db.Db;
+import org.conch.db.TransactionalDb;
+import org.conch.util.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory copy of the recent rows of the account_guaranteed_balance table.
+ * <p>
+ * The additions of an account are kept in a ring ordered by height, with the running sum of the
+ * additions at each height.  The additions of a height window are the difference of two running
+ * sums: the upper bound is the last height for the current height queries, the lower bound is a
+ * binary search in the retained heights.  The index keeps the heights of the last
+ * {@link Constants#MAX_ROLLBACK} blocks plus the guaranteed balance confirmations, all the rows at
+ * or above the index floor are in the index.  A window starting below the floor is read from the
+ * table.
+ * <p>
+ * The index is updated with the table: the additions are appended with the rows, a rollback drops
+ * the last heights and a trim the first ones.  It is dropped when the database transaction is
+ * rolled back and loaded again from the table on the next read.
+ */
+public final class GuaranteedBalanceIndex {
+
+    private static final int RETAINED_HEIGHTS = Constants.MAX_ROLLBACK + Constants.GUARANTEED_BALANCE_CONFIRMATIONS;
+
+    /**
+     * Additions of an account
+     */
+    private static final class Additions {
+
+        private int[] heights = new int[4];
+        private long[] sums = new long[4];
+        private int head;
+        private int size;
+        // running sum before the first retained height
+        private long base;
+
+        private synchronized boolean add(int height, long amount) {
+            if (size > 0) {
+                int last = index(size - 1);
+                if (heights[last] == height) {
+                    sums[last] += amount;
+                    return true;
+                }
+                if (heights[last] > height) {
+                    return false;
+                }
+            }
+            if (size == heights.length) {
+                grow();
+            }
+            long sum = size == 0 ? base : sums[index(size - 1)];
+            int next = index(size);
+            heights[next] = height;
+            sums[next] = sum + amount;
+            size++;
+            return true;
+        }
+
+        private synchronized long getAdditions(int fromHeight, int toHeight) {
+            return getSum(toHeight) - getSum(fromHeight);
+        }
+
+        private synchronized void rollback(int height) {
+            while (size > 0 && heights[index(size - 1)] > height) {
+                size--;
+            }
+        }
+
+        private synchronized void trim(int height) {
+            while (size > 0 && heights[head] < height) {
+                base = sums[head];
+                head = index(1);
+                size--;
+            }
+        }
+
+        private synchronized boolean isEmpty() {
+            return size == 0;
+        }
+
+        private long getSum(int height) {
+            if (size == 0 || heights[head] > height) {
+                return base;
+            }
+            int last = index(size - 1);
+            if (heights[last] <= height) {
+                return sums[last];
+            }
+            int low = 0;
+            int high = size - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (heights[index(mid)] <= height) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return sums[index(low)];
+        }
+
+        private int index(int position) {
+            return (head + position) & (heights.length - 1);
+        }
+
+        private void grow() {
+            int[] newHeights = new int[heights.length * 2];
+            long[] newSums = new long[heights.length * 2];
+            for (int i = 0; i < size; i++) {
+                newHeights[i] = heights[index(i)];
+                newSums[i] = sums[index(i)];
+            }
+            heights = newHeights;
+            sums = newSums;
+            head = 0;
+        }
+    }
+
+    private static final class Index {
+
+        private final ConcurrentMap<Long, Additions> accounts = new ConcurrentHashMap<>();
+        // all the rows at or above this height are in the index
+        private volatile int floor;
+
+        private Index(int floor) {
+            this.floor = floor;
+        }
+
+        private void raiseFloor(int height) {
+            if (height > floor) {
+                floor = height;
+            }
+        }
+    }
+
+    private static volatile Index index;
+
+    private static final TransactionalDb.TransactionCallback indexCallback = new TransactionalDb.TransactionCallback() {
+        @Override
+        public void commit() {
+        }
+
+        @Override
+        public void rollback() {
+            index = null;
+        }
+    };
+
+    private GuaranteedBalanceIndex() {}
+
+    /**
+     * Return the additions of an account in a height window
+     *
+     * @param accountId Account id
+     * @param fromHeight Window start, excluded
+     * @param toHeight Window end, included
+     * @return Sum of the additions or null if the window is not in the index
+     */
+    static Long getAdditions(long accountId, int fromHeight, int toHeight) {
+        Index current = getIndex();
+        if (fromHeight + 1 < current.floor) {
+            return null;
+        }
+        Additions additions = current.accounts.get(accountId);
+        return additions == null ? 0 : additions.getAdditions(fromHeight, toHeight);
+    }
+
+    /**
+     * Add the additions saved at a height
+     */
+    static void add(long accountId, int height, long amount) {
+        Index current = index;
+        if (current == null) {
+            return;
+        }
+        Additions additions = current.accounts.computeIfAbsent(accountId, id -> new Additions());
+        if (!additions.add(height, amount)) {
+            // the table is ahead of the index, it is loaded again
+            index = null;
+            return;
+        }
+        int floor = height - RETAINED_HEIGHTS;
+        if (floor > 0) {
+            additions.trim(floor);
+            current.raiseFloor(floor);
+        }
+        registerIndexCallback();
+    }
+
+    /**
+     * Load the additions of an account again after its rows were rewritten
+     */
+    static void reload(Connection con, long accountId) {
+        Index current = index;
+        if (current == null) {
+            return;
+        }
+        Additions additions = new Additions();
+        try (PreparedStatement pstmt = con.prepareStatement("SELECT height, additions FROM account_guaranteed_balance "
+                + "WHERE account_id = ? AND height >= ? ORDER BY height")) {
+            pstmt.setLong(1, accountId);
+            pstmt.setInt(2, current.floor);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    additions.add(rs.getInt("height"), rs.getLong("additions"));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        if (additions.isEmpty()) {
+            current.accounts.remove(accountId);
+        } else {
+            current.accounts.put(accountId, additions);
+        }
+        registerIndexCallback();
+    }
+
+    /**
+     * Drop the additions above a height
+     */
+    static void rollback(int height) {
+        Index current = index;
+        if (current == null) {
+            return;
+        }
+        current.accounts.values().removeIf(additions -> {
+            additions.rollback(height);
+            return additions.isEmpty();
+        });
+        registerIndexCallback();
+    }
+
+    /**
+     * Drop the additions below a height
+     */
+    static void trim(int height) {
+        Index current = index;
+        if (current == null) {
+            return;
+        }
+        current.raiseFloor(height);
+        current.accounts.values().removeIf(additions -> {
+            additions.trim(height);
+            return additions.isEmpty();
+        });
+    }
+
+    /**
+     * Drop the in-memory index, it is loaded again from the table on the next read
+     */
+    public static void reset() {
+        index = null;
+    }
+
+    private static void registerIndexCallback() {
+        if (Db.db.isInTransaction()) {
+            Db.db.registerCallback(indexCallback);
+        }
+    }
+
+    private static Index getIndex() {
+        Index current = index;
+        if (current == null) {
+            synchronized (GuaranteedBalanceIndex.class) {
+                current = index;
+                if (current == null) {
+                    current = loadIndex();
+                    index = current;
+                    registerIndexCallback();
+                }
+            }
+        }
+        return current;
+    }
+
+    private static Index loadIndex() {
+        Index current = new Index(Math.max(0, Conch.getBlockchain().getHeight() - RETAINED_HEIGHTS));
+        int count = 0;
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT account_id, height, additions FROM account_guaranteed_balance "
+                     + "WHERE height >= ? ORDER BY account_id, height")) {
+            pstmt.setInt(1, current.floor);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    current.accounts.computeIfAbsent(rs.getLong("account_id"), id -> new Additions())
+                            .add(rs.getInt("height"), rs.getLong("additions"));
+                    count++;
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        Logger.logDebugMessage("Loaded " + count + " guaranteed balance additions of " + current.accounts.size()
+                + " accounts from height " + current.floor);
+        return current;
+    }
+
+}
@@ -0,0 +1,299 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.chain;
+
+import org.conch.Conch;
+import org.conch.tx.TransactionImpl;
+import org.conch.util.JSON;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Rolling cache of the most recent blocks and their transactions.
+ * <p>
+ * The pushed blocks are added at the top of the cache and the lowest blocks are evicted when the
+ * cache holds more than {@code sharder.blockCacheSize} blocks or its estimated size exceeds
+ * {@code sharder.blockCacheMB}.  The JSON and binary peer forms of a cached block are created once
+ * and kept with the block, so the blocks served to several peers are serialized only once.
+ * <p>
+ * The reads don't take a lock.  The updates are done by the block processing thread while holding
+ * the blockchain write lock.
+ */
+public final class BlockCache {
+
+    /**
+     * Estimated memory used by a block or a transaction in addition to its serialized size
+     */
+    private static final int OBJECT_OVERHEAD = 512;
+
+    private static final int cacheSize = Math.max(10, Conch.getIntProperty("sharder.blockCacheSize", 720));
+    private static final long cacheMemory = Math.max(1, Conch.getIntProperty("sharder.blockCacheMB", 64)) * 1024L * 1024L;
+
+    private static final class Entry {
+
+        private final BlockImpl block;
+        private final AtomicLong size = new AtomicLong();
+        private volatile JSONStreamAware json;
+        private volatile byte[] bytes;
+
+        private Entry(BlockImpl block) {
+            this.block = block;
+            long blockSize = OBJECT_OVERHEAD + block.bytes().length;
+            for (TransactionImpl transaction : block.getTransactions()) {
+                blockSize += OBJECT_OVERHEAD + transaction.getFullSize();
+            }
+            size.set(blockSize);
+        }
+    }
+
+    private static final Map<Long, Entry> blocks = new ConcurrentHashMap<>();
+    private static final ConcurrentNavigableMap<Integer, Entry> heights = new ConcurrentSkipListMap<>();
+    private static final Map<Long, TransactionImpl> transactions = new ConcurrentHashMap<>();
+    private static final AtomicLong memorySize = new AtomicLong();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+    private static final Object lock = new Object();
+
+    private BlockCache() {}
+
+    /**
+     * Add a pushed block.  The blocks at the same or a greater height are removed.
+     *
+     * @param block Block at the top of the blockchain
+     */
+    static void add(BlockImpl block) {
+        synchronized (lock) {
+            int height = block.getHeight();
+            removeFrom(height);
+            Entry entry = new Entry(block);
+            block.getTransactions().forEach(transaction -> transactions.put(transaction.getId(), transaction));
+            blocks.put(block.getId(), entry);
+            heights.put(height, entry);
+            memorySize.addAndGet(entry.size.get());
+            while (heights.size() > 1 && (heights.size() > cacheSize || memorySize.get() > cacheMemory)) {
+                remove(heights.pollFirstEntry().getValue());
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Remove the blocks above a height, the blocks were popped off
+     *
+     * @param height Height of the new last block
+     */
+    static void removeAfter(int height) {
+        synchronized (lock) {
+            removeFrom(height + 1);
+            Entry entry = heights.get(height);
+            if (entry != null) {
+                entry.block.setNextBlockId(0);
+            }
+        }
+    }
+
+    static void clear() {
+        synchronized (lock) {
+            heights.clear();
+            blocks.clear();
+            transactions.clear();
+            memorySize.set(0);
+        }
+    }
+
+    private static void removeFrom(int height) {
+        Iterator<Entry> it = heights.tailMap(height).values().iterator();
+        while (it.hasNext()) {
+            remove(it.next());
+            it.remove();
+        }
+    }
+
+    private static void remove(Entry entry) {
+        entry.block.getTransactions().forEach(transaction -> transactions.remove(transaction.getId()));
+        blocks.remove(entry.block.getId());
+        memorySize.addAndGet(-entry.size.get());
+    }
+
+    /**
+     * Return a cached block
+     *
+     * @param blockId Block identifier
+     * @return Block or null if the block is not cached
+     */
+    public static BlockImpl getBlock(long blockId) {
+        Entry entry = blocks.get(blockId);
+        return count(entry != null ? entry.block : null);
+    }
+
+    /**
+     * Return a cached block
+     *
+     * @param height Block height
+     * @return Block or null if the block is not cached
+     */
+    public static BlockImpl getBlockAtHeight(int height) {
+        Entry entry = heights.get(height);
+        return count(entry != null ? entry.block : null);
+    }
+
+    /**
+     * Return a transaction of a cached block
+     *
+     * @param transactionId Transaction identifier
+     * @return Transaction or null if the transaction is not cached
+     */
+    public static TransactionImpl getTransaction(long transactionId) {
+        return count(transactions.get(transactionId));
+    }
+
+    /**
+     * Remove a transaction which is returned to the unconfirmed pool
+     *
+     * @param transactionId Transaction identifier
+     */
+    public static void removeTransaction(long transactionId) {
+        transactions.remove(transactionId);
+    }
+
+    /**
+     * Return the cached blocks following a block
+     *
+     * @param blockId Block identifier
+     * @param limit Maximum number of blocks
+     * @return Blocks in height order or null if the block is not cached
+     */
+    public static List<BlockImpl> getBlocksAfter(long blockId, int limit) {
+        Entry entry = blocks.get(blockId);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        int height = entry.block.getHeight();
+        List<BlockImpl> result = new ArrayList<>(Math.min(limit, cacheSize));
+        for (Entry cacheEntry : heights.tailMap(height + 1).values()) {
+            if (result.size() >= limit) {
+                break;
+            }
+            if (cacheEntry.block.getHeight() != ++height) {
+                // the cache was changed by a concurrent pop off
+                misses.increment();
+                return null;
+            }
+            result.add(cacheEntry.block);
+        }
+        hits.increment();
+        return result;
+    }
+
+    /**
+     * Return the JSON form of a block, the form is kept with a cached block
+     *
+     * @param block Block
+     * @return Prepared JSON
+     */
+    public static JSONStreamAware getJSON(Block block) {
+        Entry entry = getEntry(block);
+        if (entry == null) {
+            return JSON.prepare(block.getJSONObject());
+        }
+        JSONStreamAware json = entry.json;
+        if (json == null) {
+            char[] jsonChars = JSON.toJSONString(block.getJSONObject()).toCharArray();
+            json = out -> out.write(jsonChars);
+            entry.json = json;
+            addSize(entry, 2L * jsonChars.length);
+        }
+        return json;
+    }
+
+    /**
+     * Return the binary form of a block, the form is kept with a cached block
+     *
+     * @param block Block
+     * @param encoder Creates the binary form
+     * @return Binary form
+     */
+    public static byte[] getBytes(Block block, Function<Block, byte[]> encoder) {
+        Entry entry = getEntry(block);
+        if (entry == null) {
+            return encoder.apply(block);
+        }
+        byte[] bytes = entry.bytes;
+        if (bytes == null) {
+            bytes = encoder.apply(block);
+            entry.bytes = bytes;
+            addSize(entry, bytes.length);
+        }
+        return bytes;
+    }
+
+    private static Entry getEntry(Block block) {
+        Entry entry = blocks.get(block.getId());
+        return entry != null && entry.block == block ? entry : null;
+    }
+
+    private static void addSize(Entry entry, long size) {
+        entry.size.addAndGet(size);
+        memorySize.addAndGet(size);
+    }
+
+    private static <T> T count(T t) {
+        if (t != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return t;
+    }
+
+    /**
+     * Return the size and the hit and miss counts of the block cache
+     *
+     * @return Statistics
+     */
+    public static JSONObject getStats() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        JSONObject json = new JSONObject();
+        json.put("blocks", heights.size());
+        json.put("transactions", transactions.size());
+        json.put("memoryKB", memorySize.get() / 1024);
+        json.put("hits", hitCount);
+        json.put("misses", missCount);
+        json.put("hitRate", hitCount + missCount > 0 ? (double) hitCount / (hitCount + missCount) : 1.0);
+        json.put("evictions", evictions.sum());
+        return json;
+    }
+}
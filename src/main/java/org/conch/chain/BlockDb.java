@@ -22,60 +22,69 @@
 package org.conch.chain;
 
 import org.conch.Conch;
+import org.conch.common.ConchException;
 import org.conch.db.Db;
 import org.conch.db.DbUtils;
+import org.conch.storage.BlockStore;
 import org.conch.tx.TransactionDb;
 import org.conch.tx.TransactionImpl;
 import org.conch.util.Logger;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.sql.*;
 import java.util.*;
 
 public final class BlockDb {
 
-    /** Block cache */
-    static final int BLOCK_CACHE_SIZE = 10;
-    public static final Map<Long, BlockImpl> blockCache = new HashMap<>();
-    public static final SortedMap<Integer, BlockImpl> heightMap = new TreeMap<>();
-    public static final Map<Long, TransactionImpl> transactionCache = new HashMap<>();
     static final Blockchain blockchain = Conch.getBlockchain();
     static {
-        Conch.getBlockchainProcessor().addListener((block) -> {
-            synchronized (blockCache) {
-                int height = block.getHeight();
-                Iterator<BlockImpl> it = blockCache.values().iterator();
-                while (it.hasNext()) {
-                    Block cacheBlock = it.next();
-                    int cacheHeight = cacheBlock.getHeight();
-                    if (cacheHeight <= height - BLOCK_CACHE_SIZE || cacheHeight >= height) {
-                        cacheBlock.getTransactions().forEach((tx) -> transactionCache.remove(tx.getId()));
-                        heightMap.remove(cacheHeight);
-                        it.remove();
+        Conch.getBlockchainProcessor().addListener((block) -> BlockCache.add((BlockImpl) block),
+                BlockchainProcessor.Event.BLOCK_PUSHED);
+    }
+
+    /**
+     * Set the end of the block store after the record of the last stored block, called before a
+     * block is pushed since the start.  The database is not upgraded yet when this class is loaded.
+     */
+    static void recoverBlockStore() {
+        if (!BlockStore.isEnabled()) {
+            return;
+        }
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT id, store_offset FROM block "
+                     + "WHERE store_offset IS NOT NULL ORDER BY height DESC LIMIT 1")) {
+            long end = 0;
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    long storeOffset = rs.getLong("store_offset");
+                    end = BlockStore.getRecordEnd(storeOffset, rs.getLong("id"));
+                    if (end < 0) {
+                        // the last record is incomplete, these blocks are loaded from the database
+                        Logger.logWarningMessage("Block store record at " + storeOffset + " is not readable, truncating the block store");
+                        try (PreparedStatement pstmtUpdate = con.prepareStatement("UPDATE block SET store_offset = NULL WHERE store_offset >= ?")) {
+                            pstmtUpdate.setLong(1, storeOffset);
+                            pstmtUpdate.executeUpdate();
+                        }
+                        end = storeOffset;
                     }
                 }
-                block.getTransactions().forEach((tx) -> transactionCache.put(tx.getId(), (TransactionImpl)tx));
-                heightMap.put(height, (BlockImpl)block);
-                blockCache.put(block.getId(), (BlockImpl)block);
             }
-        }, BlockchainProcessor.Event.BLOCK_PUSHED);
+            BlockStore.recover(end);
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
     }
 
     private static void clearBlockCache() {
-        synchronized (blockCache) {
-            blockCache.clear();
-            heightMap.clear();
-            transactionCache.clear();
-        }
+        BlockCache.clear();
     }
 
     public static BlockImpl findBlock(long blockId) {
         // Check the block cache
-        synchronized (blockCache) {
-            BlockImpl block = blockCache.get(blockId);
-            if (block != null) {
-                return block;
-            }
+        BlockImpl cachedBlock = BlockCache.getBlock(blockId);
+        if (cachedBlock != null) {
+            return cachedBlock;
         }
         // Search the database
         try (Connection con = Db.db.getConnection();
@@ -99,11 +108,9 @@ public final class BlockDb {
 
     public static boolean hasBlock(long blockId, int height) {
         // Check the block cache
-        synchronized(blockCache) {
-            BlockImpl block = blockCache.get(blockId);
-            if (block != null) {
-                return block.getHeight() <= height;
-            }
+        BlockImpl cachedBlock = BlockCache.getBlock(blockId);
+        if (cachedBlock != null) {
+            return cachedBlock.getHeight() <= height;
         }
         // Search the database
         try (Connection con = Db.db.getConnection();
@@ -119,11 +126,9 @@ public final class BlockDb {
 
     public static long findBlockIdAtHeight(int height) {
         // Check the cache
-        synchronized(blockCache) {
-            BlockImpl block = heightMap.get(height);
-            if (block != null) {
-                return block.getId();
-            }
+        BlockImpl cachedBlock = BlockCache.getBlockAtHeight(height);
+        if (cachedBlock != null) {
+            return cachedBlock.getId();
         }
         // Search the database
         try (Connection con = Db.db.getConnection();
@@ -142,11 +147,9 @@ public final class BlockDb {
 
     public static BlockImpl findBlockAtHeight(int height) {
         // Check the cache
-        synchronized(blockCache) {
-            BlockImpl block = heightMap.get(height);
-            if (block != null) {
-                return block;
-            }
+        BlockImpl cachedBlock = BlockCache.getBlockAtHeight(height);
+        if (cachedBlock != null) {
+            return cachedBlock;
         }
         // Search the database
         try (Connection con = Db.db.getConnection();
@@ -239,20 +242,75 @@ public final class BlockDb {
             byte[] payloadHash = rs.getBytes("payload_hash");
             byte[] ext = rs.getBytes("ext");
             long id = rs.getLong("id");
-            return new BlockImpl(version, timestamp, previousBlockId, totalAmountNQT, totalFeeNQT, payloadLength, payloadHash,
+            byte[] storedBytes = null;
+            List<TransactionImpl> transactions = null;
+            if (loadTransactions) {
+                ByteBuffer record = null;
+                if (BlockStore.isEnabled()) {
+                    long storeOffset = rs.getLong("store_offset");
+                    if (!rs.wasNull()) {
+                        record = BlockStore.read(storeOffset, id);
+                    }
+                }
+                if (record != null) {
+                    try {
+                        storedBytes = new byte[record.getInt()];
+                        record.get(storedBytes);
+                        int count = record.getInt();
+                        transactions = new ArrayList<>(count);
+                        for (short index = 0; index < count; index++) {
+                            transactions.add(TransactionDb.loadStoredTransaction(record, id, height, timestamp, index));
+                        }
+                    } catch (ConchException.NotValidException | RuntimeException e) {
+                        Logger.logWarningMessage("Block " + Long.toUnsignedString(id) + " record of the block store is not valid, "
+                                + "loading the block from the database", e);
+                        storedBytes = null;
+                        transactions = null;
+                    }
+                }
+                if (transactions == null) {
+                    transactions = TransactionDb.findBlockTransactions(con, id);
+                }
+            }
+            BlockImpl block = new BlockImpl(version, timestamp, previousBlockId, totalAmountNQT, totalFeeNQT, payloadLength, payloadHash,
                     generatorId, generationSignature, blockSignature, previousBlockHash,
-                    cumulativeDifficulty, baseTarget, nextBlockId, height, id, ext, loadTransactions ? TransactionDb.findBlockTransactions(con, id) : null);
+                    cumulativeDifficulty, baseTarget, nextBlockId, height, id, ext, transactions);
+            if (storedBytes != null) {
+                block.setBytes(storedBytes);
+            }
+            return block;
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }
     }
 
+    /**
+     * Return the block store record of a block: block bytes and the transactions
+     */
+    private static byte[] getStoreRecord(BlockImpl block) {
+        byte[] blockBytes = block.bytes();
+        List<TransactionImpl> transactions = block.getTransactions();
+        int size = 4 + blockBytes.length + 4;
+        for (TransactionImpl transaction : transactions) {
+            size += TransactionDb.getStoredSize(transaction);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(blockBytes.length);
+        buffer.put(blockBytes);
+        buffer.putInt(transactions.size());
+        for (TransactionImpl transaction : transactions) {
+            TransactionDb.putStoredTransaction(buffer, transaction);
+        }
+        return buffer.array();
+    }
+
     public static void saveBlock(Connection con, BlockImpl block) {
         try {
+            long storeOffset = BlockStore.isEnabled() ? BlockStore.append(block.getId(), block.getHeight(), getStoreRecord(block)) : -1;
             try (PreparedStatement pstmt = con.prepareStatement("INSERT INTO block (id, version, timestamp, previous_block_id, "
                     + "total_amount, total_fee, payload_length, previous_block_hash, cumulative_difficulty, "
-                    + "base_target, height, generation_signature, block_signature, payload_hash, generator_id, ext) "
-                    + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+                    + "base_target, height, generation_signature, block_signature, payload_hash, generator_id, ext, store_offset) "
+                    + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
                 int i = 0;
                 pstmt.setLong(++i, block.getId());
                 pstmt.setInt(++i, block.getVersion());
@@ -270,6 +328,11 @@ public final class BlockDb {
                 pstmt.setBytes(++i, block.getPayloadHash());
                 pstmt.setLong(++i, block.getGeneratorId());
                 pstmt.setBytes(++i, block.getExtension());
+                if (storeOffset >= 0) {
+                    pstmt.setLong(++i, storeOffset);
+                } else {
+                    pstmt.setNull(++i, Types.BIGINT);
+                }
                 pstmt.executeUpdate();
                 TransactionDb.saveTransactions(con, block.getTransactions());
             }
@@ -279,10 +342,7 @@ public final class BlockDb {
                     pstmt.setLong(2, block.getPreviousBlockId());
                     pstmt.executeUpdate();
                 }
-                BlockImpl previousBlock;
-                synchronized (blockCache) {
-                    previousBlock = blockCache.get(block.getPreviousBlockId());
-                }
+                BlockImpl previousBlock = BlockCache.getBlock(block.getPreviousBlockId());
                 if (previousBlock != null) {
                     previousBlock.setNextBlockId(block.getId());
                 }
@@ -326,8 +386,10 @@ public final class BlockDb {
             }
             return lastBlock;
         }
+        BlockImpl lastBlock = null;
+        long storeOffset = -1;
         try (Connection con = Db.db.getConnection();
-             PreparedStatement pstmtSelect = con.prepareStatement("SELECT db_id FROM block WHERE timestamp >= "
+             PreparedStatement pstmtSelect = con.prepareStatement("SELECT db_id, store_offset FROM block WHERE timestamp >= "
                      + "IFNULL ((SELECT timestamp FROM block WHERE id = ?), " + Integer.MAX_VALUE + ") ORDER BY timestamp DESC");
              PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM block WHERE db_id = ?")) {
             try {
@@ -335,18 +397,25 @@ public final class BlockDb {
                 try (ResultSet rs = pstmtSelect.executeQuery()) {
                     Db.db.commitTransaction();
                     while (rs.next()) {
+                        long offset = rs.getLong("store_offset");
+                        if (!rs.wasNull() && (storeOffset < 0 || offset < storeOffset)) {
+                            storeOffset = offset;
+                        }
         	            pstmtDelete.setLong(1, rs.getLong("db_id"));
             	        pstmtDelete.executeUpdate();
                         Db.db.commitTransaction();
                     }
 	            }
-                BlockImpl lastBlock = findLastBlock();
+                lastBlock = findLastBlock();
                 lastBlock.setNextBlockId(0);
                 try (PreparedStatement pstmt = con.prepareStatement("UPDATE block SET next_block_id = NULL WHERE id = ?")) {
                     pstmt.setLong(1, lastBlock.getId());
                     pstmt.executeUpdate();
                 }
                 Db.db.commitTransaction();
+                if (storeOffset >= 0 && BlockStore.isEnabled()) {
+                    BlockStore.truncate(storeOffset);
+                }
                 return lastBlock;
             } catch (SQLException e) {
                 Db.db.rollbackTransaction();
@@ -355,7 +424,11 @@ public final class BlockDb {
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         } finally {
-            clearBlockCache();
+            if (lastBlock != null) {
+                BlockCache.removeAfter(lastBlock.getHeight());
+            } else {
+                clearBlockCache();
+            }
         }
     }
 
@@ -397,6 +470,9 @@ public final class BlockDb {
                 });
                 stmt.executeUpdate("SET REFERENTIAL_INTEGRITY TRUE");
                 Db.db.commitTransaction();
+                if (BlockStore.isEnabled()) {
+                    BlockStore.truncate(0);
+                }
             } catch (SQLException e) {
                 Db.db.rollbackTransaction();
                 throw e;
@@ -30,6 +30,7 @@ import org.conch.common.Constants;
 import org.conch.consensus.poc.PocScore;
 import org.conch.crypto.Crypto;
 import org.conch.mint.Generator;
+import org.conch.mint.HitMath;
 import org.conch.tx.TransactionDb;
 import org.conch.tx.TransactionImpl;
 import org.conch.tx.TransactionType;
@@ -330,6 +331,25 @@ public final class BlockImpl implements Block {
         this.nextBlockId = nextBlockId;
     }
 
+    /**
+     * Set the bytes read from the block store, the generator public key is read from the bytes
+     * instead of the account
+     */
+    void setBytes(byte[] bytes) {
+        this.bytes = bytes;
+        if (generatorPublicKey == null) {
+            int offset = 4 + 4 + 8 + 4 + (version < 3 ? (4 + 4) : (8 + 8)) + 4 + 32;
+            generatorPublicKey = Arrays.copyOfRange(bytes, offset, offset + 32);
+        }
+    }
+
+    /**
+     * Check if the generator public key is known without reading the account
+     */
+    boolean hasGeneratorPublicKey() {
+        return generatorPublicKey != null;
+    }
+
     @Override
     public int getHeight() {
         return height;
@@ -402,6 +422,18 @@ public final class BlockImpl implements Block {
     }
 
     public static BlockImpl parseBlock(JSONObject blockData) throws ConchException.NotValidException {
+        return parseBlock(blockData, true);
+    }
+
+    /**
+     * Parse the block
+     *
+     * @param blockData block json
+     * @param checkSignatures false if the block and transaction signatures are verified later by the {@link SignatureVerifier}
+     * @return block
+     * @throws ConchException.NotValidException block is not valid
+     */
+    public static BlockImpl parseBlock(JSONObject blockData, boolean checkSignatures) throws ConchException.NotValidException {
         try {
             int version = ((Long) blockData.get("version")).intValue();
             int timestamp = ((Long) blockData.get("timestamp")).intValue();
@@ -416,11 +448,11 @@ public final class BlockImpl implements Block {
             byte[] previousBlockHash = Convert.parseHexString((String) blockData.get("previousBlockHash"));
             List<TransactionImpl> blockTransactions = new ArrayList<>();
             for (Object transactionData : (JSONArray) blockData.get("transactions")) {
-                blockTransactions.add(TransactionImpl.parseTransaction((JSONObject) transactionData));
+                blockTransactions.add(TransactionImpl.parseTransaction((JSONObject) transactionData, checkSignatures));
             }
             BlockImpl block = new BlockImpl(version, timestamp, previousBlock, totalAmountNQT, totalFeeNQT, payloadLength, payloadHash, generatorPublicKey,
                     generationSignature, blockSignature, previousBlockHash, blockTransactions);
-            if (!block.checkSignature()) {
+            if (checkSignatures && !block.checkSignature()) {
                 throw new ConchException.NotValidException("Invalid block signature");
             }
             return block;
@@ -430,6 +462,63 @@ public final class BlockImpl implements Block {
         }
     }
 
+    /**
+     * Parse the block from its {@link #bytes()}
+     *
+     * @param blockBytes block bytes
+     * @param totalAmountNQT exact total amount, the block bytes of the version 1 and 2 blocks only hold the whole coins
+     * @param totalFeeNQT exact total fee
+     * @param blockTransactions block transactions
+     * @param checkSignatures false if the block and transaction signatures are verified later by the {@link SignatureVerifier}
+     * @return block
+     * @throws ConchException.NotValidException block is not valid
+     */
+    public static BlockImpl parseBlock(byte[] blockBytes, long totalAmountNQT, long totalFeeNQT, List<TransactionImpl> blockTransactions,
+                                       boolean checkSignatures) throws ConchException.NotValidException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(blockBytes);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            int version = buffer.getInt();
+            int timestamp = buffer.getInt();
+            long previousBlock = buffer.getLong();
+            int transactionCount = buffer.getInt();
+            if (transactionCount != blockTransactions.size()) {
+                throw new ConchException.NotValidException("Block transaction count " + transactionCount
+                        + " doesn't match the " + blockTransactions.size() + " received transactions");
+            }
+            if (version < 3) {
+                buffer.getInt();
+                buffer.getInt();
+            } else {
+                buffer.getLong();
+                buffer.getLong();
+            }
+            int payloadLength = buffer.getInt();
+            byte[] payloadHash = new byte[32];
+            buffer.get(payloadHash);
+            byte[] generatorPublicKey = new byte[32];
+            buffer.get(generatorPublicKey);
+            byte[] generationSignature = new byte[32];
+            buffer.get(generationSignature);
+            byte[] previousBlockHash = null;
+            if (version > 1) {
+                previousBlockHash = new byte[32];
+                buffer.get(previousBlockHash);
+            }
+            byte[] blockSignature = new byte[64];
+            buffer.get(blockSignature);
+            BlockImpl block = new BlockImpl(version, timestamp, previousBlock, totalAmountNQT, totalFeeNQT, payloadLength, payloadHash, generatorPublicKey,
+                    generationSignature, blockSignature, previousBlockHash, blockTransactions);
+            if (checkSignatures && !block.checkSignature()) {
+                throw new ConchException.NotValidException("Invalid block signature");
+            }
+            return block;
+        } catch (ConchException.NotValidException|RuntimeException e) {
+            Logger.logDebugMessage("Failed to parse block bytes: " + Convert.toHexString(blockBytes));
+            throw e;
+        }
+    }
+
     @Override
     public byte[] getBytes() {
         return Arrays.copyOf(bytes(), bytes.length);
@@ -471,7 +560,12 @@ public final class BlockImpl implements Block {
 
     private volatile boolean hasValidSignature = false;
 
-    private boolean checkSignature() {
+    /**
+     * Verify the block signature without the generator public key check, a valid result is cached
+     *
+     * @return TRUE if the block signature is valid
+     */
+    public boolean checkSignature() {
         if (! hasValidSignature) {
             byte[] data = Arrays.copyOf(bytes(), bytes.length - 64);
             hasValidSignature = blockSignature != null && Crypto.verify(blockSignature, data, getGeneratorPublicKey(), true);
@@ -508,7 +602,7 @@ public final class BlockImpl implements Block {
                 return false;
             }
 
-            BigInteger hit = new BigInteger(1, new byte[]{generationSignatureHash[7], generationSignatureHash[6], generationSignatureHash[5], generationSignatureHash[4], generationSignatureHash[3], generationSignatureHash[2], generationSignatureHash[1], generationSignatureHash[0]});
+            long hit = HitMath.hit(generationSignatureHash);
             boolean validHit = Generator.verifyHit(hit, pocScore, previousBlock, timestamp);
             
             boolean isIgnoreBlock = CheckSumValidator.isKnownIgnoreBlock(this.id, this.getBlockSignature());
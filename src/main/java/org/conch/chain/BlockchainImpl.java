@@ -52,7 +52,7 @@ public final class BlockchainImpl implements Blockchain {
 
     private BlockchainImpl() {}
 
-    private final ReadWriteUpdateLock lock = new ReadWriteUpdateLock();
+    private final ReadWriteUpdateLock lock = new ReadWriteUpdateLock("blockchain");
     private final AtomicReference<BlockImpl> lastBlock = new AtomicReference<>();
 
     @Override
@@ -236,20 +236,13 @@ public final class BlockchainImpl implements Blockchain {
     @Override
     public List<Long> getBlockIdsAfter(long blockId, int limit) {
         // Check the block cache
-        List<Long> result = new ArrayList<>(BlockDb.BLOCK_CACHE_SIZE);
-        synchronized(BlockDb.blockCache) {
-            BlockImpl block = BlockDb.blockCache.get(blockId);
-            if (block != null) {
-                Collection<BlockImpl> cacheMap = BlockDb.heightMap.tailMap(block.getHeight() + 1).values();
-                for (BlockImpl cacheBlock : cacheMap) {
-                    if (result.size() >= limit) {
-                        break;
-                    }
-                    result.add(cacheBlock.getId());
-                }
-                return result;
-            }
+        List<BlockImpl> cachedBlocks = BlockCache.getBlocksAfter(blockId, limit);
+        if (cachedBlocks != null) {
+            List<Long> cachedIds = new ArrayList<>(cachedBlocks.size());
+            cachedBlocks.forEach(cacheBlock -> cachedIds.add(cacheBlock.getId()));
+            return cachedIds;
         }
+        List<Long> result = new ArrayList<>();
         // Search the database
         Connection con = null;
         try {
@@ -278,20 +271,11 @@ public final class BlockchainImpl implements Blockchain {
             return Collections.emptyList();
         }
         // Check the block cache
-        List<BlockImpl> result = new ArrayList<>(BlockDb.BLOCK_CACHE_SIZE);
-        synchronized(BlockDb.blockCache) {
-            BlockImpl block = BlockDb.blockCache.get(blockId);
-            if (block != null) {
-                Collection<BlockImpl> cacheMap = BlockDb.heightMap.tailMap(block.getHeight() + 1).values();
-                for (BlockImpl cacheBlock : cacheMap) {
-                    if (result.size() >= limit) {
-                        break;
-                    }
-                    result.add(cacheBlock);
-                }
-                return result;
-            }
+        List<BlockImpl> cachedBlocks = BlockCache.getBlocksAfter(blockId, limit);
+        if (cachedBlocks != null) {
+            return cachedBlocks;
         }
+        List<BlockImpl> result = new ArrayList<>();
         // Search the database
         Connection con = null;
         try {
@@ -320,20 +304,17 @@ public final class BlockchainImpl implements Blockchain {
             return Collections.emptyList();
         }
         // Check the block cache
-        List<BlockImpl> result = new ArrayList<>(BlockDb.BLOCK_CACHE_SIZE);
-        synchronized(BlockDb.blockCache) {
-            BlockImpl block = BlockDb.blockCache.get(blockId);
-            if (block != null) {
-                Collection<BlockImpl> cacheMap = BlockDb.heightMap.tailMap(block.getHeight() + 1).values();
-                int index = 0;
-                for (BlockImpl cacheBlock : cacheMap) {
-                    if (result.size() >= blockList.size() || cacheBlock.getId() != blockList.get(index++)) {
-                        break;
-                    }
-                    result.add(cacheBlock);
+        List<BlockImpl> result = new ArrayList<>();
+        List<BlockImpl> cachedBlocks = BlockCache.getBlocksAfter(blockId, blockList.size());
+        if (cachedBlocks != null) {
+            int index = 0;
+            for (BlockImpl cacheBlock : cachedBlocks) {
+                if (cacheBlock.getId() != blockList.get(index++)) {
+                    break;
                 }
-                return result;
+                result.add(cacheBlock);
             }
+            return result;
         }
         // Search the database
         Connection con = null;
@@ -710,20 +691,14 @@ public final class BlockchainImpl implements Blockchain {
             readLock();
             
             if (getHeight() >= Constants.PHASING_BLOCK_HEIGHT) {
-                DbIterator<TransactionImpl> phasedTransactions = null;
-                try {
-                    phasedTransactions = PhasingPoll.getFinishingTransactions(getHeight() + 1);
-                    for (TransactionImpl phasedTransaction : phasedTransactions) {
-                        try {
-                            phasedTransaction.validate();
-                            if (!phasedTransaction.attachmentIsDuplicate(duplicates, false) && filter.ok(phasedTransaction)) {
-                                result.add(phasedTransaction);
-                            }
-                        } catch (ConchException.ValidationException ignore) {
+                for (TransactionImpl phasedTransaction : PhasingPoll.getFinishingTransactions(getHeight() + 1)) {
+                    try {
+                        phasedTransaction.validate();
+                        if (!phasedTransaction.attachmentIsDuplicate(duplicates, false) && filter.ok(phasedTransaction)) {
+                            result.add(phasedTransaction);
                         }
+                    } catch (ConchException.ValidationException ignore) {
                     }
-                }finally {
-                    DbUtils.close(phasedTransactions);
                 }
             }
             blockchainProcessor.selectUnconfirmedTransactions(duplicates, getLastBlock(), -1).forEach(
@@ -64,6 +64,8 @@ public interface BlockchainProcessor extends Observable<Block, BlockchainProcess
 
     void processPeerBlock(JSONObject request) throws ConchException;
 
+    void processPeerBlock(BlockImpl block) throws ConchException;
+
     void fullReset();
 
     void scan(int height, boolean validate);
@@ -37,6 +37,7 @@ import org.conch.db.*;
 import org.conch.http.ForceConverge;
 import org.conch.mint.Generator;
 import org.conch.mint.pool.SharderPoolProcessor;
+import org.conch.peer.BinaryMessage;
 import org.conch.peer.Peer;
 import org.conch.peer.Peers;
 import org.conch.storage.StorageBackup;
@@ -83,9 +84,12 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
                             : "sharder.numberOfForkConfirmations");
     private final boolean simulateEndlessDownload =
             Conch.getBooleanProperty("sharder.simulateEndlessDownload");
+    private final int maxDownloadSegmentsAhead = Math.max(1, Conch.getIntProperty("sharder.maxDownloadSegmentsAhead", 5));
 
     private int initialScanHeight;
     private volatile int lastTrimHeight;
+    // the derived tables have no history below an imported state snapshot
+    private volatile int snapshotHeight;
     private volatile int lastRestoreTime = 0;
     private final Set<Long> prunableTransactions = new HashSet<>();
 
@@ -103,6 +107,7 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     private static long lastDownloadMS = System.currentTimeMillis();
     private static final long MAX_DOWNLOAD_TIME = Constants.isDevnet() ? (1*1000L) : (1*60*60*1000L);
+    private static final long SCAN_PROGRESS_INTERVAL = Conch.getIntProperty("sharder.scanProgressInterval", 30) * 1000L;
 
 
     private boolean peerHasMore;
@@ -520,13 +525,16 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     /**
      * Download the block chain
+     * <p>
+     * The download is a bounded pipeline: while a segment is pushed under the write lock, the next
+     * {@link #maxDownloadSegmentsAhead} segments are downloaded, parsed and signature-checked on the
+     * network threads.  The number of segments ahead bounds the number of blocks held in memory.
      *
      * @param feederPeer Peer supplying the blocks list
      * @param commonBlock Common block
      * @throws InterruptedException Download interrupted
      */
     private void downloadBlockchain(final Peer feederPeer, final Block commonBlock, final int startHeight) throws InterruptedException {
-        Map<Long, PeerBlock> blockMap = new HashMap<>();
         //
         // Break the download into multiple segments.  The first block in each segment
         // is the common block for that segment.
@@ -537,89 +545,118 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
         for (int start = 0; start < stop; start += segSize) {
             getList.add(new GetNextBlocks(chainBlockIds, start, Math.min(start + segSize, stop)));
         }
-        int nextPeerIndex = ThreadLocalRandom.current().nextInt(connectedPublicPeers.size());
+        int peerOffset = ThreadLocalRandom.current().nextInt(connectedPublicPeers.size());
         long maxResponseTime = 0;
         Peer slowestPeer = null;
+        DownloadStats stats = new DownloadStats();
+        List<BlockImpl> forkBlocks = new ArrayList<>();
+        int submitted = 0;
         //
-        // Issue the getNextBlocks requests and get the results.  We will repeat
-        // a request if the peer didn't respond or returned a partial block list.
-        // The download will be aborted if we are unable to get a segment after
-        // retrying with different peers.
+        // Issue the getNextBlocks requests and push the results segment by segment.  We will
+        // repeat a request if the peer didn't respond or returned a partial block list.
+        // The download will be stopped if we are unable to get a segment after retrying
+        // with different peers, the blocks pushed before are kept.
         //
         download:
-        while (!getList.isEmpty()) {
+        for (int segment = 0; segment < getList.size(); segment++) {
             //
-            // Submit threads to issue 'getNextBlocks' requests.  The first segment
-            // will always be sent to the feeder peer.  Subsequent segments will
-            // be sent to the feeder peer if we failed trying to download the blocks
-            // from another peer.  We will stop the download and process any pending
-            // blocks if we are unable to download a segment from the feeder peer.
+            // Submit threads to issue 'getNextBlocks' requests for the segments ahead
             //
-            for (GetNextBlocks nextBlocks : getList) {
-                Peer peer;
-                if (nextBlocks.getRequestCount() > 1) {
-                    break download;
-                }
-                if (nextBlocks.getStart() == 0 || nextBlocks.getRequestCount() != 0) {
-                    peer = feederPeer;
-                } else {
-                    if(forceSwitchToBootNodesFork){
-                        peer = Peers.checkOrConnectBootNode();
-                    }else{
-                        if (nextPeerIndex >= connectedPublicPeers.size()) {
-                            nextPeerIndex = 0;
-                        }
-                        peer = connectedPublicPeers.get(nextPeerIndex++);
-                        if(peer.isBlacklisted()) {
-                            break download;
-                        }
-                    }
-                }
-                if (nextBlocks.getPeer() == peer) {
-                    break download;
+            while (submitted < getList.size() && submitted <= segment + maxDownloadSegmentsAhead) {
+                if (!submitNextBlocks(getList.get(submitted), feederPeer, peerOffset + submitted)) {
+                    break;
                 }
-
-                nextBlocks.setPeer(peer);
-                Future<List<BlockImpl>> future = networkService.submit(nextBlocks);
-                nextBlocks.setFuture(future);
+                submitted++;
+            }
+            if (segment >= submitted) {
+                break;
             }
             //
             // Get the results.  A peer is on a different fork if a returned
             // block is not in the block identifier list.
             //
-            Iterator<GetNextBlocks> it = getList.iterator();
-            while (it.hasNext()) {
-                GetNextBlocks nextBlocks = it.next();
+            GetNextBlocks nextBlocks = getList.get(segment);
+            List<PeerBlock> segmentBlocks = new ArrayList<>(segSize);
+            boolean complete = false;
+            while (true) {
                 List<BlockImpl> blockList;
+                long waitStart = System.currentTimeMillis();
                 try {
                     blockList = nextBlocks.getFuture().get();
                 } catch (ExecutionException exc) {
                     throw new RuntimeException(exc.getMessage(), exc);
                 }
-                if (blockList == null) {
-                    nextBlocks.getPeer().deactivate();
-                    continue;
-                }
+                stats.waitTime += System.currentTimeMillis() - waitStart;
+                stats.addSegment(nextBlocks, blockList);
                 Peer peer = nextBlocks.getPeer();
-                int index = nextBlocks.getStart() + 1;
-                for (BlockImpl block : blockList) {
-                    if (block.getId() != chainBlockIds.get(index)) {
-                        break;
-                    }
-                    blockMap.put(block.getId(), new PeerBlock(peer, block));
-                    index++;
+                if (nextBlocks.getResponseTime() > maxResponseTime) {
+                    maxResponseTime = nextBlocks.getResponseTime();
+                    slowestPeer = peer;
                 }
-                if (index > nextBlocks.getStop()) {
-                    it.remove();
+                if (blockList == null) {
+                    peer.deactivate();
                 } else {
+                    int index = nextBlocks.getStart() + 1;
+                    for (BlockImpl block : blockList) {
+                        if (block.getId() != chainBlockIds.get(index)) {
+                            break;
+                        }
+                        segmentBlocks.add(new PeerBlock(peer, block));
+                        index++;
+                    }
+                    if (index > nextBlocks.getStop()) {
+                        complete = true;
+                        break;
+                    }
                     nextBlocks.setStart(index - 1);
                 }
-                if (nextBlocks.getResponseTime() > maxResponseTime) {
-                    maxResponseTime = nextBlocks.getResponseTime();
-                    slowestPeer = nextBlocks.getPeer();
+                if (!submitNextBlocks(nextBlocks, feederPeer, peerOffset + segment)) {
+                    break;
+                }
+            }
+            //
+            // Add the new blocks to the blockchain while the next segments are downloading.
+            // We will stop if we encounter a missing block (this will happen if an invalid
+            // block is encountered when downloading the blocks)
+            //
+            long pushStart = System.currentTimeMillis();
+            blockchain.writeLock();
+            try {
+                for (PeerBlock peerBlock : segmentBlocks) {
+                    if (blockchain.getHeight() - startHeight >= 720) {
+                        break download;
+                    }
+                    BlockImpl block = peerBlock.getBlock();
+                    if (blockchain.getLastBlock().getId() == block.getPreviousBlockId()) {
+                        try {
+                            pushBlock(block);
+                            stats.pushedBlocks++;
+                        } catch (GeneratorNotAcceptedException e) {
+                            Generator.blackGenerator(e.getGeneratorId());
+                        } catch (BlockNotAcceptedException e) {
+                            peerBlock.getPeer().blacklist(e);
+                        }
+                    } else {
+                        forkBlocks.add(block);
+                    }
                 }
+            } finally {
+                blockchain.writeUnlock();
+                stats.pushTime += System.currentTimeMillis() - pushStart;
+            }
+            if (!complete) {
+                break;
+            }
+        }
+        //
+        // Drop the segments which are not needed anymore
+        //
+        for (GetNextBlocks nextBlocks : getList) {
+            if (nextBlocks.getFuture() != null) {
+                nextBlocks.getFuture().cancel(false);
             }
         }
+        Logger.logDebugMessage(stats.toString());
         if (slowestPeer != null
                 && connectedPublicPeers.size() >= Peers.maxNumberOfConnectedPublicPeers
                 && chainBlockIds.size() > 360) {
@@ -627,46 +664,89 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
             slowestPeer.deactivate();
         }
         //
-        // Add the new blocks to the blockchain.  We will stop if we encounter
-        // a missing block (this will happen if an invalid block is encountered
-        // when downloading the blocks)
+        // Process a fork
         //
         blockchain.writeLock();
         try {
-            List<BlockImpl> forkBlocks = new ArrayList<>();
-            for (int index = 1; index < chainBlockIds.size() && blockchain.getHeight() - startHeight < 720; index++) {
-                PeerBlock peerBlock = blockMap.get(chainBlockIds.get(index));
-                if (peerBlock == null) {
-                    break;
-                }
-                BlockImpl block = peerBlock.getBlock();
-                if (blockchain.getLastBlock().getId() == block.getPreviousBlockId()) {
-                    try {
-                        pushBlock(block);
-                    } catch (GeneratorNotAcceptedException e) {
-                        Generator.blackGenerator(e.getGeneratorId());
-                    } catch (BlockNotAcceptedException e) {
-                        peerBlock.getPeer().blacklist(e);
-                    }
-                } else {
-                    forkBlocks.add(block);
-                }
-            }
-            //
-            // Process a fork
-            //
             int myForkSize = blockchain.getHeight() - startHeight;
             if (!forkBlocks.isEmpty() && myForkSize < 720) {
                 Logger.logDebugMessage("Will process a fork of %d blocks from start height %d, current block chain have %d size fork blocks from start height %d",
                         forkBlocks.size() , startHeight, myForkSize, startHeight);
                 processFork(feederPeer, forkBlocks, commonBlock);
             }
-
         } finally {
             blockchain.writeUnlock();
         }
     }
 
+    /**
+     * Submit the 'getNextBlocks' request of a segment.  The first segment will always be
+     * sent to the feeder peer.  Subsequent segments will be sent to the feeder peer if we
+     * failed trying to download the blocks from another peer.
+     *
+     * @param nextBlocks Segment request
+     * @param feederPeer Peer supplying the blocks list
+     * @param peerIndex Index of the connected public peer used for the first request of the segment
+     * @return FALSE if no peer is left for the segment and the download should be stopped
+     */
+    private boolean submitNextBlocks(GetNextBlocks nextBlocks, Peer feederPeer, int peerIndex) {
+        if (nextBlocks.getRequestCount() > 1) {
+            return false;
+        }
+        Peer peer;
+        if (nextBlocks.getStart() == 0 || nextBlocks.getRequestCount() != 0) {
+            peer = feederPeer;
+        } else if (forceSwitchToBootNodesFork) {
+            peer = Peers.checkOrConnectBootNode();
+        } else {
+            peer = connectedPublicPeers.get(peerIndex % connectedPublicPeers.size());
+            if (peer.isBlacklisted()) {
+                return false;
+            }
+        }
+        if (peer == null || nextBlocks.getPeer() == peer) {
+            return false;
+        }
+        nextBlocks.setPeer(peer);
+        nextBlocks.setFuture(networkService.submit(nextBlocks));
+        return true;
+    }
+
+    /**
+     * Throughput of the block download pipeline stages
+     */
+    private static class DownloadStats {
+
+        private int segments;
+        private int fetchedBlocks;
+        private int pushedBlocks;
+        private long fetchTime;
+        private long parseTime;
+        private long verifyTime;
+        private long pushTime;
+        private long waitTime;
+
+        private void addSegment(GetNextBlocks nextBlocks, List<BlockImpl> blockList) {
+            segments++;
+            fetchedBlocks += blockList != null ? blockList.size() : 0;
+            fetchTime += nextBlocks.getResponseTime();
+            parseTime += nextBlocks.getParseTime();
+            verifyTime += nextBlocks.getVerifyTime();
+        }
+
+        private static long perSecond(int blocks, long time) {
+            return time > 0 ? blocks * 1000L / time : blocks;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Download pipeline of %d segments: fetch %d blocks/s, parse %d blocks/s, verify %d blocks/s"
+                            + " (per network thread), push %d blocks/s, pushed %d of %d blocks, waited %d ms for segments",
+                    segments, perSecond(fetchedBlocks, fetchTime), perSecond(fetchedBlocks, parseTime), perSecond(fetchedBlocks, verifyTime),
+                    perSecond(pushedBlocks, pushTime), pushedBlocks, fetchedBlocks, waitTime);
+        }
+    }
+
     private void processFork(final Peer peer, final List<BlockImpl> forkBlocks, final Block commonBlock) {
         // record the current difficulty and pop-off the chain to common block(genesis block or last known block)
         BigInteger curCumulativeDifficulty = blockchain.getLastBlock().getCumulativeDifficulty();
@@ -894,6 +974,16 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
          */
         private long responseTime;
 
+        /**
+         * Time it took to parse the returned blocks
+         */
+        private long parseTime;
+
+        /**
+         * Time it took to verify the signatures of the returned blocks
+         */
+        private long verifyTime;
+
         /**
          * Create the callable future
          *
@@ -930,41 +1020,81 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
             request.put("blockId", Long.toUnsignedString(blockIds.get(start)));
             request.putAll(Peers.getNatAndAddressMap());
             long startTime = System.currentTimeMillis();
-            JSONObject response = peer.send(JSON.prepareRequest(request), Peers.MAX_RESPONSE_SIZE);
+            // the peer returns the blocks as a binary message if it supports it
+            JSONObject response = peer.send(BinaryMessage.request(request), Peers.MAX_RESPONSE_SIZE);
             responseTime = System.currentTimeMillis() - startTime;
+            parseTime = 0;
+            verifyTime = 0;
             if (response == null) {
                 return null;
             }
-            //
-            // Get the list of blocks.  We will stop parsing blocks if we encounter
-            // an invalid block.  We will return the valid blocks and reset the stop
-            // index so no more blocks will be processed.
-            //
-            List<JSONObject> nextBlocks = (List<JSONObject>) response.get("nextBlocks");
-            if (nextBlocks == null) {
-                return null;
-            }
-            if (nextBlocks.size() > 36) {
-                Logger.logDebugMessage(
-                        "Obsolete or rogue peer "
-                                + peer.getHost()
-                                + " sends too many nextBlocks, blacklisting");
-                peer.blacklist("Too many nextBlocks");
-                return null;
-            }
-            List<BlockImpl> blockList = new ArrayList<>(nextBlocks.size());
-            try {
-                int count = stop - start;
-                for (JSONObject blockData : nextBlocks) {
-                    blockList.add(BlockImpl.parseBlock(blockData));
-                    if (--count <= 0) {
-                        break;
+            startTime = System.currentTimeMillis();
+            List<BlockImpl> blockList;
+            byte[] body = BinaryMessage.getBody(response);
+            if (body != null) {
+                try {
+                    blockList = BinaryMessage.parseBlocks(body, false);
+                } catch (RuntimeException | ConchException.NotValidException e) {
+                    Logger.logDebugMessage("Failed to parse binary blocks: " + e.toString(), e);
+                    peer.blacklist(e);
+                    return null;
+                }
+                if (blockList.size() > 36) {
+                    Logger.logDebugMessage("Obsolete or rogue peer " + peer.getHost() + " sends too many nextBlocks, blacklisting");
+                    peer.blacklist("Too many nextBlocks");
+                    return null;
+                }
+                if (blockList.size() > stop - start) {
+                    blockList = blockList.subList(0, stop - start);
+                }
+            } else {
+                //
+                // Get the list of blocks.  We will stop parsing blocks if we encounter
+                // an invalid block.  We will return the valid blocks and reset the stop
+                // index so no more blocks will be processed.
+                //
+                List<JSONObject> nextBlocks = (List<JSONObject>) response.get("nextBlocks");
+                if (nextBlocks == null) {
+                    return null;
+                }
+                if (nextBlocks.size() > 36) {
+                    Logger.logDebugMessage(
+                            "Obsolete or rogue peer "
+                                    + peer.getHost()
+                                    + " sends too many nextBlocks, blacklisting");
+                    peer.blacklist("Too many nextBlocks");
+                    return null;
+                }
+                blockList = new ArrayList<>(nextBlocks.size());
+                try {
+                    int count = stop - start;
+                    for (JSONObject blockData : nextBlocks) {
+                        blockList.add(BlockImpl.parseBlock(blockData, false));
+                        if (--count <= 0) {
+                            break;
+                        }
                     }
+                } catch (RuntimeException | ConchException.NotValidException e) {
+                    Logger.logDebugMessage("Failed to parse block: " + e.toString(), e);
+                    peer.blacklist(e);
+                    stop = start + blockList.size();
                 }
-            } catch (RuntimeException | ConchException.NotValidException e) {
-                Logger.logDebugMessage("Failed to parse block: " + e.toString(), e);
-                peer.blacklist(e);
-                stop = start + blockList.size();
+            }
+            parseTime = System.currentTimeMillis() - startTime;
+            //
+            // Verify the signatures of the whole segment in parallel before the blocks
+            // are pushed under the blockchain write lock.  The blocks after an invalid
+            // signature are dropped in the same way as the blocks after a parse failure.
+            //
+            startTime = System.currentTimeMillis();
+            int validCount = SignatureVerifier.verifyBlocks(blockList);
+            verifyTime = System.currentTimeMillis() - startTime;
+            if (validCount < blockList.size()) {
+                Logger.logDebugMessage("Invalid signature in block " + blockList.get(validCount).getStringId()
+                        + " returned by peer " + peer.getHost() + ", blacklisting");
+                peer.blacklist("Invalid block or transaction signature");
+                blockList = blockList.subList(0, validCount);
+                stop = start + validCount;
             }
             return blockList;
         }
@@ -1049,6 +1179,24 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
         public long getResponseTime() {
             return responseTime;
         }
+
+        /**
+         * Return the parse time
+         *
+         * @return Parse time
+         */
+        public long getParseTime() {
+            return parseTime;
+        }
+
+        /**
+         * Return the signature verification time
+         *
+         * @return Verification time
+         */
+        public long getVerifyTime() {
+            return verifyTime;
+        }
     }
 
     /**
@@ -1232,11 +1380,18 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
 
         blockListeners.addListener(CheckSumValidator.eventProcessor(), Event.BLOCK_PUSHED);
 
+        if (StateSnapshot.isExportEnabled()) {
+            blockListeners.addListener(StateSnapshot.exportProcessor(), Event.BLOCK_PUSHED);
+            blockListeners.addListener(StateSnapshot.exportProcessor(), Event.BLOCK_SCANNED);
+        }
+
         blockListeners.addListener(block -> Db.db.analyzeTables(), Event.RESCAN_END);
 
         ThreadPool.runBeforeStart(
                 () -> {
                     alreadyInitialized = true;
+                    BlockDb.recoverBlockStore();
+                    snapshotHeight = StateSnapshot.importConfigured();
                     if (addGenesisBlock()) {
                         scan(0, false);
                     } else if (Conch.getBooleanProperty("sharder.forceScan")) {
@@ -1245,6 +1400,7 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
                         boolean rescan;
                         boolean validate;
                         int height;
+                        int checkpoint;
                         try (Connection con = Db.db.getConnection();
                              Statement stmt = con.createStatement();
                              ResultSet rs = stmt.executeQuery("SELECT * FROM scan")) {
@@ -1252,11 +1408,12 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
                             rescan = rs.getBoolean("rescan");
                             validate = rs.getBoolean("validate");
                             height = rs.getInt("height");
+                            checkpoint = rs.getInt("checkpoint");
                         } catch (SQLException e) {
                             throw new RuntimeException(e.toString(), e);
                         }
                         if (rescan) {
-                            scan(height, validate);
+                            scan(height, checkpoint, validate, false);
                         }
                     }
                 },
@@ -1369,16 +1526,21 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     @Override
     public int getMinRollbackHeight() {
-        return trimDerivedTables
+        int minRollbackHeight = trimDerivedTables
                 ? (lastTrimHeight > 0
                 ? lastTrimHeight
                 : Math.max(blockchain.getHeight() - Constants.MAX_ROLLBACK, 0))
                 : 0;
+        return Math.max(minRollbackHeight, snapshotHeight);
     }
 
     @Override
     public void processPeerBlock(JSONObject request) throws ConchException {
-        BlockImpl block = BlockImpl.parseBlock(request);
+        processPeerBlock(BlockImpl.parseBlock(request));
+    }
+
+    @Override
+    public void processPeerBlock(BlockImpl block) throws ConchException {
         BlockImpl lastBlock = blockchain.getLastBlock();
         if (block.getPreviousBlockId() == lastBlock.getId()) {
             pushBlock(block);
@@ -1546,6 +1708,7 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     public void shutdown() {
         ThreadPool.shutdownExecutor("networkService", networkService, 5);
+        SignatureVerifier.shutdown();
     }
 
     private void addBlock(BlockImpl block) {
@@ -1582,6 +1745,9 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
     private void pushBlock(final BlockImpl block) throws BlockNotAcceptedException, GeneratorNotAcceptedException {
 
         int curTime = Conch.getEpochTime();
+        // check the signatures in parallel before the write lock is taken, the serial
+        // validation below only reads the cached results
+        SignatureVerifier.verifyBlock(block);
         blockchain.writeLock();
         try {
             boolean delayedOrOldPocTxsProcessed = (Constants.isDevnet() && Generator.isBootNode)
@@ -1619,9 +1785,15 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
 
                 block.setPrevious(previousLastBlock);
                 blockListeners.notify(block, Event.BEFORE_BLOCK_ACCEPT);
-                TransactionProcessorImpl.getInstance().requeueAllUnconfirmedTransactions();
+                List<TransactionImpl> requeueTransactions = new ArrayList<>(block.getTransactions());
+                requeueTransactions.addAll(validPhasedTransactions);
+                requeueTransactions.addAll(invalidPhasedTransactions);
+                TransactionProcessorImpl.getInstance().requeueUnconfirmedTransactions(requeueTransactions);
                 addBlock(block);
+                // the entity updates of the block are written as JDBC batches, a rollback discards them
+                Db.db.beginWriteBuffering();
                 accept(block, validPhasedTransactions, invalidPhasedTransactions, duplicates);
+                Db.db.endWriteBuffering();
 
                 Db.db.commitTransaction();
             } catch (Exception e) {
@@ -1646,30 +1818,23 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     private void validatePhasedTransactions(int height, List<TransactionImpl> validPhasedTransactions, List<TransactionImpl> invalidPhasedTransactions, Map<TransactionType, Map<String, Integer>> duplicates) {
         if (height >= Constants.PHASING_BLOCK_HEIGHT) {
-            DbIterator<TransactionImpl> phasedTransactions = null;
-            try {
-                phasedTransactions =
-                        PhasingPoll.getFinishingTransactions(height + 1);
-                for (TransactionImpl phasedTransaction : phasedTransactions) {
-                    if (height > Constants.SHUFFLING_BLOCK_HEIGHT && PhasingPoll.getResult(phasedTransaction.getId()) != null) {
-                        continue;
-                    }
+            for (TransactionImpl phasedTransaction : PhasingPoll.getFinishingTransactions(height + 1)) {
+                if (height > Constants.SHUFFLING_BLOCK_HEIGHT && PhasingPoll.getResult(phasedTransaction.getId()) != null) {
+                    continue;
+                }
 
-                    try {
-                        phasedTransaction.validate();
-                        if (!phasedTransaction.attachmentIsDuplicate(duplicates, false)) {
-                            validPhasedTransactions.add(phasedTransaction);
-                        } else {
-                            Logger.logDebugMessage("At height " + height + " phased transaction " + phasedTransaction.getStringId() + " is duplicate, will not apply");
-                            invalidPhasedTransactions.add(phasedTransaction);
-                        }
-                    } catch (ConchException.ValidationException e) {
-                        Logger.logDebugMessage("At height " + height + " phased transaction " + phasedTransaction.getStringId() + " no longer passes validation: " + e.getMessage() + ", will not apply");
+                try {
+                    phasedTransaction.validate();
+                    if (!phasedTransaction.attachmentIsDuplicate(duplicates, false)) {
+                        validPhasedTransactions.add(phasedTransaction);
+                    } else {
+                        Logger.logDebugMessage("At height " + height + " phased transaction " + phasedTransaction.getStringId() + " is duplicate, will not apply");
                         invalidPhasedTransactions.add(phasedTransaction);
                     }
+                } catch (ConchException.ValidationException e) {
+                    Logger.logDebugMessage("At height " + height + " phased transaction " + phasedTransaction.getStringId() + " no longer passes validation: " + e.getMessage() + ", will not apply");
+                    invalidPhasedTransactions.add(phasedTransaction);
                 }
-            } finally {
-                DbUtils.close(phasedTransactions);
             }
         }
     }
@@ -1929,12 +2094,7 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
                 SortedSet<TransactionImpl> possiblyApprovedTransactions = new TreeSet<>(finishingTransactionsComparator);
                 block.getTransactions().forEach(
                         transaction -> {
-                            PhasingPoll.getLinkedPhasedTransactions(transaction.fullHash()).forEach(
-                                    phasedTransaction -> {
-                                        if (phasedTransaction.getPhasing().getFinishHeight() > block.getHeight()) {
-                                            possiblyApprovedTransactions.add((TransactionImpl) phasedTransaction);
-                                        }
-                                    });
+                            possiblyApprovedTransactions.addAll(PhasingPoll.getLinkedPhasedTransactions(transaction.fullHash(), block.getHeight()));
 
                             if (transaction.getType() == TransactionType.Messaging.PHASING_VOTE_CASTING && !transaction.attachmentIsPhased()) {
                                 Attachment.MessagingPhasingVoteCasting voteCasting = (Attachment.MessagingPhasingVoteCasting) transaction.getAttachment();
@@ -2095,21 +2255,10 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
             Block previousBlock,
             int blockTimestamp) {
         List<UnconfirmedTransaction> orderedUnconfirmedTransactions = new ArrayList<>();
-        FilteringIterator<UnconfirmedTransaction> unconfirmedTransactions = null;
-        try {
-            unconfirmedTransactions =
-                    new FilteringIterator<>(TransactionProcessorImpl.getInstance().getAllUnconfirmedTransactions(),
-                            transaction -> hasAllReferencedTransactions(transaction.getTransaction(), transaction.getTimestamp(), 0));
-
-            for (UnconfirmedTransaction unconfirmedTransaction : unconfirmedTransactions) {
+        for (UnconfirmedTransaction unconfirmedTransaction : TransactionProcessorImpl.getInstance().getSortedUnconfirmedTransactions()) {
+            if (hasAllReferencedTransactions(unconfirmedTransaction.getTransaction(), unconfirmedTransaction.getTimestamp(), 0)) {
                 orderedUnconfirmedTransactions.add(unconfirmedTransaction);
             }
-
-        } catch(Exception e){
-            TransactionProcessorImpl.getInstance().processDirtyOrViciousTx(e);
-            throw e;
-        } finally {
-            DbUtils.close(unconfirmedTransactions);
         }
 
         SortedSet<UnconfirmedTransaction> sortedTransactions =
@@ -2238,20 +2387,14 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
 
         Map<TransactionType, Map<String, Integer>> duplicates = new HashMap<>();
         if (blockchain.getHeight() >= Constants.PHASING_BLOCK_HEIGHT) {
-            DbIterator<TransactionImpl> phasedTransactions = null;
-            try {
-                phasedTransactions = PhasingPoll.getFinishingTransactions(blockchain.getHeight() + 1);
-                for (TransactionImpl phasedTransaction : phasedTransactions) {
-                    try {
-                        phasedTransaction.validate();
-                        // pre-populate duplicates map
-                        phasedTransaction.attachmentIsDuplicate(duplicates, false);
-                    } catch (ConchException.ValidationException ignore) {
+            for (TransactionImpl phasedTransaction : PhasingPoll.getFinishingTransactions(blockchain.getHeight() + 1)) {
+                try {
+                    phasedTransaction.validate();
+                    // pre-populate duplicates map
+                    phasedTransaction.attachmentIsDuplicate(duplicates, false);
+                } catch (ConchException.ValidationException ignore) {
 
-                    }
                 }
-            } finally {
-                DbUtils.close(phasedTransactions);
             }
         }
 
@@ -2471,7 +2614,7 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     public void scheduleScan(int height, boolean validate) {
         try (Connection con = Db.db.getConnection();
-             PreparedStatement pstmt = con.prepareStatement("UPDATE scan SET rescan = TRUE, height = ?, validate = ?")) {
+             PreparedStatement pstmt = con.prepareStatement("UPDATE scan SET rescan = TRUE, height = ?, validate = ?, checkpoint = 0")) {
             pstmt.setInt(1, height);
             pstmt.setBoolean(2, validate);
             pstmt.executeUpdate();
@@ -2484,15 +2627,25 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
 
     @Override
     public void scan(int height, boolean validate) {
-        scan(height, validate, false);
+        scan(height, 0, validate, false);
     }
 
     @Override
     public void fullScanWithShutdown() {
-        scan(0, true, true);
+        scan(0, 0, true, true);
     }
 
-    private void scan(int height, boolean validate, boolean shutdown) {
+    /**
+     * Scan the blockchain from a height.  The height of the next block to apply is saved as the
+     * checkpoint of the scan with every applied block; an interrupted scan is resumed from its
+     * checkpoint at the next start, the derived tables are then already at the checkpoint.
+     *
+     * @param height Start height of the scan
+     * @param checkpoint Height to resume the scan from, or 0 to start it
+     * @param validate TRUE to validate the blocks
+     * @param shutdown TRUE to stop the node and scan at the next start
+     */
+    private void scan(int height, int checkpoint, boolean validate, boolean shutdown) {
         blockchain.writeLock();
         try {
             if (!Db.db.isInTransaction()) {
@@ -2501,7 +2654,7 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
                     if (validate) {
                         blockListeners.addListener(CheckSumValidator.eventProcessor(), Event.BLOCK_SCANNED);
                     }
-                    scan(height, validate, shutdown);
+                    scan(height, checkpoint, validate, shutdown);
                     Db.db.commitTransaction();
                 } catch (Exception e) {
                     Db.db.rollbackTransaction();
@@ -2512,8 +2665,11 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
                 }
                 return;
             }
-            scheduleScan(height, validate);
-            if (height > 0 && height < getMinRollbackHeight()) {
+            boolean resume = checkpoint > height && !shutdown;
+            if (!resume) {
+                scheduleScan(height, validate);
+            }
+            if (!resume && height > 0 && height < getMinRollbackHeight()) {
                 Logger.logMessage(
                         "Rollback to height less than "
                                 + getMinRollbackHeight()
@@ -2523,7 +2679,12 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
             if (height < 0) {
                 height = 0;
             }
-            Logger.logMessage("Scanning blockchain starting from height " + height + "...");
+            int startHeight = resume ? checkpoint : height;
+            if (resume) {
+                Logger.logMessage("Resuming the scan of the blockchain from height " + height + " at height " + startHeight + "...");
+            } else {
+                Logger.logMessage("Scanning blockchain starting from height " + height + "...");
+            }
             if (validate) {
                 Logger.logDebugMessage("Also verifying signatures and validating transactions...");
             }
@@ -2531,14 +2692,16 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
                  PreparedStatement pstmtSelect =
                          con.prepareStatement(
                                  "SELECT * FROM block WHERE "
-                                         + (height > 0 ? "height >= ? AND " : "")
+                                         + (startHeight > 0 ? "height >= ? AND " : "")
                                          + " db_id >= ? ORDER BY db_id ASC LIMIT 50000");
+                 PreparedStatement pstmtCheckpoint = con.prepareStatement("UPDATE scan SET checkpoint = ?");
                  PreparedStatement pstmtDone =
                          con.prepareStatement(
-                                 "UPDATE scan SET rescan = FALSE, height = 0, validate = FALSE")) {
+                                 "UPDATE scan SET rescan = FALSE, height = 0, validate = FALSE, checkpoint = 0"
+                                         + (height == 0 ? ", snapshot_height = 0" : ""))) {
                 isScanning = true;
                 initialScanHeight = blockchain.getHeight();
-                if (height > blockchain.getHeight() + 1) {
+                if (!resume && height > blockchain.getHeight() + 1) {
                     Logger.logMessage(
                             "Rollback height "
                                     + (height - 1)
@@ -2549,28 +2712,30 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
                     Db.db.commitTransaction();
                     return;
                 }
-                if (height == 0) {
+                if (height == 0 && !resume) {
                     Logger.logDebugMessage("Dropping all full text search indexes");
                     FullTextTrigger.dropAll(con);
                 }
                 for (DerivedDbTable table : derivedTables) {
-                    if (height == 0) {
+                    if (startHeight == 0) {
                         table.truncate();
                     } else {
-                        table.rollback(height - 1);
+                        table.rollback(startHeight - 1);
                     }
                 }
                 Db.db.clearCache();
                 Db.db.commitTransaction();
                 Logger.logDebugMessage("Rolled back derived tables");
-                BlockImpl currentBlock = BlockDb.findBlockAtHeight(height);
+                // a resumed scan can be interrupted after its last block
+                boolean hasBlocks = startHeight <= blockchain.getHeight();
+                BlockImpl currentBlock = hasBlocks ? BlockDb.findBlockAtHeight(startHeight) : blockchain.getLastBlock();
                 blockListeners.notify(currentBlock, Event.RESCAN_BEGIN);
                 long currentBlockId = currentBlock.getId();
-                if (height == 0) {
+                if (startHeight == 0) {
                     blockchain.setLastBlock(currentBlock); // special case to avoid no last block
                     SharderGenesis.enableGenesisAccount();
                 } else {
-                    blockchain.setLastBlock(BlockDb.findBlockAtHeight(height - 1));
+                    blockchain.setLastBlock(BlockDb.findBlockAtHeight(startHeight - 1));
                 }
                 if (shutdown) {
                     Logger.logMessage("Scan will be performed at next start");
@@ -2578,20 +2743,26 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
                     return;
                 }
                 int pstmtSelectIndex = 1;
-                if (height > 0) {
-                    pstmtSelect.setInt(pstmtSelectIndex++, height);
+                if (startHeight > 0) {
+                    pstmtSelect.setInt(pstmtSelectIndex++, startHeight);
                 }
                 long dbId = Long.MIN_VALUE;
-                boolean hasMore = true;
+                boolean hasMore = hasBlocks;
+                long scanStart = System.currentTimeMillis();
+                long progressTime = scanStart;
+                int progressHeight = blockchain.getHeight();
+                int scannedBlocks = 0;
                 outer:
                 while (hasMore) {
                     hasMore = false;
                     pstmtSelect.setLong(pstmtSelectIndex, dbId);
                     try (ResultSet rs = pstmtSelect.executeQuery()) {
-                        while (rs.next()) {
+                        ScanPipeline pipeline = new ScanPipeline(con, rs, validate, blockchain.getLastBlock());
+                        ScanPipeline.Entry entry;
+                        while ((entry = pipeline.next()) != null) {
                             try {
-                                dbId = rs.getLong("db_id");
-                                currentBlock = BlockDb.loadBlock(con, rs, true);
+                                dbId = entry.getDbId();
+                                currentBlock = entry.getBlock();
                                 currentBlock.loadTransactions();
                                 if (currentBlock.getId() != currentBlockId || currentBlock.getHeight() > blockchain.getHeight() + 1) {
                                     throw new ConchException.NotValidException("Database blocks in the wrong order!");
@@ -2627,10 +2798,12 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
                                 blockchain.setLastBlock(currentBlock);
                                 accept(currentBlock, validPhasedTransactions, invalidPhasedTransactions, duplicates);
                                 currentBlockId = currentBlock.getNextBlockId();
+                                pstmtCheckpoint.setInt(1, currentBlock.getHeight() + 1);
+                                pstmtCheckpoint.executeUpdate();
                                 Db.db.clearCache();
                                 Db.db.commitTransaction();
                                 blockListeners.notify(currentBlock, Event.AFTER_BLOCK_ACCEPT);
-                            } catch (ConchException | RuntimeException e) {
+                            } catch (ConchException | RuntimeException | SQLException e) {
                                 Db.db.rollbackTransaction();
                                 Logger.logDebugMessage(e.toString(), e);
                                 Logger.logDebugMessage("Applying block " + Long.toUnsignedString(currentBlockId) + " at height "
@@ -2642,6 +2815,15 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
                             }
                             blockListeners.notify(currentBlock, Event.BLOCK_SCANNED);
                             hasMore = true;
+                            scannedBlocks++;
+                            long now = System.currentTimeMillis();
+                            if (now - progressTime >= SCAN_PROGRESS_INTERVAL) {
+                                int scannedHeight = currentBlock.getHeight();
+                                Logger.logMessage(String.format("Scanned up to height %d of %d, %.1f blocks/s", scannedHeight,
+                                        initialScanHeight, (scannedHeight - progressHeight) * 1000.0 / (now - progressTime)));
+                                progressTime = now;
+                                progressHeight = scannedHeight;
+                            }
                         }
                         dbId = dbId + 1;
                     }
@@ -2653,8 +2835,14 @@ public final class BlockchainProcessorImpl implements BlockchainProcessor {
                 }
                 pstmtDone.executeUpdate();
                 Db.db.commitTransaction();
+                if (height == 0) {
+                    // the derived tables were rebuilt from the genesis
+                    snapshotHeight = 0;
+                }
                 blockListeners.notify(currentBlock, Event.RESCAN_END);
-                Logger.logMessage("...done at height " + blockchain.getHeight());
+                long scanTime = Math.max(1, System.currentTimeMillis() - scanStart);
+                Logger.logMessage(String.format("...done at height %d, %d blocks in %d s, %.1f blocks/s", blockchain.getHeight(),
+                        scannedBlocks, scanTime / 1000, scannedBlocks * 1000.0 / scanTime));
                 if (height == 0 && validate) {
                     Logger.logMessage("SUCCESSFULLY PERFORMED FULL RESCAN WITH VALIDATION");
                 }
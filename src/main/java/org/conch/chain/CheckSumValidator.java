@@ -58,6 +58,10 @@ public class CheckSumValidator {
                     -1
             };
 
+    // merkle roots of the state snapshots, snapshot height : root, see StateSnapshot
+    // not opened yet
+    private static final Map<Integer, byte[]> SNAPSHOT_CHECKPOINTS = Collections.emptyMap();
+
     private static final CheckSumValidator inst = new CheckSumValidator();
 
     public static CheckSumValidator getInst(){
@@ -86,6 +90,15 @@ public class CheckSumValidator {
     };
 
 
+    /**
+     * Return the merkle root of the state snapshot at a checkpoint height
+     * @param height snapshot height
+     * @return merkle root or null if the height isn't a snapshot checkpoint
+     */
+    public static byte[] getSnapshotCheckpoint(int height) {
+        return SNAPSHOT_CHECKPOINTS.get(height);
+    }
+
     private boolean verifyChecksum(byte[] validChecksum, int fromHeight, int toHeight) {
         MessageDigest digest = Crypto.sha256();
         Connection con = null;
@@ -0,0 +1,227 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.chain;
+
+import org.conch.Conch;
+import org.conch.common.ConchException;
+import org.conch.consensus.genesis.SharderGenesis;
+import org.conch.crypto.Crypto;
+import org.conch.mint.Generator;
+import org.conch.tx.TransactionImpl;
+import org.conch.util.Logger;
+
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Read-ahead of the blocks of a scan, with the stateless validation run in parallel ahead of the
+ * serial apply cursor.
+ * <p>
+ * The blocks are loaded on the scan thread, which owns the database connection, by windows of
+ * {@value #WINDOW} blocks.  Once a window is loaded it is handed to the {@link SignatureVerifier}
+ * pool, and the scan thread applies the previous window meanwhile.  The pool checks the block and
+ * transaction signatures, the generation signature hash and the payload hash.  The signature
+ * results are cached on the blocks and the transactions, so the serial validation only does the
+ * state-dependent checks.  A failed check is reported when the apply cursor reaches the block, it
+ * is then handled like a failure of the serial validation.
+ * <p>
+ * The public keys of the blocks and transactions loaded from the transaction table are account
+ * state, which the scan is rebuilding: only the blocks and the transactions whose public keys were
+ * read with their bytes from the block store are checked ahead.
+ */
+final class ScanPipeline {
+
+    private static final int WINDOW = 500;
+    private static final boolean parallelScan = Conch.getBooleanProperty("sharder.parallelScan");
+
+    /**
+     * Loaded block
+     */
+    static final class Entry {
+
+        private final long dbId;
+        private final BlockImpl block;
+        private final BlockImpl previous;
+        private final RuntimeException loadError;
+        private String failure;
+
+        private Entry(long dbId, BlockImpl block, BlockImpl previous, RuntimeException loadError) {
+            this.dbId = dbId;
+            this.block = block;
+            this.previous = previous;
+            this.loadError = loadError;
+        }
+
+        long getDbId() {
+            return dbId;
+        }
+
+        /**
+         * Return the block, or throw the error of its loading or of its stateless validation
+         */
+        BlockImpl getBlock() throws ConchException.NotValidException {
+            if (loadError != null) {
+                throw loadError;
+            }
+            if (failure != null) {
+                throw new ConchException.NotValidException(failure);
+            }
+            return block;
+        }
+    }
+
+    private final Connection con;
+    private final ResultSet rs;
+    private final boolean validate;
+    private BlockImpl previous;
+    private boolean exhausted;
+    private Deque<Entry> current = new ArrayDeque<>();
+    private List<Entry> ahead;
+    private Future<?> aheadFuture;
+
+    /**
+     * @param con Scan connection
+     * @param rs Block rows ordered by db_id
+     * @param validate TRUE if the scan validates the blocks
+     * @param previous Block before the first row
+     */
+    ScanPipeline(Connection con, ResultSet rs, boolean validate, BlockImpl previous) {
+        this.con = con;
+        this.rs = rs;
+        this.validate = validate;
+        this.previous = previous;
+    }
+
+    /**
+     * Return the next block in db_id order
+     *
+     * @return Next entry or null if all rows are read
+     * @throws SQLException Unable to read the rows
+     */
+    Entry next() throws SQLException {
+        if (current.isEmpty()) {
+            if (ahead == null) {
+                loadAhead();
+            }
+            await();
+            current = new ArrayDeque<>(ahead);
+            ahead = null;
+            if (!exhausted) {
+                loadAhead();
+            }
+        }
+        return current.poll();
+    }
+
+    private void loadAhead() throws SQLException {
+        List<Entry> entries = new ArrayList<>(WINDOW);
+        while (entries.size() < WINDOW && !exhausted) {
+            if (!rs.next()) {
+                exhausted = true;
+                break;
+            }
+            long dbId = rs.getLong("db_id");
+            try {
+                BlockImpl block = BlockDb.loadBlock(con, rs, true);
+                entries.add(new Entry(dbId, block, previous, null));
+                previous = block;
+            } catch (RuntimeException e) {
+                // the scan stops at this block
+                entries.add(new Entry(dbId, null, null, e));
+                exhausted = true;
+            }
+        }
+        ahead = entries;
+        if (validate && parallelScan && !entries.isEmpty()) {
+            aheadFuture = SignatureVerifier.submit(() -> entries.parallelStream().forEach(ScanPipeline::verify));
+        }
+    }
+
+    private void await() {
+        if (aheadFuture == null) {
+            return;
+        }
+        try {
+            aheadFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // the serial validation checks the blocks again
+            Logger.logDebugMessage("Parallel scan validation failed", e);
+        } finally {
+            aheadFuture = null;
+        }
+    }
+
+    private static void verify(Entry entry) {
+        BlockImpl block = entry.block;
+        BlockImpl previous = entry.previous;
+        if (block == null || previous == null || block.getId() == SharderGenesis.GENESIS_BLOCK_ID) {
+            return;
+        }
+        try {
+            if (block.hasGeneratorPublicKey()) {
+                if (!block.checkSignature()) {
+                    entry.failure = "Block signature verification failed";
+                    return;
+                }
+                MessageDigest digest = Crypto.sha256();
+                digest.update(previous.getGenerationSignature());
+                byte[] generationSignatureHash = digest.digest(block.getGeneratorPublicKey());
+                if (!Arrays.equals(generationSignatureHash, block.getGenerationSignature())
+                        && !Generator.allowsFakeMining(block.getGeneratorPublicKey())) {
+                    entry.failure = "Block generation signature verification failed";
+                    return;
+                }
+            }
+            MessageDigest digest = Crypto.sha256();
+            boolean hasAllPublicKeys = true;
+            for (TransactionImpl transaction : block.getTransactions()) {
+                if (!transaction.hasSenderPublicKey()) {
+                    hasAllPublicKeys = false;
+                    continue;
+                }
+                if (!transaction.checkSignature()) {
+                    entry.failure = "Transaction " + transaction.getStringId() + " signature verification failed";
+                    return;
+                }
+                digest.update(transaction.bytes());
+            }
+            if (hasAllPublicKeys && !Arrays.equals(digest.digest(), block.getPayloadHash())) {
+                entry.failure = "Payload hash doesn't match";
+            }
+        } catch (RuntimeException e) {
+            // left to the serial validation
+            Logger.logDebugMessage("Unable to validate block " + block.getStringId() + " ahead of the scan: " + e.toString());
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.chain;
+
+import org.conch.Conch;
+import org.conch.tx.TransactionImpl;
+import org.conch.util.ThreadPool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Stateless pre-validation stage which checks the Curve25519 signatures of blocks and transactions
+ * on a fork-join pool before the blockchain write lock is taken.
+ * <p>
+ * The results are cached on the {@link BlockImpl} and {@link TransactionImpl} objects, so the
+ * serial validation in {@link BlockchainProcessorImpl} only reads the cached flags. The
+ * state-dependent public key check ({@code Account.setOrVerify}) is not done here.
+ */
+public final class SignatureVerifier {
+
+    /**
+     * Below this number of signatures the verification is done on the calling thread
+     */
+    private static final int MIN_PARALLEL_SIZE = 4;
+
+    private static final int verifyThreads;
+    static {
+        int threads = Conch.getIntProperty("sharder.signatureVerifyThreads");
+        verifyThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    private static final ForkJoinPool verifyPool = new ForkJoinPool(verifyThreads);
+
+    private SignatureVerifier() {}
+
+    /**
+     * Verify the block signature and the signatures of all block transactions
+     *
+     * @param block Block
+     * @return TRUE if all signatures are valid
+     */
+    public static boolean verifyBlock(BlockImpl block) {
+        return verifyBlocks(Collections.singletonList(block)) == 1;
+    }
+
+    /**
+     * Verify the signatures of a list of consecutive blocks, e.g. a downloaded block segment
+     *
+     * @param blocks Block list
+     * @return Number of leading blocks whose signatures are all valid
+     */
+    public static int verifyBlocks(List<BlockImpl> blocks) {
+        List<TransactionImpl> transactions = new ArrayList<>();
+        blocks.forEach(block -> transactions.addAll(block.getTransactions()));
+        invoke(() -> {
+            blocks.parallelStream().forEach(BlockImpl::checkSignature);
+            transactions.parallelStream().forEach(TransactionImpl::checkSignature);
+        }, blocks.size() + transactions.size());
+        // the results are cached now, find the first block with an invalid signature
+        for (int i = 0; i < blocks.size(); i++) {
+            BlockImpl block = blocks.get(i);
+            if (!block.checkSignature()) {
+                return i;
+            }
+            for (TransactionImpl transaction : block.getTransactions()) {
+                if (!transaction.checkSignature()) {
+                    return i;
+                }
+            }
+        }
+        return blocks.size();
+    }
+
+    /**
+     * Verify the signatures of a list of transactions
+     *
+     * @param transactions Transaction list
+     * @return TRUE if all signatures are valid
+     */
+    public static boolean verifyTransactions(List<TransactionImpl> transactions) {
+        invoke(() -> transactions.parallelStream().forEach(TransactionImpl::checkSignature), transactions.size());
+        for (TransactionImpl transaction : transactions) {
+            if (!transaction.checkSignature()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Run a verification task on the pool without waiting for it, the task can use parallel streams
+     *
+     * @param task Verification task
+     * @return Future of the task
+     */
+    static Future<?> submit(Runnable task) {
+        return verifyPool.submit(task);
+    }
+
+    public static void shutdown() {
+        ThreadPool.shutdownExecutor("signatureVerifyPool", verifyPool, 5);
+    }
+
+    private static void invoke(Runnable task, int size) {
+        if (size < MIN_PARALLEL_SIZE || verifyThreads == 1) {
+            // the callers re-check the cached flags, nothing to do in advance
+            return;
+        }
+        try {
+            // parallel streams started inside a fork-join task are run on the pool of that task
+            verifyPool.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,715 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.chain;
+
+import com.google.common.collect.Sets;
+import org.conch.Conch;
+import org.conch.account.GuaranteedBalanceIndex;
+import org.conch.crypto.Crypto;
+import org.conch.db.Db;
+import org.conch.db.DerivedDbTable;
+import org.conch.db.FullTextTrigger;
+import org.conch.db.PrunableDbTable;
+import org.conch.storage.BlockStore;
+import org.conch.util.Convert;
+import org.conch.util.Listener;
+import org.conch.util.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * State snapshot of the chain at a height, a new node imports it instead of pushing every block
+ * since the genesis and then downloads the blocks above the snapshot height.
+ * <p>
+ * The snapshot is a gzip stream of the blocks, the transactions, the latest rows of the versioned
+ * derived tables, all rows of the other derived tables and the poc score and pool tables.  The
+ * db_id and store_offset columns are left out and the rows are ordered by a unique index of their
+ * table, so the nodes at the same height write the same bytes.  The unconfirmed transactions, the
+ * account ledger and the prunable tables are local to a node and not in the snapshot.
+ * <p>
+ * The stream is cut into segments: the header, the header of every table and the chunks of
+ * {@value #CHUNK_ROWS} rows.  The SHA-256 of the segments are the leaves of a merkle tree whose
+ * root ends the stream.  A snapshot is imported only if its root is the checkpoint of its height
+ * in {@link CheckSumValidator}, or the root set by {@code sharder.snapshot.root} on a private
+ * network.  The file is verified in a first pass and bulk loaded in a second pass, which hashes
+ * the rows again; neither pass holds more than a row on the heap.
+ * <p>
+ * The export holds the blockchain read lock, no block is pushed while the snapshot is written.
+ * The imported versioned tables have no history below the snapshot height, so a rollback below it
+ * is a full rescan.
+ */
+public final class StateSnapshot {
+
+    private static final String FORMAT = "sharder-state-snapshot-1";
+    private static final String FILE_PREFIX = "sharder_snapshot_";
+    private static final int CHUNK_ROWS = 1000;
+    private static final int FETCH_SIZE = 1000;
+    private static final int MAX_TABLES = 1000;
+    private static final int MAX_COLUMNS = 1000;
+    private static final int MAX_VALUE_LENGTH = 64 * 1024 * 1024;
+
+    private static final byte END = 0;
+    private static final byte ROW = 1;
+
+    private static final byte NULL_VALUE = 0;
+    private static final byte LONG_VALUE = 1;
+    private static final byte INT_VALUE = 2;
+    private static final byte SHORT_VALUE = 3;
+    private static final byte BYTE_VALUE = 4;
+    private static final byte BOOLEAN_VALUE = 5;
+    private static final byte BYTES_VALUE = 6;
+    private static final byte STRING_VALUE = 7;
+    private static final byte ARRAY_VALUE = 8;
+
+    private static final byte LEAF = 0;
+    private static final byte NODE = 1;
+
+    // the chain tables and the poc tables which are not registered as derived tables
+    private static final List<String> CHAIN_TABLES = Arrays.asList("BLOCK", "TRANSACTION", "REFERENCED_TRANSACTION");
+    private static final List<String> POC_TABLES = Arrays.asList("ACCOUNT_POC_SCORE", "ACCOUNT_POOL");
+    // derived tables local to a node
+    private static final Set<String> LOCAL_TABLES = Sets.newHashSet("UNCONFIRMED_TRANSACTION", "ACCOUNT_LEDGER");
+    // columns local to a node
+    private static final Set<String> LOCAL_COLUMNS = Sets.newHashSet("DB_ID", "STORE_OFFSET");
+
+    private static final int exportHeight = Conch.getIntProperty("sharder.snapshot.exportHeight", 0);
+    private static final String importFile = Conch.getStringProperty("sharder.snapshot.import", "");
+    private static final String trustedRoot = Conch.getStringProperty("sharder.snapshot.root", "");
+    private static final Path dir;
+    static {
+        String snapshotDir = Conch.getStringProperty("sharder.snapshot.dir", "");
+        if (snapshotDir.isEmpty()) {
+            dir = Paths.get(Conch.getUserHomeDir(), Db.getDir()).getParent().resolve("snapshots");
+        } else {
+            dir = Paths.get(Conch.getUserHomeDir()).resolve(snapshotDir);
+        }
+    }
+
+    private static final Listener<Block> exportListener = block -> {
+        if (block.getHeight() != exportHeight) {
+            return;
+        }
+        File file = dir.resolve(FILE_PREFIX + exportHeight + ".gz").toFile();
+        if (file.exists()) {
+            Logger.logInfoMessage("State snapshot " + file.getAbsolutePath() + " already exists");
+            return;
+        }
+        try {
+            export(file, exportHeight);
+        } catch (SQLException | IOException | RuntimeException e) {
+            Logger.logErrorMessage("Unable to write the state snapshot at height " + exportHeight, e);
+        }
+    };
+
+    /**
+     * Header and merkle root of a snapshot file
+     */
+    private static final class Snapshot {
+
+        private final int height;
+        private final long blockId;
+        private final byte[] root;
+        private final long rows;
+
+        private Snapshot(int height, long blockId, byte[] root, long rows) {
+            this.height = height;
+            this.blockId = blockId;
+            this.root = root;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Merkle tree built from a stream of leaves, only the pending node of every level is held.
+     * A last odd node is promoted to the next level unchanged.
+     */
+    private static final class MerkleTree {
+
+        private final List<byte[]> levels = new ArrayList<>();
+
+        private void add(byte[] leaf) {
+            byte[] node = leaf;
+            int level = 0;
+            while (level < levels.size() && levels.get(level) != null) {
+                node = hash(levels.get(level), node);
+                levels.set(level, null);
+                level++;
+            }
+            if (level == levels.size()) {
+                levels.add(node);
+            } else {
+                levels.set(level, node);
+            }
+        }
+
+        private byte[] getRoot() {
+            // the pending nodes of the lower levels are on the right of the higher ones
+            byte[] root = null;
+            for (byte[] node : levels) {
+                if (node != null) {
+                    root = root == null ? node : hash(node, root);
+                }
+            }
+            return root;
+        }
+
+        private static byte[] hash(byte[] left, byte[] right) {
+            MessageDigest digest = Crypto.sha256();
+            digest.update(NODE);
+            digest.update(left);
+            return digest.digest(right);
+        }
+    }
+
+    /**
+     * Hash of the bytes written or read since the last segment
+     */
+    private static final class Segments {
+
+        private final MessageDigest digest = Crypto.sha256();
+        private final MerkleTree tree = new MerkleTree();
+
+        private Segments() {
+            digest.update(LEAF);
+        }
+
+        private void end() {
+            tree.add(digest.digest());
+            digest.update(LEAF);
+        }
+    }
+
+    private StateSnapshot() {}
+
+    static boolean isExportEnabled() {
+        return exportHeight > 0;
+    }
+
+    /**
+     * Write the snapshot when the block at {@code sharder.snapshot.exportHeight} is pushed or scanned
+     */
+    static Listener<Block> exportProcessor() {
+        return exportListener;
+    }
+
+    /**
+     * Write a state snapshot of the current height
+     *
+     * @param file Snapshot file
+     * @param height Expected height of the blockchain
+     * @return Merkle root of the snapshot
+     * @throws SQLException Unable to read the tables
+     * @throws IOException Unable to write the snapshot file
+     */
+    public static byte[] export(File file, int height) throws SQLException, IOException {
+        long start = System.currentTimeMillis();
+        BlockchainImpl blockchain = BlockchainImpl.getInstance();
+        blockchain.readLock();
+        try {
+            BlockImpl block = blockchain.getLastBlock();
+            if (block.getHeight() != height) {
+                throw new IllegalStateException("Blockchain at height " + block.getHeight() + ", not at the snapshot height " + height);
+            }
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Unable to create " + parent.getAbsolutePath());
+            }
+            File tmpFile = new File(parent, file.getName() + ".tmp");
+            Logger.logInfoMessage("Writing the state snapshot at height " + height + " to " + file.getAbsolutePath());
+            Segments segments = new Segments();
+            long rows = 0;
+            try (Connection con = Db.db.getConnection();
+                 DigestOutputStream digestStream = new DigestOutputStream(new BufferedOutputStream(new GZIPOutputStream(
+                         new BufferedOutputStream(new FileOutputStream(tmpFile)))), segments.digest);
+                 DataOutputStream out = new DataOutputStream(digestStream)) {
+                List<String> tables = getTables(con);
+                out.writeUTF(FORMAT);
+                out.writeInt(height);
+                out.writeLong(block.getId());
+                out.writeInt(tables.size());
+                segments.end();
+                for (String table : tables) {
+                    long tableRows = writeTable(con, table, height, out, segments);
+                    Logger.logDebugMessage("State snapshot table " + table + ": " + tableRows + " rows");
+                    rows += tableRows;
+                }
+                digestStream.on(false);
+                out.write(segments.tree.getRoot());
+            }
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Unable to rename " + tmpFile.getAbsolutePath());
+            }
+            byte[] root = segments.tree.getRoot();
+            Logger.logInfoMessage(String.format("State snapshot at height %d written, %d rows, %d bytes in %d ms, merkle root %s",
+                    height, rows, file.length(), System.currentTimeMillis() - start, Convert.toHexString(root)));
+            return root;
+        } finally {
+            blockchain.readUnlock();
+        }
+    }
+
+    /**
+     * Import the snapshot set by {@code sharder.snapshot.import} into an empty database, called
+     * before the genesis block is added
+     *
+     * @return Height of the imported snapshot or 0 if the derived tables were built from the genesis
+     */
+    static int importConfigured() {
+        int snapshotHeight = getSnapshotHeight();
+        if (importFile.isEmpty()) {
+            if (snapshotHeight < 0) {
+                throw new RuntimeException("The state snapshot import was interrupted, set sharder.snapshot.import to import it again");
+            }
+            return snapshotHeight;
+        }
+        if (snapshotHeight >= 0 && hasBlocks()) {
+            Logger.logInfoMessage("The database is not empty, the state snapshot " + importFile + " is not imported");
+            return snapshotHeight;
+        }
+        File file = Paths.get(Conch.getUserHomeDir()).resolve(importFile).toFile();
+        long start = System.currentTimeMillis();
+        Snapshot snapshot;
+        try {
+            Logger.logInfoMessage("Verifying the state snapshot " + file.getAbsolutePath());
+            snapshot = read(file, null);
+        } catch (IOException | SQLException e) {
+            return importFailed(snapshotHeight, "Unable to read the state snapshot " + file.getAbsolutePath() + ": " + e.getMessage());
+        }
+        byte[] checkpoint = CheckSumValidator.getSnapshotCheckpoint(snapshot.height);
+        if (checkpoint == null && !trustedRoot.isEmpty()) {
+            Logger.logWarningMessage("No snapshot checkpoint at height " + snapshot.height + ", the configured sharder.snapshot.root is trusted");
+            checkpoint = Convert.parseHexString(trustedRoot);
+        }
+        if (checkpoint == null) {
+            return importFailed(snapshotHeight, "No snapshot checkpoint at height " + snapshot.height);
+        }
+        if (!Arrays.equals(checkpoint, snapshot.root)) {
+            return importFailed(snapshotHeight, "State snapshot merkle root " + Convert.toHexString(snapshot.root)
+                    + " doesn't match the checkpoint " + Convert.toHexString(checkpoint) + " at height " + snapshot.height);
+        }
+        Logger.logInfoMessage("Importing the state snapshot at height " + snapshot.height);
+        load(file, snapshot);
+        Logger.logInfoMessage(String.format("State snapshot at height %d imported, %d rows in %d ms",
+                snapshot.height, snapshot.rows, System.currentTimeMillis() - start));
+        return snapshot.height;
+    }
+
+    private static int importFailed(int snapshotHeight, String message) {
+        if (snapshotHeight < 0) {
+            // the tables hold a part of the interrupted import
+            throw new RuntimeException(message);
+        }
+        Logger.logErrorMessage(message + ", the blockchain is downloaded from the genesis");
+        return 0;
+    }
+
+    private static void load(File file, Snapshot snapshot) {
+        try {
+            Db.db.beginTransaction();
+            try (Connection con = Db.db.getConnection();
+                 Statement stmt = con.createStatement()) {
+                setSnapshotHeight(con, -1);
+                Db.db.commitTransaction();
+                FullTextTrigger.dropAll(con);
+                // the rows are verified, the foreign keys are not checked while they are loaded
+                stmt.executeUpdate("SET REFERENTIAL_INTEGRITY FALSE");
+                try {
+                    for (String table : getTables(con)) {
+                        stmt.executeUpdate("TRUNCATE TABLE " + table);
+                    }
+                    Db.db.commitTransaction();
+                    if (BlockStore.isEnabled()) {
+                        BlockStore.truncate(0);
+                    }
+                    Snapshot loaded = read(file, con);
+                    if (!Arrays.equals(loaded.root, snapshot.root)) {
+                        throw new IOException("State snapshot " + file.getAbsolutePath() + " changed while it was imported");
+                    }
+                } finally {
+                    stmt.executeUpdate("SET REFERENTIAL_INTEGRITY TRUE");
+                }
+                BlockImpl lastBlock = BlockDb.findLastBlock();
+                if (lastBlock == null || lastBlock.getId() != snapshot.blockId || lastBlock.getHeight() != snapshot.height) {
+                    throw new IOException("State snapshot doesn't end with block " + Long.toUnsignedString(snapshot.blockId));
+                }
+                for (DerivedDbTable table : BlockchainProcessorImpl.getInstance().getDerivedTables()) {
+                    table.createSearchIndex(con);
+                }
+                setSnapshotHeight(con, snapshot.height);
+                Db.db.clearCache();
+                Conch.getPocProcessor().reloadPocScores();
+                GuaranteedBalanceIndex.reset();
+                Db.db.commitTransaction();
+            } catch (Exception e) {
+                Db.db.rollbackTransaction();
+                throw e;
+            } finally {
+                Db.db.endTransaction();
+            }
+        } catch (SQLException | IOException e) {
+            throw new RuntimeException("State snapshot import failed: " + e.toString(), e);
+        }
+    }
+
+    /**
+     * Read a snapshot file and compute its merkle root
+     *
+     * @param file Snapshot file
+     * @param con Connection of the db transaction which loads the rows or null to only verify the file
+     * @return Snapshot header and computed merkle root
+     */
+    private static Snapshot read(File file, Connection con) throws IOException, SQLException {
+        Segments segments = new Segments();
+        long rows = 0;
+        try (DigestInputStream digestStream = new DigestInputStream(new BufferedInputStream(new GZIPInputStream(
+                new BufferedInputStream(new FileInputStream(file)))), segments.digest);
+             DataInputStream in = new DataInputStream(digestStream)) {
+            if (!FORMAT.equals(in.readUTF())) {
+                throw new IOException("Not a state snapshot");
+            }
+            int height = in.readInt();
+            long blockId = in.readLong();
+            int tableCount = in.readInt();
+            if (height <= 0 || tableCount <= 0 || tableCount > MAX_TABLES) {
+                throw new IOException("Invalid state snapshot header");
+            }
+            segments.end();
+            for (int i = 0; i < tableCount; i++) {
+                rows += readTable(in, segments, con);
+            }
+            byte[] root = segments.tree.getRoot();
+            digestStream.on(false);
+            byte[] fileRoot = new byte[root.length];
+            in.readFully(fileRoot);
+            if (!Arrays.equals(root, fileRoot)) {
+                throw new IOException("State snapshot merkle root mismatch");
+            }
+            return new Snapshot(height, blockId, root, rows);
+        }
+    }
+
+    private static long writeTable(Connection con, String table, int height, DataOutputStream out, Segments segments)
+            throws SQLException, IOException {
+        List<String> columns = getColumns(con, table);
+        out.writeUTF(table);
+        out.writeInt(columns.size());
+        for (String column : columns) {
+            out.writeUTF(column);
+        }
+        segments.end();
+        boolean hasHeight = columns.contains("HEIGHT");
+        StringBuilder sql = new StringBuilder("SELECT ").append(String.join(", ", columns)).append(" FROM ").append(table);
+        if (hasHeight) {
+            sql.append(" WHERE height <= ?");
+        }
+        if (columns.contains("LATEST")) {
+            sql.append(hasHeight ? " AND" : " WHERE").append(" latest = TRUE");
+        }
+        sql.append(" ORDER BY ").append(String.join(", ", getOrder(con, table, columns)));
+        long rows = 0;
+        try (PreparedStatement pstmt = con.prepareStatement(sql.toString())) {
+            if (hasHeight) {
+                pstmt.setInt(1, height);
+            }
+            pstmt.setFetchSize(FETCH_SIZE);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    out.writeByte(ROW);
+                    for (int i = 1; i <= columns.size(); i++) {
+                        writeValue(out, rs.getObject(i));
+                    }
+                    if (++rows % CHUNK_ROWS == 0) {
+                        segments.end();
+                    }
+                }
+            }
+        }
+        out.writeByte(END);
+        segments.end();
+        return rows;
+    }
+
+    private static long readTable(DataInputStream in, Segments segments, Connection con) throws IOException, SQLException {
+        String table = in.readUTF();
+        int columnCount = in.readInt();
+        if (columnCount <= 0 || columnCount > MAX_COLUMNS) {
+            throw new IOException("Invalid column count of table " + table);
+        }
+        List<String> columns = new ArrayList<>(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            columns.add(in.readUTF());
+        }
+        segments.end();
+        PreparedStatement pstmt = null;
+        if (con != null) {
+            if (!getColumns(con, table).containsAll(columns)) {
+                throw new IOException("Table " + table + " of the state snapshot doesn't match the database");
+            }
+            StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (").append(String.join(", ", columns)).append(") VALUES (");
+            for (int i = 0; i < columnCount; i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            pstmt = con.prepareStatement(sql.append(")").toString());
+        }
+        long rows = 0;
+        try {
+            while (true) {
+                byte marker = in.readByte();
+                if (marker == END) {
+                    break;
+                }
+                if (marker != ROW) {
+                    throw new IOException("Invalid row marker in table " + table);
+                }
+                for (int i = 1; i <= columnCount; i++) {
+                    Object value = readValue(in);
+                    if (pstmt != null) {
+                        pstmt.setObject(i, value);
+                    }
+                }
+                if (pstmt != null) {
+                    pstmt.addBatch();
+                }
+                if (++rows % CHUNK_ROWS == 0) {
+                    segments.end();
+                    if (pstmt != null) {
+                        pstmt.executeBatch();
+                        Db.db.commitTransaction();
+                    }
+                }
+            }
+            segments.end();
+            if (pstmt != null) {
+                pstmt.executeBatch();
+                Db.db.commitTransaction();
+                Logger.logDebugMessage("State snapshot table " + table + ": " + rows + " rows imported");
+            }
+        } finally {
+            if (pstmt != null) {
+                pstmt.close();
+            }
+        }
+        return rows;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL_VALUE);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG_VALUE);
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT_VALUE);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT_VALUE);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE_VALUE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN_VALUE);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof byte[]) {
+            out.writeByte(BYTES_VALUE);
+            out.writeInt(((byte[]) value).length);
+            out.write((byte[]) value);
+        } else if (value instanceof String) {
+            byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+            out.writeByte(STRING_VALUE);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            out.writeByte(ARRAY_VALUE);
+            out.writeInt(array.length);
+            for (Object element : array) {
+                writeValue(out, element);
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported column value " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL_VALUE:
+                return null;
+            case LONG_VALUE:
+                return in.readLong();
+            case INT_VALUE:
+                return in.readInt();
+            case SHORT_VALUE:
+                return in.readShort();
+            case BYTE_VALUE:
+                return in.readByte();
+            case BOOLEAN_VALUE:
+                return in.readBoolean();
+            case BYTES_VALUE:
+                return readBytes(in);
+            case STRING_VALUE:
+                return new String(readBytes(in), StandardCharsets.UTF_8);
+            case ARRAY_VALUE:
+                Object[] array = new Object[readLength(in)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readValue(in);
+                }
+                return array;
+            default:
+                throw new IOException("Invalid value type " + type);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_VALUE_LENGTH) {
+            throw new IOException("Invalid value length " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Return the tables of a snapshot: the chain tables first for the foreign keys, then the
+     * derived tables in their registration order and the poc tables
+     */
+    private static List<String> getTables(Connection con) throws SQLException {
+        List<String> tables = new ArrayList<>(CHAIN_TABLES);
+        for (DerivedDbTable table : BlockchainProcessorImpl.getInstance().getDerivedTables()) {
+            String name = table.toString().toUpperCase();
+            if (!(table instanceof PrunableDbTable) && !LOCAL_TABLES.contains(name) && !tables.contains(name)) {
+                tables.add(name);
+            }
+        }
+        tables.addAll(POC_TABLES);
+        for (String table : tables) {
+            if (getColumns(con, table).isEmpty()) {
+                throw new IllegalStateException("Table " + table + " not found");
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Return the columns of a table except db_id and the block store offset, in the column order
+     */
+    private static List<String> getColumns(Connection con, String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (PreparedStatement pstmt = con.prepareStatement("SELECT column_name FROM information_schema.columns "
+                + "WHERE table_schema = 'PUBLIC' AND table_name = ? ORDER BY ordinal_position")) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    if (!LOCAL_COLUMNS.contains(rs.getString(1))) {
+                        columns.add(rs.getString(1));
+                    }
+                }
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Return the columns of the smallest unique index without db_id, or all columns if the
+     * table has no such index, so that the rows have the same order on every node
+     */
+    private static List<String> getOrder(Connection con, String table, List<String> columns) throws SQLException {
+        Map<String, List<String>> indexes = new LinkedHashMap<>();
+        try (PreparedStatement pstmt = con.prepareStatement("SELECT index_name, column_name FROM information_schema.indexes "
+                + "WHERE table_schema = 'PUBLIC' AND table_name = ? AND non_unique = FALSE AND primary_key = FALSE "
+                + "ORDER BY index_name, ordinal_position")) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    indexes.computeIfAbsent(rs.getString(1), name -> new ArrayList<>()).add(rs.getString(2));
+                }
+            }
+        }
+        List<String> order = null;
+        for (List<String> index : indexes.values()) {
+            if (columns.containsAll(index) && (order == null || index.size() < order.size())) {
+                order = index;
+            }
+        }
+        return order != null ? order : columns;
+    }
+
+    private static boolean hasBlocks() {
+        try (Connection con = Db.db.getConnection();
+             Statement stmt = con.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1 FROM block LIMIT 1")) {
+            return rs.next();
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    private static int getSnapshotHeight() {
+        try (Connection con = Db.db.getConnection();
+             Statement stmt = con.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT snapshot_height FROM scan")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    private static void setSnapshotHeight(Connection con, int height) throws SQLException {
+        try (PreparedStatement pstmt = con.prepareStatement("UPDATE scan SET snapshot_height = ?")) {
+            pstmt.setInt(1, height);
+            pstmt.executeUpdate();
+        }
+    }
+
+}
@@ -40,11 +40,8 @@ public class PocHolder implements Serializable {
     int lastHeight = -1;
     
     /** poc score **/
-    // accountId : pocScore
+    // accountId : pocScore, the history scores are indexed by PocDb
     protected transient Map<Long, PocScore> scoreMap = PocDb.listAll();
-   
-    // height : { accountId : pocScore }
-    protected transient Map<Integer, Map<Long, PocScore>> historyScore = Maps.newConcurrentMap();
     /** poc score **/
 
     /** certified peers **/
@@ -279,7 +276,7 @@ public class PocHolder implements Serializable {
     private PocHolder(){}
 
 
-    static PocScore saveOrUpdate(PocScore pocScore) {
+    static synchronized PocScore saveOrUpdate(PocScore pocScore) {
         PocDb.saveOrUpdate(pocScore);
         
         PocScore pocScoreDetail = inst.scoreMap.get(pocScore.accountId);
@@ -335,7 +332,7 @@ public class PocHolder implements Serializable {
             _pocScore = inst.scoreMap.get(pocScore.accountId);
             _pocScore.synFrom(pocScore);
             
-            if(!inst.historyScore.containsKey(pocScore.height)) {
+            if(PocDb.getPocScore(pocScore.accountId, pocScore.height, false) == null) {
                 recordHistoryScore(_pocScore);
             }
         }
@@ -356,28 +353,10 @@ public class PocHolder implements Serializable {
      * get the poc score according to specified height
      * @param height
      * @param accountId
-     * @return
+     * @return the latest poc score at or below the height, null if the account has no poc score
      */
     static PocScore getExistedPocScore(int height,long accountId){
-        boolean containedInHistory = inst.historyScore.size() > 0 
-                                    && inst.historyScore.containsKey(height) 
-                                    && inst.historyScore.get(height).containsKey(accountId);
-
-        PocScore score = null;
-        if(!containedInHistory) {
-            PocScore historyScore = PocDb.getPocScore(accountId, height, true);
-            if(historyScore != null) {
-                // update history map
-                if(!inst.historyScore.containsKey(historyScore.height)) {
-                    inst.historyScore.put(historyScore.height, Maps.newHashMap());
-                }
-                inst.historyScore.get(historyScore.height).put(accountId, historyScore);
-                score = historyScore;
-            }
-        }else{
-            score = inst.historyScore.get(height).get(accountId);
-        }
-        
+        PocScore score = PocDb.getPocScore(accountId, height, true);
         PocScorePrinter.print();
         return score;
     }
@@ -391,12 +370,6 @@ public class PocHolder implements Serializable {
     static void recordHistoryScore(PocScore pocScore){
         PocScore historyPocScore = new PocScore(pocScore.height, pocScore);
         PocDb.saveOrUpdate(historyPocScore);
-        
-        if(!inst.historyScore.containsKey(pocScore.height)) {
-            inst.historyScore.put(pocScore.height, Maps.newHashMap());
-        }
-        inst.historyScore.get(pocScore.height).put(pocScore.accountId, historyPocScore);
-        
     }
 
     @Override
@@ -417,7 +390,6 @@ public class PocHolder implements Serializable {
         static final int printCount = 1;
         
         protected static boolean debug = Constants.isTestnetOrDevnet()  ? false : false;
-        protected static boolean debugHistory = Constants.isDevnet() ? false : false;
         
         protected static String summary = reset();
         private static final String splitter = "\n\r";
@@ -449,19 +421,6 @@ public class PocHolder implements Serializable {
             summary += appendSplitter("PocScore & Height Map[ accountId : PocScore ] height=" + Conch.getBlockchain().getHeight() + ", size=" + inst.scoreMap.size() + " >>>>>>>>",true);
             scoreMapStr(inst.scoreMap);
             summary += appendSplitter("<<<<<<<<<<",true);
-            
-            if(debugHistory) {
-                summary += appendSplitter("PocScore & Height Map[ height : Map{ accountId : PocScore } ] size=" + inst.historyScore.size() + " >>>>>>>>",true);
-                Set<Integer> heights = inst.historyScore.keySet();
-
-                for(Integer height : heights){
-                    summary += "height: " + height +" -> {";
-                    scoreMapStr(inst.historyScore.get(height));
-                    summary += appendSplitter("}",true);
-                }
-                summary += appendSplitter("<<<<<<<<<<",true);  
-            }
-          
         }
 
         static void print(){
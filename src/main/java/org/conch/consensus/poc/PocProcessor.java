@@ -115,4 +115,9 @@ public interface PocProcessor {
     Map<Integer, Map<Long,CertifiedPeer>>  getHistoryCertifiedPeers();
 
     boolean rollbackTo(int height);
+
+    /**
+     * reload the poc scores from the db, e.g. after a state snapshot was imported
+     */
+    void reloadPocScores();
 }
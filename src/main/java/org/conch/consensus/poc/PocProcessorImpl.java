@@ -460,20 +460,11 @@ public class PocProcessorImpl implements PocProcessor {
     public boolean rollbackTo(int height) {
         try {
             int currentHeight = Conch.getHeight();
-            // rollback the poc score map
-            synchronized (PocHolder.inst.historyScore) {
-                for(int i = height + 1; i <= currentHeight ; i++){
-                    if(PocHolder.inst.historyScore.containsKey(i)){
-                        PocHolder.inst.historyScore.remove(i);
-                    }
-                }
-                //rollback the db
-                PocDb.rollback(height);
-            }
+            // rollback the db and the poc score index
+            PocDb.rollback(height);
 
-            // reset the score map
-            synchronized (PocHolder.inst.scoreMap) {
-                PocHolder.inst.scoreMap.clear();
+            // reset the score map, under the lock of the PocHolder score updates since the map is replaced
+            synchronized (PocHolder.class) {
                 PocHolder.inst.scoreMap = PocDb.listAll();
             }
 
@@ -499,6 +490,14 @@ public class PocProcessorImpl implements PocProcessor {
         return true;
     }
 
+    @Override
+    public void reloadPocScores() {
+        PocDb.resetIndex();
+        synchronized (PocHolder.class) {
+            PocHolder.inst.scoreMap = PocDb.listAll();
+        }
+    }
+
     /**
      * load the poc holder backup from local disk
      */
@@ -3,25 +3,92 @@ package org.conch.consensus.poc.db;
 import com.alibaba.fastjson.JSON;
 import com.google.common.collect.Maps;
 import org.apache.commons.lang3.StringUtils;
-import org.conch.Conch;
+import org.conch.common.Constants;
 import org.conch.consensus.poc.PocScore;
 import org.conch.db.Db;
 import org.conch.db.DbUtils;
+import org.conch.db.TransactionalDb;
+import org.conch.util.Logger;
 
+import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
- * 
+ * Store of the poc scores.
+ * <p>
+ * The score components are stored in typed columns of account_poc_score, the rows written by
+ * the older versions keep the fastjson form in poc_detail.  The rows of the last MAX_ROLLBACK
+ * heights and the latest older row of every account are loaded once into an in-memory index by
+ * account and height, so a score lookup from the index height is a map lookup and a floor search
+ * in the heights of the account.  The older heights are read from the table on request.  The
+ * index is updated with the table, its height follows the saved scores and it is reloaded when a
+ * database transaction which changed the scores is rolled back or the scores of the heights
+ * below the index height are changed.
+ * <p>
+ * The index returns copies, the callers modify the returned scores before saving them.
+ *
  * @author <a href="mailto:xy@sharder.org">Ben</a>
  * @since 2019-05-17
  */
 public class PocDb {
 
+    private static final String COLUMNS = "account_id, poc_score, height, ss_score, node_type_score, server_score, "
+            + "hardware_score, network_score, performance_score, online_rate_score, block_miss_score, bc_score, "
+            + "effective_balance";
+
+    /**
+     * Scores by account and height from the index height, with the latest older score of every account
+     */
+    private static final class ScoreIndex {
+
+        // account id : { height : poc score }
+        private final Map<Long, NavigableMap<Integer, PocScore>> scores = new ConcurrentHashMap<>();
+        private volatile int height;
+
+        private ScoreIndex(int height) {
+            this.height = height;
+        }
+
+        /**
+         * Drop the scores which are not needed from a height, the latest older score of every
+         * account is kept
+         */
+        private synchronized void trim(int height) {
+            if (height <= this.height) {
+                return;
+            }
+            this.height = height;
+            scores.values().forEach(accountScores -> {
+                Integer floorHeight = accountScores.floorKey(height);
+                if (floorHeight != null) {
+                    accountScores.headMap(floorHeight, false).clear();
+                }
+            });
+        }
+    }
+
+    private static volatile ScoreIndex scoreIndex;
+
+    private static final TransactionalDb.TransactionCallback indexCallback = new TransactionalDb.TransactionCallback() {
+        @Override
+        public void commit() {
+        }
+
+        @Override
+        public void rollback() {
+            scoreIndex = null;
+        }
+    };
+
     public static void batchUpdate(Connection con, List<PocScore> pocScoreList) {
         if (pocScoreList == null || pocScoreList.size() < 0 ) {
             return;
@@ -52,47 +119,104 @@ public class PocDb {
     }
 
     private static void _saveOrUpdate(Connection con, PocScore pocScore) throws SQLException {
-        PreparedStatement pstmtCount = con.prepareStatement("SELECT db_id from account_poc_score "
-                + "WHERE account_id = ? AND height = ?");
-        pstmtCount.setLong(1, pocScore.getAccountId());
-        pstmtCount.setInt(2, pocScore.getHeight());
-
-        ResultSet rs = pstmtCount.executeQuery();
-        boolean exist = (rs != null) && rs.next();
+        boolean exist;
+        try (PreparedStatement pstmtCount = con.prepareStatement("SELECT db_id from account_poc_score "
+                + "WHERE account_id = ? AND height = ?")) {
+            pstmtCount.setLong(1, pocScore.getAccountId());
+            pstmtCount.setInt(2, pocScore.getHeight());
+            try (ResultSet rs = pstmtCount.executeQuery()) {
+                exist = rs.next();
+            }
+        }
 
         if(exist){
             update(con, pocScore);
         }else{
             insert(con, pocScore);
         }
+        index(pocScore);
     }
     
     private static int insert(Connection con, PocScore pocScore) throws SQLException {
         if(con == null) return 0;
         
-        PreparedStatement pstmtInsert = con.prepareStatement("INSERT INTO account_poc_score(account_id, "
-                + " poc_score, height, poc_detail) VALUES(?, ?, ?, ?)");
-
-        pstmtInsert.setLong(1, pocScore.getAccountId());
-        pstmtInsert.setLong(2, pocScore.total().longValue());
-        pstmtInsert.setInt(3, pocScore.getHeight());
-        pstmtInsert.setString(4, pocScore.toJsonString());
-        return pstmtInsert.executeUpdate();
+        try (PreparedStatement pstmtInsert = con.prepareStatement("INSERT INTO account_poc_score(" + COLUMNS
+                + ") VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            int i = 0;
+            pstmtInsert.setLong(++i, pocScore.getAccountId());
+            pstmtInsert.setLong(++i, pocScore.total().longValue());
+            pstmtInsert.setInt(++i, pocScore.getHeight());
+            setScores(pstmtInsert, i, pocScore);
+            return pstmtInsert.executeUpdate();
+        }
     }
 
     private static int update(Connection con, PocScore pocScore) throws SQLException {
-        String detail = pocScore.toJsonString();
-        if(con == null || StringUtils.isEmpty(detail) || pocScore.getAccountId() == -1 || pocScore.getHeight() < 0 ){
+        if(con == null || pocScore.getAccountId() == -1 || pocScore.getHeight() < 0 ){
             return 0;
         }
         
-        PreparedStatement pstmtUpdate = con.prepareStatement("UPDATE account_poc_score SET poc_score=?, poc_detail=? WHERE account_id = ? AND height = ?");
+        try (PreparedStatement pstmtUpdate = con.prepareStatement("UPDATE account_poc_score SET poc_score = ?, "
+                + "ss_score = ?, node_type_score = ?, server_score = ?, hardware_score = ?, network_score = ?, "
+                + "performance_score = ?, online_rate_score = ?, block_miss_score = ?, bc_score = ?, "
+                + "effective_balance = ?, poc_detail = NULL WHERE account_id = ? AND height = ?")) {
+            int i = 0;
+            pstmtUpdate.setLong(++i, pocScore.total().longValue());
+            i = setScores(pstmtUpdate, i, pocScore);
+            pstmtUpdate.setLong(++i, pocScore.getAccountId());
+            pstmtUpdate.setInt(++i, pocScore.getHeight());
+            return pstmtUpdate.executeUpdate();
+        }
+    }
 
-        pstmtUpdate.setLong(1, pocScore.total().longValue());
-        pstmtUpdate.setString(2, detail);
-        pstmtUpdate.setLong(3, pocScore.getAccountId());
-        pstmtUpdate.setInt(4, pocScore.getHeight());
-        return pstmtUpdate.executeUpdate();
+    private static int setScores(PreparedStatement pstmt, int i, PocScore pocScore) throws SQLException {
+        setScore(pstmt, ++i, pocScore.getSsScore());
+        setScore(pstmt, ++i, pocScore.getNodeTypeScore());
+        setScore(pstmt, ++i, pocScore.getServerScore());
+        setScore(pstmt, ++i, pocScore.getHardwareScore());
+        setScore(pstmt, ++i, pocScore.getNetworkScore());
+        setScore(pstmt, ++i, pocScore.getPerformanceScore());
+        setScore(pstmt, ++i, pocScore.getOnlineRateScore());
+        setScore(pstmt, ++i, pocScore.getBlockMissScore());
+        setScore(pstmt, ++i, pocScore.getBcScore());
+        if (pocScore.getEffectiveBalance() != null) {
+            pstmt.setLong(++i, pocScore.getEffectiveBalance().longValue());
+        } else {
+            pstmt.setNull(++i, Types.BIGINT);
+        }
+        return i;
+    }
+
+    private static void setScore(PreparedStatement pstmt, int index, BigInteger score) throws SQLException {
+        pstmt.setLong(index, score != null ? score.longValue() : 0L);
+    }
+
+    private static BigInteger getScore(ResultSet rs, String column) throws SQLException {
+        return BigInteger.valueOf(rs.getLong(column));
+    }
+
+    private static PocScore load(ResultSet rs) throws SQLException {
+        String detail = rs.getString("poc_detail");
+        long ssScore = rs.getLong("ss_score");
+        if (rs.wasNull() && StringUtils.isNotEmpty(detail)) {
+            // row written by an older version
+            return JSON.parseObject(detail, PocScore.class);
+        }
+        PocScore pocScore = new PocScore();
+        pocScore.setAccountId(rs.getLong("account_id"));
+        pocScore.setHeight(rs.getInt("height"));
+        pocScore.setSsScore(BigInteger.valueOf(ssScore));
+        pocScore.setNodeTypeScore(getScore(rs, "node_type_score"));
+        pocScore.setServerScore(getScore(rs, "server_score"));
+        pocScore.setHardwareScore(getScore(rs, "hardware_score"));
+        pocScore.setNetworkScore(getScore(rs, "network_score"));
+        pocScore.setPerformanceScore(getScore(rs, "performance_score"));
+        pocScore.setOnlineRateScore(getScore(rs, "online_rate_score"));
+        pocScore.setBlockMissScore(getScore(rs, "block_miss_score"));
+        pocScore.setBcScore(getScore(rs, "bc_score"));
+        long effectiveBalance = rs.getLong("effective_balance");
+        pocScore.setEffectiveBalance(rs.wasNull() ? null : BigInteger.valueOf(effectiveBalance));
+        return pocScore;
     }
 
     public static void delete(PocScore pocScore) {
@@ -103,11 +227,22 @@ public class PocDb {
         Connection con = null;
         try {
             con = Db.db.getConnection();
-            PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM account_poc_score WHERE account_id = ? AND height = ?");
-
-            pstmtDelete.setLong(1, accountId);
-            pstmtDelete.setInt(2, height);
-            pstmtDelete.executeUpdate();
+            try (PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM account_poc_score WHERE account_id = ? AND height = ?")) {
+                pstmtDelete.setLong(1, accountId);
+                pstmtDelete.setInt(2, height);
+                pstmtDelete.executeUpdate();
+            }
+            ScoreIndex index = getIndex();
+            if (height < index.height) {
+                // the older score of the account is not in the index
+                scoreIndex = null;
+            } else {
+                NavigableMap<Integer, PocScore> scores = index.scores.get(accountId);
+                if (scores != null) {
+                    scores.remove(height);
+                }
+            }
+            registerIndexCallback();
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         } finally {
@@ -115,6 +250,13 @@ public class PocDb {
         }
     }
 
+    /**
+     * drop the in-memory index, it is loaded again from the table on the next read
+     */
+    public static void resetIndex() {
+        scoreIndex = null;
+    }
+
     public static int rollback(int height) {
         if (!Db.db.isInTransaction()) {
             throw new IllegalStateException("Not in transaction");
@@ -122,51 +264,20 @@ public class PocDb {
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM ACCOUNT_POC_SCORE WHERE height > ?")) {
             pstmtDelete.setInt(1, height);
-            return pstmtDelete.executeUpdate();
+            int count = pstmtDelete.executeUpdate();
+            ScoreIndex index = getIndex();
+            if (height < index.height) {
+                scoreIndex = null;
+            } else {
+                index.scores.values().forEach(scores -> scores.tailMap(height, false).clear());
+            }
+            registerIndexCallback();
+            return count;
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }
     }
 
-    private static String get(long accountId, int height, boolean loadHistory) {
-        try {
-            Conch.getBlockchain().readLock();
-            if(height < 0) return null;
-            
-            // close the start height in query 
-            int appointStart = -1;
-            
-            Connection con = null;
-            try {
-                con = Db.db.getConnection();
-                PreparedStatement pstmt = con.prepareStatement("SELECT poc_detail AS detail "
-                        + "FROM account_poc_score WHERE account_id = ?"
-                        + (loadHistory ? " AND height <= ?" : " AND height = ?")
-                        + (appointStart != -1 ? " AND height > ?" : "")  
-                        + " ORDER BY height DESC LIMIT 1");
-
-                pstmt.setLong(1, accountId);
-                pstmt.setInt(2, height);
-                
-                if(appointStart != -1) {
-                    pstmt.setInt(3, appointStart);
-                }
-
-                ResultSet rs = pstmt.executeQuery();
-                if(rs !=null && rs.next()){
-                    return rs.getString("detail");
-                }
-            } catch (SQLException e) {
-                throw new RuntimeException(e.toString(), e);
-            }finally {
-                DbUtils.close(con);
-            }
-        } finally {
-            Conch.getBlockchain().readUnlock();
-        }
-        return null;
-    }
-
     /**
      * load poc score record at specified height
      * @param accountId
@@ -175,51 +286,121 @@ public class PocDb {
      * @return
      */
     public static PocScore getPocScore(long accountId, int height, boolean loadHistory) {
-        String detail = get(accountId, height, loadHistory);
-        if(StringUtils.isEmpty(detail)) return null;
-        
-        return JSON.parseObject(detail, PocScore.class);
-    }
+        if(height < 0) return null;
 
+        ScoreIndex index = getIndex();
+        if (height < index.height) {
+            return loadPocScore(accountId, height, loadHistory);
+        }
+        NavigableMap<Integer, PocScore> scores = index.scores.get(accountId);
+        if (scores == null) return null;
+
+        PocScore pocScore;
+        if (loadHistory) {
+            Map.Entry<Integer, PocScore> entry = scores.floorEntry(height);
+            pocScore = entry != null ? entry.getValue() : null;
+        } else {
+            pocScore = scores.get(height);
+        }
+        return pocScore != null ? new PocScore(pocScore.getHeight(), pocScore) : null;
+    }
 
+    /**
+     * the latest poc score of every account
+     * @return account id : poc score
+     */
     public static Map<Long,PocScore>  listAll() {
         Map<Long,PocScore> scoreMap = Maps.newHashMap();
-        
-        try {
-            Conch.getBlockchain().readLock();
-            Connection con = null;
-            try {
-                con = Db.db.getConnection();
-                PreparedStatement pstmt = con.prepareStatement("SELECT poc_detail AS detail FROM account_poc_score ORDER BY height DESC");
-
-                ResultSet rs = pstmt.executeQuery();
-                while(rs.next()){
-                    try{
-                        String detail = rs.getString("detail");
-                        PocScore pocScore = JSON.parseObject(detail, PocScore.class);
-                        
-                        // compare the height
-                        if(scoreMap.containsKey(pocScore.getAccountId())){
-                            PocScore oldScore = scoreMap.get(pocScore.getAccountId());
-                            if(oldScore.getHeight() < pocScore.getHeight()){
-                                scoreMap.put(pocScore.getAccountId(), pocScore);
-                            }
-                        }else{
-                            scoreMap.put(pocScore.getAccountId(), pocScore);
-                        }
-                    }catch (Exception e) {
+        getIndex().scores.forEach((accountId, scores) -> {
+            Map.Entry<Integer, PocScore> entry = scores.lastEntry();
+            if (entry != null) {
+                scoreMap.put(accountId, new PocScore(entry.getKey(), entry.getValue()));
+            }
+        });
+        return scoreMap;
+    }
+
+    private static void index(PocScore pocScore) {
+        ScoreIndex index = getIndex();
+        index.scores.computeIfAbsent(pocScore.getAccountId(), accountId -> new ConcurrentSkipListMap<>())
+                .put(pocScore.getHeight(), new PocScore(pocScore.getHeight(), pocScore));
+        // trimmed once every MAX_ROLLBACK heights
+        if (pocScore.getHeight() - Constants.MAX_ROLLBACK >= index.height + Constants.MAX_ROLLBACK) {
+            index.trim(pocScore.getHeight() - Constants.MAX_ROLLBACK);
+        }
+        registerIndexCallback();
+    }
+
+    private static void registerIndexCallback() {
+        if (Db.db.isInTransaction()) {
+            Db.db.registerCallback(indexCallback);
+        }
+    }
+
+    private static ScoreIndex getIndex() {
+        ScoreIndex index = scoreIndex;
+        if (index == null) {
+            synchronized (PocDb.class) {
+                index = scoreIndex;
+                if (index == null) {
+                    index = loadIndex();
+                    scoreIndex = index;
+                    registerIndexCallback();
+                }
+            }
+        }
+        return index;
+    }
+
+    private static ScoreIndex loadIndex() {
+        int count = 0;
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmtHeight = con.prepareStatement("SELECT MAX(height) FROM account_poc_score");
+             PreparedStatement pstmt = con.prepareStatement("SELECT " + COLUMNS + ", poc_detail FROM account_poc_score "
+                     + "WHERE height >= ? UNION ALL SELECT " + COLUMNS + ", poc_detail FROM account_poc_score a "
+                     + "WHERE height = (SELECT MAX(height) FROM account_poc_score b WHERE b.account_id = a.account_id AND b.height < ?)")) {
+            int height;
+            try (ResultSet rs = pstmtHeight.executeQuery()) {
+                rs.next();
+                height = Math.max(0, rs.getInt(1) - Constants.MAX_ROLLBACK);
+            }
+            ScoreIndex index = new ScoreIndex(height);
+            pstmt.setInt(1, height);
+            pstmt.setInt(2, height);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    try {
+                        PocScore pocScore = load(rs);
+                        index.scores.computeIfAbsent(pocScore.getAccountId(), accountId -> new ConcurrentSkipListMap<>())
+                                .put(pocScore.getHeight(), pocScore);
+                        count++;
+                    } catch (Exception e) {
                         // continue to fetch next
-                        System.err.println(e);
+                        Logger.logWarningMessage("Can't load the poc score row: " + e.getMessage());
                     }
                 }
-            } catch (SQLException e) {
-                throw new RuntimeException(e.toString(), e);
-            }finally {
-                DbUtils.close(con);
             }
-        } finally {
-            Conch.getBlockchain().readUnlock();
+            Logger.logDebugMessage("Loaded " + count + " poc scores of " + index.scores.size() + " accounts from height " + height);
+            return index;
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    /**
+     * Read a score below the index height from the table
+     */
+    private static PocScore loadPocScore(long accountId, int height, boolean loadHistory) {
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT " + COLUMNS + ", poc_detail FROM account_poc_score "
+                     + "WHERE account_id = ? AND height " + (loadHistory ? "<=" : "=") + " ? ORDER BY height DESC LIMIT 1")) {
+            pstmt.setLong(1, accountId);
+            pstmt.setInt(2, height);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? load(rs) : null;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
         }
-        return scoreMap;
     }
 }
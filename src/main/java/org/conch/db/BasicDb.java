@@ -27,6 +27,7 @@ import org.conch.util.Logger;
 import org.h2.jdbcx.JdbcConnectionPool;
 
 import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
 
@@ -171,6 +172,23 @@ public class BasicDb {
         }
     }
 
+    /**
+     * Shut the database down and close the connection pool, so the database files are not opened
+     * again until the restart
+     */
+    void close() {
+        shutdown();
+        initialized = false;
+        cp.dispose();
+    }
+
+    /**
+     * Open a connection outside of the connection pool
+     */
+    Connection openConnection() throws SQLException {
+        return DriverManager.getConnection(dbUrl, dbUsername, dbPassword);
+    }
+
     public void analyzeTables() {
         try (Connection con = cp.getConnection();
              Statement stmt = con.createStatement()) {
@@ -0,0 +1,134 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Connection wrapper which turns the updates of repeated prepared statements into JDBC batches
+ *
+ * A prepared INSERT, MERGE, UPDATE or DELETE statement is created once for each SQL string and
+ * its executeUpdate() adds the current parameters to the batch.  The batches are executed by
+ * {@link #executeBatches()} in the order the statements were first prepared.  Queries and other
+ * statements are passed through to the wrapped connection.
+ */
+final class BatchConnection extends FilteredConnection {
+
+    private static final FilteredFactory factory = new FilteredFactory() {
+
+        @Override
+        public Statement createStatement(Statement stmt) {
+            return stmt;
+        }
+
+        @Override
+        public PreparedStatement createPreparedStatement(PreparedStatement stmt, String sql) {
+            return stmt;
+        }
+    };
+
+    private final Map<String, BatchPreparedStatement> statements = new LinkedHashMap<>();
+
+    BatchConnection(Connection con) {
+        super(con, factory);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        if (!isUpdate(sql)) {
+            return super.prepareStatement(sql);
+        }
+        BatchPreparedStatement pstmt = statements.get(sql);
+        if (pstmt == null) {
+            pstmt = new BatchPreparedStatement(super.prepareStatement(sql), sql);
+            statements.put(sql, pstmt);
+        }
+        return pstmt;
+    }
+
+    @Override
+    public void close() {
+        // the wrapped connection belongs to the database transaction
+    }
+
+    /**
+     * Execute and close the batched statements
+     *
+     * @throws SQLException Database error
+     */
+    void executeBatches() throws SQLException {
+        try {
+            for (BatchPreparedStatement pstmt : statements.values()) {
+                pstmt.executeBatchUpdate();
+            }
+        } finally {
+            for (BatchPreparedStatement pstmt : statements.values()) {
+                pstmt.closeStatement();
+            }
+            statements.clear();
+        }
+    }
+
+    private static boolean isUpdate(String sql) {
+        String prefix = sql.trim().toUpperCase(Locale.ROOT);
+        return prefix.startsWith("INSERT") || prefix.startsWith("MERGE")
+                || prefix.startsWith("UPDATE") || prefix.startsWith("DELETE");
+    }
+
+    private static final class BatchPreparedStatement extends FilteredPreparedStatement {
+
+        private BatchPreparedStatement(PreparedStatement stmt, String sql) {
+            super(stmt, sql);
+        }
+
+        @Override
+        public int executeUpdate() throws SQLException {
+            addBatch();
+            return 1;
+        }
+
+        @Override
+        public boolean execute() throws SQLException {
+            addBatch();
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // closed by executeBatches()
+        }
+
+        private void executeBatchUpdate() throws SQLException {
+            super.executeBatch();
+        }
+
+        private void closeStatement() throws SQLException {
+            super.close();
+        }
+    }
+}
@@ -23,8 +23,8 @@ package org.conch.db;
 
 import org.conch.account.FxtDistribution;
 import org.conch.chain.BlockDb;
-import org.conch.chain.BlockchainProcessorImpl;
 import org.conch.common.Constants;
+import org.conch.tx.TransactionType;
 import org.conch.util.Convert;
 
 import java.sql.*;
@@ -1137,8 +1137,8 @@ public class ConchDbVersion extends DbVersion {
                 apply("CREATE INDEX IF NOT EXISTS referenced_transaction_referenced_transaction_id_idx ON referenced_transaction (referenced_transaction_id)");
             case 473:
                 BlockDb.deleteBlocksFromHeight(Constants.SHUFFLING_BLOCK_HEIGHT);
-                BlockchainProcessorImpl.getInstance().scheduleScan(0, false);
-                apply(null);
+                // the scan table has no checkpoint column yet
+                apply("UPDATE scan SET rescan = TRUE, height = 0, validate = FALSE");
             case 474:
                 apply("DROP INDEX IF EXISTS phasing_poll_linked_transaction_id_link_idx");
             case 475:
@@ -1176,8 +1176,7 @@ public class ConchDbVersion extends DbVersion {
             case 483:
                 apply("CREATE UNIQUE INDEX IF NOT EXISTS account_fxt_id_idx ON account_fxt (id, height DESC)");
             case 484:
-                BlockchainProcessorImpl.getInstance().scheduleScan(FxtDistribution.DISTRIBUTION_START - 1, false);
-                apply(null);
+                apply("UPDATE scan SET rescan = TRUE, height = " + (FxtDistribution.DISTRIBUTION_START - 1) + ", validate = FALSE");
             case 485:
                 BlockDb.deleteBlocksFromHeight(Constants.FXT_BLOCK);
                 apply(null);
@@ -1210,6 +1209,88 @@ public class ConchDbVersion extends DbVersion {
             case 496:
                 apply("CREATE INDEX IF NOT EXISTS pool_id_idx ON account_pool (pool_id DESC)");
             case 497:
+                apply("ALTER TABLE account_poc_score ADD COLUMN IF NOT EXISTS ss_score BIGINT");
+            case 498:
+                apply("ALTER TABLE account_poc_score ADD COLUMN IF NOT EXISTS node_type_score BIGINT");
+            case 499:
+                apply("ALTER TABLE account_poc_score ADD COLUMN IF NOT EXISTS server_score BIGINT");
+            case 500:
+                apply("ALTER TABLE account_poc_score ADD COLUMN IF NOT EXISTS hardware_score BIGINT");
+            case 501:
+                apply("ALTER TABLE account_poc_score ADD COLUMN IF NOT EXISTS network_score BIGINT");
+            case 502:
+                apply("ALTER TABLE account_poc_score ADD COLUMN IF NOT EXISTS performance_score BIGINT");
+            case 503:
+                apply("ALTER TABLE account_poc_score ADD COLUMN IF NOT EXISTS online_rate_score BIGINT");
+            case 504:
+                apply("ALTER TABLE account_poc_score ADD COLUMN IF NOT EXISTS block_miss_score BIGINT");
+            case 505:
+                apply("ALTER TABLE account_poc_score ADD COLUMN IF NOT EXISTS bc_score BIGINT");
+            case 506:
+                apply("ALTER TABLE account_poc_score ADD COLUMN IF NOT EXISTS effective_balance BIGINT");
+            case 507:
+                apply("ALTER TABLE tagged_data ALTER COLUMN data SET NULL");
+            case 508:
+                apply("ALTER TABLE tagged_data ADD COLUMN IF NOT EXISTS data_hash BINARY(32)");
+            case 509:
+                apply("CREATE INDEX IF NOT EXISTS tagged_data_data_hash_idx ON tagged_data (data_hash)");
+            case 510:
+                apply("ALTER TABLE scan ADD COLUMN IF NOT EXISTS snapshot_height INT NOT NULL DEFAULT 0");
+            case 511:
+                apply("ALTER TABLE block ADD COLUMN IF NOT EXISTS store_offset BIGINT");
+            case 512:
+                apply("ALTER TABLE scan ADD COLUMN IF NOT EXISTS checkpoint INT NOT NULL DEFAULT 0");
+            case 513:
+                apply("CREATE TABLE IF NOT EXISTS tx_statistics (db_id IDENTITY, height INT NOT NULL, timestamp INT NOT NULL, "
+                        + "transfer_count BIGINT NOT NULL, transfer_amount BIGINT NOT NULL, storage_count BIGINT NOT NULL, "
+                        + "storage_length BIGINT NOT NULL, pool_count BIGINT NOT NULL, coinbase_count BIGINT NOT NULL)");
+            case 514:
+                apply("CREATE UNIQUE INDEX IF NOT EXISTS tx_statistics_height_idx ON tx_statistics (height)");
+            case 515:
+                // running totals of TxStatistics, the data of the pruned uploads is not counted
+                try (Connection con = db.getConnection();
+                     Statement stmt = con.createStatement();
+                     PreparedStatement pstmtInsert = con.prepareStatement("INSERT INTO tx_statistics (height, timestamp, "
+                             + "transfer_count, transfer_amount, storage_count, storage_length, pool_count, coinbase_count) "
+                             + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)")) {
+                    stmt.executeUpdate("DELETE FROM tx_statistics");
+                    String transfer = "t.version >= 3 AND b.height > 0 AND t.type = " + TransactionType.TYPE_PAYMENT + " AND t.subtype = 0";
+                    String storage = "t.version >= 3 AND b.height > 0 AND t.type = " + TransactionType.TYPE_DATA + " AND t.subtype = 0";
+                    long[] totals = new long[6];
+                    try (ResultSet rs = stmt.executeQuery("SELECT b.height, b.timestamp, "
+                            + "SUM(CASE WHEN " + transfer + " THEN 1 ELSE 0 END), "
+                            + "SUM(CASE WHEN " + transfer + " THEN t.amount ELSE 0 END), "
+                            + "SUM(CASE WHEN " + storage + " THEN 1 ELSE 0 END), "
+                            + "SUM(CASE WHEN " + storage + " THEN IFNULL(OCTET_LENGTH(d.data), 0) ELSE 0 END), "
+                            + "SUM(CASE WHEN t.type = " + TransactionType.TYPE_SHARDER_POOL + " THEN 1 ELSE 0 END), "
+                            + "SUM(CASE WHEN t.type = " + TransactionType.TYPE_COIN_BASE + " THEN 1 ELSE 0 END) "
+                            + "FROM block b LEFT JOIN transaction t ON t.block_id = b.id "
+                            + "LEFT JOIN tagged_data d ON d.id = t.id AND d.latest = TRUE "
+                            + "GROUP BY b.height, b.timestamp ORDER BY b.height")) {
+                        int count = 0;
+                        while (rs.next()) {
+                            pstmtInsert.setInt(1, rs.getInt(1));
+                            pstmtInsert.setInt(2, rs.getInt(2));
+                            for (int i = 0; i < totals.length; i++) {
+                                totals[i] += rs.getLong(i + 3);
+                                pstmtInsert.setLong(i + 3, totals[i]);
+                            }
+                            pstmtInsert.addBatch();
+                            if (++count % 1000 == 0) {
+                                pstmtInsert.executeBatch();
+                            }
+                        }
+                        pstmtInsert.executeBatch();
+                    }
+                } catch (SQLException e) {
+                    throw new RuntimeException(e.toString(), e);
+                }
+                apply(null);
+            case 516:
+                apply("CREATE TABLE IF NOT EXISTS ledger_writer (ledger_height INT NOT NULL)");
+            case 517:
+                apply("INSERT INTO ledger_writer (ledger_height) VALUES (0)");
+            case 518:
                 break;
             default:
                 throw new RuntimeException("Blockchain database inconsistent with code, at update " + nextUpdate
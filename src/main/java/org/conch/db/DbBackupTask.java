@@ -1,19 +1,17 @@
 package org.conch.db;
 
-import com.google.common.collect.Lists;
 import it.sauronsoftware.cron4j.Task;
 import it.sauronsoftware.cron4j.TaskExecutionContext;
 import org.conch.Conch;
-import org.h2.tools.Shell;
+import org.conch.util.Logger;
 
 import java.io.File;
+import java.io.IOException;
 import java.sql.SQLException;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.List;
 
 public class DbBackupTask extends Task{
     private static String defaultPath = Conch.getStringProperty("sharder.db.backup.path");
+    private static final boolean incremental = Conch.getBooleanProperty("sharder.db.backup.incremental");
 
 
     @Override
@@ -38,58 +36,30 @@ public class DbBackupTask extends Task{
 
     @Override
     public void execute(TaskExecutionContext taskExecutionContext) throws RuntimeException {
-        execute(null, null);
+        execute(null, null, incremental);
     }
 
-    public static String execute(String path, String fileName) {
-        String pathStr;
-        String fileNameStr;
+    /**
+     * Back up the database without taking the blockchain locks
+     *
+     * @param path backup directory, null for the configured directory
+     * @param fileName file name of a full backup, null for the default name
+     * @param incremental TRUE for an incremental backup, a full backup is done if the directory has none
+     * @return backup file and metrics, null if the backup failed or there was nothing new to back up
+     */
+    public static OnlineBackup.Result execute(String path, String fileName, boolean incremental) {
+        File dir = new File(path == null ? defaultPath : path);
         try {
-            Conch.getBlockchain().updateLock();
-            Conch.getBlockchain().readLock();
-            pathStr = path==null?defaultPath:path;
-            if(fileName == null) {
-                LocalDateTime currentDateTime = LocalDateTime.now();
-                DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("yyyyMMddHHmmSS");
-                String now = currentDateTime.format(dateTimeFormatter);
-                int height = Conch.getBlockchain().getHeight();
-                fileNameStr = "sharder_db_backup_"+now+"_"+ height +".zip";
-            }else {
-                fileNameStr = fileName + (fileName.contains(".zip")?"":".zip");
+            if (incremental && OnlineBackup.getLastBackupHeight(dir) >= 0) {
+                return OnlineBackup.incremental(dir);
             }
-            File file = new File(pathStr + (pathStr.endsWith(File.separator) ? "" : File.separator) +  fileNameStr);
-            String sql = "SCRIPT TO '" + pathStr + (pathStr.endsWith(File.separator) ? "" : File.separator) +  fileNameStr +"' COMPRESSION ZIP";
-            Shell shell = new Shell();
-            shell.runTool(Db.db.getConnection(), "-sql", sql);
-
-            deleteOldBackupFiles(pathStr, Lists.newArrayList(fileNameStr));
-            
-            return file.getAbsolutePath();
-        } catch (SQLException e) {
-            e.printStackTrace();
+            OnlineBackup.Result result = OnlineBackup.full(dir, fileName);
+            OnlineBackup.deleteOlderBackups(dir, result.getFile().getName());
+            return result;
+        } catch (SQLException | IOException | RuntimeException e) {
+            Logger.logErrorMessage("Database backup to " + dir.getAbsolutePath() + " failed", e);
             return null;
-        } finally {
-            Conch.getBlockchain().updateUnlock();
-            Conch.getBlockchain().readUnlock();
         }
-
     }
 
-    private static boolean deleteOldBackupFiles(String path, List<String> ignoreList){
-        File file = new File(path);
-
-        if(!file.isDirectory()) {
-            return false;
-        }
-        
-        File[] oldFiles = file.listFiles();
-        for(int i = 0 ; i < oldFiles.length; i++){
-            if(ignoreList.contains(oldFiles[i].getName())) {
-                continue;
-            }
-            oldFiles[i].delete();
-        }
-
-        return true;
-    }
 }
@@ -2,20 +2,48 @@ package org.conch.db;
 
 import org.conch.Conch;
 import org.conch.util.Logger;
+import org.h2.tools.Restore;
 import org.h2.tools.Shell;
 
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
+/**
+ * Restore the database from a backup and shut the node down.
+ * <p>
+ * A {@code SCRIPT TO} backup of the earlier versions is run into the emptied database.  A full
+ * backup of {@link OnlineBackup} replaces the database files once the database is closed, the
+ * blocks of the incremental backups which follow it in its folder are then replayed and a full
+ * scan is scheduled, which rebuilds the other tables on the next start.  The database is left as
+ * the full backup if the replayed blocks are not a chain.  An incremental backup can't be
+ * restored alone.  The format of the file is checked before the database is changed.
+ */
 public class DbRollback{
 
-    public static void rollback(String scriptFile) throws SQLException {
+    private enum Format {
+        SCRIPT, BACKUP
+    }
+
+    public static void rollback(String backupFile) throws SQLException {
+        File file = new File(backupFile);
+        Format format = getFormat(file);
         try {
             Conch.getBlockchain().updateLock();
             Conch.getBlockchain().readLock();
             Logger.logInfoMessage("Db rollback task is launching...");
-            String sql = "DROP ALL OBJECTS;RUNSCRIPT FROM '"+scriptFile+"' COMPRESSION ZIP";
-            Shell shell = new Shell();
-            shell.runTool(Db.db.getConnection(), "-sql", sql);
+            if (format == Format.SCRIPT) {
+                String sql = "DROP ALL OBJECTS;RUNSCRIPT FROM '"+backupFile+"' COMPRESSION ZIP";
+                Shell shell = new Shell();
+                shell.runTool(Db.db.getConnection(), "-sql", sql);
+            } else {
+                restore(file);
+            }
             Logger.logInfoMessage("Db rollback task done");
         } catch (SQLException e) {
             e.printStackTrace();
@@ -28,4 +56,59 @@ public class DbRollback{
         }
     }
 
+    /**
+     * Return the format of a backup file
+     *
+     * @param file Backup file
+     * @return Backup format
+     * @throws IllegalArgumentException The file is not a backup which can be restored
+     */
+    private static Format getFormat(File file) {
+        Format format = null;
+        try (ZipFile zip = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (name.equals("script.sql")) {
+                    format = Format.SCRIPT;
+                } else if (name.endsWith(".h2.db") || name.endsWith(".mv.db")) {
+                    format = Format.BACKUP;
+                } else if (name.equals("backup.properties")) {
+                    throw new IllegalArgumentException(file.getName() + " is an incremental backup, restore the full backup which precedes it");
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(file.getName() + " is not a zip file: " + e.getMessage(), e);
+        }
+        if (format == null) {
+            throw new IllegalArgumentException(file.getName() + " is not a database backup");
+        }
+        return format;
+    }
+
+    private static void restore(File file) throws SQLException {
+        String url = Db.db.getUrl();
+        String path = url.substring("jdbc:h2:".length());
+        if (path.indexOf(';') >= 0) {
+            path = path.substring(0, path.indexOf(';'));
+        }
+        if (path.startsWith("file:")) {
+            path = path.substring("file:".length());
+        }
+        if (path.startsWith("~")) {
+            path = System.getProperty("user.home") + path.substring(1);
+        }
+        File dbFile = new File(path).getAbsoluteFile();
+        Db.db.close();
+        Restore.execute(file.getAbsolutePath(), dbFile.getParent(), dbFile.getName());
+        Logger.logInfoMessage("Restored the database files of " + file.getName());
+        try (Connection con = Db.db.openConnection();
+             Statement stmt = con.createStatement()) {
+            if (OnlineBackup.replayIncrementals(con, file) >= 0) {
+                stmt.executeUpdate("UPDATE scan SET rescan = TRUE, height = 0, validate = FALSE, checkpoint = 0");
+                Logger.logInfoMessage("Scheduled a full scan to rebuild the tables from the replayed blocks");
+            }
+        }
+    }
+
 }
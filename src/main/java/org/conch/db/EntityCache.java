@@ -0,0 +1,187 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.db;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.conch.Conch;
+import org.json.simple.JSONObject;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Size-bounded cache of the latest entities of a versioned table, shared by all threads.
+ * <p>
+ * The cache serves the reads done outside of a database transaction, e.g. the API requests.
+ * A database transaction still loads its own entity instances, since the entities are modified
+ * in place before they are inserted.  An insert or delete invalidates the key when it is done and
+ * again when the database transaction is committed.  A rollback to a height invalidates the keys
+ * of the rolled back rows and a truncate invalidates the whole cache.  The trim only deletes
+ * the old versions of the entities, which are not cached.
+ * <p>
+ * A load from the database is cached only if the table was not modified while it was loaded,
+ * so a concurrent commit can't leave a stale entity in the cache.
+ */
+public final class EntityCache<T> {
+
+    private static final int cacheSize = Conch.getIntProperty("sharder.entityCacheSize", 10000);
+    private static final List<String> cachedTables = Conch.getStringListProperty("sharder.entityCacheTables");
+    private static final Map<String, EntityCache<?>> caches = new ConcurrentHashMap<>();
+
+    /**
+     * Create the cache of a table
+     *
+     * @param table Table name
+     * @return Entity cache or null if the table is not cached
+     */
+    static <T> EntityCache<T> create(String table) {
+        if (cacheSize <= 0 || !cachedTables.contains(table)) {
+            return null;
+        }
+        EntityCache<T> entityCache = new EntityCache<>(table);
+        caches.put(table, entityCache);
+        return entityCache;
+    }
+
+    /**
+     * Return the hit and miss counts of the entity caches
+     *
+     * @return Statistics by table name
+     */
+    public static JSONObject getStats() {
+        JSONObject json = new JSONObject();
+        caches.forEach((table, entityCache) -> json.put(table, entityCache.getJSONObject()));
+        return json;
+    }
+
+    private final String table;
+    private final Cache<DbKey, T> cache;
+    private long modCount;
+    private final ThreadLocal<Set<DbKey>> modifiedKeys = ThreadLocal.withInitial(HashSet::new);
+    private final ThreadLocal<Boolean> truncated = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private final TransactionalDb.TransactionCallback callback = new TransactionalDb.TransactionCallback() {
+
+        @Override
+        public void commit() {
+            Set<DbKey> dbKeys = modifiedKeys.get();
+            synchronized (EntityCache.this) {
+                modCount++;
+                if (truncated.get()) {
+                    cache.invalidateAll();
+                } else {
+                    cache.invalidateAll(dbKeys);
+                }
+            }
+            dbKeys.clear();
+            truncated.set(Boolean.FALSE);
+        }
+
+        @Override
+        public void rollback() {
+            synchronized (EntityCache.this) {
+                modCount++;
+            }
+            modifiedKeys.get().clear();
+            truncated.set(Boolean.FALSE);
+        }
+    };
+
+    private EntityCache(String table) {
+        this.table = table;
+        this.cache = CacheBuilder.newBuilder().maximumSize(cacheSize).recordStats().build();
+    }
+
+    T get(DbKey dbKey) {
+        return cache.getIfPresent(dbKey);
+    }
+
+    /**
+     * Return the modification count, to be passed to {@link #put(DbKey, Object, long)} after the entity is loaded
+     */
+    synchronized long getModCount() {
+        return modCount;
+    }
+
+    synchronized void put(DbKey dbKey, T t, long loadModCount) {
+        if (modCount == loadModCount) {
+            cache.put(dbKey, t);
+        }
+    }
+
+    /**
+     * Invalidate an entity modified in the current database transaction
+     */
+    void invalidate(TransactionalDb db, DbKey dbKey) {
+        synchronized (this) {
+            modCount++;
+            cache.invalidate(dbKey);
+        }
+        modifiedKeys.get().add(dbKey);
+        db.registerCallback(callback);
+    }
+
+    /**
+     * Invalidate the entities rolled back in the current database transaction
+     */
+    void invalidate(TransactionalDb db, List<DbKey> dbKeys) {
+        synchronized (this) {
+            modCount++;
+            cache.invalidateAll(dbKeys);
+        }
+        modifiedKeys.get().addAll(dbKeys);
+        db.registerCallback(callback);
+    }
+
+    /**
+     * Invalidate all entities, the table is truncated in the current database transaction
+     */
+    void invalidateAll(TransactionalDb db) {
+        synchronized (this) {
+            modCount++;
+            cache.invalidateAll();
+        }
+        truncated.set(Boolean.TRUE);
+        db.registerCallback(callback);
+    }
+
+    private JSONObject getJSONObject() {
+        CacheStats stats = cache.stats();
+        JSONObject json = new JSONObject();
+        json.put("size", cache.size());
+        json.put("hits", stats.hitCount());
+        json.put("misses", stats.missCount());
+        json.put("hitRate", stats.hitRate());
+        json.put("evictions", stats.evictionCount());
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return table;
+    }
+}
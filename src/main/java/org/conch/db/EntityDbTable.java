@@ -28,6 +28,9 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public abstract class EntityDbTable<T> extends DerivedDbTable {
 
@@ -35,6 +38,7 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
     protected final DbKey.Factory<T> dbKeyFactory;
     private final String defaultSort;
     private final String fullTextSearchColumns;
+    final EntityCache<T> entityCache;
 
     protected EntityDbTable(String table, DbKey.Factory<T> dbKeyFactory) {
         this(table, dbKeyFactory, false, null);
@@ -50,6 +54,7 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
         this.multiversion = multiversion;
         this.defaultSort = " ORDER BY " + (multiversion ? dbKeyFactory.getPKColumns() : " height DESC, db_id DESC ");
         this.fullTextSearchColumns = fullTextSearchColumns;
+        this.entityCache = multiversion ? EntityCache.create(table) : null;
     }
 
     protected abstract T load(Connection con, ResultSet rs, DbKey dbKey) throws SQLException;
@@ -104,11 +109,25 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
                 return t;
             }
         }
+        // the shared cache is used outside of a transaction only, a transaction modifies its entities
+        boolean sharedCache = cache && entityCache != null && !db.isInTransaction();
+        long modCount = 0;
+        if (sharedCache) {
+            T t = entityCache.get(dbKey);
+            if (t != null) {
+                return t;
+            }
+            modCount = entityCache.getModCount();
+        }
         try (Connection con = db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + dbKeyFactory.getPKClause()
              + (multiversion ? " AND latest = TRUE LIMIT 1" : ""))) {
             dbKey.setPK(pstmt);
-            return get(con, pstmt, cache);
+            T t = get(con, pstmt, cache);
+            if (sharedCache && t != null) {
+                entityCache.put(dbKey, t, modCount);
+            }
+            return t;
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }
@@ -432,6 +451,16 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
             throw new IllegalStateException("Different instance found in Db cache, perhaps trying to save an object "
                     + "that was read outside the current transaction");
         }
+        if (entityCache != null) {
+            entityCache.invalidate(db, dbKey);
+        }
+        if (multiversion) {
+            EntityWriteBuffer writeBuffer = db.getWriteBuffer(table, EntityWriteBuffer::new);
+            if (writeBuffer != null) {
+                writeBuffer.entities.put(dbKey, t);
+                return;
+            }
+        }
 
         Connection con = null;
         try {
@@ -451,15 +480,54 @@ public abstract class EntityDbTable<T> extends DerivedDbTable {
         }
     }
 
+    /**
+     * Pending inserts of the table while the writes are buffered.  Only the last version of an
+     * entity is kept, the inserts done at the same height replace each other anyway.
+     */
+    private final class EntityWriteBuffer implements TransactionalDb.WriteBuffer {
+
+        private final Map<DbKey, T> entities = new LinkedHashMap<>();
+
+        @Override
+        public void flush() throws SQLException {
+            Connection con = db.getConnection();
+            try (PreparedStatement pstmt = con.prepareStatement("UPDATE " + table
+                    + " SET latest = FALSE " + dbKeyFactory.getPKClause() + " AND latest = TRUE LIMIT 1")) {
+                for (DbKey dbKey : entities.keySet()) {
+                    dbKey.setPK(pstmt);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+            BatchConnection batchCon = new BatchConnection(con);
+            for (T t : entities.values()) {
+                save(batchCon, t);
+            }
+            batchCon.executeBatches();
+            entities.clear();
+        }
+    }
+
     @Override
     public void rollback(int height) {
         if (multiversion) {
-            VersionedEntityDbTable.rollback(db, table, height, dbKeyFactory);
+            List<DbKey> dbKeys = VersionedEntityDbTable.rollback(db, table, height, dbKeyFactory);
+            if (entityCache != null) {
+                entityCache.invalidate(db, dbKeys);
+            }
         } else {
             super.rollback(height);
         }
     }
 
+    @Override
+    public void truncate() {
+        super.truncate();
+        if (entityCache != null) {
+            entityCache.invalidateAll(db);
+        }
+    }
+
     @Override
     public void trim(int height) {
         if (multiversion) {
@@ -103,7 +103,7 @@ public class FullTextTrigger implements Trigger, TransactionalDb.TransactionCall
     private static final FileSystem fileSystem = FileSystems.getDefault();
 
     /** Index lock */
-    private static final ReadWriteUpdateLock indexLock = new ReadWriteUpdateLock();
+    private static final ReadWriteUpdateLock indexLock = new ReadWriteUpdateLock("fulltext");
 
     /** Lucene index path */
     private static Path indexPath;
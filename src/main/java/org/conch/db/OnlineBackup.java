@@ -0,0 +1,456 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.db;
+
+import com.google.common.io.CountingOutputStream;
+import org.conch.Conch;
+import org.conch.common.Constants;
+import org.conch.util.Logger;
+import org.h2.tools.Csv;
+import org.json.simple.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Database backups which don't block the block processing.
+ * <p>
+ * A full backup is the H2 online {@code BACKUP TO} of the database files, a transactionally
+ * consistent page copy which doesn't regenerate the database as SQL like {@code SCRIPT TO}.
+ * The blockchain locks are not taken; H2 still serializes the statements of this database, so
+ * the writers wait for the page copy.
+ * <p>
+ * An incremental backup streams the rows with {@code lastBackupHeight < height <= toHeight} of
+ * every table which has a height column into a zip file, one CSV entry per table.  The upper
+ * height is below the maximum rollback, so these rows can't be rolled back or changed anymore
+ * except for the {@code latest} flag of the versioned rows, which follows from the newer rows of
+ * the same key.  The rows are read by ranges of {@value #HEIGHT_RANGE} heights, so each statement
+ * is short.  The tables without a height column are only in the full backups.
+ * <p>
+ * The height range of a backup is in its file name, the last backup height of a directory is
+ * read back from the file names.  The rows of the first incremental backup overlap the blocks
+ * of the preceding full backup above its height.
+ * <p>
+ * A full backup is labelled with the height below the maximum rollback like the incremental
+ * backups, its blocks above that height can still be popped off.  It is restored by
+ * {@link DbRollback}, which then replays the blocks and transactions of the incremental backups
+ * following it with {@link #replayIncrementals}.
+ */
+public final class OnlineBackup {
+
+    // not the prefix of the SCRIPT TO backups of the earlier versions, which are kept
+    private static final String FULL_PREFIX = "sharder_db_full_";
+    private static final String INCREMENTAL_PREFIX = "sharder_db_incremental_";
+    private static final Pattern FULL_NAME = Pattern.compile(FULL_PREFIX + ".*_(\\d+)\\.zip");
+    private static final Pattern INCREMENTAL_NAME = Pattern.compile(INCREMENTAL_PREFIX + "(\\d+)_(\\d+)\\.zip");
+    private static final int FETCH_SIZE = 1000;
+    private static final int HEIGHT_RANGE = 1000;
+    private static final String[] REPLAYED_TABLES = {"BLOCK", "TRANSACTION"};
+
+    private static volatile Result lastResult;
+
+    /**
+     * Backup file and metrics
+     */
+    public static final class Result {
+
+        private final File file;
+        private final boolean incremental;
+        private final int fromHeight;
+        private final int toHeight;
+        private final long rows;
+        private final long bytes;
+        private final long millis;
+
+        private Result(File file, boolean incremental, int fromHeight, int toHeight, long rows, long bytes, long millis) {
+            this.file = file;
+            this.incremental = incremental;
+            this.fromHeight = fromHeight;
+            this.toHeight = toHeight;
+            this.rows = rows;
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * Return the written megabytes per second
+         */
+        public double getThroughput() {
+            return millis > 0 ? bytes / 1048.576 / millis : 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        public JSONObject getJSONObject() {
+            JSONObject json = new JSONObject();
+            json.put("file", file.getAbsolutePath());
+            json.put("incremental", incremental);
+            json.put("fromHeight", fromHeight);
+            json.put("toHeight", toHeight);
+            if (incremental) {
+                json.put("rows", rows);
+            }
+            json.put("bytes", bytes);
+            json.put("duration", millis);
+            json.put("throughputMBps", getThroughput());
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s backup %s, heights %d-%d, %d bytes in %d ms (%.2f MB/s)",
+                    incremental ? "incremental" : "full", file.getName(), fromHeight, toHeight, bytes, millis, getThroughput());
+        }
+    }
+
+    private OnlineBackup() {}
+
+    /**
+     * Return the metrics of the last backup
+     *
+     * @return Result or null if no backup was done since the start
+     */
+    public static Result getLastResult() {
+        return lastResult;
+    }
+
+    /**
+     * Write a full backup
+     *
+     * @param dir Backup directory
+     * @param fileName File name or null for the default name with the date and height
+     * @return Backup result
+     * @throws SQLException Backup failed
+     */
+    public static Result full(File dir, String fileName) throws SQLException {
+        return full(dir, fileName, null);
+    }
+
+    /**
+     * Write a full backup whose zip entries are in a folder, e.g. the database folder of an archive
+     * which is unzipped into the application folder
+     *
+     * @param dir Backup directory
+     * @param fileName File name or null for the default name with the date and final height
+     * @param folder Folder of the zip entries or null for the database files at the top level
+     * @return Backup result
+     * @throws SQLException Backup failed
+     */
+    public static Result full(File dir, String fileName, String folder) throws SQLException {
+        long start = System.currentTimeMillis();
+        // the incremental backups which follow replace the blocks which can still be popped off
+        int height = Math.max(0, Conch.getBlockchain().getHeight() - Constants.MAX_ROLLBACK);
+        if (fileName == null) {
+            fileName = FULL_PREFIX + Conch.getEpochTime() + "_" + height + ".zip";
+        } else if (!fileName.endsWith(".zip")) {
+            fileName += ".zip";
+        }
+        dir.mkdirs();
+        File file = new File(dir, fileName);
+        File backupFile = folder == null ? file : new File(dir, fileName + ".tmp");
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("BACKUP TO ?")) {
+            pstmt.setString(1, backupFile.getAbsolutePath());
+            pstmt.executeUpdate();
+        }
+        if (folder != null) {
+            moveToFolder(backupFile, file, folder);
+        }
+        return done(new Result(file, false, 0, height, 0, file.length(), System.currentTimeMillis() - start));
+    }
+
+    /**
+     * Write an incremental backup of the rows above the last backup height of the directory
+     *
+     * @param dir Backup directory, which has a full backup
+     * @return Backup result or null if there is no new final block since the last backup
+     * @throws SQLException Unable to read the tables
+     * @throws IOException Unable to write the backup file
+     */
+    public static Result incremental(File dir) throws SQLException, IOException {
+        long start = System.currentTimeMillis();
+        int fromHeight = getLastBackupHeight(dir);
+        if (fromHeight < 0) {
+            throw new IllegalStateException("No full backup in " + dir.getAbsolutePath());
+        }
+        int toHeight = Conch.getBlockchain().getHeight() - Constants.MAX_ROLLBACK;
+        if (toHeight <= fromHeight) {
+            return null;
+        }
+        File file = new File(dir, INCREMENTAL_PREFIX + fromHeight + "_" + toHeight + ".zip");
+        File tmpFile = new File(dir, file.getName() + ".tmp");
+        long rows = 0;
+        CountingOutputStream counter;
+        try (Connection con = Db.db.getConnection();
+             ZipOutputStream zip = new ZipOutputStream(counter = new CountingOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(tmpFile))))) {
+            Writer writer = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+            // the CSV writer closes its writer after each table
+            Writer entryWriter = new FilterWriter(writer) {
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+            for (String table : getHeightTables(con)) {
+                zip.putNextEntry(new ZipEntry(table + ".csv"));
+                // short statements over height ranges, the database is not held for a whole table
+                try (PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + " WHERE height > ? AND height <= ?")) {
+                    pstmt.setFetchSize(FETCH_SIZE);
+                    for (int height = fromHeight; height < toHeight; height += HEIGHT_RANGE) {
+                        pstmt.setInt(1, height);
+                        pstmt.setInt(2, Math.min(height + HEIGHT_RANGE, toHeight));
+                        Csv csv = new Csv();
+                        csv.setWriteColumnHeader(height == fromHeight);
+                        rows += csv.write(entryWriter, pstmt.executeQuery());
+                    }
+                }
+                zip.closeEntry();
+            }
+            zip.putNextEntry(new ZipEntry("backup.properties"));
+            writer.write("fromHeight=" + fromHeight + "\ntoHeight=" + toHeight + "\n");
+            writer.flush();
+            zip.closeEntry();
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw new IOException("Unable to rename " + tmpFile.getAbsolutePath());
+        }
+        return done(new Result(file, true, fromHeight, toHeight, rows, counter.getCount(), System.currentTimeMillis() - start));
+    }
+
+    /**
+     * Return the height of the last backup of a directory
+     *
+     * @param dir Backup directory
+     * @return Height or -1 if the directory has no full backup
+     */
+    public static int getLastBackupHeight(File dir) {
+        int fullHeight = -1;
+        int incrementalHeight = -1;
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return -1;
+        }
+        for (File file : files) {
+            Matcher matcher = FULL_NAME.matcher(file.getName());
+            if (matcher.matches()) {
+                fullHeight = Math.max(fullHeight, Integer.parseInt(matcher.group(1)));
+                continue;
+            }
+            matcher = INCREMENTAL_NAME.matcher(file.getName());
+            if (matcher.matches()) {
+                incrementalHeight = Math.max(incrementalHeight, Integer.parseInt(matcher.group(2)));
+            }
+        }
+        return fullHeight < 0 ? -1 : Math.max(fullHeight, incrementalHeight);
+    }
+
+    /**
+     * Delete the full and incremental backups written by this class which precede a new full backup
+     *
+     * @param dir Backup directory
+     * @param lastFull File name of the new full backup
+     */
+    public static void deleteOlderBackups(File dir, String lastFull) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.equals(lastFull)) {
+                continue;
+            }
+            if ((FULL_NAME.matcher(name).matches() || INCREMENTAL_NAME.matcher(name).matches()) && !file.delete()) {
+                Logger.logWarningMessage("Unable to delete the old backup " + file.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Replay the blocks and transactions of the incremental backups which follow a restored full
+     * backup in its directory
+     * <p>
+     * The blocks and transactions above the height of the full backup are deleted first, they can
+     * have been popped off after the backup was written.  Only the block and transaction rows are
+     * replayed.  The versioned rows of the other tables keep the {@code latest} flag they had when
+     * they were backed up, which is wrong once a newer row of the same key was backed up, so these
+     * tables are rebuilt by scanning the blocks again.  The replay is rolled back unless the
+     * replayed blocks form a chain from the height of the full backup.
+     *
+     * @param con Connection of the restored database
+     * @param fullBackup Restored full backup
+     * @return Height of the last replayed block or -1 if no incremental backup follows the full backup
+     * @throws SQLException Unable to replay an incremental backup or the replayed blocks are not a chain
+     */
+    public static int replayIncrementals(Connection con, File fullBackup) throws SQLException {
+        Matcher matcher = FULL_NAME.matcher(fullBackup.getName());
+        File[] files = fullBackup.getAbsoluteFile().getParentFile().listFiles();
+        if (!matcher.matches() || files == null) {
+            return -1;
+        }
+        Map<Integer, File> incrementals = new HashMap<>();
+        for (File file : files) {
+            Matcher incrementalMatcher = INCREMENTAL_NAME.matcher(file.getName());
+            if (incrementalMatcher.matches()) {
+                incrementals.put(Integer.parseInt(incrementalMatcher.group(1)), file);
+            }
+        }
+        int fullHeight = Integer.parseInt(matcher.group(1));
+        if (!incrementals.containsKey(fullHeight)) {
+            return -1;
+        }
+        int height = fullHeight;
+        File file;
+        try (Statement stmt = con.createStatement()) {
+            // the rows of a table are not in height order
+            stmt.execute("SET REFERENTIAL_INTEGRITY FALSE");
+            con.setAutoCommit(false);
+            try {
+                for (String table : REPLAYED_TABLES) {
+                    stmt.executeUpdate("DELETE FROM " + table + " WHERE height > " + fullHeight);
+                }
+                stmt.executeUpdate("UPDATE block SET next_block_id = NULL WHERE height = " + fullHeight);
+                while ((file = incrementals.get(height)) != null) {
+                    for (String table : REPLAYED_TABLES) {
+                        stmt.executeUpdate("MERGE INTO " + table + " KEY (db_id) SELECT * FROM CSVREAD('zip:"
+                                + file.getAbsolutePath().replace("'", "''") + "!/" + table + ".csv')");
+                    }
+                    Matcher incrementalMatcher = INCREMENTAL_NAME.matcher(file.getName());
+                    incrementalMatcher.matches();
+                    height = Integer.parseInt(incrementalMatcher.group(2));
+                    Logger.logInfoMessage("Replayed the blocks of the incremental backup " + file.getName());
+                }
+                checkChain(stmt, fullHeight, height);
+                // the last block of the full backup is without its next block
+                stmt.executeUpdate("UPDATE block b SET next_block_id = (SELECT id FROM block WHERE previous_block_id = b.id) "
+                        + "WHERE next_block_id IS NULL AND height >= " + fullHeight + " AND height < " + height);
+                con.commit();
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            } finally {
+                con.setAutoCommit(true);
+                stmt.execute("SET REFERENTIAL_INTEGRITY TRUE");
+            }
+        }
+        return height;
+    }
+
+    /**
+     * Check that the blocks above a height are one block per height up to the last height, each
+     * of which is the next block of the block below it
+     */
+    private static void checkChain(Statement stmt, int fromHeight, int toHeight) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*), MAX(height) FROM block WHERE height > " + fromHeight)) {
+            rs.next();
+            if (rs.getInt(1) != toHeight - fromHeight || rs.getInt(2) != toHeight) {
+                throw new SQLException("The incremental backups have " + rs.getInt(1) + " blocks up to height "
+                        + rs.getInt(2) + " instead of the heights " + (fromHeight + 1) + "-" + toHeight + ", restore refused");
+            }
+        }
+        try (ResultSet rs = stmt.executeQuery("SELECT b.height FROM block b LEFT JOIN block p "
+                + "ON p.id = b.previous_block_id AND p.height = b.height - 1 "
+                + "WHERE b.height > " + fromHeight + " AND p.id IS NULL ORDER BY b.height LIMIT 1")) {
+            if (rs.next()) {
+                throw new SQLException("The block at height " + rs.getInt(1)
+                        + " of the incremental backups doesn't follow the block below it, restore refused");
+            }
+        }
+    }
+
+    private static void moveToFolder(File source, File target, String folder) throws SQLException {
+        byte[] buffer = new byte[64 * 1024];
+        try (ZipInputStream in = new ZipInputStream(new BufferedInputStream(new FileInputStream(source)));
+             ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(target)))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                out.putNextEntry(new ZipEntry(folder + "/" + entry.getName()));
+                int count;
+                while ((count = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, count);
+                }
+                out.closeEntry();
+            }
+        } catch (IOException e) {
+            throw new SQLException("Unable to write " + target.getAbsolutePath(), e);
+        } finally {
+            if (!source.delete()) {
+                Logger.logWarningMessage("Unable to delete " + source.getAbsolutePath());
+            }
+        }
+    }
+
+    private static List<String> getHeightTables(Connection con) throws SQLException {
+        List<String> tables = new ArrayList<>();
+        try (Statement stmt = con.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT c.table_name FROM information_schema.columns c "
+                     + "JOIN information_schema.tables t ON t.table_schema = c.table_schema AND t.table_name = c.table_name "
+                     + "WHERE c.table_schema = 'PUBLIC' AND c.column_name = 'HEIGHT' AND t.table_type = 'TABLE' "
+                     + "ORDER BY c.table_name")) {
+            while (rs.next()) {
+                tables.add(rs.getString(1));
+            }
+        }
+        return tables;
+    }
+
+    private static Result done(Result result) {
+        lastResult = result;
+        Logger.logInfoMessage("Database " + result);
+        return result;
+    }
+
+}
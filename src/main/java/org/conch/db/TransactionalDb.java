@@ -23,12 +23,19 @@ package org.conch.db;
 
 import org.conch.Conch;
 import org.conch.util.Logger;
+import org.conch.util.Metrics;
 
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
 
 public class TransactionalDb extends BasicDb {
 
@@ -42,6 +49,11 @@ public class TransactionalDb extends BasicDb {
         txThreshold = (temp= Conch.getIntProperty("sharder.transactionLogThreshold")) != 0 ? temp : 5000;
         txInterval = (temp= Conch.getIntProperty("sharder.transactionLogInterval")) != 0 ? temp*60*1000 : 15*60*1000;
     }
+    private static final boolean writeBuffering = Conch.getBooleanProperty("sharder.batchBlockWrites");
+    /**
+     * Write buffers of the current thread by table name, null if the writes are not buffered
+     */
+    private static final ThreadLocal<Map<String, WriteBuffer>> writeBuffers = new ThreadLocal<>();
 
     private final ThreadLocal<DbConnection> localConnection = new ThreadLocal<>();
     private final ThreadLocal<Map<String,Map<DbKey,Object>>> transactionCaches = new ThreadLocal<>();
@@ -90,6 +102,7 @@ public class TransactionalDb extends BasicDb {
             throw new IllegalStateException("Not in transaction");
         }
         try {
+            flushWriteBuffers();
             con.doCommit();
             Set<TransactionCallback> callbacks = transactionCallback.get();
             if (callbacks != null) {
@@ -107,6 +120,7 @@ public class TransactionalDb extends BasicDb {
             throw new IllegalStateException("Not in transaction");
         }
         try {
+            clearWriteBuffers();
             con.doRollback();
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
@@ -129,6 +143,7 @@ public class TransactionalDb extends BasicDb {
         try{
             localConnection.set(null);
             transactionCaches.set(null);
+            writeBuffers.set(null);
             long now = System.currentTimeMillis();
             long elapsed = now - ((DbConnection)con).txStart;
             if (elapsed >= txThreshold) {
@@ -165,6 +180,123 @@ public class TransactionalDb extends BasicDb {
         callbacks.add(callback);
     }
 
+    /**
+     * Start buffering the entity writes of the current database transaction.  The buffered
+     * writes are flushed as JDBC batches by {@link #endWriteBuffering()}, before a statement
+     * which refers to a buffered table is executed and before the transaction is committed.
+     * The buffers are discarded when the transaction is rolled back.
+     */
+    public void beginWriteBuffering() {
+        if (!isInTransaction()) {
+            throw new IllegalStateException("Not in transaction");
+        }
+        if (writeBuffering && writeBuffers.get() == null) {
+            writeBuffers.set(new LinkedHashMap<>());
+        }
+    }
+
+    /**
+     * Flush the buffered writes and stop buffering
+     */
+    public void endWriteBuffering() {
+        try {
+            flushWriteBuffers();
+        } finally {
+            writeBuffers.set(null);
+        }
+    }
+
+    public boolean isWriteBuffering() {
+        return writeBuffers.get() != null;
+    }
+
+    /**
+     * Return the write buffer of a table
+     *
+     * @param tableName Table name
+     * @param supplier Creates the buffer when the table has no pending writes
+     * @return Write buffer or null if the writes are not buffered
+     */
+    @SuppressWarnings("unchecked")
+    <B extends WriteBuffer> B getWriteBuffer(String tableName, Supplier<B> supplier) {
+        Map<String, WriteBuffer> buffers = writeBuffers.get();
+        if (buffers == null) {
+            return null;
+        }
+        return (B) buffers.computeIfAbsent(tableName, name -> supplier.get());
+    }
+
+    private static void flushWriteBuffers() {
+        Map<String, WriteBuffer> buffers = writeBuffers.get();
+        if (buffers == null) {
+            return;
+        }
+        // a buffer is removed before it is flushed, so its own statements don't flush it again
+        while (!buffers.isEmpty()) {
+            Iterator<WriteBuffer> it = buffers.values().iterator();
+            WriteBuffer buffer = it.next();
+            it.remove();
+            flush(buffer);
+        }
+    }
+
+    /**
+     * Flush the buffers of the tables referred to by a SQL statement
+     */
+    private static void flushWriteBuffers(String sql) {
+        Map<String, WriteBuffer> buffers = writeBuffers.get();
+        if (buffers == null || buffers.isEmpty() || sql == null) {
+            return;
+        }
+        String lowerSql = sql.toLowerCase(Locale.ROOT);
+        List<WriteBuffer> flushBuffers = null;
+        Iterator<Map.Entry<String, WriteBuffer>> it = buffers.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, WriteBuffer> entry = it.next();
+            if (refersTo(lowerSql, entry.getKey())) {
+                if (flushBuffers == null) {
+                    flushBuffers = new ArrayList<>();
+                }
+                flushBuffers.add(entry.getValue());
+                it.remove();
+            }
+        }
+        if (flushBuffers != null) {
+            flushBuffers.forEach(TransactionalDb::flush);
+        }
+    }
+
+    private static void clearWriteBuffers() {
+        Map<String, WriteBuffer> buffers = writeBuffers.get();
+        if (buffers != null) {
+            buffers.clear();
+        }
+    }
+
+    private static void flush(WriteBuffer buffer) {
+        try {
+            buffer.flush();
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    private static boolean refersTo(String sql, String tableName) {
+        int index = sql.indexOf(tableName);
+        while (index >= 0) {
+            int end = index + tableName.length();
+            if ((index == 0 || !isNameChar(sql.charAt(index - 1))) && (end == sql.length() || !isNameChar(sql.charAt(end)))) {
+                return true;
+            }
+            index = sql.indexOf(tableName, end);
+        }
+        return false;
+    }
+
+    private static boolean isNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
     Map<DbKey,Object> getCache(String tableName) {
         if (!isInTransaction()) {
             throw new IllegalStateException("Not in transaction");
@@ -267,34 +399,28 @@ public class TransactionalDb extends BasicDb {
 
         @Override
         public boolean execute(String sql) throws SQLException {
-            long start = System.currentTimeMillis();
+            flushWriteBuffers(sql);
+            long start = System.nanoTime();
             boolean b = super.execute(sql);
-            long elapsed = System.currentTimeMillis() - start;
-            if (elapsed > stmtThreshold)
-                logThreshold(String.format("SQL statement required %.3f seconds at height %d:\n%s",
-                                           (double)elapsed/1000.0, Conch.getBlockchain().getHeight(), sql));
+            statementExecuted(sql, start);
             return b;
         }
 
         @Override
         public ResultSet executeQuery(String sql) throws SQLException {
-            long start = System.currentTimeMillis();
+            flushWriteBuffers(sql);
+            long start = System.nanoTime();
             ResultSet r = super.executeQuery(sql);
-            long elapsed = System.currentTimeMillis() - start;
-            if (elapsed > stmtThreshold)
-                logThreshold(String.format("SQL statement required %.3f seconds at height %d:\n%s",
-                                           (double)elapsed/1000.0, Conch.getBlockchain().getHeight(), sql));
+            statementExecuted(sql, start);
             return r;
         }
 
         @Override
         public int executeUpdate(String sql) throws SQLException {
-            long start = System.currentTimeMillis();
+            flushWriteBuffers(sql);
+            long start = System.nanoTime();
             int c = super.executeUpdate(sql);
-            long elapsed = System.currentTimeMillis() - start;
-            if (elapsed > stmtThreshold)
-                logThreshold(String.format("SQL statement required %.3f seconds at height %d:\n%s",
-                                           (double)elapsed/1000.0, Conch.getBlockchain().getHeight(), sql));
+            statementExecuted(sql, start);
             return c;
         }
     }
@@ -304,40 +430,57 @@ public class TransactionalDb extends BasicDb {
             super(stmt, sql);
         }
 
+        @Override
+        public int[] executeBatch() throws SQLException {
+            flushWriteBuffers(getSQL());
+            long start = System.nanoTime();
+            int[] c = super.executeBatch();
+            statementExecuted(getSQL(), start);
+            return c;
+        }
+
         @Override
         public boolean execute() throws SQLException {
-            long start = System.currentTimeMillis();
+            flushWriteBuffers(getSQL());
+            long start = System.nanoTime();
             boolean b = super.execute();
-            long elapsed = System.currentTimeMillis() - start;
-            if (elapsed > stmtThreshold)
-                logThreshold(String.format("SQL statement required %.3f seconds at height %d:\n%s",
-                                           (double)elapsed/1000.0, Conch.getBlockchain().getHeight(), getSQL()));
+            statementExecuted(getSQL(), start);
             return b;
         }
 
         @Override
         public ResultSet executeQuery() throws SQLException {
-            long start = System.currentTimeMillis();
+            flushWriteBuffers(getSQL());
+            long start = System.nanoTime();
             ResultSet r = super.executeQuery();
-            long elapsed = System.currentTimeMillis() - start;
-            if (elapsed > stmtThreshold)
-                logThreshold(String.format("SQL statement required %.3f seconds at height %d:\n%s",
-                                           (double)elapsed/1000.0, Conch.getBlockchain().getHeight(), getSQL()));
+            statementExecuted(getSQL(), start);
             return r;
         }
 
         @Override
         public int executeUpdate() throws SQLException {
-            long start = System.currentTimeMillis();
+            flushWriteBuffers(getSQL());
+            long start = System.nanoTime();
             int c = super.executeUpdate();
-            long elapsed = System.currentTimeMillis() - start;
-            if (elapsed > stmtThreshold)
-                logThreshold(String.format("SQL statement required %.3f seconds at height %d:\n%s",
-                                           (double)elapsed/1000.0, Conch.getBlockchain().getHeight(), getSQL()));
+            statementExecuted(getSQL(), start);
             return c;
         }
     }
 
+    /**
+     * Record the execution time of a statement and log the slow statements
+     *
+     * @param sql SQL statement
+     * @param start Start time in nanoseconds
+     */
+    private static void statementExecuted(String sql, long start) {
+        long elapsed = System.nanoTime() - start;
+        Metrics.recordSql(sql, elapsed);
+        if (elapsed / 1000000 > stmtThreshold)
+            logThreshold(String.format("SQL statement required %.3f seconds at height %d:\n%s",
+                                       (double)elapsed/1000000000.0, Conch.getBlockchain().getHeight(), sql));
+    }
+
     private static final class DbFactory implements FilteredFactory {
 
         @Override
@@ -351,6 +494,19 @@ public class TransactionalDb extends BasicDb {
         }
     }
 
+    /**
+     * Pending writes of a table, see {@link #beginWriteBuffering()}
+     */
+    public interface WriteBuffer {
+
+        /**
+         * Write the pending changes in the current database transaction
+         *
+         * @throws SQLException Database error
+         */
+        void flush() throws SQLException;
+    }
+
     /**
      * Transaction callback interface
      */
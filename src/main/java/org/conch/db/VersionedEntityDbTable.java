@@ -53,6 +53,9 @@ public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
             throw new IllegalStateException("Not in transaction");
         }
         DbKey dbKey = dbKeyFactory.newKey(t);
+        if (entityCache != null) {
+            entityCache.invalidate(db, dbKey);
+        }
         try (Connection con = db.getConnection();
              PreparedStatement pstmtCount = con.prepareStatement("SELECT 1 FROM " + table
                      + dbKeyFactory.getPKClause() + " AND height < ? LIMIT 1")) {
@@ -84,7 +87,7 @@ public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
         }
     }
 
-    static void rollback(final TransactionalDb db, final String table, final int height, final DbKey.Factory dbKeyFactory) {
+    static List<DbKey> rollback(final TransactionalDb db, final String table, final int height, final DbKey.Factory dbKeyFactory) {
         if (!db.isInTransaction()) {
             throw new IllegalStateException("Not in transaction");
         }
@@ -122,6 +125,7 @@ public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
                 pstmtSetLatest.executeUpdate();
                 //Db.getCache(table).remove(dbKey);
             }
+            return dbKeys;
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }
@@ -245,6 +245,7 @@ public final class API {
             apiHandler.addServlet(APITestServlet.class, "/debug");
             apiHandler.addServlet(APITestServlet.class, "/debug-proxy");
             apiHandler.addServlet(DbShellServlet.class, "/dbshell");
+            apiHandler.addServlet(MetricsServlet.class, "/metrics");
 
             if (apiServerCORS) {
                 FilterHolder filterHolder = apiHandler.addFilter(CrossOriginFilter.class, "/*", null);
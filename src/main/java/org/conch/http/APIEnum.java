@@ -264,6 +264,7 @@ public enum APIEnum {
     DUMP_PEERS("dumpPeers", DumpPeers.instance),
     GET_LOG("getLog", GetLog.instance),
     GET_STACK_TRACES("getStackTraces", GetStackTraces.instance),
+    GET_METRICS("getMetrics", GetMetrics.instance),
     RETRIEVE_PRUNED_DATA("retrievePrunedData", RetrievePrunedData.instance),
     RETRIEVE_PRUNED_TRANSACTION("retrievePrunedTransaction", RetrievePrunedTransaction.instance),
     SET_LOGGING("setLogging", SetLogging.instance),
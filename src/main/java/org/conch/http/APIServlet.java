@@ -29,6 +29,7 @@ import org.conch.db.*;
 import org.conch.http.biz.BizAPIEnum;
 import org.conch.util.JSON;
 import org.conch.util.Logger;
+import org.conch.util.Metrics;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
@@ -189,6 +190,8 @@ public final class APIServlet extends HttpServlet {
 
         JSONStreamAware response = JSON.emptyJSON;
         long startTime = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        String handledRequestType = null;
 
         try {
 
@@ -226,6 +229,8 @@ public final class APIServlet extends HttpServlet {
             if (apiRequestHandler.requirePassword()) {
                 API.verifyPassword(req);
             }
+            handledRequestType = requestType;
+            Metrics.beginApiRequest();
             final long requireBlockId = apiRequestHandler.allowRequiredBlockParameters() ?
                     ParameterParser.getUnsignedLong(req, "requireBlock", false) : 0;
             final long requireLastBlockId = apiRequestHandler.allowRequiredBlockParameters() ?
@@ -276,13 +281,19 @@ public final class APIServlet extends HttpServlet {
             Logger.logErrorMessage("Error processing request", e);
             response = ERROR_INCORRECT_REQUEST;
         } finally {
-            // The response will be null if we created an asynchronous context
-            if (response != null) {
-                if (response instanceof JSONObject) {
-                    ((JSONObject) response).put("requestProcessingTime", System.currentTimeMillis() - startTime);
+            try {
+                // The response will be null if we created an asynchronous context
+                if (response != null) {
+                    if (response instanceof JSONObject) {
+                        ((JSONObject) response).put("requestProcessingTime", System.currentTimeMillis() - startTime);
+                    }
+                    try (Writer writer = resp.getWriter()) {
+                        JSON.writeJSONString(response, writer);
+                    }
                 }
-                try (Writer writer = resp.getWriter()) {
-                    JSON.writeJSONString(response, writer);
+            } finally {
+                if (handledRequestType != null) {
+                    Metrics.endApiRequest(handledRequestType, System.nanoTime() - startNanos);
                 }
             }
         }
@@ -22,6 +22,7 @@
 package org.conch.http;
 
 import org.conch.db.DbBackupTask;
+import org.conch.db.OnlineBackup;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
@@ -33,7 +34,7 @@ public final class BackupDataBase extends APIServlet.APIRequestHandler {
     static final BackupDataBase instance = new BackupDataBase();
 
     private BackupDataBase() {
-        super(new APITag[] {APITag.DEBUG}, "path","fileName");
+        super(new APITag[] {APITag.DEBUG}, "path","fileName","incremental");
     }
 
     @Override
@@ -42,9 +43,13 @@ public final class BackupDataBase extends APIServlet.APIRequestHandler {
         JSONObject response = new JSONObject();
         String path = req.getParameter("path");
         String fileName = req.getParameter("fileName");
-        String backupFile = DbBackupTask.execute(path, fileName);
+        boolean incremental = "true".equalsIgnoreCase(req.getParameter("incremental"));
+        OnlineBackup.Result result = DbBackupTask.execute(path, fileName, incremental);
         response.put("requestProcessingTime", System.currentTimeMillis()-timestamp);
-        response.put("backupFile", backupFile);
+        response.put("backupFile", result != null ? result.getFile().getAbsolutePath() : null);
+        if (result != null) {
+            response.put("backup", result.getJSONObject());
+        }
         return response;
     }
 
@@ -0,0 +1,122 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.http;
+
+import org.conch.storage.BlobStore;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Write a downloaded payload to the servlet response, from the blob store or from a byte array.
+ * <p>
+ * A single byte range request ({@code Range: bytes=first-last}, {@code bytes=first-} or
+ * {@code bytes=-suffix}) is answered with a partial content response.  Multiple ranges are
+ * not supported, the whole payload is returned instead.
+ */
+final class DataDownload {
+
+    private DataDownload() {}
+
+    static void write(HttpServletRequest request, HttpServletResponse response, String type, String filename,
+                      BlobStore.Blob blob, byte[] data) throws ParameterException {
+        long size = blob != null ? blob.getSize() : data.length;
+        response.setContentType(type == null || type.isEmpty() ? "application/octet-stream" : type);
+        String contentDisposition = "attachment";
+        try {
+            URI uri = new URI(null, null, filename, null);
+            contentDisposition += "; filename*=UTF-8''" + uri.toASCIIString();
+        } catch (URISyntaxException ignore) {}
+        response.setHeader("Content-Disposition", contentDisposition);
+        response.setHeader("Accept-Ranges", "bytes");
+        long first = 0;
+        long last = size - 1;
+        String range = request.getHeader("Range");
+        if (range != null && range.startsWith("bytes=") && range.indexOf(',') < 0) {
+            long[] bounds = parseRange(range.substring(6).trim(), size);
+            if (bounds == null) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader("Content-Range", "bytes */" + size);
+                return;
+            }
+            first = bounds[0];
+            last = bounds[1];
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", "bytes " + first + "-" + last + "/" + size);
+        }
+        long length = last - first + 1;
+        response.setContentLengthLong(length);
+        try (OutputStream out = response.getOutputStream()) {
+            try {
+                if (blob != null) {
+                    blob.transferTo(first, length, out);
+                } else {
+                    out.write(data, (int) first, (int) length);
+                }
+            } catch (IOException e) {
+                throw new ParameterException(JSONResponses.RESPONSE_WRITE_ERROR);
+            }
+        } catch (IOException e) {
+            throw new ParameterException(JSONResponses.RESPONSE_STREAM_ERROR);
+        }
+    }
+
+    /**
+     * Parse a single byte range
+     *
+     * @return first and last byte positions or null if the range is not satisfiable
+     */
+    private static long[] parseRange(String range, long size) {
+        int dash = range.indexOf('-');
+        if (dash < 0 || size == 0) {
+            return null;
+        }
+        try {
+            String firstString = range.substring(0, dash).trim();
+            String lastString = range.substring(dash + 1).trim();
+            long first;
+            long last;
+            if (firstString.isEmpty()) {
+                long suffix = Long.parseLong(lastString);
+                if (suffix <= 0) {
+                    return null;
+                }
+                first = Math.max(0, size - suffix);
+                last = size - 1;
+            } else {
+                first = Long.parseLong(firstString);
+                last = lastString.isEmpty() ? size - 1 : Math.min(Long.parseLong(lastString), size - 1);
+            }
+            if (first < 0 || first > last) {
+                return null;
+            }
+            return new long[] {first, last};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+}
@@ -23,6 +23,7 @@ package org.conch.http;
 
 import org.conch.Conch;
 import org.conch.common.ConchException;
+import org.conch.storage.BlobStore;
 import org.conch.storage.tx.StorageTxProcessorImpl;
 import org.conch.tx.Attachment;
 import org.conch.tx.Transaction;
@@ -32,9 +33,6 @@ import org.json.simple.JSONStreamAware;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.URI;
-import java.net.URISyntaxException;
 
 import static org.conch.http.JSONResponses.*;
 
@@ -70,42 +68,20 @@ public final class DownloadStoredData extends APIServlet.APIRequestHandler {
             return JSONResponses.incorrect("transaction", "stored data not found");
         }
 
-        //Retrieve the data by ssid
-        byte[] data;
-        try {
-            data = StorageTxProcessorImpl.getInstance().getData(transactionId);
-        } catch (IOException e) {
-            return JSONResponses.error("stored data not found");
-        }
-        if (!attachment.getType().equals("")) {
-            response.setContentType(attachment.getType());
-        } else {
-            response.setContentType("application/octet-stream");
-        }
-
-
-        String filename = attachment.getName().trim();
-        String contentDisposition = "attachment";
-        try {
-            URI uri = new URI(null, null, filename, null);
-            contentDisposition += "; filename*=UTF-8''" + uri.toASCIIString();
-        } catch (URISyntaxException ignore) {
-
-        }
-
-        // write the data into response
-        response.setHeader("Content-Disposition", contentDisposition);
-        response.setContentLength(data.length);
-        try (OutputStream out = response.getOutputStream()) {
+        //Retrieve the data from the local copy or by ssid
+        BlobStore.Blob blob = StorageTxProcessorImpl.getInstance().getDataBlob(transactionId);
+        byte[] data = null;
+        if (blob == null) {
             try {
-                out.write(data);
+                data = StorageTxProcessorImpl.getInstance().getData(transactionId);
             } catch (IOException e) {
-                throw new ParameterException(JSONResponses.RESPONSE_WRITE_ERROR);
+                return JSONResponses.error("stored data not found");
             }
-        } catch (IOException e) {
-            throw new ParameterException(JSONResponses.RESPONSE_STREAM_ERROR);
         }
 
+        // write the data into response
+        DataDownload.write(request, response, attachment.getType(), attachment.getName().trim(), blob, data);
+
         return null;
     }
 
@@ -23,15 +23,12 @@ package org.conch.http;
 
 import org.conch.Conch;
 import org.conch.common.ConchException;
+import org.conch.storage.BlobStore;
 import org.conch.storage.TaggedData;
 import org.json.simple.JSONStreamAware;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.IOException;
-import java.io.OutputStream;
-import java.net.URI;
-import java.net.URISyntaxException;
 
 import static org.conch.http.JSONResponses.PRUNED_TRANSACTION;
 
@@ -57,32 +54,16 @@ public final class DownloadTaggedData extends APIServlet.APIRequestHandler {
         if (taggedData == null) {
             return JSONResponses.incorrect("transaction", "Tagged data not found");
         }
-        byte[] data = taggedData.getData();
-        if (!taggedData.getType().equals("")) {
-            response.setContentType(taggedData.getType());
-        } else {
-            response.setContentType("application/octet-stream");
-        }
         String filename = taggedData.getFilename();
         if (filename == null || filename.trim().isEmpty()) {
             filename = taggedData.getName().trim();
         }
-        String contentDisposition = "attachment";
-        try {
-            URI uri = new URI(null, null, filename, null);
-            contentDisposition += "; filename*=UTF-8''" + uri.toASCIIString();
-        } catch (URISyntaxException ignore) {}
-        response.setHeader("Content-Disposition", contentDisposition);
-        response.setContentLength(data.length);
-        try (OutputStream out = response.getOutputStream()) {
-            try {
-                out.write(data);
-            } catch (IOException e) {
-                throw new ParameterException(JSONResponses.RESPONSE_WRITE_ERROR);
-            }
-        } catch (IOException e) {
-            throw new ParameterException(JSONResponses.RESPONSE_STREAM_ERROR);
+        BlobStore.Blob blob = taggedData.getDataBlob();
+        byte[] data = blob == null ? taggedData.getData() : null;
+        if (blob == null && data == null) {
+            return JSONResponses.incorrect("transaction", "Tagged data not found");
         }
+        DataDownload.write(request, response, taggedData.getType(), filename, blob, data);
         return null;
     }
 
@@ -38,7 +38,11 @@ import javax.servlet.http.HttpServletRequest;
 import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 public final class GetAccount extends APIServlet.APIRequestHandler {
 
@@ -177,7 +181,15 @@ public final class GetAccount extends APIServlet.APIRequestHandler {
         try {
             con = Db.db.getConnection();
             PreparedStatement ps = con.prepareStatement("SELECT sum(a.FORGED_BALANCE) as num from ACCOUNT as a where a.DB_ID in (select max(DB_ID) from ACCOUNT as ma where a.ID = ma.ID)");
-            json.put("cutIncome",GetAccountRanking.result(ps.executeQuery()));
+            ArrayList<Map<String, Object>> mapList = new ArrayList<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Map<String, Object> map = new HashMap<>();
+                    map.put("NUM", rs.getObject("NUM"));
+                    mapList.add(map);
+                }
+            }
+            json.put("cutIncome",mapList);
             con.commit();
             con.close();
         } catch (SQLException e) {
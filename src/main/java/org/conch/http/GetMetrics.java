@@ -0,0 +1,105 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.http;
+
+import org.conch.chain.BlockCache;
+import org.conch.db.EntityCache;
+import org.conch.db.OnlineBackup;
+import org.conch.peer.Peers;
+import org.conch.tx.TransactionProcessorImpl;
+import org.conch.util.AsyncSubscriber;
+import org.conch.util.Metrics;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * <p>The GetMetrics API returns the latency and volume metrics of the node, the same metrics
+ * are returned in the Prometheus text format on /metrics.</p>
+ *
+ * <p>Response parameters:</p>
+ * <ul>
+ * <li>apiRequests  - Latency, SQL time and lock wait histograms by API request type</li>
+ * <li>locks        - Lock wait histograms by lock and mode, and the wait by lock holder</li>
+ * <li>sql          - Statement time histograms by table</li>
+ * <li>peerRequests - Latency and bytes received and sent by peer request type</li>
+ * <li>admission    - Transaction admission queue statistics</li>
+ * <li>blockCache   - Block cache statistics</li>
+ * <li>entityCache  - Entity cache statistics by table</li>
+ * <li>lastBackup   - Result of the last online backup</li>
+ * <li>broadcast    - Block and transaction fan-out latency, sends, bytes saved by the shared encoding and inventory relay counts</li>
+ * <li>listeners    - Queue lag, delivered and dropped events by asynchronous subscriber</li>
+ * </ul>
+ * <p>The histogram times are in microseconds.</p>
+ */
+public final class GetMetrics extends APIServlet.APIRequestHandler {
+
+    static final GetMetrics instance = new GetMetrics();
+
+    private GetMetrics() {
+        super(new APITag[] {APITag.DEBUG});
+    }
+
+    @Override
+    protected JSONStreamAware processRequest(HttpServletRequest req) {
+        JSONObject response = Metrics.getJSONObject();
+        response.putAll(getComponentStats());
+        return response;
+    }
+
+    /**
+     * Return the statistics kept by the node components
+     *
+     * @return Statistics by component
+     */
+    @SuppressWarnings("unchecked")
+    static JSONObject getComponentStats() {
+        JSONObject json = new JSONObject();
+        json.put("admission", TransactionProcessorImpl.getInstance().getAdmissionStats());
+        json.put("blockCache", BlockCache.getStats());
+        json.put("entityCache", EntityCache.getStats());
+        json.put("broadcast", Peers.getBroadcastStats());
+        json.put("listeners", AsyncSubscriber.getStats());
+        OnlineBackup.Result lastBackup = OnlineBackup.getLastResult();
+        if (lastBackup != null) {
+            json.put("lastBackup", lastBackup.getJSONObject());
+        }
+        return json;
+    }
+
+    @Override
+    protected boolean requirePassword() {
+        return true;
+    }
+
+    @Override
+    protected boolean allowRequiredBlockParameters() {
+        return false;
+    }
+
+    @Override
+    protected boolean requireBlockchain() {
+        return false;
+    }
+
+}
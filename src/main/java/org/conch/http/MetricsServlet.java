@@ -0,0 +1,59 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.http;
+
+import org.conch.util.Metrics;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Metrics of the node in the Prometheus text format.
+ * <p>
+ * The access is restricted like the debug APIs: the client must be an allowed host and send the
+ * admin password in the adminPassword parameter unless the password is disabled.
+ */
+public final class MetricsServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 5376282129736613905L;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        resp.setHeader("Cache-Control", "no-cache, no-store, must-revalidate, private");
+        resp.setHeader("Pragma", "no-cache");
+        resp.setDateHeader("Expires", 0);
+        if (!API.isAllowed(req.getRemoteHost()) || !API.checkPassword(req)) {
+            resp.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        resp.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+        try (Writer writer = resp.getWriter()) {
+            Metrics.writePrometheus(writer);
+            Metrics.writeGauges(writer, "sharder", GetMetrics.getComponentStats());
+        }
+    }
+
+}
@@ -49,6 +49,8 @@ public final class RollBackDataBase extends APIServlet.APIRequestHandler {
         }  catch (SQLException e) {
             e.printStackTrace();
             return JSONResponses.error(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return JSONResponses.error(e.getMessage());
         }
         response.put("requestProcessingTime", System.currentTimeMillis()-timestamp);
         response.put("rollbacked", true);
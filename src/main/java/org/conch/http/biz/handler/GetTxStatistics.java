@@ -23,20 +23,13 @@ package org.conch.http.biz.handler;
 
 import org.conch.common.ConchException;
 import org.conch.common.Constants;
-import org.conch.db.Db;
-import org.conch.db.DbUtils;
 import org.conch.http.APIServlet;
 import org.conch.http.APITag;
+import org.conch.tx.TxStatistics;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
 import javax.servlet.http.HttpServletRequest;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 
 
 public final class GetTxStatistics extends APIServlet.APIRequestHandler {
@@ -49,92 +42,20 @@ public final class GetTxStatistics extends APIServlet.APIRequestHandler {
 
     @Override
     protected JSONStreamAware processRequest(HttpServletRequest req) throws ConchException {
-        Long transferCount = 0L;
-        Long transferAmount = 0L;
-        Long transferCount24H = 0L;
-        Long transferAmount24H = 0L;
-        Long storageCount = 0L;
-        Long storageDataLength = 0L;
-        Long storageCount24H = 0L;
-        Long storageDataLength24H = 0L;
+        TxStatistics.Totals totals = TxStatistics.getTotals();
+        TxStatistics.Totals totals24H = TxStatistics.getLastDayTotals();
         JSONObject jsonObject = new JSONObject();
-
-        Connection con = null;
-        PreparedStatement pstmt = null;
-        String sqlTransfer = "SELECT COUNT(*),SUM(AMOUNT)/100000000 FROM TRANSACTION WHERE VERSION>=3 AND TYPE=0 AND SUBTYPE=0 AND HEIGHT>0 AND TIMESTAMP > ?";
-        String sqlStorage = "SELECT COUNT(*),SUM(LENGTH (t2.DATA)) FROM TRANSACTION t1 , TAGGED_DATA t2 WHERE t1.ID = t2.ID AND t1.VERSION>=3 AND t1.TYPE=6 AND t1.SUBTYPE=0 AND t1.HEIGHT>0 AND TIMESTAMP > ?";
-        try {
-            con = Db.db.getConnection();
-            pstmt = con.prepareStatement(sqlTransfer);
-            pstmt.setInt(1, 0);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    transferCount = rs.getLong(1);
-                    transferAmount = rs.getLong(2);
-                }
-            }
-            Instant timestampNow = Instant.now();
-            Instant timestamp24H = timestampNow.minus(1, ChronoUnit.DAYS);
-            long timestamp = timestamp24H.getEpochSecond() - Constants.EPOCH_BEGINNING / 1000;
-            pstmt = con.prepareStatement(sqlTransfer);
-            pstmt.setLong(1, timestamp);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    transferCount24H = rs.getLong(1);
-                    transferAmount24H = rs.getLong(2);
-                }
-            }
-            pstmt = con.prepareStatement(sqlStorage);
-            pstmt.setLong(1, 0);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    storageCount = rs.getLong(1);
-                    storageDataLength = rs.getLong(2);
-                }
-            }
-            pstmt = con.prepareStatement(sqlStorage);
-            pstmt.setLong(1, timestamp);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    storageCount24H = rs.getLong(1);
-                    storageDataLength24H = rs.getLong(2);
-                }
-            }
-            jsonObject.put("transferCount", transferCount);
-            jsonObject.put("transferAmount", transferAmount);
-            jsonObject.put("transferCount24H", transferCount24H);
-            jsonObject.put("transferAmount24H", transferAmount24H);
-            jsonObject.put("storageCount", storageCount);
-            jsonObject.put("poolCount", getTransactionCountByType(con, 8));
-            jsonObject.put("coinBaseCount", getTransactionCountByType(con, 9));
-            jsonObject.put("storageDataLength", storageDataLength);
-            jsonObject.put("storageCount24H", storageCount24H);
-            jsonObject.put("storageDataLength24H", storageDataLength24H);
-        } catch (SQLException e) {
-            throw new RuntimeException(e.toString(), e);
-        } finally {
-            DbUtils.close(con, pstmt);
-            return jsonObject;
-        }
-    }
-
-
-    /**
-     * 更具交易类型获得交易总数
-     *
-     * @param con
-     * @param type
-     * @return
-     * @throws SQLException
-     */
-    private long getTransactionCountByType(Connection con, int type) throws SQLException {
-        PreparedStatement ps = con.prepareStatement("SELECT COUNT(*) FROM TRANSACTION WHERE TYPE = ?");
-        ps.setInt(1, type);
-        ResultSet rs = ps.executeQuery();
-        if (rs.next()) {
-            return rs.getLong(1);
-        }
-        return 0L;
+        jsonObject.put("transferCount", totals.getTransferCount());
+        jsonObject.put("transferAmount", totals.getTransferAmountNQT() / Constants.ONE_SS);
+        jsonObject.put("transferCount24H", totals24H.getTransferCount());
+        jsonObject.put("transferAmount24H", totals24H.getTransferAmountNQT() / Constants.ONE_SS);
+        jsonObject.put("storageCount", totals.getStorageCount());
+        jsonObject.put("poolCount", totals.getPoolCount());
+        jsonObject.put("coinBaseCount", totals.getCoinBaseCount());
+        jsonObject.put("storageDataLength", totals.getStorageDataLength());
+        jsonObject.put("storageCount24H", totals24H.getStorageCount());
+        jsonObject.put("storageDataLength24H", totals24H.getStorageDataLength());
+        return jsonObject;
     }
 
     @Override
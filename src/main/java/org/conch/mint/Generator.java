@@ -45,6 +45,9 @@ import java.security.MessageDigest;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -96,7 +99,7 @@ public class Generator implements Comparable<Generator> {
             if(sortedMiners != null && sortedMiners.size() > 0){
                 for(Generator generator : sortedMiners){
                     generatorSummary += appendSplitter(Account.rsAccount(generator.accountId) + "[id=" + generator.accountId + ",poc score=" + generator.pocScore
-                            + ",deadline=" + generator.deadline + ",hit=" + generator.hit + ",hitTime=" + generator.hitTime,false) + "]";
+                            + ",deadline=" + generator.deadline + ",hit=" + Long.toUnsignedString(generator.hit) + ",hitTime=" + generator.hitTime,false) + "]";
                 }
             }
         }
@@ -189,7 +192,7 @@ public class Generator implements Comparable<Generator> {
                 if (verifyHit(linkedGenerator.hit, linkedGenerator.pocScore, lastBlock, timestamp)) {
                     Logger.logInfoMessage("[BootNode] Current blockchain was stuck[sinceLastBlock=%d minutes], but boot node should keep mining when the miner[%s]' hit is matched at height[%d].", minutesSinceLastBlock,linkedGenerator.rsAddress, lastBlock.getHeight());
                 }else{
-                    Logger.logDebugMessage("[BootNode] Current blockchain was stuck[sinceLastBlock=%d minutes], but boot node miner[%s]'s hit[%d] didn't matched now at height[%d], wait for next round check.", minutesSinceLastBlock,linkedGenerator.rsAddress,linkedGenerator.hit, lastBlock.getHeight());
+                    Logger.logDebugMessage("[BootNode] Current blockchain was stuck[sinceLastBlock=%d minutes], but boot node miner[%s]'s hit[%s] didn't matched now at height[%d], wait for next round check.", minutesSinceLastBlock,linkedGenerator.rsAddress,Long.toUnsignedString(linkedGenerator.hit), lastBlock.getHeight());
                     return false;
                 }
             }else{
@@ -227,7 +230,8 @@ public class Generator implements Comparable<Generator> {
 
                         final int generationLimit = Conch.getEpochTime() - delayTime;
                         Block lastBlock = Conch.getBlockchain().getLastBlock();
-                        if(!miningConditionReached(lastBlock, generationLimit)) return;
+                        conditionsWaiting = !miningConditionReached(lastBlock, generationLimit);
+                        if(conditionsWaiting) return;
                         
                         checkOrStartAutoMining();
                        
@@ -251,9 +255,15 @@ public class Generator implements Comparable<Generator> {
                                 }
                             }
 
+                            // the hit times are computed once per new last block
+                            Block hitBlock = lastBlock;
+                            if (generators.size() >= PARALLEL_HIT_GENERATORS) {
+                                generators.values().parallelStream().forEach(generator -> generator.setLastBlock(hitBlock));
+                            } else {
+                                generators.values().forEach(generator -> generator.setLastBlock(hitBlock));
+                            }
                             List<Generator> forgers = new ArrayList<>();
                             for (Generator generator : generators.values()) {
-                                generator.setLastBlock(lastBlock);
                                 if (generator.pocScore.signum() > 0) {
                                     forgers.add(generator);
                                 }
@@ -326,11 +336,88 @@ public class Generator implements Comparable<Generator> {
         return missingAccounts;
     }
     
+    /**
+     * Runs the block generation when a block is pushed or popped, when a miner is started, and at the
+     * earliest hit time of the sorted miners, instead of polling the miners at a fixed rate.
+     * <p>
+     * The run is retried after {@link #RETRY_MILLIS} while the mining conditions are not reached or
+     * a miner whose hit time has come didn't mint, and after {@link #MAX_IDLE_MILLIS} without any
+     * miner waiting for its hit time.
+     */
+    private static final class ForgingScheduler {
+
+        private static final long RETRY_MILLIS = 10000;
+        private static final long MAX_IDLE_MILLIS = Conch.getIntProperty("sharder.forgingMaxIdle", 60) * 1000L;
+
+        private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "GenerateBlocks");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private static ScheduledFuture<?> nextRun;
+        private static long nextRunMillis;
+        private static volatile boolean started;
+
+        private static void start() {
+            started = true;
+            wakeUp(0);
+        }
+
+        /**
+         * Schedule a run, an earlier run already scheduled is kept
+         */
+        private static synchronized void wakeUp(long delayMillis) {
+            if (!started || executor.isShutdown()) {
+                return;
+            }
+            long runMillis = System.currentTimeMillis() + delayMillis;
+            if (nextRun != null) {
+                if (nextRunMillis <= runMillis) {
+                    return;
+                }
+                nextRun.cancel(false);
+            }
+            nextRunMillis = runMillis;
+            nextRun = executor.schedule(ForgingScheduler::run, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private static void run() {
+            synchronized (ForgingScheduler.class) {
+                nextRun = null;
+            }
+            generateBlocksThread.run();
+            wakeUp(nextRunDelay());
+        }
+
+        private static long nextRunDelay() {
+            List<Generator> miners = sortedMiners;
+            if (forcePause || miners == null || miners.isEmpty() || conditionsWaiting) {
+                return miners == null || miners.isEmpty() ? MAX_IDLE_MILLIS : RETRY_MILLIS;
+            }
+            int now = Conch.getEpochTime();
+            for (Generator generator : miners) {
+                long wait = generator.getHitTime() + delayTime - now;
+                if (wait > 0) {
+                    return Math.min(wait * 1000, MAX_IDLE_MILLIS);
+                }
+            }
+            // the miners whose hit time has come didn't mint, retry them until a new block comes
+            return RETRY_MILLIS;
+        }
+
+        private static void shutdown() {
+            ThreadPool.shutdownExecutor("GenerateBlocks", executor, 5);
+        }
+    }
+
+    /**
+     * The hit times of the miners are computed in parallel from this number of miners
+     */
+    private static final int PARALLEL_HIT_GENERATORS = Conch.getIntProperty("sharder.parallelHitGenerators", 32);
+    private static volatile boolean conditionsWaiting;
+
     public static final boolean isBootNode;
     static {
-        if (!Constants.isLightClient) {
-            ThreadPool.scheduleThread("GenerateBlocks", generateBlocksThread, 10000, TimeUnit.MILLISECONDS);
-        }
         isBootNode = bootNodeCheck();
     }
     
@@ -351,6 +438,24 @@ public class Generator implements Comparable<Generator> {
                 }
             }
         }, BlockchainProcessor.Event.BLOCK_PUSHED);
+
+        // the hit times change with the last block, the downloaded blocks are left to the retry timer
+        if (!Constants.isLightClient && !Conch.getBooleanProperty("sharder.disableGenerateBlocksThread")) {
+            Listener<Block> lastBlockListener = block -> {
+                if (!Conch.getBlockchainProcessor().isDownloading()) {
+                    ForgingScheduler.wakeUp(0);
+                }
+            };
+            Conch.getBlockchainProcessor().addListener(lastBlockListener, BlockchainProcessor.Event.BLOCK_PUSHED);
+            Conch.getBlockchainProcessor().addListener(lastBlockListener, BlockchainProcessor.Event.BLOCK_POPPED);
+            ThreadPool.runAfterStart(ForgingScheduler::start);
+        } else {
+            Logger.logMessage("Will not run GenerateBlocks thread");
+        }
+    }
+
+    public static void shutdown() {
+        ForgingScheduler.shutdown();
     }
 
     public static boolean addListener(Listener<Generator> listener, Event eventType) {
@@ -442,6 +547,7 @@ public class Generator implements Comparable<Generator> {
         }
         listeners.notify(generator, Event.START_MINING);
         Logger.logDebugMessage(generator + " started");
+        ForgingScheduler.wakeUp(0);
         return generator;
     }
 
@@ -544,7 +650,7 @@ public class Generator implements Comparable<Generator> {
      * @param timestamp
      * @return
      */
-    public static boolean verifyHit(BigInteger hit, BigInteger pocScore, Block previousBlock, int timestamp) {
+    public static boolean verifyHit(long hit, BigInteger pocScore, Block previousBlock, int timestamp) {
         int elapsedTime = timestamp - previousBlock.getTimestamp();
         if (elapsedTime <= 0) {
             if(Generator.isBootNode) {
@@ -558,16 +664,17 @@ public class Generator implements Comparable<Generator> {
             return false;
         }
         
-        BigInteger effectiveBaseTarget = BigInteger.valueOf(previousBlock.getBaseTarget()).multiply(pocScore);
-        BigInteger prevTarget = effectiveBaseTarget.multiply(BigInteger.valueOf(elapsedTime - Constants.getBlockGapSeconds() - 1));
-        BigInteger target = prevTarget.add(effectiveBaseTarget);
+        // target = effective base target * (intervals + 1), previous target = effective base target * intervals
+        long intervals = elapsedTime - Constants.getBlockGapSeconds() - 1;
         // check the elapsed time(in second) after previous block generated
         boolean elapsed = elapsedTime > Constants.getBlockGapSeconds();
         
         // 3 right situations: a) last hit < current hit < current target, b) this block is elapsed, c) in offline mode
-        boolean validHit = hit.compareTo(target) < 0 && (hit.compareTo(prevTarget) >= 0 || elapsed || Constants.isOffline);
+        boolean validHit = HitMath.isHitInTarget(hit, previousBlock.getBaseTarget(), pocScore, intervals, elapsed || Constants.isOffline);
         if(!validHit) {
-            Logger.logWarningMessage("verify hit failed, hit should smaller than target [hit=%d, target=%d, poc score=%d, previous target=%d, elapsed time=%d]",hit, target, pocScore, prevTarget, elapsedTime);
+            Logger.logWarningMessage("verify hit failed, hit should smaller than target [hit=%s, target=%d, poc score=%d, previous target=%d, elapsed time=%d]",
+                    Long.toUnsignedString(hit), HitMath.target(previousBlock.getBaseTarget(), pocScore, intervals + 1), pocScore,
+                    HitMath.target(previousBlock.getBaseTarget(), pocScore, intervals), elapsedTime);
         }
         return validHit;
     }
@@ -582,15 +689,15 @@ public class Generator implements Comparable<Generator> {
      * @param block the last block
      * @return
      */
-    public static BigInteger getHit(byte[] publicKey, Block block) {
+    public static long getHit(byte[] publicKey, Block block) {
         if (allowsFakeMining(publicKey)) {
-            return BigInteger.ZERO;
+            return 0;
         }
 
         MessageDigest digest = Crypto.sha256();
         digest.update(block.getGenerationSignature());
         byte[] generationSignatureHash = digest.digest(publicKey);
-        return new BigInteger(1, new byte[] {generationSignatureHash[7], generationSignatureHash[6], generationSignatureHash[5], generationSignatureHash[4], generationSignatureHash[3], generationSignatureHash[2], generationSignatureHash[1], generationSignatureHash[0]});
+        return HitMath.hit(generationSignatureHash);
     }
 
 //    static long getHitTime(BigInteger effectiveBalance, BigInteger hit, Block block) {
@@ -601,12 +708,12 @@ public class Generator implements Comparable<Generator> {
     /**
      * calculate the hit time of the generator
      * @param pocScore poc score of the generator. you can see the: org.conch.consensus.poc.PocScore.PocCalculator
-     * @param hit the hit of the generator
+     * @param hit the unsigned hit of the generator
      * @param block  the last block
      * @return
      */
-    public static long getHitTime(BigInteger pocScore, BigInteger hit, Block block) {
-        return block.getTimestamp() + hit.divide(BigInteger.valueOf(block.getBaseTarget()).multiply(pocScore)).longValue() + Constants.getBlockGapSeconds();
+    public static long getHitTime(BigInteger pocScore, long hit, Block block) {
+        return block.getTimestamp() + HitMath.hitDelay(hit, block.getBaseTarget(), pocScore) + Constants.getBlockGapSeconds();
     }
 
 
@@ -614,7 +721,7 @@ public class Generator implements Comparable<Generator> {
     protected String rsAddress;
     protected byte[] publicKey;
     protected volatile long hitTime;
-    protected volatile BigInteger hit;
+    protected volatile long hit;
     protected volatile BigInteger effectiveBalance;
     protected volatile BigInteger pocScore;
     protected volatile com.alibaba.fastjson.JSONObject detailedPocScore;
@@ -659,7 +766,7 @@ public class Generator implements Comparable<Generator> {
     @Override
     public int compareTo(Generator g) {
         try{
-            int i = this.hit.multiply(g.pocScore).compareTo(g.hit.multiply(this.pocScore));
+            int i = HitMath.compare(this.hit, this.pocScore, g.hit, g.pocScore);
             return i != 0 ? i : Long.compare(accountId, g.accountId);
         }catch(Exception e){
             Logger.logErrorMessage("Generator compare failed",e);
@@ -753,7 +860,7 @@ public class Generator implements Comparable<Generator> {
 
         if (!pocScoreObj.qualifiedMiner()) {
             hitTime = 0;
-            hit = BigInteger.ZERO;
+            hit = 0;
             return;
         }
 
@@ -901,10 +1008,10 @@ public class Generator implements Comparable<Generator> {
     public static class ActiveGenerator extends Generator {
 
         public ActiveGenerator(long accountId) {
-            this(accountId,Long.MAX_VALUE,BigInteger.ZERO);
+            this(accountId,Long.MAX_VALUE,0);
         }
         
-        public ActiveGenerator(long accountId, long hitTime, BigInteger hit) {
+        public ActiveGenerator(long accountId, long hitTime, long hit) {
             this.accountId = accountId;
             this.publicKey = Account.getPublicKey(this.accountId);
             this.rsAddress = Account.rsAccount(this.accountId);
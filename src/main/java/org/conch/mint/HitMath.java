@@ -0,0 +1,164 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.mint;
+
+import java.math.BigInteger;
+
+/**
+ * Hit, target and hit time arithmetic on primitive longs.
+ * <p>
+ * A hit is the unsigned 64-bit number made of the first 8 bytes (little-endian) of the generation
+ * signature hash, it is held in a {@code long}.  The products of the base target and the poc score
+ * can exceed 64 bits, they are computed as unsigned 128-bit values (high and low words).  The
+ * results are the same as the former {@link BigInteger} computation; the inputs which don't fit
+ * (a poc score out of [0, 2^63) or a non-positive base target) fall back to {@link BigInteger}.
+ */
+public final class HitMath {
+
+    private HitMath() {}
+
+    /**
+     * Return the hit of a generation signature hash
+     *
+     * @param hash generation signature hash
+     * @return unsigned 64-bit hit
+     */
+    public static long hit(byte[] hash) {
+        return (hash[0] & 0xFFL)
+                | (hash[1] & 0xFFL) << 8
+                | (hash[2] & 0xFFL) << 16
+                | (hash[3] & 0xFFL) << 24
+                | (hash[4] & 0xFFL) << 32
+                | (hash[5] & 0xFFL) << 40
+                | (hash[6] & 0xFFL) << 48
+                | (hash[7] & 0xFFL) << 56;
+    }
+
+    /**
+     * Return the unsigned value of a hit
+     */
+    public static BigInteger toBigInteger(long hit) {
+        BigInteger value = BigInteger.valueOf(hit & Long.MAX_VALUE);
+        return hit < 0 ? value.setBit(63) : value;
+    }
+
+    /**
+     * Return the high word of the unsigned 128-bit product, the Java 8 form of Math.multiplyHigh
+     * adjusted for unsigned operands
+     */
+    static long unsignedMultiplyHigh(long x, long y) {
+        long x1 = x >> 32;
+        long x2 = x & 0xFFFFFFFFL;
+        long y1 = y >> 32;
+        long y2 = y & 0xFFFFFFFFL;
+        long z2 = x2 * y2;
+        long t = x1 * y2 + (z2 >>> 32);
+        long z1 = t & 0xFFFFFFFFL;
+        long z0 = t >> 32;
+        z1 += x2 * y1;
+        long high = x1 * y1 + z0 + (z1 >> 32);
+        return high + ((x >> 63) & y) + ((y >> 63) & x);
+    }
+
+    private static boolean fits(BigInteger pocScore) {
+        return pocScore.signum() >= 0 && pocScore.bitLength() < 64;
+    }
+
+    /**
+     * Return the number of seconds after the last block: hit / (baseTarget * pocScore)
+     *
+     * @param hit unsigned hit
+     * @param baseTarget base target of the last block
+     * @param pocScore poc score of the generator
+     * @return quotient, truncated to a long like {@link BigInteger#longValue()}
+     */
+    public static long hitDelay(long hit, long baseTarget, BigInteger pocScore) {
+        if (baseTarget <= 0 || pocScore.signum() <= 0 || !fits(pocScore)) {
+            return toBigInteger(hit).divide(BigInteger.valueOf(baseTarget).multiply(pocScore)).longValue();
+        }
+        long score = pocScore.longValue();
+        if (unsignedMultiplyHigh(baseTarget, score) != 0) {
+            // the divisor is above 2^64, larger than any hit
+            return 0;
+        }
+        return Long.divideUnsigned(hit, baseTarget * score);
+    }
+
+    /**
+     * Check that hit < target and hit >= previous target, where
+     * target = baseTarget * pocScore * (intervals + 1) and previous target = baseTarget * pocScore * intervals
+     *
+     * @param hit unsigned hit
+     * @param baseTarget base target of the last block
+     * @param pocScore poc score of the generator
+     * @param intervals seconds elapsed after the block gap, minus one
+     * @param ignorePreviousTarget TRUE if the previous target is not checked
+     * @return TRUE if the hit is valid
+     */
+    public static boolean isHitInTarget(long hit, long baseTarget, BigInteger pocScore, long intervals, boolean ignorePreviousTarget) {
+        if (baseTarget <= 0 || !fits(pocScore) || intervals < 0 || intervals == Long.MAX_VALUE) {
+            BigInteger bigHit = toBigInteger(hit);
+            return bigHit.compareTo(target(baseTarget, pocScore, intervals + 1)) < 0
+                    && (ignorePreviousTarget || bigHit.compareTo(target(baseTarget, pocScore, intervals)) >= 0);
+        }
+        long score = pocScore.longValue();
+        long effectiveHigh = unsignedMultiplyHigh(baseTarget, score);
+        long effective = baseTarget * score;
+        if (!isBelow(hit, effectiveHigh, effective, intervals + 1)) {
+            return false;
+        }
+        return ignorePreviousTarget || intervals == 0 || !isBelow(hit, effectiveHigh, effective, intervals);
+    }
+
+    /**
+     * Check hit < (effectiveHigh:effective) * multiplier, for a positive multiplier
+     */
+    private static boolean isBelow(long hit, long effectiveHigh, long effective, long multiplier) {
+        if (effectiveHigh != 0) {
+            return true;
+        }
+        return unsignedMultiplyHigh(effective, multiplier) != 0 || Long.compareUnsigned(hit, effective * multiplier) < 0;
+    }
+
+    /**
+     * Return baseTarget * pocScore * multiplier, used for the logs
+     */
+    public static BigInteger target(long baseTarget, BigInteger pocScore, long multiplier) {
+        return BigInteger.valueOf(baseTarget).multiply(pocScore).multiply(BigInteger.valueOf(multiplier));
+    }
+
+    /**
+     * Compare hit1 * pocScore2 with hit2 * pocScore1, i.e. the hit delays of two generators
+     *
+     * @return negative, zero or positive like {@link Comparable#compareTo(Object)}
+     */
+    public static int compare(long hit1, BigInteger pocScore1, long hit2, BigInteger pocScore2) {
+        if (!fits(pocScore1) || !fits(pocScore2)) {
+            return toBigInteger(hit1).multiply(pocScore2).compareTo(toBigInteger(hit2).multiply(pocScore1));
+        }
+        long score1 = pocScore1.longValue();
+        long score2 = pocScore2.longValue();
+        int compare = Long.compareUnsigned(unsignedMultiplyHigh(hit1, score2), unsignedMultiplyHigh(hit2, score1));
+        return compare != 0 ? compare : Long.compareUnsigned(hit1 * score2, hit2 * score1);
+    }
+
+}
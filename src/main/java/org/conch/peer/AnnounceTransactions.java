@@ -0,0 +1,79 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+
+package org.conch.peer;
+
+import org.conch.Conch;
+import org.conch.tx.TransactionDb;
+import org.conch.util.Convert;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Announcement of the ids of new transactions.  The response lists the transactions we don't
+ * have, the peer then sends them with processTransactions.
+ */
+final class AnnounceTransactions extends PeerServlet.PeerRequestHandler {
+
+    static final AnnounceTransactions instance = new AnnounceTransactions();
+
+    /** Maximum number of transaction ids of an announcement, the transactions are announced by batches of 10 */
+    static final int MAX_TRANSACTION_IDS = 100;
+
+    private AnnounceTransactions() {}
+
+    @Override
+    JSONStreamAware processRequest(JSONObject request, Peer peer) {
+        JSONArray transactionIds = (JSONArray) request.get("transactionIds");
+        if (transactionIds == null) {
+            return PeerServlet.error(new IllegalArgumentException("Missing transaction ids"));
+        }
+        if (transactionIds.size() > MAX_TRANSACTION_IDS) {
+            IllegalArgumentException e = new IllegalArgumentException("Too many transaction ids: " + transactionIds.size());
+            peer.blacklist(e);
+            return PeerServlet.error(e);
+        }
+        List<Long> announcedIds = new ArrayList<>(transactionIds.size());
+        JSONArray missingIds = new JSONArray();
+        for (Object transactionId : transactionIds) {
+            long id = Convert.parseUnsignedLong((String) transactionId);
+            announcedIds.add(id);
+            if (Conch.getTransactionProcessor().getUnconfirmedTransaction(id) == null && !TransactionDb.hasTransaction(id)) {
+                missingIds.add(transactionId);
+            }
+        }
+        ((PeerImpl) peer).getKnownInventory().addAll(announcedIds);
+        JSONObject response = new JSONObject();
+        response.put("missingTransactionIds", missingIds);
+        return response;
+    }
+
+    @Override
+    boolean rejectWhileDownloading() {
+        return true;
+    }
+
+}
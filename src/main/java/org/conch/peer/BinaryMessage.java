@@ -0,0 +1,541 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.peer;
+
+import org.conch.chain.Block;
+import org.conch.chain.BlockCache;
+import org.conch.chain.BlockImpl;
+import org.conch.common.ConchException;
+import org.conch.tx.Attachment;
+import org.conch.tx.Transaction;
+import org.conch.tx.TransactionImpl;
+import org.conch.util.Convert;
+import org.conch.util.JSON;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.ParseException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Peer message which carries the blocks or transactions as their canonical bytes
+ * ({@link BlockImpl#bytes()}, {@link TransactionImpl#bytes()}) in a WebSocket binary body.
+ * <p>
+ * The message has a small JSON header used for the request routing and a binary body.
+ * It is sent as a binary message only when the peer provides the {@link Peer.Service#BINARY}
+ * service and the WebSocket connection is used.  Otherwise the complete JSON form is written,
+ * so peers without the binary support still get the JSON messages.  A request which is sent
+ * as a binary message (with an empty body for a plain request) allows the receiver to return
+ * a binary response.
+ * <p>
+ * Each form is encoded on its first use and kept, a message sent to several peers is serialized
+ * and compressed once and the encoded bytes are shared by the sends.
+ * <p>
+ * Body layout:
+ * <pre>
+ *   blocks:        count, { length, block bytes, totalAmountNQT, totalFeeNQT, transactions }
+ *   transactions:  count, { length, transaction bytes, length, prunable attachment JSON }
+ *   compact block: length, block bytes, totalAmountNQT, totalFeeNQT, count, { transaction id },
+ *                  prefilled transactions
+ * </pre>
+ * A compact block carries the ids of the block transactions, the receiver takes them from its
+ * unconfirmed transactions.  The coinbase transactions, which are never broadcast, are prefilled.
+ */
+public final class BinaryMessage implements JSONStreamAware {
+
+    /**
+     * Key of the binary body in a response which was received as a binary message
+     */
+    static final String BODY = "binaryBody";
+
+    private static final byte[] EMPTY_BODY = new byte[0];
+
+    private final JSONObject header;
+    private final Supplier<byte[]> bodySupplier;
+    private final Supplier<JSONObject> jsonSupplier;
+    private volatile byte[] body;
+    private volatile JSONObject json;
+    private volatile String headerString;
+    private volatile String jsonString;
+    private PeerWebSocket.Payload binaryPayload;
+    private PeerWebSocket.Payload jsonPayload;
+    private int binaryPayloadUses;
+    private int jsonPayloadUses;
+
+    private BinaryMessage(JSONObject header, Supplier<byte[]> bodySupplier, Supplier<JSONObject> jsonSupplier) {
+        this.header = header;
+        this.bodySupplier = bodySupplier;
+        this.jsonSupplier = jsonSupplier;
+    }
+
+    /**
+     * Plain request which accepts a binary response
+     *
+     * @param request request
+     * @return binary message with an empty body
+     */
+    public static BinaryMessage request(JSONObject request) {
+        request.put("protocol", 1);
+        return new BinaryMessage(request, () -> EMPTY_BODY, () -> request);
+    }
+
+    static BinaryMessage processBlock(Block block) {
+        JSONObject header = new JSONObject();
+        header.put("requestType", "processBlock");
+        header.put("previousBlock", Long.toUnsignedString(block.getPreviousBlockId()));
+        header.put("timestamp", block.getTimestamp());
+        header.put("protocol", 1);
+        header.putAll(Peers.getNatAndAddressMap());
+        List<Block> blocks = new ArrayList<>(1);
+        blocks.add(block);
+        return new BinaryMessage(header, () -> encodeBlocks(blocks), () -> {
+            JSONObject request = block.getJSONObject();
+            request.putAll(header);
+            return request;
+        });
+    }
+
+    static BinaryMessage processTransactions(List<? extends Transaction> transactions) {
+        JSONObject header = new JSONObject();
+        header.put("requestType", "processTransactions");
+        header.put("protocol", 1);
+        header.putAll(Peers.getNatAndAddressMap());
+        return new BinaryMessage(header, () -> encodeTransactions(transactions), () -> {
+            JSONObject request = new JSONObject();
+            JSONArray transactionsData = new JSONArray();
+            transactions.forEach(transaction -> transactionsData.add(transaction.getJSONObject()));
+            request.putAll(header);
+            request.put("transactions", transactionsData);
+            return request;
+        });
+    }
+
+    static BinaryMessage processCompactBlock(Block block) {
+        JSONObject header = new JSONObject();
+        header.put("requestType", "processCompactBlock");
+        header.put("previousBlock", Long.toUnsignedString(block.getPreviousBlockId()));
+        header.put("timestamp", block.getTimestamp());
+        header.put("protocol", 1);
+        header.putAll(Peers.getNatAndAddressMap());
+        return new BinaryMessage(header, () -> encodeCompactBlock(block), () -> {
+            JSONObject request = new JSONObject();
+            request.putAll(header);
+            request.put("blockBytes", Convert.toHexString(((BlockImpl) block).bytes()));
+            request.put("totalAmountNQT", block.getTotalAmountNQT());
+            request.put("totalFeeNQT", block.getTotalFeeNQT());
+            JSONArray transactionIds = new JSONArray();
+            JSONArray prefilledTransactions = new JSONArray();
+            block.getTransactions().forEach(transaction -> {
+                transactionIds.add(transaction.getStringId());
+                if (isPrefilled(transaction)) {
+                    prefilledTransactions.add(transaction.getJSONObject());
+                }
+            });
+            request.put("transactionIds", transactionIds);
+            request.put("prefilledTransactions", prefilledTransactions);
+            return request;
+        });
+    }
+
+    static BinaryMessage announceTransactions(List<? extends Transaction> transactions) {
+        JSONObject request = new JSONObject();
+        request.put("requestType", "announceTransactions");
+        JSONArray transactionIds = new JSONArray();
+        transactions.forEach(transaction -> transactionIds.add(transaction.getStringId()));
+        request.put("transactionIds", transactionIds);
+        return request(request);
+    }
+
+    static BinaryMessage nextBlocks(List<? extends Block> blocks) {
+        return new BinaryMessage(new JSONObject(), () -> encodeBlocks(blocks), () -> {
+            JSONObject response = new JSONObject();
+            JSONArray nextBlocksArray = new JSONArray();
+            blocks.forEach(block -> nextBlocksArray.add(BlockCache.getJSON(block)));
+            response.put("nextBlocks", nextBlocksArray);
+            return response;
+        });
+    }
+
+    /**
+     * Return the binary body of a peer response
+     *
+     * @param response peer response
+     * @return binary body or null if the response was a JSON message
+     */
+    public static byte[] getBody(JSONObject response) {
+        return (byte[]) response.get(BODY);
+    }
+
+    JSONObject getHeader() {
+        return header;
+    }
+
+    byte[] getBody() {
+        if (body == null) {
+            body = bodySupplier.get();
+        }
+        return body;
+    }
+
+    JSONObject getJSONObject() {
+        if (json == null) {
+            json = jsonSupplier.get();
+        }
+        return json;
+    }
+
+    String getHeaderString() {
+        if (headerString == null) {
+            headerString = header.toJSONString();
+        }
+        return headerString;
+    }
+
+    String getJSONString() {
+        if (jsonString == null) {
+            jsonString = JSON.toString(getJSONObject());
+        }
+        return jsonString;
+    }
+
+    /**
+     * Return the WebSocket binary message: the JSON header and the binary body
+     */
+    synchronized PeerWebSocket.Payload getBinaryPayload() throws IOException {
+        if (binaryPayload == null) {
+            binaryPayload = PeerWebSocket.encode(getHeaderString(), getBody());
+        }
+        binaryPayloadUses += 1;
+        return binaryPayload;
+    }
+
+    /**
+     * Return the WebSocket JSON message, compressed if it is large enough
+     */
+    synchronized PeerWebSocket.Payload getJSONPayload() throws IOException {
+        if (jsonPayload == null) {
+            jsonPayload = PeerWebSocket.encode(getJSONString(), null);
+        }
+        jsonPayloadUses += 1;
+        return jsonPayload;
+    }
+
+    /**
+     * Return the number of bytes which were not serialized again since the WebSocket messages
+     * were shared by several sends
+     */
+    synchronized long getReusedBytes() {
+        long bytes = 0;
+        if (binaryPayloadUses > 1) {
+            bytes += (long) (binaryPayloadUses - 1) * binaryPayload.getLength();
+        }
+        if (jsonPayloadUses > 1) {
+            bytes += (long) (jsonPayloadUses - 1) * jsonPayload.getLength();
+        }
+        return bytes;
+    }
+
+    /**
+     * Return the number of bytes which were not sent since the WebSocket JSON message was compressed
+     */
+    synchronized long getCompressionSavedBytes() {
+        if (jsonPayloadUses == 0) {
+            return 0;
+        }
+        return (long) jsonPayloadUses * (jsonPayload.getLength() - jsonPayload.getEncodedLength());
+    }
+
+    @Override
+    public void writeJSONString(Writer out) throws IOException {
+        out.write(getJSONString());
+    }
+
+    private static byte[] encodeBlocks(List<? extends Block> blocks) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(blocks.size() * 1024);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(blocks.size());
+            for (Block block : blocks) {
+                out.write(BlockCache.getBytes(block, BinaryMessage::encodeBlock));
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    private static byte[] encodeBlock(Block block) {
+        try {
+            byte[] blockBytes = ((BlockImpl) block).bytes();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(blockBytes.length + block.getPayloadLength() + 256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(blockBytes.length);
+            out.write(blockBytes);
+            out.writeLong(block.getTotalAmountNQT());
+            out.writeLong(block.getTotalFeeNQT());
+            writeTransactions(out, block.getTransactions());
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    private static byte[] encodeCompactBlock(Block block) {
+        try {
+            byte[] blockBytes = ((BlockImpl) block).bytes();
+            List<? extends Transaction> transactions = block.getTransactions();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(blockBytes.length + transactions.size() * 8 + 256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(blockBytes.length);
+            out.write(blockBytes);
+            out.writeLong(block.getTotalAmountNQT());
+            out.writeLong(block.getTotalFeeNQT());
+            out.writeInt(transactions.size());
+            List<Transaction> prefilledTransactions = new ArrayList<>();
+            for (Transaction transaction : transactions) {
+                out.writeLong(transaction.getId());
+                if (isPrefilled(transaction)) {
+                    prefilledTransactions.add(transaction);
+                }
+            }
+            writeTransactions(out, prefilledTransactions);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    private static boolean isPrefilled(Transaction transaction) {
+        return transaction.getAttachment() instanceof Attachment.CoinBase;
+    }
+
+    private static byte[] encodeTransactions(List<? extends Transaction> transactions) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(transactions.size() * 256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeTransactions(out, transactions);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    private static void writeTransactions(DataOutputStream out, List<? extends Transaction> transactions) throws IOException {
+        out.writeInt(transactions.size());
+        for (Transaction transaction : transactions) {
+            byte[] transactionBytes = ((TransactionImpl) transaction).bytes();
+            out.writeInt(transactionBytes.length);
+            out.write(transactionBytes);
+            JSONObject prunableAttachmentJSON = transaction.getPrunableAttachmentJSON();
+            if (prunableAttachmentJSON != null) {
+                byte[] prunableBytes = prunableAttachmentJSON.toJSONString().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(prunableBytes.length);
+                out.write(prunableBytes);
+            } else {
+                out.writeInt(0);
+            }
+        }
+    }
+
+    /**
+     * Parse the blocks of a binary body
+     *
+     * @param body binary body
+     * @param checkSignatures false if the signatures are verified later by the {@link org.conch.chain.SignatureVerifier}
+     * @return blocks
+     * @throws ConchException.NotValidException invalid body
+     */
+    public static List<BlockImpl> parseBlocks(byte[] body, boolean checkSignatures) throws ConchException.NotValidException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(body);
+            int count = readCount(buffer);
+            List<BlockImpl> blocks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] blockBytes = readBytes(buffer);
+                long totalAmountNQT = buffer.getLong();
+                long totalFeeNQT = buffer.getLong();
+                List<TransactionImpl> transactions = readTransactions(buffer, checkSignatures);
+                blocks.add(BlockImpl.parseBlock(blockBytes, totalAmountNQT, totalFeeNQT, transactions, checkSignatures));
+            }
+            return blocks;
+        } catch (BufferUnderflowException e) {
+            throw new ConchException.NotValidException("Truncated binary blocks message", e);
+        }
+    }
+
+    /**
+     * Parse the transactions of a binary body
+     *
+     * @param body binary body
+     * @return transactions
+     * @throws ConchException.NotValidException invalid body
+     */
+    public static List<TransactionImpl> parseTransactions(byte[] body) throws ConchException.NotValidException {
+        try {
+            return readTransactions(ByteBuffer.wrap(body), true);
+        } catch (BufferUnderflowException e) {
+            throw new ConchException.NotValidException("Truncated binary transactions message", e);
+        }
+    }
+
+    /**
+     * Block sent as the ids of its transactions
+     */
+    static final class CompactBlock {
+
+        private final byte[] blockBytes;
+        private final long totalAmountNQT;
+        private final long totalFeeNQT;
+        private final long[] transactionIds;
+        private final List<TransactionImpl> prefilledTransactions;
+
+        private CompactBlock(byte[] blockBytes, long totalAmountNQT, long totalFeeNQT, long[] transactionIds,
+                             List<TransactionImpl> prefilledTransactions) {
+            this.blockBytes = blockBytes;
+            this.totalAmountNQT = totalAmountNQT;
+            this.totalFeeNQT = totalFeeNQT;
+            this.transactionIds = transactionIds;
+            this.prefilledTransactions = prefilledTransactions;
+        }
+
+        long[] getTransactionIds() {
+            return transactionIds;
+        }
+
+        List<TransactionImpl> getPrefilledTransactions() {
+            return prefilledTransactions;
+        }
+
+        /**
+         * Build the block
+         *
+         * @param transactions block transactions in the order of the transaction ids
+         * @return block
+         * @throws ConchException.NotValidException invalid block
+         */
+        BlockImpl toBlock(List<TransactionImpl> transactions) throws ConchException.NotValidException {
+            return BlockImpl.parseBlock(blockBytes, totalAmountNQT, totalFeeNQT, transactions, true);
+        }
+    }
+
+    /**
+     * Parse a compact block from a binary body
+     *
+     * @param body binary body
+     * @return compact block
+     * @throws ConchException.NotValidException invalid body
+     */
+    static CompactBlock parseCompactBlock(byte[] body) throws ConchException.NotValidException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(body);
+            byte[] blockBytes = readBytes(buffer);
+            long totalAmountNQT = buffer.getLong();
+            long totalFeeNQT = buffer.getLong();
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / 8) {
+                throw new ConchException.NotValidException("Invalid transaction count " + count);
+            }
+            long[] transactionIds = new long[count];
+            for (int i = 0; i < count; i++) {
+                transactionIds[i] = buffer.getLong();
+            }
+            List<TransactionImpl> prefilledTransactions = readTransactions(buffer, true);
+            return new CompactBlock(blockBytes, totalAmountNQT, totalFeeNQT, transactionIds, prefilledTransactions);
+        } catch (BufferUnderflowException e) {
+            throw new ConchException.NotValidException("Truncated binary compact block message", e);
+        }
+    }
+
+    /**
+     * Parse a compact block from its JSON form
+     *
+     * @param request processCompactBlock request
+     * @return compact block
+     * @throws ConchException.NotValidException invalid request
+     */
+    static CompactBlock parseCompactBlock(JSONObject request) throws ConchException.NotValidException {
+        JSONArray transactionIdsData = (JSONArray) request.get("transactionIds");
+        JSONArray prefilledData = (JSONArray) request.get("prefilledTransactions");
+        if (transactionIdsData == null || prefilledData == null) {
+            throw new ConchException.NotValidException("Missing compact block transactions");
+        }
+        long[] transactionIds = new long[transactionIdsData.size()];
+        for (int i = 0; i < transactionIds.length; i++) {
+            transactionIds[i] = Convert.parseUnsignedLong((String) transactionIdsData.get(i));
+        }
+        List<TransactionImpl> prefilledTransactions = new ArrayList<>(prefilledData.size());
+        for (Object transactionData : prefilledData) {
+            prefilledTransactions.add(TransactionImpl.parseTransaction((JSONObject) transactionData));
+        }
+        return new CompactBlock(Convert.parseHexString((String) request.get("blockBytes")),
+                Convert.parseLong(request.get("totalAmountNQT")), Convert.parseLong(request.get("totalFeeNQT")),
+                transactionIds, prefilledTransactions);
+    }
+
+    private static List<TransactionImpl> readTransactions(ByteBuffer buffer, boolean checkSignatures) throws ConchException.NotValidException {
+        int count = readCount(buffer);
+        List<TransactionImpl> transactions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] transactionBytes = readBytes(buffer);
+            byte[] prunableBytes = readBytes(buffer);
+            JSONObject prunableAttachments = null;
+            if (prunableBytes.length > 0) {
+                try {
+                    prunableAttachments = (JSONObject) JSONValue.parseWithException(new String(prunableBytes, StandardCharsets.UTF_8));
+                } catch (ParseException e) {
+                    throw new ConchException.NotValidException("Invalid prunable attachment", e);
+                }
+            }
+            TransactionImpl transaction = TransactionImpl.newTransactionBuilder(transactionBytes, prunableAttachments).build();
+            if (checkSignatures && transaction.getSignature() != null && !transaction.checkSignature()) {
+                throw new ConchException.NotValidException("Invalid transaction signature for transaction " + transaction.getStringId());
+            }
+            transactions.add(transaction);
+        }
+        return transactions;
+    }
+
+    private static int readCount(ByteBuffer buffer) throws ConchException.NotValidException {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining()) {
+            throw new ConchException.NotValidException("Invalid item count " + count);
+        }
+        return count;
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) throws ConchException.NotValidException {
+        byte[] bytes = new byte[readCount(buffer)];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
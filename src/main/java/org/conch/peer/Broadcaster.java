@@ -0,0 +1,390 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+
+package org.conch.peer;
+
+import org.conch.Conch;
+import org.conch.chain.Block;
+import org.conch.tx.Transaction;
+import org.conch.util.Convert;
+import org.conch.util.LatencyHistogram;
+import org.conch.util.Logger;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Fan-out of a block or a transaction batch to the connected peers.
+ * <p>
+ * The message is encoded once and the encoded bytes are shared by the sends to all peers, see
+ * {@link BinaryMessage}.  Each peer has a bounded outbound queue which is drained by a single task
+ * of the peers service, so a slow peer delays its own queue only and no thread waits for the
+ * responses of other peers.  A broadcast is first queued to as many peers as the number of
+ * successful sends it still needs, each failed send queues it to the next eligible peer, until
+ * the send limit is reached or the peers are exhausted.  A message is not queued to a peer whose
+ * queue is full.
+ * <p>
+ * The peers which provide the {@link Peer.Service#INVENTORY} service get the ids first: a block
+ * is sent as a compact block and the transactions are announced, the complete block or the
+ * transactions are sent only when the peer reports missing transactions.  The items a peer is
+ * known to have ({@link KnownInventory}) are not sent to it again.
+ */
+final class Broadcaster {
+
+    private static final int maxQueueSize = Conch.getIntProperty("sharder.peerSendQueueSize");
+
+    private static final LatencyHistogram fanoutLatency = new LatencyHistogram();
+    private static final LongAdder broadcasts = new LongAdder();
+    private static final LongAdder sends = new LongAdder();
+    private static final LongAdder failures = new LongAdder();
+    private static final LongAdder queueFull = new LongAdder();
+    private static final LongAdder reusedBytes = new LongAdder();
+    private static final LongAdder compressionSavedBytes = new LongAdder();
+    private static final LongAdder knownItems = new LongAdder();
+    private static final LongAdder compactBlocks = new LongAdder();
+    private static final LongAdder compactBlockMisses = new LongAdder();
+    private static final LongAdder announcedTransactions = new LongAdder();
+    private static final LongAdder requestedTransactions = new LongAdder();
+
+    private Broadcaster() {}
+
+    /**
+     * Send a block to some peers
+     *
+     * @param block Block
+     * @param peers Candidate peers
+     * @param eligible Test of a peer when the block is queued and again when it is sent
+     * @param limit Number of successful sends
+     */
+    static void broadcast(Block block, Iterable<? extends Peer> peers, Predicate<Peer> eligible, int limit) {
+        broadcast(new BlockRelay(block), peers, eligible, limit);
+    }
+
+    /**
+     * Send transactions to some peers
+     *
+     * @param transactions Transactions
+     * @param peers Candidate peers
+     * @param eligible Test of a peer when the transactions are queued and again when they are sent
+     * @param limit Number of successful sends
+     */
+    static void broadcast(List<? extends Transaction> transactions, Iterable<? extends Peer> peers, Predicate<Peer> eligible, int limit) {
+        broadcast(new TransactionRelay(transactions), peers, eligible, limit);
+    }
+
+    private static void broadcast(Relay relay, Iterable<? extends Peer> peers, Predicate<Peer> eligible, int limit) {
+        broadcasts.increment();
+        new Fanout(relay, peers.iterator(), eligible, limit).fill();
+    }
+
+    /**
+     * Return the broadcast statistics
+     */
+    @SuppressWarnings("unchecked")
+    static JSONObject getStats() {
+        JSONObject json = new JSONObject();
+        json.put("broadcasts", broadcasts.sum());
+        json.put("sends", sends.sum());
+        json.put("failures", failures.sum());
+        json.put("queueFull", queueFull.sum());
+        json.put("reusedBytes", reusedBytes.sum());
+        json.put("compressionSavedBytes", compressionSavedBytes.sum());
+        json.put("knownItems", knownItems.sum());
+        json.put("compactBlocks", compactBlocks.sum());
+        json.put("compactBlockMisses", compactBlockMisses.sum());
+        json.put("announcedTransactions", announcedTransactions.sum());
+        json.put("requestedTransactions", requestedTransactions.sum());
+        json.put("latency", fanoutLatency.getJSONObject());
+        return json;
+    }
+
+    private static boolean isSuccess(JSONObject response) {
+        return response != null && response.get("error") == null;
+    }
+
+    private static boolean useInventory(PeerImpl peer) {
+        return Peers.enableInventoryRelay && peer.providesService(Peer.Service.INVENTORY);
+    }
+
+    private static Set<Long> getMissingIds(JSONObject response) {
+        Set<Long> missingIds = new HashSet<>();
+        JSONArray missingData = (JSONArray) response.get("missingTransactionIds");
+        if (missingData != null) {
+            missingData.forEach(id -> missingIds.add(Convert.parseUnsignedLong((String) id)));
+        }
+        return missingIds;
+    }
+
+    /**
+     * Messages of a broadcast item and the way they are sent to a peer
+     */
+    private abstract static class Relay {
+
+        /**
+         * Send the item to a peer
+         *
+         * @param peer Peer
+         * @return TRUE if the peer accepted the item or already has it
+         */
+        abstract boolean send(PeerImpl peer);
+
+        /**
+         * Return the messages shared by the peer sends
+         */
+        abstract BinaryMessage[] getMessages();
+    }
+
+    private static final class BlockRelay extends Relay {
+
+        private final Block block;
+        private final BinaryMessage message;
+        private final BinaryMessage compactMessage;
+
+        private BlockRelay(Block block) {
+            this.block = block;
+            this.message = BinaryMessage.processBlock(block);
+            this.compactMessage = BinaryMessage.processCompactBlock(block);
+        }
+
+        @Override
+        boolean send(PeerImpl peer) {
+            KnownInventory knownInventory = peer.getKnownInventory();
+            if (knownInventory.contains(block.getId())) {
+                knownItems.increment();
+                return true;
+            }
+            if (useInventory(peer)) {
+                compactBlocks.increment();
+                JSONObject response = peer.send(compactMessage);
+                if (!isSuccess(response)) {
+                    return false;
+                }
+                if (getMissingIds(response).isEmpty()) {
+                    knownInventory.add(block.getId());
+                    return true;
+                }
+                compactBlockMisses.increment();
+            }
+            if (!isSuccess(peer.send(message))) {
+                return false;
+            }
+            knownInventory.add(block.getId());
+            return true;
+        }
+
+        @Override
+        BinaryMessage[] getMessages() {
+            return new BinaryMessage[] {message, compactMessage};
+        }
+    }
+
+    private static final class TransactionRelay extends Relay {
+
+        private final List<? extends Transaction> transactions;
+        private final BinaryMessage message;
+        private final BinaryMessage announcement;
+
+        private TransactionRelay(List<? extends Transaction> transactions) {
+            this.transactions = transactions;
+            this.message = BinaryMessage.processTransactions(transactions);
+            this.announcement = BinaryMessage.announceTransactions(transactions);
+        }
+
+        @Override
+        boolean send(PeerImpl peer) {
+            KnownInventory knownInventory = peer.getKnownInventory();
+            List<Transaction> unknownTransactions = new ArrayList<>(transactions.size());
+            transactions.forEach(transaction -> {
+                if (!knownInventory.contains(transaction.getId())) {
+                    unknownTransactions.add(transaction);
+                }
+            });
+            knownItems.add(transactions.size() - unknownTransactions.size());
+            if (unknownTransactions.isEmpty()) {
+                return true;
+            }
+            List<Transaction> sendTransactions = unknownTransactions;
+            if (useInventory(peer)) {
+                announcedTransactions.add(unknownTransactions.size());
+                JSONObject response = peer.send(unknownTransactions.size() == transactions.size() ?
+                        announcement : BinaryMessage.announceTransactions(unknownTransactions));
+                if (!isSuccess(response)) {
+                    return false;
+                }
+                Set<Long> missingIds = getMissingIds(response);
+                sendTransactions = new ArrayList<>(missingIds.size());
+                for (Transaction transaction : unknownTransactions) {
+                    if (missingIds.contains(transaction.getId())) {
+                        sendTransactions.add(transaction);
+                    } else {
+                        knownInventory.add(transaction.getId());
+                    }
+                }
+                if (sendTransactions.isEmpty()) {
+                    return true;
+                }
+                requestedTransactions.add(sendTransactions.size());
+            }
+            if (!isSuccess(peer.send(sendTransactions.size() == transactions.size() ?
+                    message : BinaryMessage.processTransactions(sendTransactions)))) {
+                return false;
+            }
+            sendTransactions.forEach(transaction -> knownInventory.add(transaction.getId()));
+            return true;
+        }
+
+        @Override
+        BinaryMessage[] getMessages() {
+            return new BinaryMessage[] {message, announcement};
+        }
+    }
+
+    /**
+     * Progress of the broadcast of an item
+     */
+    private static final class Fanout {
+
+        private final Relay relay;
+        private final Iterator<? extends Peer> peers;
+        private final Predicate<Peer> eligible;
+        private final int limit;
+        private final long startTime = System.nanoTime();
+        private int pending;
+        private int successful;
+        private boolean done;
+
+        private Fanout(Relay relay, Iterator<? extends Peer> peers, Predicate<Peer> eligible, int limit) {
+            this.relay = relay;
+            this.peers = peers;
+            this.eligible = eligible;
+            this.limit = limit;
+        }
+
+        /**
+         * Queue the item to the next peers until the pending sends can reach the limit
+         */
+        private synchronized void fill() {
+            while (!done && pending < limit - successful) {
+                if (!peers.hasNext()) {
+                    if (pending == 0) {
+                        finish();
+                    }
+                    return;
+                }
+                Peer peer = peers.next();
+                if (!eligible.test(peer)) {
+                    continue;
+                }
+                if (((PeerImpl) peer).getOutbound().offer(this)) {
+                    pending += 1;
+                } else {
+                    queueFull.increment();
+                }
+            }
+        }
+
+        private synchronized void complete(boolean success) {
+            pending -= 1;
+            if (success) {
+                successful += 1;
+            }
+            if (successful >= limit) {
+                finish();
+            } else {
+                fill();
+            }
+        }
+
+        private void finish() {
+            if (!done) {
+                done = true;
+                fanoutLatency.recordNanos(System.nanoTime() - startTime);
+                for (BinaryMessage message : relay.getMessages()) {
+                    reusedBytes.add(message.getReusedBytes());
+                    compressionSavedBytes.add(message.getCompressionSavedBytes());
+                }
+            }
+        }
+    }
+
+    /**
+     * Outbound queue of a peer
+     */
+    static final class Outbound {
+
+        private final PeerImpl peer;
+        private final ArrayDeque<Fanout> queue = new ArrayDeque<>();
+        private boolean draining;
+
+        Outbound(PeerImpl peer) {
+            this.peer = peer;
+        }
+
+        private synchronized boolean offer(Fanout fanout) {
+            if (queue.size() >= maxQueueSize) {
+                return false;
+            }
+            queue.add(fanout);
+            if (!draining) {
+                draining = true;
+                Peers.peersService.submit(this::drain);
+            }
+            return true;
+        }
+
+        private synchronized Fanout poll() {
+            Fanout fanout = queue.poll();
+            if (fanout == null) {
+                draining = false;
+            }
+            return fanout;
+        }
+
+        private void drain() {
+            Fanout fanout;
+            while ((fanout = poll()) != null) {
+                boolean success = false;
+                try {
+                    if (fanout.eligible.test(peer)) {
+                        sends.increment();
+                        success = fanout.relay.send(peer);
+                    }
+                } catch (RuntimeException e) {
+                    Logger.logDebugMessage("Error in sendToSomePeers", e);
+                }
+                if (!success) {
+                    failures.increment();
+                }
+                fanout.complete(success);
+            }
+        }
+    }
+
+}
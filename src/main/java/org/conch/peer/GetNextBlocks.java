@@ -25,7 +25,6 @@ import org.conch.chain.Block;
 import org.conch.Conch;
 import org.conch.util.Convert;
 import org.conch.util.JSON;
-import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
@@ -49,8 +48,6 @@ final class GetNextBlocks extends PeerServlet.PeerRequestHandler {
     @Override
     JSONStreamAware processRequest(JSONObject request, Peer peer) {
 
-        JSONObject response = new JSONObject();
-        JSONArray nextBlocksArray = new JSONArray();
         List<? extends Block> blocks;
         long blockId = Convert.parseUnsignedLong((String) request.get("blockId"));
         List<String> stringList = (List<String>)request.get("blockIds");
@@ -68,10 +65,8 @@ final class GetNextBlocks extends PeerServlet.PeerRequestHandler {
             }
             blocks = Conch.getBlockchain().getBlocksAfter(blockId, limit > 0 ? (int)limit : 36);
         }
-        blocks.forEach(block -> nextBlocksArray.add(block.getJSONObject()));
-        response.put("nextBlocks", nextBlocksArray);
-
-        return response;
+        // the blocks are returned as JSON unless the request was received as a binary message
+        return BinaryMessage.nextBlocks(blocks);
     }
 
     @Override
@@ -0,0 +1,74 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+
+package org.conch.peer;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ids of the blocks and transactions a peer is known to have: the ones it sent or announced to us
+ * and the ones we sent to it.  The least recently used ids are dropped when the set is full, a
+ * dropped id only means the item may be announced to the peer again.
+ */
+final class KnownInventory {
+
+    /**
+     * Ids in access order, the least recently used one is dropped above the maximum size
+     */
+    private static final class LruIds extends LinkedHashMap<Long, Boolean> {
+
+        private static final long serialVersionUID = -2704915573180427164L;
+
+        private final int maxSize;
+
+        private LruIds(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+            return size() > maxSize;
+        }
+    }
+
+    private final Map<Long, Boolean> ids;
+
+    KnownInventory(int maxSize) {
+        this.ids = new LruIds(maxSize);
+    }
+
+    synchronized boolean contains(long id) {
+        return ids.get(id) != null;
+    }
+
+    synchronized void add(long id) {
+        ids.put(id, Boolean.TRUE);
+    }
+
+    synchronized void addAll(Collection<Long> idList) {
+        idList.forEach(id -> ids.put(id, Boolean.TRUE));
+    }
+
+}
@@ -156,7 +156,15 @@ public interface Peer extends Comparable<Peer> {
         /**
          * Prove service => Prover role (TBD)
          */
-        PROVER(512);
+        PROVER(512),
+        /**
+         * Binary block and transaction messages over the WebSocket connection
+         */
+        BINARY(1024),
+        /**
+         * Inventory relay: transaction announcements and compact blocks
+         */
+        INVENTORY(2048);
         /**
          * Service code - must be a power of 2
          */
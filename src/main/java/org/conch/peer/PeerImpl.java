@@ -46,6 +46,8 @@ final class PeerImpl implements Peer {
     // ip
     private final String host;
     private final PeerWebSocket webSocket;
+    private final Broadcaster.Outbound outbound;
+    private final KnownInventory knownInventory = new KnownInventory(Peers.knownInventorySize);
     private volatile PeerWebSocket inboundSocket;
     private volatile boolean useWebSocket;
     private volatile boolean useNATService;
@@ -91,6 +93,7 @@ final class PeerImpl implements Peer {
         this.state = State.NON_CONNECTED;
         this.shareAddress = true;
         this.webSocket = new PeerWebSocket();
+        this.outbound = new Broadcaster.Outbound(this);
         this.useWebSocket = Peers.useWebSockets && !Peers.useProxy;
         this.disabledAPIs = EnumSet.noneOf(APIEnum.class);
         this.apiServerIdleTimeout = API.apiServerIdleTimeout;
@@ -502,6 +505,14 @@ final class PeerImpl implements Peer {
         return type == this.type;
     }
 
+    Broadcaster.Outbound getOutbound() {
+        return outbound;
+    }
+
+    KnownInventory getKnownInventory() {
+        return knownInventory;
+    }
+
     @Override
     public JSONObject send(JSONStreamAware request) {
         return send(request, Peers.MAX_RESPONSE_SIZE);
@@ -525,17 +536,54 @@ final class PeerImpl implements Peer {
             //
             // Send the request and process the response
             //
-            if (useWebSocket) {
+            if (useWebSocket && request instanceof BinaryMessage
+                    && Peers.enableBinaryMessages && providesService(Service.BINARY)) {
                 //
-                // Send the request using the WebSocket session
+                // Send the request as a binary message using the WebSocket session
                 //
-                StringWriter wsWriter = new StringWriter(1000);
-                request.writeJSONString(wsWriter);
-                String wsRequest = wsWriter.toString();
+                BinaryMessage binaryRequest = (BinaryMessage) request;
+                PeerWebSocket.Payload wsPayload = binaryRequest.getBinaryPayload();
                 if (communicationLoggingMask != 0)
-                    log = "WebSocket " + host + ": " + wsRequest;
-                String wsResponse = webSocket.doPost(wsRequest);
-                updateUploadedVolume(wsRequest.length());
+                    log = "WebSocket " + host + ": " + binaryRequest.getHeaderString() + " [binary: " + binaryRequest.getBody().length + " bytes]";
+                PeerWebSocket.Message wsResponse = webSocket.doPost(wsPayload);
+                updateUploadedVolume(wsPayload.getEncodedLength());
+                if (maxResponseSize > 0) {
+                    String wsResponseText = wsResponse.getText();
+                    byte[] wsResponseBody = wsResponse.getBody();
+                    int wsResponseLength = wsResponseText.length() + (wsResponseBody != null ? wsResponseBody.length : 0);
+                    if ((communicationLoggingMask & Peers.LOGGING_MASK_200_RESPONSES) != 0) {
+                        log += " >>> " + wsResponseText + (wsResponseBody != null ? " [binary: " + wsResponseBody.length + " bytes]" : "");
+                        showLog = true;
+                    }
+                    if (wsResponseLength > maxResponseSize)
+                        throw new ConchException.ConchIOException("Maximum size exceeded: " + wsResponseLength);
+                    response = (JSONObject)JSONValue.parseWithException(wsResponseText);
+                    if (wsResponseBody != null) {
+                        response.put(BinaryMessage.BODY, wsResponseBody);
+                    }
+                    updateDownloadedVolume(wsResponseLength);
+                }
+            } else if (useWebSocket) {
+                //
+                // Send the request using the WebSocket session
+                //
+                String wsResponse;
+                if (request instanceof BinaryMessage) {
+                    BinaryMessage binaryRequest = (BinaryMessage) request;
+                    PeerWebSocket.Payload wsPayload = binaryRequest.getJSONPayload();
+                    if (communicationLoggingMask != 0)
+                        log = "WebSocket " + host + ": " + binaryRequest.getJSONString();
+                    wsResponse = webSocket.doPost(wsPayload).getText();
+                    updateUploadedVolume(wsPayload.getEncodedLength());
+                } else {
+                    StringWriter wsWriter = new StringWriter(1000);
+                    request.writeJSONString(wsWriter);
+                    String wsRequest = wsWriter.toString();
+                    if (communicationLoggingMask != 0)
+                        log = "WebSocket " + host + ": " + wsRequest;
+                    wsResponse = webSocket.doPost(wsRequest);
+                    updateUploadedVolume(wsRequest.length());
+                }
                 if (maxResponseSize > 0) {
                     if ((communicationLoggingMask & Peers.LOGGING_MASK_200_RESPONSES) != 0) {
                         log += " >>> " + wsResponse;
@@ -28,6 +28,7 @@ import org.conch.util.CountingInputReader;
 import org.conch.util.CountingOutputWriter;
 import org.conch.util.JSON;
 import org.conch.util.Logger;
+import org.conch.util.Metrics;
 import org.eclipse.jetty.websocket.servlet.*;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
@@ -55,6 +56,18 @@ public final class PeerServlet extends WebSocketServlet {
     abstract static class PeerRequestHandler {
         abstract JSONStreamAware processRequest(JSONObject request, Peer peer);
         abstract boolean rejectWhileDownloading();
+
+        /**
+         * Process a request which was received as a binary message
+         *
+         * @param request JSON header
+         * @param body binary body, empty for a plain request
+         * @param peer peer
+         * @return response, a {@link BinaryMessage} response is returned as a binary message
+         */
+        JSONStreamAware processRequest(JSONObject request, byte[] body, Peer peer) {
+            return processRequest(request, peer);
+        }
     }
 
     private static final Map<String,PeerRequestHandler> peerRequestHandlers;
@@ -62,6 +75,7 @@ public final class PeerServlet extends WebSocketServlet {
     static {
         Map<String,PeerRequestHandler> map = new HashMap<>();
         map.put("addPeers", AddPeers.instance);
+        map.put("announceTransactions", AnnounceTransactions.instance);
         map.put("getCumulativeDifficulty", GetCumulativeDifficulty.instance);
         map.put("getInfo", GetInfo.instance);
         map.put("getMilestoneBlockIds", GetMilestoneBlockIds.instance);
@@ -71,6 +85,7 @@ public final class PeerServlet extends WebSocketServlet {
         map.put("getTransactions", GetTransactions.instance);
         map.put("getUnconfirmedTransactions", GetUnconfirmedTransactions.instance);
         map.put("processBlock", ProcessBlock.instance);
+        map.put("processCompactBlock", ProcessCompactBlock.instance);
         map.put("processTransactions", ProcessTransactions.instance);
         peerRequestHandlers = Collections.unmodifiableMap(map);
     }
@@ -183,7 +198,7 @@ public final class PeerServlet extends WebSocketServlet {
         if (peer == null) {
             jsonResponse = UNKNOWN_PEER;
         } else {
-            jsonResponse = process(peer, req.getReader());
+            jsonResponse = process(peer, req.getReader(), null);
         }
         //
         // Return the response
@@ -194,6 +209,7 @@ public final class PeerServlet extends WebSocketServlet {
             if (peer != null) {
                 peer.updateUploadedVolume(writer.getCount());
             }
+            recordResponse(request, writer.getCount());
         } catch (RuntimeException | IOException e) {
             if (peer != null) {
                 if ((Peers.communicationLoggingMask & Peers.LOGGING_MASK_EXCEPTIONS) != 0) {
@@ -216,8 +232,9 @@ public final class PeerServlet extends WebSocketServlet {
      * @param   webSocket           WebSocket for the connection
      * @param   requestId           Request identifier
      * @param   request             Request message
+     * @param   body                Binary body or null for a JSON request
      */
-    void doPost(PeerWebSocket webSocket, long requestId, String request) {
+    void doPost(PeerWebSocket webSocket, long requestId, String request, byte[] body) {
         JSONStreamAware jsonResponse;
         StringReader stringReader = new StringReader(request);
         PeerImpl peer = null;
@@ -260,18 +277,30 @@ public final class PeerServlet extends WebSocketServlet {
             jsonResponse = UNKNOWN_PEER;
         } else {
             peer.setInboundWebSocket(webSocket);
-            jsonResponse = process(peer, new StringReader(request));
+            jsonResponse = process(peer, new StringReader(request), body);
         }
         //
-        // Return the response
+        // Return the response, a binary response is only returned for a binary request
         //
         try {
-            StringWriter writer = new StringWriter(1000);
-            JSON.writeJSONString(jsonResponse, writer);
-            String response = writer.toString();
-            webSocket.sendResponse(requestId, response);
-            if (peer != null) {
-                peer.updateUploadedVolume(response.length());
+            if (body != null && jsonResponse instanceof BinaryMessage) {
+                BinaryMessage binaryResponse = (BinaryMessage) jsonResponse;
+                String response = binaryResponse.getHeader().toJSONString();
+                byte[] responseBody = binaryResponse.getBody();
+                webSocket.sendResponse(requestId, response, responseBody);
+                if (peer != null) {
+                    peer.updateUploadedVolume(response.length() + responseBody.length);
+                }
+                recordResponse(requestJson, response.length() + responseBody.length);
+            } else {
+                StringWriter writer = new StringWriter(1000);
+                JSON.writeJSONString(jsonResponse, writer);
+                String response = writer.toString();
+                webSocket.sendResponse(requestId, response);
+                if (peer != null) {
+                    peer.updateUploadedVolume(response.length());
+                }
+                recordResponse(requestJson, response.length());
             }
         } catch (RuntimeException | IOException e) {
             if (peer != null) {
@@ -288,14 +317,28 @@ public final class PeerServlet extends WebSocketServlet {
         }
     }
 
+    /**
+     * Record the size of the response to a request of a known type
+     *
+     * @param   request             Request
+     * @param   bytesSent           Response size
+     */
+    private static void recordResponse(JSONObject request, long bytesSent) {
+        Object requestType = request.get("requestType");
+        if (requestType != null && peerRequestHandlers.containsKey(requestType)) {
+            Metrics.recordPeerResponse((String) requestType, bytesSent);
+        }
+    }
+
     /**
      * Process the peer request
      *
      * @param   peer                Peer
      * @param   inputReader         Input reader
+     * @param   body                Binary body or null for a JSON request
      * @return                      JSON response
      */
-    private JSONStreamAware process(PeerImpl peer, Reader inputReader) {
+    private JSONStreamAware process(PeerImpl peer, Reader inputReader, byte[] body) {
         //
         // Check for blacklisted peer
         //
@@ -343,7 +386,7 @@ public final class PeerServlet extends WebSocketServlet {
 //            }
             Peers.addPeer(peer);
 
-            peer.updateDownloadedVolume(cr.getCount());
+            peer.updateDownloadedVolume(cr.getCount() + (body != null ? body.length : 0));
             if (request.get("protocol") == null || ((Number)request.get("protocol")).intValue() != 1) {
                 Logger.logDebugMessage("Unsupported protocol " + request.get("protocol"));
                 return UNSUPPORTED_PROTOCOL;
@@ -352,30 +395,39 @@ public final class PeerServlet extends WebSocketServlet {
             if (peerRequestHandler == null) {
                 return UNSUPPORTED_REQUEST_TYPE;
             }
-            if (peer.getState() == Peer.State.DISCONNECTED) {
-                peer.setState(Peer.State.CONNECTED);
-            }
-            if (peer.getVersion() == null && !"getInfo".equals(request.get("requestType"))) {
-                return SEQUENCE_ERROR;
-            }
-            if (!peer.isInbound()) {
-                if (Peers.hasTooManyInboundPeers()) {
-                    return MAX_INBOUND_CONNECTIONS;
+            long start = System.nanoTime();
+            try {
+                if (peer.getState() == Peer.State.DISCONNECTED) {
+                    peer.setState(Peer.State.CONNECTED);
                 }
-                Peers.notifyListeners(peer, Peers.Event.ADD_INBOUND);
-            }
-            peer.setLastInboundRequest(Conch.getEpochTime());
-            if (peerRequestHandler.rejectWhileDownloading()) {
-                if (blockchainProcessor.isDownloading() 
-                    && !alwaysResponse) {
-                    return DOWNLOADING;
+                if (peer.getVersion() == null && !"getInfo".equals(request.get("requestType"))) {
+                    return SEQUENCE_ERROR;
+                }
+                if (!peer.isInbound()) {
+                    if (Peers.hasTooManyInboundPeers()) {
+                        return MAX_INBOUND_CONNECTIONS;
+                    }
+                    Peers.notifyListeners(peer, Peers.Event.ADD_INBOUND);
+                }
+                peer.setLastInboundRequest(Conch.getEpochTime());
+                if (peerRequestHandler.rejectWhileDownloading()) {
+                    if (blockchainProcessor.isDownloading() 
+                        && !alwaysResponse) {
+                        return DOWNLOADING;
+                    }
+                    if (Constants.isLightClient 
+                        && !alwaysResponse) {
+                        return LIGHT_CLIENT;
+                    }
                 }
-                if (Constants.isLightClient 
-                    && !alwaysResponse) {
-                    return LIGHT_CLIENT;
+                if (body != null) {
+                    return peerRequestHandler.processRequest(request, body, peer);
                 }
+                return peerRequestHandler.processRequest(request, peer);
+            } finally {
+                Metrics.recordPeerRequest((String) request.get("requestType"), cr.getCount() + (body != null ? body.length : 0),
+                        System.nanoTime() - start);
             }
-            return peerRequestHandler.processRequest(request, peer);
         } catch (RuntimeException|ParseException|IOException e) {
             Logger.logDebugMessage("Error processing POST request: " + e.toString());
             peer.blacklist(e);
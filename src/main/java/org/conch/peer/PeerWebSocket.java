@@ -66,6 +66,9 @@ public class PeerWebSocket {
     /** Compressed message flag */
     private static final int FLAG_COMPRESSED = 1;
 
+    /** Binary message flag, the JSON header is followed by a binary body */
+    private static final int FLAG_BINARY = 2;
+
     /** Our WebSocket message version */
     private static final int VERSION = 1;
 
@@ -231,6 +234,32 @@ public class PeerWebSocket {
      * @throws  IOException         I/O error occurred
      */
     public String doPost(String request) throws IOException {
+        return doPost(request, null).getText();
+    }
+
+    /**
+     * Process a POST request with an optional binary body.  A request with a
+     * binary body (which may be empty) allows the peer to return a binary response.
+     * This method is used by the connection originator.
+     *
+     * @param   request             Request message
+     * @param   body                Binary body or null for a JSON request
+     * @return                      Response message
+     * @throws  IOException         I/O error occurred
+     */
+    public Message doPost(String request, byte[] body) throws IOException {
+        return doPost(encode(request, body));
+    }
+
+    /**
+     * Process a POST request with an encoded message.  The same payload can be
+     * sent to any number of peers.  This method is used by the connection originator.
+     *
+     * @param   payload             Encoded request message
+     * @return                      Response message
+     * @throws  IOException         I/O error occurred
+     */
+    Message doPost(Payload payload) throws IOException {
         long requestId;
         //
         // Send the POST request
@@ -241,24 +270,7 @@ public class PeerWebSocket {
                 throw new IOException("WebSocket session is not open");
             }
             requestId = nextRequestId++;
-            byte[] requestBytes = request.getBytes("UTF-8");
-            int requestLength = requestBytes.length;
-            int flags = 0;
-            if (Peers.isGzipEnabled && requestLength >= Peers.MIN_COMPRESS_SIZE) {
-                flags |= FLAG_COMPRESSED;
-                ByteArrayOutputStream outStream = new ByteArrayOutputStream(requestLength);
-                try (GZIPOutputStream gzipStream = new GZIPOutputStream(outStream)) {
-                    gzipStream.write(requestBytes);
-                }
-                requestBytes = outStream.toByteArray();
-            }
-            ByteBuffer buf = ByteBuffer.allocate(requestBytes.length + 20);
-            buf.putInt(version)
-               .putLong(requestId)
-               .putInt(flags)
-               .putInt(requestLength)
-               .put(requestBytes)
-               .flip();
+            ByteBuffer buf = buildMessage(requestId, payload);
             if (buf.limit() > Peers.MAX_MESSAGE_SIZE) {
                 throw new ProtocolException("POST request length exceeds max message size");
             }
@@ -271,7 +283,7 @@ public class PeerWebSocket {
         //
         // Get the response
         //
-        String response;
+        Message response;
         try {
             PostRequest postRequest = new PostRequest();
             requestMap.put(requestId, postRequest);
@@ -292,27 +304,24 @@ public class PeerWebSocket {
      * @throws  IOException         I/O error occurred
      */
     public void sendResponse(long requestId, String response) throws IOException {
+        sendResponse(requestId, response, null);
+    }
+
+    /**
+     * Send POST response with an optional binary body
+     *
+     * This method is used by the connection acceptor to return the POST response
+     *
+     * @param   requestId           Request identifier
+     * @param   response            Response message
+     * @param   body                Binary body or null for a JSON response
+     * @throws  IOException         I/O error occurred
+     */
+    public void sendResponse(long requestId, String response, byte[] body) throws IOException {
         lock.lock();
         try {
             if (session != null && session.isOpen()) {
-                byte[] responseBytes = response.getBytes("UTF-8");
-                int responseLength = responseBytes.length;
-                int flags = 0;
-                if (Peers.isGzipEnabled && responseLength >= Peers.MIN_COMPRESS_SIZE) {
-                    flags |= FLAG_COMPRESSED;
-                    ByteArrayOutputStream outStream = new ByteArrayOutputStream(responseLength);
-                    try (GZIPOutputStream gzipStream = new GZIPOutputStream(outStream)) {
-                        gzipStream.write(responseBytes);
-                    }
-                    responseBytes = outStream.toByteArray();
-                }
-                ByteBuffer buf = ByteBuffer.allocate(responseBytes.length + 20);
-                buf.putInt(version)
-                   .putLong(requestId)
-                   .putInt(flags)
-                   .putInt(responseLength)
-                   .put(responseBytes)
-                   .flip();
+                ByteBuffer buf = buildMessage(requestId, encode(response, body));
                 if (buf.limit() > Peers.MAX_MESSAGE_SIZE) {
                     throw new ProtocolException("POST response length exceeds max message size");
                 }
@@ -325,6 +334,57 @@ public class PeerWebSocket {
         }
     }
 
+    /**
+     * Encode a socket message.  A JSON message is compressed when it is large enough,
+     * a binary message is prefixed with the length of its JSON header and is not
+     * compressed since the block and transaction bytes are mostly keys and signatures.
+     *
+     * @param   text                JSON message
+     * @param   body                Binary body or null
+     * @return                      Encoded message
+     * @throws  IOException         I/O error occurred
+     */
+    static Payload encode(String text, byte[] body) throws IOException {
+        byte[] msgBytes = text.getBytes("UTF-8");
+        int flags = 0;
+        if (body != null) {
+            flags |= FLAG_BINARY;
+            msgBytes = ByteBuffer.allocate(4 + msgBytes.length + body.length)
+                    .putInt(msgBytes.length)
+                    .put(msgBytes)
+                    .put(body)
+                    .array();
+        }
+        int msgLength = msgBytes.length;
+        if (body == null && Peers.isGzipEnabled && msgLength >= Peers.MIN_COMPRESS_SIZE) {
+            flags |= FLAG_COMPRESSED;
+            ByteArrayOutputStream outStream = new ByteArrayOutputStream(msgLength);
+            try (GZIPOutputStream gzipStream = new GZIPOutputStream(outStream)) {
+                gzipStream.write(msgBytes);
+            }
+            msgBytes = outStream.toByteArray();
+        }
+        return new Payload(flags, msgLength, msgBytes);
+    }
+
+    /**
+     * Build a socket message
+     *
+     * @param   requestId           Request identifier
+     * @param   payload             Encoded message
+     * @return                      Message buffer
+     */
+    private ByteBuffer buildMessage(long requestId, Payload payload) {
+        ByteBuffer buf = ByteBuffer.allocate(payload.bytes.length + 20);
+        buf.putInt(version)
+           .putLong(requestId)
+           .putInt(payload.flags)
+           .putInt(payload.length)
+           .put(payload.bytes)
+           .flip();
+        return buf;
+    }
+
     /**
      * Process a socket message
      *
@@ -357,9 +417,18 @@ public class PeerWebSocket {
                     }
                 }
             }
-            String message = new String(msgBytes, "UTF-8");
+            byte[] body = null;
+            if ((flags&FLAG_BINARY) != 0) {
+                ByteBuffer msgBuf = ByteBuffer.wrap(msgBytes);
+                byte[] textBytes = new byte[msgBuf.getInt()];
+                msgBuf.get(textBytes);
+                body = new byte[msgBuf.remaining()];
+                msgBuf.get(body);
+                msgBytes = textBytes;
+            }
+            Message message = new Message(new String(msgBytes, "UTF-8"), body);
             if (peerServlet != null) {
-                threadPool.execute(() -> peerServlet.doPost(this, requestId, message));
+                threadPool.execute(() -> peerServlet.doPost(this, requestId, message.getText(), message.getBody()));
             } else {
                 PostRequest postRequest = requestMap.remove(requestId);
                 if (postRequest != null) {
@@ -425,7 +494,7 @@ public class PeerWebSocket {
         private final CountDownLatch latch = new CountDownLatch(1);
 
         /** Response message */
-        private volatile String response;
+        private volatile Message response;
 
         /** Socket exception */
         private volatile IOException exception;
@@ -447,7 +516,7 @@ public class PeerWebSocket {
          * @throws  InterruptedException    Wait interrupted
          * @throws  IOException             I/O error occurred
          */
-        public String get(long timeout, TimeUnit unit) throws InterruptedException, IOException {
+        public Message get(long timeout, TimeUnit unit) throws InterruptedException, IOException {
             if (!latch.await(timeout, unit)) {
                 throw new SocketTimeoutException("WebSocket read timeout exceeded");
             }
@@ -464,7 +533,7 @@ public class PeerWebSocket {
          *
          * @param   response                Response message
          */
-        public void complete(String response) {
+        public void complete(Message response) {
             this.response = response;
             latch.countDown();
         }
@@ -481,4 +550,91 @@ public class PeerWebSocket {
             latch.countDown();
         }
     }
+
+    /**
+     * Encoded message without the request identifier
+     */
+    static final class Payload {
+
+        /** Message flags */
+        private final int flags;
+
+        /** Uncompressed length */
+        private final int length;
+
+        /** Message bytes, compressed if the compressed flag is set */
+        private final byte[] bytes;
+
+        /**
+         * Create an encoded message
+         *
+         * @param   flags           Message flags
+         * @param   length          Uncompressed length
+         * @param   bytes           Message bytes
+         */
+        private Payload(int flags, int length, byte[] bytes) {
+            this.flags = flags;
+            this.length = length;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Return the uncompressed length
+         *
+         * @return                  Uncompressed length
+         */
+        int getLength() {
+            return length;
+        }
+
+        /**
+         * Return the number of bytes sent
+         *
+         * @return                  Encoded length
+         */
+        int getEncodedLength() {
+            return bytes.length;
+        }
+    }
+
+    /**
+     * Received message
+     */
+    static class Message {
+
+        /** JSON message */
+        private final String text;
+
+        /** Binary body or null */
+        private final byte[] body;
+
+        /**
+         * Create a message
+         *
+         * @param   text            JSON message
+         * @param   body            Binary body or null
+         */
+        Message(String text, byte[] body) {
+            this.text = text;
+            this.body = body;
+        }
+
+        /**
+         * Return the JSON message
+         *
+         * @return                  JSON message
+         */
+        String getText() {
+            return text;
+        }
+
+        /**
+         * Return the binary body
+         *
+         * @return                  Binary body or null if this is a JSON message
+         */
+        byte[] getBody() {
+            return body;
+        }
+    }
 }
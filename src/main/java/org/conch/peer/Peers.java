@@ -85,6 +85,10 @@ public final class Peers {
     public static final int MIN_COMPRESS_SIZE = 256;
     static final boolean useWebSockets;
     static final int webSocketIdleTimeout;
+    static final boolean enableBinaryMessages = Conch.getBooleanProperty("sharder.useWebSockets")
+            && Conch.getBooleanProperty("sharder.enablePeerBinaryMessages");
+    static final boolean enableInventoryRelay = Conch.getBooleanProperty("sharder.enableInventoryRelay");
+    static final int knownInventorySize = Conch.getIntProperty("sharder.peerKnownInventorySize");
 
     public static String getMyAddress() {
         return Conch.getMyAddress();
@@ -153,7 +157,6 @@ public final class Peers {
     static final Collection<PeerImpl> allPeers = Collections.unmodifiableCollection(peers.values());
 
     static final ExecutorService peersService = new QueuedThreadPool(2, 15);
-    private static final ExecutorService sendingService = Executors.newFixedThreadPool(10);
 
     private static final boolean enableBizAPIs = Conch.getBooleanProperty("sharder.enableBizAPIs");
     private static final boolean enableStorage = Conch.getBooleanProperty("sharder.storage.enable");
@@ -207,6 +210,12 @@ public final class Peers {
         if (enableStorage) {
             servicesList.add(Peer.Service.STORAGE);
         }
+        if (enableBinaryMessages) {
+            servicesList.add(Peer.Service.BINARY);
+        }
+        if (enableInventoryRelay) {
+            servicesList.add(Peer.Service.INVENTORY);
+        }
         return servicesList;
     }
 
@@ -1010,7 +1019,6 @@ public final class Peers {
                 Logger.logShutdownMessage("Failed to stop peer server", e);
             }
         }
-        ThreadPool.shutdownExecutor("sendingService", sendingService, 2);
         ThreadPool.shutdownExecutor("peersService", peersService, 5);
     }
 
@@ -1271,9 +1279,7 @@ public final class Peers {
     }
 
     public static void sendToSomePeers(Block block) {
-        JSONObject request = block.getJSONObject();
-        request.put("requestType", "processBlock");
-        sendToSomePeers(request);
+        Broadcaster.broadcast(block, peers.values(), Peers::isPushPeer, Peers.sendToPeersLimit);
     }
 
     private static final int sendTransactionsBatchSize = 10;
@@ -1281,60 +1287,29 @@ public final class Peers {
     public static void sendToSomePeers(List<? extends Transaction> transactions) {
         int nextBatchStart = 0;
         while (nextBatchStart < transactions.size()) {
-            JSONObject request = new JSONObject();
-            JSONArray transactionsData = new JSONArray();
-            for (int i = nextBatchStart; i < nextBatchStart + sendTransactionsBatchSize && i < transactions.size(); i++) {
-                transactionsData.add(transactions.get(i).getJSONObject());
-            }
-            request.put("requestType", "processTransactions");
-            request.put("transactions", transactionsData);
-            sendToSomePeers(request);
-            nextBatchStart += sendTransactionsBatchSize;
+            int nextBatchEnd = Math.min(nextBatchStart + sendTransactionsBatchSize, transactions.size());
+            Broadcaster.broadcast(new ArrayList<>(transactions.subList(nextBatchStart, nextBatchEnd)),
+                    peers.values(), Peers::isPushPeer, Peers.sendToPeersLimit);
+            nextBatchStart = nextBatchEnd;
         }
     }
 
-    private static void sendToSomePeers(final JSONObject request) {
-        sendingService.submit(() -> {
-
-            int successful = 0;
-            List<Future<JSONObject>> expectedResponses = new ArrayList<>();
-            for (final Peer peer : peers.values()) {
+    /**
+     * Return the statistics of the block and transaction broadcasts
+     */
+    public static JSONObject getBroadcastStats() {
+        return Broadcaster.getStats();
+    }
 
-                if (Peers.enableHallmarkProtection && peer.getWeight() < Peers.pushThreshold) {
-                    continue;
-                }
+    private static boolean isPushPeer(Peer peer) {
+        if (Peers.enableHallmarkProtection && peer.getWeight() < Peers.pushThreshold) {
+            return false;
+        }
 
-                //TODO[storage] storage if non storage client send to
+        //TODO[storage] storage if non storage client send to
 
-                if (!peer.isBlacklisted() && peer.getState() == Peer.State.CONNECTED && peer.getAnnouncedAddress() != null
-                        && peer.getBlockchainState() != Peer.BlockchainState.LIGHT_CLIENT) {
-                    //[NAT] inject useNATService property to the request params
-                    request.put("useNATService", Peers.isUseNATService());
-                    request.put("announcedAddress", Conch.getMyAddress());
-                    Future<JSONObject> futureResponse = peersService.submit(() -> peer.send(JSON.prepareRequest(request)));
-                    expectedResponses.add(futureResponse);
-                }
-                if (expectedResponses.size() >= Peers.sendToPeersLimit - successful) {
-                    for (Future<JSONObject> future : expectedResponses) {
-                        try {
-                            JSONObject response = future.get();
-                            if (response != null && response.get("error") == null) {
-                                successful += 1;
-                            }
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                        } catch (ExecutionException e) {
-                            Logger.logDebugMessage("Error in sendToSomePeers", e);
-                        }
-
-                    }
-                    expectedResponses.clear();
-                }
-                if (successful >= Peers.sendToPeersLimit) {
-                    return;
-                }
-            }
-        });
+        return !peer.isBlacklisted() && peer.getState() == Peer.State.CONNECTED && peer.getAnnouncedAddress() != null
+                && peer.getBlockchainState() != Peer.BlockchainState.LIGHT_CLIENT;
     }
 
     public static Peer getAnyPeer(final Peer.State state, final boolean applyPullThreshold) {
@@ -23,12 +23,15 @@ package org.conch.peer;
 
 import org.conch.Conch;
 import org.conch.chain.Block;
+import org.conch.chain.BlockImpl;
 import org.conch.common.ConchException;
 import org.conch.util.Convert;
 import org.conch.util.JSON;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
+import java.util.List;
+
 final class ProcessBlock extends PeerServlet.PeerRequestHandler {
 
     static final ProcessBlock instance = new ProcessBlock();
@@ -37,11 +40,7 @@ final class ProcessBlock extends PeerServlet.PeerRequestHandler {
 
     @Override
     JSONStreamAware processRequest(final JSONObject request, final Peer peer) {
-        String previousBlockId = (String)request.get("previousBlock");
-        Block lastBlock = Conch.getBlockchain().getLastBlock();
-        if (lastBlock.getStringId().equals(previousBlockId) ||
-                (Convert.parseUnsignedLong(previousBlockId) == lastBlock.getPreviousBlockId()
-                        && lastBlock.getTimestamp() > Convert.parseLong(request.get("timestamp")))) {
+        if (isNextBlock(request)) {
             Peers.peersService.submit(() -> {
                 try {
                     Conch.getBlockchainProcessor().processPeerBlock(request);
@@ -55,6 +54,40 @@ final class ProcessBlock extends PeerServlet.PeerRequestHandler {
         return JSON.emptyJSON;
     }
 
+    @Override
+    JSONStreamAware processRequest(final JSONObject request, final byte[] body, final Peer peer) {
+        if (body.length == 0) {
+            return processRequest(request, peer);
+        }
+        if (isNextBlock(request)) {
+            Peers.peersService.submit(() -> {
+                try {
+                    List<BlockImpl> blocks = BinaryMessage.parseBlocks(body, true);
+                    if (blocks.size() != 1) {
+                        throw new ConchException.NotValidException("Invalid block count " + blocks.size());
+                    }
+                    if (peer != null) {
+                        ((PeerImpl) peer).getKnownInventory().add(blocks.get(0).getId());
+                    }
+                    Conch.getBlockchainProcessor().processPeerBlock(blocks.get(0));
+                } catch (ConchException | RuntimeException e) {
+                    if (peer != null) {
+                        peer.blacklist(e);
+                    }
+                }
+            });
+        }
+        return JSON.emptyJSON;
+    }
+
+    static boolean isNextBlock(JSONObject request) {
+        String previousBlockId = (String)request.get("previousBlock");
+        Block lastBlock = Conch.getBlockchain().getLastBlock();
+        return lastBlock.getStringId().equals(previousBlockId) ||
+                (Convert.parseUnsignedLong(previousBlockId) == lastBlock.getPreviousBlockId()
+                        && lastBlock.getTimestamp() > Convert.parseLong(request.get("timestamp")));
+    }
+
     @Override
     boolean rejectWhileDownloading() {
         return true;
@@ -0,0 +1,136 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+
+package org.conch.peer;
+
+import org.conch.Conch;
+import org.conch.chain.BlockImpl;
+import org.conch.common.ConchException;
+import org.conch.tx.Transaction;
+import org.conch.tx.TransactionImpl;
+import org.conch.util.JSON;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * New block sent as the ids of its transactions.  The block is built from our unconfirmed
+ * transactions, the response lists the transactions we don't have and the peer then sends
+ * the complete block with processBlock.
+ */
+final class ProcessCompactBlock extends PeerServlet.PeerRequestHandler {
+
+    static final ProcessCompactBlock instance = new ProcessCompactBlock();
+
+    private ProcessCompactBlock() {}
+
+    @Override
+    JSONStreamAware processRequest(JSONObject request, Peer peer) {
+        if (!ProcessBlock.isNextBlock(request)) {
+            return JSON.emptyJSON;
+        }
+        try {
+            return processCompactBlock(BinaryMessage.parseCompactBlock(request), peer);
+        } catch (ConchException.NotValidException | RuntimeException e) {
+            peer.blacklist(e);
+            return PeerServlet.error(e);
+        }
+    }
+
+    @Override
+    JSONStreamAware processRequest(JSONObject request, byte[] body, Peer peer) {
+        if (body.length == 0) {
+            return processRequest(request, peer);
+        }
+        if (!ProcessBlock.isNextBlock(request)) {
+            return JSON.emptyJSON;
+        }
+        try {
+            return processCompactBlock(BinaryMessage.parseCompactBlock(body), peer);
+        } catch (ConchException.NotValidException | RuntimeException e) {
+            peer.blacklist(e);
+            return PeerServlet.error(e);
+        }
+    }
+
+    private static JSONStreamAware processCompactBlock(BinaryMessage.CompactBlock compactBlock, Peer peer) {
+        Map<Long, TransactionImpl> prefilledTransactions = new HashMap<>();
+        compactBlock.getPrefilledTransactions().forEach(transaction -> prefilledTransactions.put(transaction.getId(), transaction));
+        long[] transactionIds = compactBlock.getTransactionIds();
+        List<TransactionImpl> transactions = new ArrayList<>(transactionIds.length);
+        JSONArray missingIds = new JSONArray();
+        for (long transactionId : transactionIds) {
+            TransactionImpl transaction = prefilledTransactions.get(transactionId);
+            if (transaction == null) {
+                transaction = copyUnconfirmedTransaction(transactionId);
+            }
+            if (transaction != null) {
+                transactions.add(transaction);
+            } else {
+                missingIds.add(Long.toUnsignedString(transactionId));
+            }
+        }
+        if (!missingIds.isEmpty()) {
+            JSONObject response = new JSONObject();
+            response.put("missingTransactionIds", missingIds);
+            return response;
+        }
+        Peers.peersService.submit(() -> {
+            try {
+                BlockImpl block = compactBlock.toBlock(transactions);
+                ((PeerImpl) peer).getKnownInventory().add(block.getId());
+                Conch.getBlockchainProcessor().processPeerBlock(block);
+            } catch (ConchException | RuntimeException e) {
+                peer.blacklist(e);
+            }
+        });
+        return JSON.emptyJSON;
+    }
+
+    /**
+     * Return a copy of an unconfirmed transaction, the block transactions are linked to the block
+     * and can't be shared with the unconfirmed pool
+     */
+    private static TransactionImpl copyUnconfirmedTransaction(long transactionId) {
+        Transaction transaction = Conch.getTransactionProcessor().getUnconfirmedTransaction(transactionId);
+        if (transaction == null) {
+            return null;
+        }
+        try {
+            return TransactionImpl.newTransactionBuilder(((TransactionImpl) transaction).bytes(),
+                    transaction.getPrunableAttachmentJSON()).build();
+        } catch (ConchException.NotValidException e) {
+            return null;
+        }
+    }
+
+    @Override
+    boolean rejectWhileDownloading() {
+        return true;
+    }
+
+}
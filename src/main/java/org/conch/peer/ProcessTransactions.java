@@ -23,11 +23,14 @@ package org.conch.peer;
 
 import org.conch.Conch;
 import org.conch.common.ConchException;
+import org.conch.tx.TransactionImpl;
 import org.conch.util.JSON;
 import org.conch.util.Logger;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
+import java.util.List;
+
 final class ProcessTransactions extends PeerServlet.PeerRequestHandler {
 
     static final ProcessTransactions instance = new ProcessTransactions();
@@ -49,6 +52,24 @@ final class ProcessTransactions extends PeerServlet.PeerRequestHandler {
 
     }
 
+    @Override
+    JSONStreamAware processRequest(JSONObject request, byte[] body, Peer peer) {
+        if (body.length == 0) {
+            return processRequest(request, peer);
+        }
+        try {
+            List<TransactionImpl> transactions = BinaryMessage.parseTransactions(body);
+            KnownInventory knownInventory = ((PeerImpl) peer).getKnownInventory();
+            transactions.forEach(transaction -> knownInventory.add(transaction.getId()));
+            Conch.getTransactionProcessor().processPeerTransactions(transactions);
+            return JSON.emptyJSON;
+        } catch (RuntimeException | ConchException.ValidationException e) {
+            Logger.logDebugMessage("Failed to parse peer binary transactions: " + e.getMessage());
+            peer.blacklist(e);
+            return PeerServlet.error(e);
+        }
+    }
+
     @Override
     boolean rejectWhileDownloading() {
         return true;
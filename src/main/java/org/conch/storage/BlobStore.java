@@ -0,0 +1,287 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.storage;
+
+import org.conch.Conch;
+import org.conch.crypto.Crypto;
+import org.conch.db.Db;
+import org.conch.util.Convert;
+import org.conch.util.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Content-addressed store of large payloads on the local file system.
+ * <p>
+ * A blob is written once under the hex SHA-256 of its content, in a sub directory named by the
+ * first byte of the hash.  The database rows only keep the hash, so the payloads don't go through
+ * the H2 page cache and they can be streamed to a HTTP response without loading them on the heap.
+ * <p>
+ * Named references map an external key, e.g. the IPFS ssid of a stored file, to the hash of
+ * the local copy.  The blobs are not reference counted: a blob is deleted once the database
+ * transaction which removed a row or a name referring to it is committed, if no tagged data row and
+ * no name refers to it any more.
+ */
+public final class BlobStore {
+
+    private static final boolean enabled = Conch.getBooleanProperty("sharder.blobStore");
+    private static final Path root;
+    static {
+        String dir = Conch.getStringProperty("sharder.blobStoreDir", "");
+        if (dir.isEmpty()) {
+            root = Paths.get(Conch.getUserHomeDir(), Db.getDir()).getParent().resolve("blobs");
+        } else {
+            root = Paths.get(Conch.getUserHomeDir()).resolve(dir);
+        }
+    }
+
+    /**
+     * Stored payload
+     */
+    public static final class Blob {
+
+        private final Path path;
+        private final long size;
+
+        private Blob(Path path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Read the whole payload
+         *
+         * @return Payload bytes
+         * @throws IOException Unable to read the blob file
+         */
+        public byte[] read() throws IOException {
+            return Files.readAllBytes(path);
+        }
+
+        /**
+         * Copy a part of the payload to an output stream.  The file channel transfers the bytes
+         * directly to the target channel without an intermediate heap buffer when the platform
+         * supports it.
+         *
+         * @param position Offset of the first byte
+         * @param count Number of bytes
+         * @param out Output stream
+         * @throws IOException Unable to read the blob file or to write the output stream
+         */
+        public void transferTo(long position, long count, OutputStream out) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                WritableByteChannel target = Channels.newChannel(out);
+                long end = position + count;
+                while (position < end) {
+                    long transferred = channel.transferTo(position, end - position, target);
+                    if (transferred <= 0) {
+                        throw new IOException("Blob " + path.getFileName() + " truncated at " + position);
+                    }
+                    position += transferred;
+                }
+            }
+        }
+    }
+
+    private BlobStore() {}
+
+    /**
+     * Check if the tagged data and the stored files are kept in the blob store
+     *
+     * @return TRUE if the blob store is enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Store a payload.  Nothing is written if the same content is already stored.
+     *
+     * @param data Payload
+     * @return SHA-256 of the payload
+     */
+    public static byte[] put(byte[] data) {
+        byte[] hash = Crypto.sha256().digest(data);
+        Path path = getPath(hash);
+        if (Files.exists(path)) {
+            return hash;
+        }
+        try {
+            Files.createDirectories(path.getParent());
+            Path tmp = Files.createTempFile(path.getParent(), null, ".tmp");
+            try {
+                Files.write(tmp, data);
+                move(tmp, path);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to store blob " + Convert.toHexString(hash), e);
+        }
+        return hash;
+    }
+
+    /**
+     * Return a stored payload
+     *
+     * @param hash SHA-256 of the payload
+     * @return Blob or null if it is not stored
+     */
+    public static Blob get(byte[] hash) {
+        Path path = getPath(hash);
+        try {
+            return new Blob(path, Files.size(path));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read blob " + Convert.toHexString(hash), e);
+        }
+    }
+
+    /**
+     * Delete a stored payload
+     *
+     * @param hash SHA-256 of the payload
+     */
+    public static void delete(byte[] hash) {
+        try {
+            if (Files.deleteIfExists(getPath(hash))) {
+                Logger.logDebugMessage("Deleted blob " + Convert.toHexString(hash));
+            }
+        } catch (IOException e) {
+            Logger.logWarningMessage("Unable to delete blob " + Convert.toHexString(hash), e);
+        }
+    }
+
+    /**
+     * Map a name to a stored payload
+     *
+     * @param name Reference name
+     * @param hash SHA-256 of the payload
+     */
+    public static void putRef(String name, byte[] hash) {
+        Path path = getRefPath(name);
+        try {
+            Files.createDirectories(path.getParent());
+            Files.write(path, Convert.toHexString(hash).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to store blob reference " + name, e);
+        }
+    }
+
+    /**
+     * Return the payload hash mapped to a name
+     *
+     * @param name Reference name
+     * @return SHA-256 of the payload or null if the name is not mapped
+     */
+    public static byte[] getRef(String name) {
+        try {
+            return Convert.parseHexString(new String(Files.readAllBytes(getRefPath(name)), StandardCharsets.UTF_8).trim());
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            Logger.logWarningMessage("Unable to read blob reference " + name, e);
+            return null;
+        }
+    }
+
+    /**
+     * Remove a name mapping, the payload is not deleted
+     *
+     * @param name Reference name
+     */
+    public static void deleteRef(String name) {
+        try {
+            Files.deleteIfExists(getRefPath(name));
+        } catch (IOException e) {
+            Logger.logWarningMessage("Unable to delete blob reference " + name, e);
+        }
+    }
+
+    /**
+     * Check if a name is mapped to a stored payload
+     *
+     * @param hash SHA-256 of the payload
+     * @return TRUE if a reference refers to the payload
+     */
+    public static boolean hasRef(byte[] hash) {
+        Path refs = root.resolve("refs");
+        if (!Files.isDirectory(refs)) {
+            return false;
+        }
+        String hex = Convert.toHexString(hash);
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(refs)) {
+            for (Path path : paths) {
+                if (hex.equals(new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim())) {
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            // kept when the references can't be read
+            Logger.logWarningMessage("Unable to read the blob references", e);
+            return true;
+        }
+        return false;
+    }
+
+    private static Path getPath(byte[] hash) {
+        String hex = Convert.toHexString(hash);
+        return root.resolve(hex.substring(0, 2)).resolve(hex);
+    }
+
+    private static Path getRefPath(String name) {
+        if (!name.matches("[A-Za-z0-9_-]+")) {
+            throw new IllegalArgumentException("Invalid blob reference name " + name);
+        }
+        return root.resolve("refs").resolve(name);
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // written concurrently with the same content
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+}
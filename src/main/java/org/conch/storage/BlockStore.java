@@ -0,0 +1,346 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.storage;
+
+import org.conch.Conch;
+import org.conch.db.Db;
+import org.conch.db.TransactionalDb;
+import org.conch.util.Logger;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only store of the block records in segment files.
+ * <p>
+ * A record is written once when its block is saved and it is addressed by its store offset, the
+ * offset of the segment start plus the position in the segment.  The segment start is in the file
+ * name, so the offsets stay valid when the segment size is changed.  A record doesn't span two
+ * segments.  The segments are preallocated to their full size and they are read through a read-only
+ * memory mapping of the whole file, the blocks loaded one after the other are sequential reads.
+ * <p>
+ * Record: payload length, CRC-32 of the rest of the record, block id, height and payload.  A read
+ * returns null if the record doesn't match the block, the caller then loads the block from the
+ * database.
+ * <p>
+ * The end of the store follows the database transaction which appended the records: the records
+ * of a rolled back transaction are overwritten by the next append.  The files never shrink while
+ * they are mapped, a truncation only moves the end; the segments past the end are deleted when the
+ * store is opened.
+ */
+public final class BlockStore {
+
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+    private static final String FILE_PREFIX = "blocks_";
+    private static final Pattern FILE_NAME = Pattern.compile(FILE_PREFIX + "(\\d+)\\.dat");
+
+    private static final boolean enabled = Conch.getBooleanProperty("sharder.blockStore");
+    private static final long segmentSize = Math.min(1024, Math.max(4, Conch.getIntProperty("sharder.blockStoreSegmentSize", 128))) * 1024L * 1024L;
+    private static final Path root;
+    static {
+        String dir = Conch.getStringProperty("sharder.blockStoreDir", "");
+        if (dir.isEmpty()) {
+            root = Paths.get(Conch.getUserHomeDir(), Db.getDir()).getParent().resolve("blocks");
+        } else {
+            root = Paths.get(Conch.getUserHomeDir()).resolve(dir);
+        }
+    }
+
+    private static final class Segment {
+
+        private final long start;
+        private final Path path;
+        private FileChannel channel;
+        private volatile MappedByteBuffer buffer;
+        private long size;
+
+        private Segment(long start, Path path) {
+            this.start = start;
+            this.path = path;
+        }
+
+        private synchronized FileChannel getChannel() throws IOException {
+            if (channel == null) {
+                channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                size = channel.size();
+            }
+            return channel;
+        }
+
+        private ByteBuffer getBuffer() throws IOException {
+            MappedByteBuffer mapped = buffer;
+            if (mapped == null) {
+                synchronized (this) {
+                    mapped = buffer;
+                    if (mapped == null) {
+                        FileChannel fileChannel = getChannel();
+                        mapped = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                        buffer = mapped;
+                    }
+                }
+            }
+            return mapped.duplicate();
+        }
+
+        private synchronized void close() {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                Logger.logWarningMessage("Unable to close block store segment " + path, e);
+            }
+        }
+    }
+
+    private static final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private static long end;
+    private static long committedEnd;
+    private static boolean opened;
+
+    private static final TransactionalDb.TransactionCallback endCallback = new TransactionalDb.TransactionCallback() {
+        @Override
+        public void commit() {
+            synchronized (segments) {
+                committedEnd = end;
+            }
+        }
+
+        @Override
+        public void rollback() {
+            synchronized (segments) {
+                end = committedEnd;
+            }
+        }
+    };
+
+    private BlockStore() {}
+
+    /**
+     * Check if the block records are kept in the block store
+     *
+     * @return TRUE if the block store is enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Open the segments and return the end of the record at an offset, the end of the store is
+     * set by {@link #recover(long)} once the caller has checked the last stored block
+     *
+     * @param offset Store offset of the last stored block
+     * @param blockId Block id
+     * @return End of the record or -1 if the record doesn't match the block
+     */
+    public static long getRecordEnd(long offset, long blockId) {
+        ByteBuffer record = read(offset, blockId);
+        return record == null ? -1 : offset + HEADER_SIZE + record.remaining();
+    }
+
+    /**
+     * Append a record
+     *
+     * @param blockId Block id
+     * @param height Block height
+     * @param payload Record payload
+     * @return Store offset or -1 if the record is not stored
+     */
+    public static long append(long blockId, int height, byte[] payload) {
+        int recordSize = HEADER_SIZE + payload.length;
+        ByteBuffer record = ByteBuffer.allocate(recordSize);
+        record.putInt(payload.length);
+        record.putInt(0);
+        record.putLong(blockId);
+        record.putInt(height);
+        record.put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 8, recordSize - 8);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        synchronized (segments) {
+            open();
+            try {
+                Map.Entry<Long, Segment> entry = segments.floorEntry(end);
+                Segment segment = entry == null ? null : entry.getValue();
+                if (segment != null && end - segment.start + recordSize > segment.getChannel().size()) {
+                    end = segment.start + segment.getChannel().size();
+                    segment = segments.get(end);
+                }
+                if (segment == null) {
+                    if (recordSize > segmentSize) {
+                        Logger.logWarningMessage("Block " + Long.toUnsignedString(blockId) + " record of " + recordSize
+                                + " bytes is larger than the block store segment, it is only kept in the database");
+                        return -1;
+                    }
+                    segment = createSegment(end);
+                }
+                long offset = end;
+                FileChannel channel = segment.getChannel();
+                long position = offset - segment.start;
+                while (record.hasRemaining()) {
+                    position += channel.write(record, position);
+                }
+                end = offset + recordSize;
+                if (Db.db.isInTransaction()) {
+                    Db.db.registerCallback(endCallback);
+                } else {
+                    committedEnd = end;
+                }
+                return offset;
+            } catch (IOException e) {
+                Logger.logWarningMessage("Unable to append block " + Long.toUnsignedString(blockId) + " to the block store", e);
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Read the payload of a record
+     *
+     * @param offset Store offset
+     * @param blockId Expected block id
+     * @return Payload or null if the record is not readable or is not the record of the block
+     */
+    public static ByteBuffer read(long offset, long blockId) {
+        Segment segment;
+        synchronized (segments) {
+            open();
+            Map.Entry<Long, Segment> entry = segments.floorEntry(offset);
+            if (entry == null) {
+                return null;
+            }
+            segment = entry.getValue();
+        }
+        try {
+            ByteBuffer buffer = segment.getBuffer();
+            long position = offset - segment.start;
+            if (position + HEADER_SIZE > buffer.capacity()) {
+                return null;
+            }
+            buffer.position((int) position);
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length < 0 || length > buffer.remaining() - 12 || buffer.getLong() != blockId) {
+                return null;
+            }
+            byte[] record = new byte[12 + length];
+            buffer.position((int) position + 8);
+            buffer.get(record);
+            CRC32 crc = new CRC32();
+            crc.update(record, 0, record.length);
+            if ((int) crc.getValue() != checksum) {
+                Logger.logWarningMessage("Block " + Long.toUnsignedString(blockId) + " record at " + offset + " has a wrong checksum");
+                return null;
+            }
+            return ByteBuffer.wrap(record, 12, length).slice();
+        } catch (IOException e) {
+            Logger.logWarningMessage("Unable to read block " + Long.toUnsignedString(blockId) + " from the block store", e);
+            return null;
+        }
+    }
+
+    /**
+     * Move the end of the store, the records after the offset are overwritten by the next appends
+     *
+     * @param offset New end
+     */
+    public static void truncate(long offset) {
+        synchronized (segments) {
+            open();
+            if (offset < end) {
+                end = offset;
+                committedEnd = offset;
+            }
+        }
+    }
+
+    /**
+     * Set the end of the store and delete the unused segments, called once when the store is opened
+     *
+     * @param offset Store end
+     */
+    public static void recover(long offset) {
+        synchronized (segments) {
+            open();
+            end = offset;
+            committedEnd = offset;
+            while (!segments.isEmpty() && segments.lastKey() >= offset) {
+                Segment segment = segments.pollLastEntry().getValue();
+                segment.close();
+                try {
+                    Files.deleteIfExists(segment.path);
+                    Logger.logDebugMessage("Deleted block store segment " + segment.path);
+                } catch (IOException e) {
+                    Logger.logWarningMessage("Unable to delete block store segment " + segment.path, e);
+                }
+            }
+        }
+    }
+
+    private static void open() {
+        if (opened) {
+            return;
+        }
+        opened = true;
+        try {
+            Files.createDirectories(root);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, FILE_PREFIX + "*.dat")) {
+                for (Path path : stream) {
+                    Matcher matcher = FILE_NAME.matcher(path.getFileName().toString());
+                    if (matcher.matches()) {
+                        long start = Long.parseLong(matcher.group(1));
+                        segments.put(start, new Segment(start, path));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Logger.logWarningMessage("Unable to open the block store " + root, e);
+        }
+    }
+
+    private static Segment createSegment(long start) throws IOException {
+        Path path = root.resolve(String.format("%s%015d.dat", FILE_PREFIX, start));
+        // sparse file, the space is allocated as the records are written
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(segmentSize);
+        }
+        Segment segment = new Segment(start, path);
+        segments.put(start, segment);
+        Logger.logDebugMessage("Created block store segment " + path);
+        return segment;
+    }
+
+}
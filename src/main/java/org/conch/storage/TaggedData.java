@@ -31,10 +31,13 @@ import org.conch.tx.TransactionImpl;
 import org.conch.util.Logger;
 import org.conch.util.Search;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -70,9 +73,10 @@ public class TaggedData {
 
         @Override
         protected void prune() {
+            List<byte[]> expiredBlobs = new ArrayList<>();
             if (Constants.ENABLE_PRUNING) {
                 try (Connection con = db.getConnection();
-                     PreparedStatement pstmtSelect = con.prepareStatement("SELECT parsed_tags "
+                     PreparedStatement pstmtSelect = con.prepareStatement("SELECT parsed_tags, data_hash "
                              + "FROM tagged_data WHERE transaction_timestamp < ? AND latest = TRUE ")) {
                     int expiration = Conch.getEpochTime() - Constants.MAX_PRUNABLE_LIFETIME;
                     pstmtSelect.setInt(1, expiration);
@@ -84,6 +88,10 @@ public class TaggedData {
                                 Integer count = expiredTags.get(tag);
                                 expiredTags.put((String)tag, count != null ? count + 1 : 1);
                             }
+                            byte[] dataHash = rs.getBytes("data_hash");
+                            if (dataHash != null) {
+                                expiredBlobs.add(dataHash);
+                            }
                         }
                     }
                     Tag.delete(expiredTags);
@@ -92,6 +100,7 @@ public class TaggedData {
                 }
             }
             super.prune();
+            deleteBlobs(expiredBlobs);
         }
 
     };
@@ -363,7 +372,8 @@ public class TaggedData {
     private final String description;
     private final String tags;
     private final String[] parsedTags;
-    private final byte[] data;
+    private byte[] data;
+    private byte[] dataHash;
     private final String type;
     private final String channel;
     private final boolean isText;
@@ -402,7 +412,9 @@ public class TaggedData {
         this.description = rs.getString("description");
         this.tags = rs.getString("tags");
         this.parsedTags = DbUtils.getArray(rs, "parsed_tags", String[].class);
-        this.data = rs.getBytes("data");
+        this.dataHash = rs.getBytes("data_hash");
+        // the payloads of the blob store are read on request
+        this.data = this.dataHash == null ? rs.getBytes("data") : null;
         this.type = rs.getString("type");
         this.channel = rs.getString("channel");
         this.isText = rs.getBoolean("is_text");
@@ -413,9 +425,24 @@ public class TaggedData {
     }
 
     private void save(Connection con) throws SQLException {
+        if (BlobStore.isEnabled() && dataHash == null && data != null) {
+            dataHash = BlobStore.put(data);
+            data = null;
+            // the payload written for a row which is rolled back is deleted with it
+            List<byte[]> dataHashes = Collections.singletonList(dataHash);
+            Db.db.registerCallback(new TransactionalDb.TransactionCallback() {
+                @Override
+                public void commit() {}
+
+                @Override
+                public void rollback() {
+                    deleteUnreferencedBlobs(dataHashes);
+                }
+            });
+        }
         try (PreparedStatement pstmt = con.prepareStatement("MERGE INTO tagged_data (id, account_id, name, description, tags, parsed_tags, "
-                + "type, channel, data, is_text, filename, block_timestamp, transaction_timestamp, height, latest) "
-                + "KEY (id, height) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, TRUE)")) {
+                + "type, channel, data, data_hash, is_text, filename, block_timestamp, transaction_timestamp, height, latest) "
+                + "KEY (id, height) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, TRUE)")) {
             int i = 0;
             pstmt.setLong(++i, this.id);
             pstmt.setLong(++i, this.accountId);
@@ -426,6 +453,7 @@ public class TaggedData {
             pstmt.setString(++i, this.type);
             pstmt.setString(++i, this.channel);
             pstmt.setBytes(++i, this.data);
+            pstmt.setBytes(++i, this.dataHash);
             pstmt.setBoolean(++i, this.isText);
             pstmt.setString(++i, this.filename);
             pstmt.setInt(++i, this.blockTimestamp);
@@ -460,7 +488,34 @@ public class TaggedData {
     }
 
     public byte[] getData() {
-        return data;
+        if (data != null) {
+            return data;
+        }
+        BlobStore.Blob blob = getDataBlob();
+        if (blob == null) {
+            return null;
+        }
+        try {
+            return blob.read();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read tagged data " + Long.toUnsignedString(id), e);
+        }
+    }
+
+    /**
+     * Return the blob store payload, to be streamed without loading it on the heap
+     *
+     * @return Blob or null if the payload is kept in the database or the blob file is missing
+     */
+    public BlobStore.Blob getDataBlob() {
+        if (dataHash == null) {
+            return null;
+        }
+        BlobStore.Blob blob = BlobStore.get(dataHash);
+        if (blob == null) {
+            Logger.logWarningMessage("Blob of tagged data " + Long.toUnsignedString(id) + " is missing");
+        }
+        return blob;
     }
 
     public String getType() {
@@ -548,6 +603,63 @@ public class TaggedData {
         }
     }
 
+    /**
+     * Check if a blob store payload is still referenced by a tagged data row
+     *
+     * @param dataHash SHA-256 of the payload
+     * @return TRUE if a row refers to the payload
+     */
+    public static boolean isBlobReferenced(byte[] dataHash) {
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT 1 FROM tagged_data WHERE data_hash = ? LIMIT 1")) {
+            pstmt.setBytes(1, dataHash);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    /**
+     * Delete payloads of the blob store once the database transaction is committed, unless a
+     * tagged data row or a named reference still refers to them.  Outside of a transaction they
+     * are deleted at once.
+     *
+     * @param dataHashes SHA-256 of the payloads
+     */
+    public static void deleteBlobs(List<byte[]> dataHashes) {
+        if (dataHashes.isEmpty()) {
+            return;
+        }
+        if (!Db.db.isInTransaction()) {
+            deleteUnreferencedBlobs(dataHashes);
+            return;
+        }
+        Db.db.registerCallback(new TransactionalDb.TransactionCallback() {
+            @Override
+            public void commit() {
+                deleteUnreferencedBlobs(dataHashes);
+            }
+
+            @Override
+            public void rollback() {}
+        });
+    }
+
+    /**
+     * Delete the payloads of the blob store which no tagged data row or named reference refers to
+     *
+     * @param dataHashes SHA-256 of the payloads
+     */
+    public static void deleteUnreferencedBlobs(List<byte[]> dataHashes) {
+        for (byte[] dataHash : dataHashes) {
+            if (!isBlobReferenced(dataHash) && !BlobStore.hasRef(dataHash)) {
+                BlobStore.delete(dataHash);
+            }
+        }
+    }
+
     public static boolean isPruned(long transactionId) {
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT 1 FROM tagged_data WHERE id = ?")) {
@@ -26,10 +26,13 @@ import org.conch.chain.BlockchainProcessor;
 import org.conch.common.ConchException;
 import org.conch.common.Constants;
 import org.conch.db.Db;
+import org.conch.db.TransactionalDb;
 import org.conch.peer.Peers;
+import org.conch.storage.BlobStore;
 import org.conch.storage.Ssid;
 import org.conch.storage.StorageBackup;
 import org.conch.storage.Storer;
+import org.conch.storage.TaggedData;
 import org.conch.storage.ipfs.IpfsService;
 import org.conch.tx.Attachment;
 import org.conch.tx.Transaction;
@@ -37,6 +40,7 @@ import org.conch.tx.TransactionImpl;
 import org.conch.util.Logger;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
@@ -118,18 +122,42 @@ public class StorageTxProcessorImpl implements StorageTxProcessor {
 
     @Override
     public byte[] getData(long transactionId) throws IOException {
+        BlobStore.Blob blob = getDataBlob(transactionId);
+        if (blob != null) {
+            return blob.read();
+        }
         Transaction storeTransaction = Conch.getBlockchain().getTransaction(transactionId);
         Attachment.DataStorageUpload storeAttachment = (Attachment.DataStorageUpload) storeTransaction.getAttachment();
         return IpfsService.retrieve(Ssid.decode(storeAttachment.getSsid()));
     }
 
+    /**
+     * Return the local copy of a stored file, which is kept in the blob store when this node backs it up
+     *
+     * @param transactionId storage upload transaction id
+     * @return blob or null if there is no local copy
+     */
+    public BlobStore.Blob getDataBlob(long transactionId) {
+        if (!BlobStore.isEnabled()) {
+            return null;
+        }
+        Transaction storeTransaction = Conch.getBlockchain().getTransaction(transactionId);
+        Attachment.DataStorageUpload storeAttachment = (Attachment.DataStorageUpload) storeTransaction.getAttachment();
+        byte[] dataHash = BlobStore.getRef(Ssid.decode(storeAttachment.getSsid()));
+        return dataHash != null ? BlobStore.get(dataHash) : null;
+    }
+
     @Override
     public boolean backup(Transaction transaction) {
         Attachment.DataStorageBackup attachment = (Attachment.DataStorageBackup) transaction.getAttachment();
         Transaction storeTransaction = Conch.getBlockchain().getTransaction(attachment.getUploadTransaction());
         Attachment.DataStorageUpload storeAttachment = (Attachment.DataStorageUpload) storeTransaction.getAttachment();
         try{
-            IpfsService.pin(Ssid.decode(storeAttachment.getSsid()));
+            String cid = Ssid.decode(storeAttachment.getSsid());
+            IpfsService.pin(cid);
+            if (BlobStore.isEnabled() && BlobStore.getRef(cid) == null) {
+                BlobStore.putRef(cid, BlobStore.put(IpfsService.retrieve(cid)));
+            }
         }catch (IOException e){
             Logger.logErrorMessage(transaction.getId() + " backup failed " ,e);
             return false;
@@ -195,7 +223,30 @@ public class StorageTxProcessorImpl implements StorageTxProcessor {
         Transaction storeTransaction = Conch.getBlockchain().getTransaction(attachment.getUploadTransaction());
         Attachment.DataStorageUpload storeAttachment = (Attachment.DataStorageUpload) storeTransaction.getAttachment();
         if(Storer.getStorer() == null || !StorageBackup.isOwnerOfStorage(Storer.getStorer().getAccountId(),attachment.getUploadTransaction())){
-            IpfsService.unpin(Ssid.decode(storeAttachment.getSsid()));
+            String cid = Ssid.decode(storeAttachment.getSsid());
+            // the local copy is kept if the block of the backup is rolled back
+            if (Db.db.isInTransaction()) {
+                Db.db.registerCallback(new TransactionalDb.TransactionCallback() {
+                    @Override
+                    public void commit() {
+                        unpin(cid);
+                    }
+
+                    @Override
+                    public void rollback() {}
+                });
+            } else {
+                unpin(cid);
+            }
+        }
+    }
+
+    private static void unpin(String cid) {
+        IpfsService.unpin(cid);
+        byte[] dataHash = BlobStore.getRef(cid);
+        if (dataHash != null) {
+            BlobStore.deleteRef(cid);
+            TaggedData.deleteUnreferencedBlobs(Collections.singletonList(dataHash));
         }
     }
 
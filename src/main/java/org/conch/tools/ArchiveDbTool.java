@@ -26,7 +26,7 @@ import org.conch.Conch;
 import org.conch.chain.Block;
 import org.conch.common.Constants;
 import org.conch.db.Db;
-import org.conch.util.FileUtil;
+import org.conch.db.OnlineBackup;
 import org.conch.util.Logger;
 
 import java.io.File;
@@ -34,6 +34,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.sql.SQLException;
 import java.util.List;
 
 public class ArchiveDbTool {
@@ -120,39 +121,29 @@ public class ArchiveDbTool {
      */
     private static String[] archiveDb(String path) {
         String[] archiveArray = new String[2];
-        String pathStr;
-        String fileNameStr;
-        try {
-            Conch.getBlockchain().updateLock();
-            Path appRootPath = Paths.get(".");
-
-            // check and generate the archive folder
-            pathStr = (path == null) ? appRootPath.resolve("ARCHIVE/").toString() : path;
-            if(!pathStr.endsWith(File.separator)) {
-                pathStr += File.separator;
-            }
-            File bakFolder = new File(pathStr);
-            if(!bakFolder.exists()) {
-                bakFolder.mkdirs();
-            }
-
-            // generate db archive
-            fileNameStr = Db.getName() + "_" + Conch.getHeight() +".zip";
-            String dbArchivePath = pathStr + fileNameStr;
+        Path appRootPath = Paths.get(".");
 
-            String dbPath = appRootPath.resolve(Db.getName() + "/").toString();
-            Logger.logInfoMessage("Zip the current db from " + dbPath + " to " + dbArchivePath);
-            FileUtil.ZipFile(dbPath, dbArchivePath);
-
-            // return values
-            archiveArray[0] = dbArchivePath;
-            archiveArray[1] = generateArchiveMemoFile(pathStr);
+        // check and generate the archive folder
+        String pathStr = (path == null) ? appRootPath.resolve("ARCHIVE/").toString() : path;
+        if(!pathStr.endsWith(File.separator)) {
+            pathStr += File.separator;
+        }
 
-            return archiveArray;
-        } finally {
-            Conch.getBlockchain().updateUnlock();
+        // generate db archive by the online backup, the blockchain keeps processing the blocks
+        String fileNameStr = Db.getName() + "_" + Conch.getHeight() +".zip";
+        try {
+            // the archive is unzipped into the application folder
+            OnlineBackup.Result result = OnlineBackup.full(new File(pathStr), fileNameStr, Db.getName());
+            Logger.logInfoMessage("Archived the current db to " + result.getFile().getPath() + ", " + result);
+        } catch (SQLException e) {
+            Logger.logErrorMessage("Archive the current db to " + pathStr + fileNameStr + " failed", e);
+            return null;
         }
 
+        // return values
+        archiveArray[0] = pathStr + fileNameStr;
+        archiveArray[1] = generateArchiveMemoFile(pathStr);
+        return archiveArray;
     }
 
     private static String generateArchiveMemoFile(String path){
@@ -0,0 +1,206 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.tx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * In-memory index of the unconfirmed transaction pool.
+ * <p>
+ * The transactions are indexed by id, by sender and in the forging order
+ * (transaction height, fee per byte, arrival time, id), which is the default sort of the
+ * {@code unconfirmed_transaction} table.  The table is kept as the on-disk snapshot of the
+ * pool, it is read back only at startup and after a database rollback.
+ * <p>
+ * The mempool is not thread-safe: it is updated while holding the blockchain write lock and
+ * read while holding the blockchain read lock.
+ */
+final class Mempool {
+
+    /**
+     * Sort key of a pool entry.  The key is captured when the transaction is added, since the
+     * height of the transaction object changes when it is included in a forged block.
+     */
+    private static final class Entry {
+
+        private final UnconfirmedTransaction unconfirmedTransaction;
+        private final int height;
+        private final long feePerByte;
+        private final long arrivalTimestamp;
+        private final long id;
+
+        private Entry(UnconfirmedTransaction unconfirmedTransaction) {
+            this.unconfirmedTransaction = unconfirmedTransaction;
+            this.height = unconfirmedTransaction.getHeight();
+            this.feePerByte = unconfirmedTransaction.getFeePerByte();
+            this.arrivalTimestamp = unconfirmedTransaction.getArrivalTimestamp();
+            this.id = unconfirmedTransaction.getId();
+        }
+    }
+
+    /**
+     * Pending transactions and amounts of a sender
+     */
+    static final class Sender {
+
+        private final Map<Long, UnconfirmedTransaction> transactions = new LinkedHashMap<>();
+        private long amountNQT;
+        private long feeNQT;
+
+        int getTransactionCount() {
+            return transactions.size();
+        }
+
+        long getAmountNQT() {
+            return amountNQT;
+        }
+
+        long getFeeNQT() {
+            return feeNQT;
+        }
+    }
+
+    private static final Comparator<Entry> forgingOrder = (Entry e1, Entry e2) -> {
+        int compare;
+        // Sort by transaction_height ASC
+        compare = Integer.compare(e1.height, e2.height);
+        if (compare != 0)
+            return compare;
+        // Sort by fee_per_byte DESC
+        compare = Long.compare(e1.feePerByte, e2.feePerByte);
+        if (compare != 0)
+            return -compare;
+        // Sort by arrival_timestamp ASC
+        compare = Long.compare(e1.arrivalTimestamp, e2.arrivalTimestamp);
+        if (compare != 0)
+            return compare;
+        // Sort by transaction ID ASC
+        return Long.compare(e1.id, e2.id);
+    };
+
+    private final Map<Long, Entry> transactions = new HashMap<>();
+    private final Map<Long, Sender> senders = new HashMap<>();
+    private final TreeSet<Entry> sortedTransactions = new TreeSet<>(forgingOrder);
+
+    /**
+     * Add a transaction
+     *
+     * @param unconfirmedTransaction Unconfirmed transaction
+     * @return FALSE if the transaction is already in the pool
+     */
+    boolean add(UnconfirmedTransaction unconfirmedTransaction) {
+        if (transactions.containsKey(unconfirmedTransaction.getId())) {
+            return false;
+        }
+        Entry entry = new Entry(unconfirmedTransaction);
+        transactions.put(entry.id, entry);
+        sortedTransactions.add(entry);
+        Sender sender = senders.computeIfAbsent(unconfirmedTransaction.getSenderId(), id -> new Sender());
+        sender.transactions.put(entry.id, unconfirmedTransaction);
+        sender.amountNQT += unconfirmedTransaction.getAmountNQT();
+        sender.feeNQT += unconfirmedTransaction.getFeeNQT();
+        return true;
+    }
+
+    /**
+     * Remove a transaction
+     *
+     * @param transactionId Transaction identifier
+     * @return Removed transaction or null if the transaction is not in the pool
+     */
+    UnconfirmedTransaction remove(long transactionId) {
+        Entry entry = transactions.remove(transactionId);
+        if (entry == null) {
+            return null;
+        }
+        sortedTransactions.remove(entry);
+        UnconfirmedTransaction unconfirmedTransaction = entry.unconfirmedTransaction;
+        long senderId = unconfirmedTransaction.getSenderId();
+        Sender sender = senders.get(senderId);
+        sender.transactions.remove(transactionId);
+        if (sender.transactions.isEmpty()) {
+            senders.remove(senderId);
+        } else {
+            sender.amountNQT -= unconfirmedTransaction.getAmountNQT();
+            sender.feeNQT -= unconfirmedTransaction.getFeeNQT();
+        }
+        return unconfirmedTransaction;
+    }
+
+    UnconfirmedTransaction get(long transactionId) {
+        Entry entry = transactions.get(transactionId);
+        return entry != null ? entry.unconfirmedTransaction : null;
+    }
+
+    int size() {
+        return transactions.size();
+    }
+
+    void clear() {
+        transactions.clear();
+        senders.clear();
+        sortedTransactions.clear();
+    }
+
+    /**
+     * Return the pending transactions and amounts of a sender
+     *
+     * @param senderId Sender account identifier
+     * @return Sender or null if the account has no unconfirmed transactions
+     */
+    Sender getSender(long senderId) {
+        return senders.get(senderId);
+    }
+
+    /**
+     * Return the unconfirmed transactions of a sender in arrival order
+     *
+     * @param senderId Sender account identifier
+     * @return Transaction list
+     */
+    List<UnconfirmedTransaction> getSenderTransactions(long senderId) {
+        Sender sender = senders.get(senderId);
+        return sender != null ? new ArrayList<>(sender.transactions.values()) : Collections.emptyList();
+    }
+
+    /**
+     * Return the transactions in the forging order
+     *
+     * @return Transaction list
+     */
+    List<UnconfirmedTransaction> getSortedTransactions() {
+        List<UnconfirmedTransaction> result = new ArrayList<>(sortedTransactions.size());
+        sortedTransactions.forEach(entry -> result.add(entry.unconfirmedTransaction));
+        return result;
+    }
+
+    List<Long> getTransactionIds() {
+        return new ArrayList<>(transactions.keySet());
+    }
+}
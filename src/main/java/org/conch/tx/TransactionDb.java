@@ -21,7 +21,7 @@
 
 package org.conch.tx;
 
-import org.conch.chain.BlockDb;
+import org.conch.chain.BlockCache;
 import org.conch.chain.BlockImpl;
 import org.conch.common.ConchException;
 import org.conch.db.*;
@@ -44,11 +44,9 @@ public final class TransactionDb {
 
     public static TransactionImpl findTransaction(long transactionId, int height) {
         // Check the block cache
-        synchronized (BlockDb.blockCache) {
-            TransactionImpl transaction = BlockDb.transactionCache.get(transactionId);
-            if (transaction != null) {
-                return transaction.getHeight() <= height ? transaction : null;
-            }
+        TransactionImpl transaction = BlockCache.getTransaction(transactionId);
+        if (transaction != null) {
+            return transaction.getHeight() <= height ? transaction : null;
         }
         // Search the database
         try (Connection con = Db.db.getConnection();
@@ -74,12 +72,10 @@ public final class TransactionDb {
     public static TransactionImpl findTransactionByFullHash(byte[] fullHash, int height) {
         long transactionId = Convert.fullHashToId(fullHash);
         // Check the cache
-        synchronized(BlockDb.blockCache) {
-            TransactionImpl transaction = BlockDb.transactionCache.get(transactionId);
-            if (transaction != null) {
-                return (transaction.getHeight() <= height &&
-                        Arrays.equals(transaction.fullHash(), fullHash) ? transaction : null);
-            }
+        TransactionImpl transaction = BlockCache.getTransaction(transactionId);
+        if (transaction != null) {
+            return (transaction.getHeight() <= height &&
+                    Arrays.equals(transaction.fullHash(), fullHash) ? transaction : null);
         }
         // Search the database
         try (Connection con = Db.db.getConnection();
@@ -105,11 +101,9 @@ public final class TransactionDb {
 
     public static boolean hasTransaction(long transactionId, int height) {
         // Check the block cache
-        synchronized(BlockDb.blockCache) {
-            TransactionImpl transaction = BlockDb.transactionCache.get(transactionId);
-            if (transaction != null) {
-                return (transaction.getHeight() <= height);
-            }
+        TransactionImpl transaction = BlockCache.getTransaction(transactionId);
+        if (transaction != null) {
+            return (transaction.getHeight() <= height);
         }
         // Search the database
         try (Connection con = Db.db.getConnection();
@@ -130,12 +124,10 @@ public final class TransactionDb {
     public static boolean hasTransactionByFullHash(byte[] fullHash, int height) {
         long transactionId = Convert.fullHashToId(fullHash);
         // Check the block cache
-        synchronized(BlockDb.blockCache) {
-            TransactionImpl transaction = BlockDb.transactionCache.get(transactionId);
-            if (transaction != null) {
-                return (transaction.getHeight() <= height &&
-                        Arrays.equals(transaction.fullHash(), fullHash));
-            }
+        TransactionImpl transaction = BlockCache.getTransaction(transactionId);
+        if (transaction != null) {
+            return (transaction.getHeight() <= height &&
+                    Arrays.equals(transaction.fullHash(), fullHash));
         }
         // Search the database
         try (Connection con = Db.db.getConnection();
@@ -151,11 +143,9 @@ public final class TransactionDb {
 
     public static byte[] getFullHash(long transactionId) {
         // Check the block cache
-        synchronized(BlockDb.blockCache) {
-            TransactionImpl transaction = BlockDb.transactionCache.get(transactionId);
-            if (transaction != null) {
-                return transaction.fullHash();
-            }
+        TransactionImpl transaction = BlockCache.getTransaction(transactionId);
+        if (transaction != null) {
+            return transaction.fullHash();
         }
         // Search the database
         try (Connection con = Db.db.getConnection();
@@ -250,11 +240,9 @@ public final class TransactionDb {
 
     public static List<TransactionImpl> findBlockTransactions(long blockId) {
         // Check the block cache
-        synchronized(BlockDb.blockCache) {
-            BlockImpl block = BlockDb.blockCache.get(blockId);
-            if (block != null) {
-                return block.getTransactions();
-            }
+        BlockImpl block = BlockCache.getBlock(blockId);
+        if (block != null) {
+            return block.getTransactions();
         }
         // Search the database
         try (Connection con = Db.db.getConnection()) {
@@ -283,6 +271,48 @@ public final class TransactionDb {
         }
     }
 
+    /**
+     * Return the size of a transaction in a block store record
+     */
+    public static int getStoredSize(TransactionImpl transaction) {
+        return 8 + 8 + 32 + 4 + transaction.bytes().length;
+    }
+
+    /**
+     * Write a transaction of a block store record: id, sender id, full hash and bytes
+     */
+    public static void putStoredTransaction(ByteBuffer buffer, TransactionImpl transaction) {
+        byte[] bytes = transaction.bytes();
+        buffer.putLong(transaction.getId());
+        buffer.putLong(transaction.getSenderId());
+        buffer.put(transaction.fullHash());
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Read a transaction of a block store record, the values which are columns of the transaction
+     * table are set like in {@link #loadTransaction(Connection, ResultSet)}
+     */
+    public static TransactionImpl loadStoredTransaction(ByteBuffer buffer, long blockId, int height, int blockTimestamp, short index)
+            throws ConchException.NotValidException {
+        long id = buffer.getLong();
+        long senderId = buffer.getLong();
+        byte[] fullHash = new byte[32];
+        buffer.get(fullHash);
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return TransactionImpl.newTransactionBuilder(bytes)
+                .blockId(blockId)
+                .height(height)
+                .id(id)
+                .senderId(senderId)
+                .blockTimestamp(blockTimestamp)
+                .fullHash(fullHash)
+                .index(index)
+                .build();
+    }
+
     /**
      * 统计包含交易类型的区块
      * @param con
@@ -380,6 +380,14 @@ final public class TransactionImpl implements Transaction {
         return senderPublicKey;
     }
 
+    /**
+     * Check if the sender public key is known without reading the account, e.g. when the
+     * transaction is parsed from its bytes
+     */
+    public boolean hasSenderPublicKey() {
+        return senderPublicKey != null;
+    }
+
     @Override
     public long getRecipientId() {
         return recipientId;
@@ -874,8 +882,20 @@ final public class TransactionImpl implements Transaction {
     }
 
     public static TransactionImpl parseTransaction(JSONObject transactionData) throws ConchException.NotValidException {
+        return parseTransaction(transactionData, true);
+    }
+
+    /**
+     * Parse the transaction
+     *
+     * @param transactionData transaction json
+     * @param checkSignature false if the signature is verified later, e.g. by the {@link org.conch.chain.SignatureVerifier}
+     * @return transaction
+     * @throws ConchException.NotValidException transaction is not valid
+     */
+    public static TransactionImpl parseTransaction(JSONObject transactionData, boolean checkSignature) throws ConchException.NotValidException {
         TransactionImpl transaction = newTransactionBuilder(transactionData).build();
-        if (transaction.getSignature() != null && !transaction.checkSignature()) {
+        if (checkSignature && transaction.getSignature() != null && !transaction.checkSignature()) {
             throw new ConchException.NotValidException("Invalid transaction signature for transaction " + transaction.getJSONObject().toJSONString());
         }
         return transaction;
@@ -961,7 +981,12 @@ final public class TransactionImpl implements Transaction {
 
     private volatile boolean hasValidSignature = false;
 
-    private boolean checkSignature() {
+    /**
+     * Verify the signature without the account public key check, a valid result is cached
+     *
+     * @return TRUE if the signature is valid
+     */
+    public boolean checkSignature() {
         if (!hasValidSignature) {
             //[NQT]
 //            hasValidSignature = signature != null && Crypto.verify(signature, zeroSignature(getBytes()), getSenderPublicKey(), useNQT());
@@ -65,6 +65,8 @@ public interface TransactionProcessor extends Observable<List<? extends Transact
 
     void processPeerTransactions(JSONObject request) throws ConchException.ValidationException;
 
+    void processPeerTransactions(List<TransactionImpl> transactions) throws ConchException.ValidationException;
+
     void processLater(Collection<? extends Transaction> transactions);
 
     SortedSet<? extends Transaction> getCachedUnconfirmedTransactions(List<String> exclude);
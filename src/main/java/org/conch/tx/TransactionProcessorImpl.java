@@ -25,9 +25,10 @@ import com.google.common.collect.Sets;
 import org.apache.commons.lang3.StringUtils;
 import org.conch.Conch;
 import org.conch.account.Account;
-import org.conch.chain.BlockDb;
+import org.conch.chain.BlockCache;
 import org.conch.chain.BlockchainImpl;
 import org.conch.chain.BlockchainProcessorImpl;
+import org.conch.chain.SignatureVerifier;
 import org.conch.common.ConchException;
 import org.conch.common.Constants;
 import org.conch.db.*;
@@ -44,7 +45,9 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 
 public final class TransactionProcessorImpl implements TransactionProcessor {
 
@@ -55,6 +58,7 @@ public final class TransactionProcessorImpl implements TransactionProcessor {
         int n = Conch.getIntProperty("sharder.maxUnconfirmedTransactions");
         maxUnconfirmedTransactions = n <= 0 ? Integer.MAX_VALUE : n;
     }
+    private static final int admissionBatchSize = Math.max(1, Conch.getIntProperty("sharder.transactionAdmissionBatchSize", 100));
 
     private static final TransactionProcessorImpl instance = new TransactionProcessorImpl();
 
@@ -62,8 +66,25 @@ public final class TransactionProcessorImpl implements TransactionProcessor {
         return instance;
     }
 
-    private final Map<DbKey, UnconfirmedTransaction> transactionCache = new HashMap<>();
-    private volatile boolean cacheInitialized = false;
+    private final Mempool mempool = new Mempool();
+    private volatile boolean mempoolLoaded = false;
+
+    /**
+     * The mempool changes are done in the database transaction of the unconfirmed_transaction table,
+     * the mempool is reloaded from the table when that transaction is rolled back
+     */
+    private final TransactionalDb.TransactionCallback mempoolCallback = new TransactionalDb.TransactionCallback() {
+
+        @Override
+        public void commit() {
+        }
+
+        @Override
+        public void rollback() {
+            loadMempool();
+            registerUnconfirmedDuplicates();
+        }
+    };
     
     private Set<Long> dirtyOrViciousTxs = Sets.newConcurrentHashSet();
 
@@ -86,9 +107,8 @@ public final class TransactionProcessorImpl implements TransactionProcessor {
         @Override
         protected void save(Connection con, UnconfirmedTransaction unconfirmedTransaction) throws SQLException {
             unconfirmedTransaction.save(con);
-            if (transactionCache.size() < maxUnconfirmedTransactions) {
-                transactionCache.put(unconfirmedTransaction.getDbKey(), unconfirmedTransaction);
-            }
+            mempool.add(unconfirmedTransaction);
+            Db.db.registerCallback(mempoolCallback);
         }
 
         @Override
@@ -102,9 +122,10 @@ public final class TransactionProcessorImpl implements TransactionProcessor {
                     while (rs.next()) {
                         UnconfirmedTransaction unconfirmedTransaction = load(con, rs, null);
                         waitingTransactions.add(unconfirmedTransaction);
-                        transactionCache.remove(unconfirmedTransaction.getDbKey());
+                        mempool.remove(unconfirmedTransaction.getId());
                     }
                 }
+                Db.db.registerCallback(mempoolCallback);
             } catch (SQLException e) {
                 throw new RuntimeException(e.toString(), e);
             }
@@ -116,6 +137,8 @@ public final class TransactionProcessorImpl implements TransactionProcessor {
         public void truncate() {
             super.truncate();
             clearCache();
+            mempool.clear();
+            Db.db.registerCallback(mempoolCallback);
         }
 
         @Override
@@ -337,7 +360,7 @@ public final class TransactionProcessorImpl implements TransactionProcessor {
                     return;
                 }
                 try {
-                    processPeerTransactions(transactionsData);
+                    parseAndProcessPeerTransactions(transactionsData);
                 } catch (ConchException.ValidationException | RuntimeException e) {
                     peer.blacklist(e);
                 }
@@ -427,32 +450,101 @@ public final class TransactionProcessorImpl implements TransactionProcessor {
     Transaction getUnconfirmedTransaction(DbKey dbKey) {
         try {
             Conch.getBlockchain().readLock();
-            Transaction transaction = transactionCache.get(dbKey);
-            if (transaction != null) {
-                return transaction;
-            }
+            return getMempool().get(((DbKey.LongKey) dbKey).getId());
         } finally {
             Conch.getBlockchain().readUnlock();
         }
-        return unconfirmedTransactionTable.get(dbKey);
     }
 
     private List<Long> getAllUnconfirmedTransactionIds() {
-        List<Long> result = new ArrayList<>();
-        Connection con = null;
         try {
-            con = Db.db.getConnection();
-            PreparedStatement pstmt = con.prepareStatement("SELECT id FROM unconfirmed_transaction");
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                result.add(rs.getLong("id"));
+            Conch.getBlockchain().readLock();
+            return getMempool().getTransactionIds();
+        } finally {
+            Conch.getBlockchain().readUnlock();
+        }
+    }
+
+    /**
+     * Return the unconfirmed transactions in the forging order, the same order as
+     * {@link #getAllUnconfirmedTransactions()} without reading the unconfirmed_transaction table
+     *
+     * @return Transaction list
+     */
+    public List<UnconfirmedTransaction> getSortedUnconfirmedTransactions() {
+        try {
+            Conch.getBlockchain().readLock();
+            return getMempool().getSortedTransactions();
+        } finally {
+            Conch.getBlockchain().readUnlock();
+        }
+    }
+
+    /**
+     * Return the unconfirmed transactions of a sender in arrival order
+     *
+     * @param senderId Sender account identifier
+     * @return Transaction list
+     */
+    public List<UnconfirmedTransaction> getSenderUnconfirmedTransactions(long senderId) {
+        try {
+            Conch.getBlockchain().readLock();
+            return getMempool().getSenderTransactions(senderId);
+        } finally {
+            Conch.getBlockchain().readUnlock();
+        }
+    }
+
+    /**
+     * Return the amount and fee of the unconfirmed transactions of a sender
+     *
+     * @param senderId Sender account identifier
+     * @return Amount and fee in NQT, 0 if the sender has no unconfirmed transactions
+     */
+    public long getSenderUnconfirmedAmountNQT(long senderId) {
+        try {
+            Conch.getBlockchain().readLock();
+            Mempool.Sender sender = getMempool().getSender(senderId);
+            return sender != null ? Math.addExact(sender.getAmountNQT(), sender.getFeeNQT()) : 0;
+        } finally {
+            Conch.getBlockchain().readUnlock();
+        }
+    }
+
+    /**
+     * Return the mempool, the unconfirmed_transaction table is loaded on the first access.
+     * The caller must hold the blockchain lock.
+     */
+    private Mempool getMempool() {
+        if (!mempoolLoaded) {
+            synchronized (mempool) {
+                if (!mempoolLoaded) {
+                    loadMempool();
+                }
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e.toString(), e);
-        }finally {
-            DbUtils.close(con);
         }
-        return result;
+        return mempool;
+    }
+
+    private void registerUnconfirmedDuplicates() {
+        unconfirmedDuplicates.clear();
+        mempool.getSortedTransactions().forEach(unconfirmedTransaction -> unconfirmedTransaction.getTransaction().isUnconfirmedDuplicate(unconfirmedDuplicates));
+    }
+
+    private void loadMempool() {
+        synchronized (mempool) {
+            mempool.clear();
+            DbIterator<UnconfirmedTransaction> it = null;
+            try {
+                it = getAllUnconfirmedTransactions();
+                while (it.hasNext()) {
+                    mempool.add(it.next());
+                }
+            } finally {
+                DbUtils.close(it);
+            }
+            mempoolLoaded = true;
+        }
     }
 
     @Override
@@ -526,7 +618,7 @@ public final class TransactionProcessorImpl implements TransactionProcessor {
     @Override
     public void processPeerTransactions(JSONObject request) throws ConchException.ValidationException {
         JSONArray transactionsData = (JSONArray)request.get("transactions");
-        processPeerTransactions(transactionsData);
+        parseAndProcessPeerTransactions(transactionsData);
     }
 
     @Override
@@ -558,7 +650,6 @@ public final class TransactionProcessorImpl implements TransactionProcessor {
             unconfirmedDuplicates.clear();
             waitingTransactions.clear();
             broadcastedTransactions.clear();
-            transactionCache.clear();
             transactionListeners.notify(removed, Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
         } finally {
             BlockchainImpl.getInstance().writeUnlock();
@@ -599,13 +690,65 @@ public final class TransactionProcessorImpl implements TransactionProcessor {
             }
             unconfirmedTransactionTable.truncate();
             unconfirmedDuplicates.clear();
-            transactionCache.clear();
             transactionListeners.notify(removed, Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
         } finally {
             BlockchainImpl.getInstance().writeUnlock();
         }
     }
 
+    /**
+     * Requeue the unconfirmed transactions affected by the transactions of a new block: the block
+     * transactions themselves and the other unconfirmed transactions of their senders.  The other
+     * unconfirmed transactions stay in the pool, unlike {@link #requeueAllUnconfirmedTransactions()}.
+     * <p>
+     * Must be called while holding the write lock and in the database transaction of the block.
+     *
+     * @param transactions Transactions of the block and the phased transactions finished by it
+     */
+    public void requeueUnconfirmedTransactions(Collection<? extends Transaction> transactions) {
+        Mempool mempool = getMempool();
+        Map<Long, UnconfirmedTransaction> requeued = new LinkedHashMap<>();
+        Set<Long> senderIds = new HashSet<>();
+        for (Transaction transaction : transactions) {
+            UnconfirmedTransaction unconfirmedTransaction = mempool.get(transaction.getId());
+            if (unconfirmedTransaction != null) {
+                requeued.put(unconfirmedTransaction.getId(), unconfirmedTransaction);
+            }
+            senderIds.add(transaction.getSenderId());
+        }
+        for (Long senderId : senderIds) {
+            mempool.getSenderTransactions(senderId).forEach(unconfirmedTransaction -> requeued.put(unconfirmedTransaction.getId(), unconfirmedTransaction));
+        }
+        if (requeued.isEmpty()) {
+            return;
+        }
+        List<Transaction> removed = new ArrayList<>();
+        Connection con = null;
+        try {
+            con = Db.db.getConnection();
+            PreparedStatement pstmt = con.prepareStatement("DELETE FROM unconfirmed_transaction WHERE id = ?");
+            for (UnconfirmedTransaction unconfirmedTransaction : requeued.values()) {
+                unconfirmedTransaction.getTransaction().undoUnconfirmed();
+                pstmt.setLong(1, unconfirmedTransaction.getId());
+                pstmt.addBatch();
+                mempool.remove(unconfirmedTransaction.getId());
+                if (removed.size() < maxUnconfirmedTransactions) {
+                    removed.add(unconfirmedTransaction.getTransaction());
+                }
+                waitingTransactions.add(unconfirmedTransaction);
+            }
+            pstmt.executeBatch();
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        } finally {
+            DbUtils.close(con);
+        }
+        Db.db.registerCallback(mempoolCallback);
+        // the duplicates of the requeued transactions are registered again when they are processed
+        registerUnconfirmedDuplicates();
+        transactionListeners.notify(removed, Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
+    }
+
     @Override
     public void rebroadcastAllUnconfirmedTransactions() {
         BlockchainImpl.getInstance().writeLock();
@@ -652,7 +795,8 @@ public final class TransactionProcessorImpl implements TransactionProcessor {
             int deleted = pstmt.executeUpdate();
             if (deleted > 0) {
                 transaction.undoUnconfirmed();
-                transactionCache.remove(transaction.getDbKey());
+                getMempool().remove(transaction.getId());
+                Db.db.registerCallback(mempoolCallback);
                 transactionListeners.notify(Collections.singletonList(transaction), Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
             }
         } catch (SQLException e) {
@@ -700,7 +844,7 @@ public final class TransactionProcessorImpl implements TransactionProcessor {
         BlockchainImpl.getInstance().writeLock();
         try {
             for (Transaction transaction : transactions) {
-                BlockDb.transactionCache.remove(transaction.getId());
+                BlockCache.removeTransaction(transaction.getId());
                 if (TransactionDb.hasTransaction(transaction.getId()) || transaction.getAttachment().getTransactionType() == TransactionType.CoinBase.ORDINARY) {
                     continue;
                 }
@@ -713,30 +857,53 @@ public final class TransactionProcessorImpl implements TransactionProcessor {
     }
 
     public void processWaitingTransactions() {
+        // the signatures are verified in parallel before the write lock is taken, the results are cached
+        List<TransactionImpl> waitingTransactionList = new ArrayList<>();
+        BlockchainImpl.getInstance().readLock();
+        try {
+            waitingTransactions.forEach(unconfirmedTransaction -> waitingTransactionList.add(unconfirmedTransaction.getTransaction()));
+        } finally {
+            BlockchainImpl.getInstance().readUnlock();
+        }
+        if (waitingTransactionList.isEmpty()) {
+            return;
+        }
+        long verifyStart = System.nanoTime();
+        SignatureVerifier.verifyTransactions(waitingTransactionList);
+        admissionStats.verified(waitingTransactionList.size(), System.nanoTime() - verifyStart);
+
         BlockchainImpl.getInstance().writeLock();
         try {
             if (waitingTransactions.size() > 0) {
                 int currentTime = Conch.getEpochTime();
-                List<Transaction> addedUnconfirmedTransactions = new ArrayList<>();
-                Iterator<UnconfirmedTransaction> iterator = waitingTransactions.iterator();
-                while (iterator.hasNext()) {
-                    UnconfirmedTransaction unconfirmedTransaction = iterator.next();
+                List<Admission> admissions = new ArrayList<>();
+                Set<UnconfirmedTransaction> removedTransactions = Collections.newSetFromMap(new IdentityHashMap<>());
+                for (UnconfirmedTransaction unconfirmedTransaction : waitingTransactions) {
                     try {
                         unconfirmedTransaction.validate();
-                        processTransaction(unconfirmedTransaction);
-                        iterator.remove();
-                        addedUnconfirmedTransactions.add(unconfirmedTransaction.getTransaction());
-                    } catch (ConchException.ExistingTransactionException e) {
-                        iterator.remove();
-                    } catch (ConchException.NotCurrentlyValidException e) {
-                        if (unconfirmedTransaction.getExpiration() < currentTime
-                                || currentTime - Convert.toEpochTime(unconfirmedTransaction.getArrivalTimestamp()) > 3600) {
-                            iterator.remove();
-                        }
+                        checkTransaction(unconfirmedTransaction.getTransaction());
+                        admissions.add(new Admission(unconfirmedTransaction));
                     } catch (ConchException.ValidationException|RuntimeException e) {
-                        iterator.remove();
+                        if (isWaitingTransactionDropped(unconfirmedTransaction, e, currentTime)) {
+                            removedTransactions.add(unconfirmedTransaction);
+                        }
                     }
                 }
+                List<Transaction> addedUnconfirmedTransactions = new ArrayList<>();
+                for (int i = 0; i < admissions.size(); i += admissionBatchSize) {
+                    applyAdmissions(admissions.subList(i, Math.min(i + admissionBatchSize, admissions.size())));
+                }
+                for (Admission admission : admissions) {
+                    if (admission.error == null) {
+                        removedTransactions.add(admission.unconfirmedTransaction);
+                        addedUnconfirmedTransactions.add(admission.unconfirmedTransaction.getTransaction());
+                    } else if (isWaitingTransactionDropped(admission.unconfirmedTransaction, admission.error, currentTime)) {
+                        removedTransactions.add(admission.unconfirmedTransaction);
+                    }
+                }
+                if (removedTransactions.size() > 0) {
+                    waitingTransactions.removeIf(removedTransactions::contains);
+                }
                 if (addedUnconfirmedTransactions.size() > 0) {
                     transactionListeners.notify(addedUnconfirmedTransactions, Event.ADDED_UNCONFIRMED_TRANSACTIONS);
                 }
@@ -746,7 +913,23 @@ public final class TransactionProcessorImpl implements TransactionProcessor {
         }
     }
 
-    private void processPeerTransactions(JSONArray transactionsData) throws ConchException.NotValidException {
+    private static boolean isWaitingTransactionDropped(UnconfirmedTransaction unconfirmedTransaction, Exception e, int currentTime) {
+        if (e instanceof ConchException.ExistingTransactionException) {
+            return true;
+        }
+        if (e instanceof ConchException.NotCurrentlyValidException) {
+            return unconfirmedTransaction.getExpiration() < currentTime
+                    || currentTime - Convert.toEpochTime(unconfirmedTransaction.getArrivalTimestamp()) > 3600;
+        }
+        return true;
+    }
+
+    @Override
+    public void processPeerTransactions(List<TransactionImpl> transactions) throws ConchException.ValidationException {
+        processPeerTransactions(transactions, new ArrayList<>());
+    }
+
+    private void parseAndProcessPeerTransactions(JSONArray transactionsData) throws ConchException.NotValidException {
         if (Conch.getBlockchain().getHeight() <= Constants.LAST_KNOWN_BLOCK && !testUnconfirmedTransactions) {
             return;
         }
@@ -754,15 +937,30 @@ public final class TransactionProcessorImpl implements TransactionProcessor {
         if (transactionsData == null || transactionsData.isEmpty()) {
             return;
         }
-        
-        long arrivalTimestamp = System.currentTimeMillis();
-        List<TransactionImpl> receivedTransactions = new ArrayList<>();
-        List<TransactionImpl> sendToPeersTransactions = new ArrayList<>();
-        List<TransactionImpl> addedUnconfirmedTransactions = new ArrayList<>();
+
+        List<TransactionImpl> transactions = new ArrayList<>();
         List<Exception> exceptions = new ArrayList<>();
         for (Object transactionData : transactionsData) {
             try {
-                TransactionImpl transaction = TransactionImpl.parseTransaction((JSONObject) transactionData);
+                transactions.add(TransactionImpl.parseTransaction((JSONObject) transactionData));
+            } catch (ConchException.ValidationException|RuntimeException e) {
+                Logger.logDebugMessage(String.format("Invalid transaction from peer: %s", ((JSONObject) transactionData).toJSONString()), e);
+                exceptions.add(e);
+            }
+        }
+        processPeerTransactions(transactions, exceptions);
+    }
+
+    private void processPeerTransactions(List<TransactionImpl> transactions, List<Exception> exceptions) throws ConchException.NotValidException {
+        if (Conch.getBlockchain().getHeight() <= Constants.LAST_KNOWN_BLOCK && !testUnconfirmedTransactions) {
+            return;
+        }
+
+        long arrivalTimestamp = System.currentTimeMillis();
+        List<TransactionImpl> receivedTransactions = new ArrayList<>();
+        List<Admission> admissions = new ArrayList<>();
+        for (TransactionImpl transaction : transactions) {
+            try {
                 receivedTransactions.add(transaction);
                 
                 if (transaction.getAttachment() instanceof Attachment.CoinBase) {
@@ -775,8 +973,24 @@ public final class TransactionProcessorImpl implements TransactionProcessor {
                     continue;
                 }
                 transaction.validate();
-                UnconfirmedTransaction unconfirmedTransaction = new UnconfirmedTransaction(transaction, arrivalTimestamp);
-                processTransaction(unconfirmedTransaction);
+                checkTransaction(transaction);
+                admissions.add(new Admission(new UnconfirmedTransaction(transaction, arrivalTimestamp)));
+            } catch (ConchException.NotCurrentlyValidException ignore) {
+            } catch (ConchException.ValidationException|RuntimeException e) {
+                Logger.logDebugMessage(String.format("Invalid transaction from peer: %s", transaction.getJSONObject().toJSONString()), e);
+                exceptions.add(e);
+            }
+        }
+
+        verifySignatures(admissions);
+        admit(admissions);
+
+        List<TransactionImpl> sendToPeersTransactions = new ArrayList<>();
+        List<TransactionImpl> addedUnconfirmedTransactions = new ArrayList<>();
+        for (Admission admission : admissions) {
+            TransactionImpl transaction = admission.unconfirmedTransaction.getTransaction();
+            try {
+                admission.throwError();
                 if (broadcastedTransactions.contains(transaction)) {
                     Logger.logDebugMessage("Received back transaction " + transaction.getStringId()
                             + " that we broadcasted, will not forward again to peers");
@@ -796,7 +1010,7 @@ public final class TransactionProcessorImpl implements TransactionProcessor {
                 }
             } catch (ConchException.NotCurrentlyValidException ignore) {
             } catch (ConchException.ValidationException|RuntimeException e) {
-                Logger.logDebugMessage(String.format("Invalid transaction from peer: %s", ((JSONObject) transactionData).toJSONString()), e);
+                Logger.logDebugMessage(String.format("Invalid transaction from peer: %s", transaction.getJSONObject().toJSONString()), e);
                 exceptions.add(e);
             }
         }
@@ -815,8 +1029,41 @@ public final class TransactionProcessorImpl implements TransactionProcessor {
         }
     }
 
-    private void processTransaction(UnconfirmedTransaction unconfirmedTransaction) throws ConchException.ValidationException {
-        TransactionImpl transaction = unconfirmedTransaction.getTransaction();
+    /**
+     * Transaction in the admission pipeline.
+     * <p>
+     * The stateless checks (timestamp, version, signature) are done by the caller without the blockchain lock.
+     * The accepted transactions are queued and applied in batches, each batch under a single write lock
+     * and database transaction.
+     */
+    private static final class Admission {
+
+        private final UnconfirmedTransaction unconfirmedTransaction;
+        private final long queueTime = System.nanoTime();
+        private volatile Exception error;
+
+        private Admission(UnconfirmedTransaction unconfirmedTransaction) {
+            this.unconfirmedTransaction = unconfirmedTransaction;
+        }
+
+        private void throwError() throws ConchException.ValidationException {
+            if (error instanceof ConchException.ValidationException) {
+                throw (ConchException.ValidationException) error;
+            }
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+        }
+    }
+
+    private final BlockingQueue<Admission> admissionQueue = new LinkedBlockingQueue<>();
+    private final Object admissionMonitor = new Object();
+    private final AdmissionStats admissionStats = new AdmissionStats();
+
+    /**
+     * Stateless checks which don't need the blockchain lock
+     */
+    private void checkTransaction(TransactionImpl transaction) throws ConchException.ValidationException {
         int curTime = Conch.getEpochTime();
         if (transaction.getTimestamp() > curTime + Constants.MAX_TIMEDRIFT || transaction.getExpiration() < curTime) {
             throw new ConchException.NotCurrentlyValidException("Invalid transaction timestamp");
@@ -828,46 +1075,228 @@ public final class TransactionProcessorImpl implements TransactionProcessor {
         if (transaction.getId() == 0L) {
             throw new ConchException.NotValidException("Invalid transaction id 0");
         }
+    }
 
-        BlockchainImpl.getInstance().writeLock();
-        try {
-            try {
-                Db.db.beginTransaction();
-                if (Conch.getBlockchain().getHeight() < Constants.LAST_KNOWN_BLOCK && !testUnconfirmedTransactions) {
-                    throw new ConchException.NotCurrentlyValidException(String.format("Blockchain not ready to accept transactions caused by current height %d is less than %d", Conch.getBlockchain().getHeight() , Constants.LAST_KNOWN_BLOCK));
-                }
-
-                if (getUnconfirmedTransaction(transaction.getDbKey()) != null || TransactionDb.hasTransaction(transaction.getId())) {
-                    throw new ConchException.ExistingTransactionException("Transaction already processed");
-                }
-
-                if (! transaction.verifySignature()) {
+    /**
+     * Verify the signatures of the admissions in parallel, the admissions with an invalid signature get their error set
+     */
+    private void verifySignatures(List<Admission> admissions) {
+        if (admissions.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<TransactionImpl> transactions = new ArrayList<>(admissions.size());
+        admissions.forEach(admission -> transactions.add(admission.unconfirmedTransaction.getTransaction()));
+        if (!SignatureVerifier.verifyTransactions(transactions)) {
+            for (Admission admission : admissions) {
+                TransactionImpl transaction = admission.unconfirmedTransaction.getTransaction();
+                if (!transaction.checkSignature()) {
                     if (Account.getAccount(transaction.getSenderId()) != null) {
-                        throw new ConchException.NotValidException("Transaction signature verification failed");
+                        admission.error = new ConchException.NotValidException("Transaction signature verification failed");
                     } else {
-                        throw new ConchException.NotCurrentlyValidException("Unknown transaction sender");
+                        admission.error = new ConchException.NotCurrentlyValidException("Unknown transaction sender");
                     }
                 }
+            }
+        }
+        admissionStats.verified(admissions.size(), System.nanoTime() - start);
+    }
 
-                if (! transaction.applyUnconfirmed()) {
-                    throw new ConchException.InsufficientBalanceException("Insufficient balance");
-                }
+    /**
+     * Queue the admissions and apply the queue.  The caller must not hold the blockchain lock.
+     * <p>
+     * The queue is applied by a single thread at a time, so the admissions of concurrent callers
+     * are applied together.  All admissions of the caller are processed when this method returns.
+     */
+    private void admit(List<Admission> admissions) {
+        int queued = 0;
+        for (Admission admission : admissions) {
+            if (admission.error == null) {
+                admissionQueue.add(admission);
+                queued++;
+            }
+        }
+        if (queued == 0) {
+            return;
+        }
+        admissionStats.queued(admissionQueue.size());
+        synchronized (admissionMonitor) {
+            List<Admission> batch = new ArrayList<>(admissionBatchSize);
+            while (admissionQueue.drainTo(batch, admissionBatchSize) > 0) {
+                applyAdmissions(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Apply a batch of admissions under the write lock and a single database transaction
+     */
+    private void applyAdmissions(List<Admission> batch) {
+        long start = System.nanoTime();
+        BlockchainImpl.getInstance().writeLock();
+        try {
+            long lockTime = System.nanoTime();
+            applyBatch(batch);
+            admissionStats.applied(batch, start, lockTime, System.nanoTime());
+        } finally {
+            BlockchainImpl.getInstance().writeUnlock();
+        }
+    }
 
-                if (transaction.isUnconfirmedDuplicate(unconfirmedDuplicates)) {
-                    throw new ConchException.NotCurrentlyValidException("Duplicate unconfirmed transaction");
+    private void applyBatch(List<Admission> batch) {
+        RuntimeException batchError = null;
+        try {
+            Db.db.beginTransaction();
+            // a rollback reloads the mempool and the duplicates
+            Db.db.registerCallback(mempoolCallback);
+            for (Admission admission : batch) {
+                try {
+                    applyUnconfirmedTransaction(admission.unconfirmedTransaction);
+                } catch (ConchException.ValidationException e) {
+                    admission.error = e;
+                }
+            }
+            Db.db.commitTransaction();
+        } catch (RuntimeException e) {
+            Db.db.rollbackTransaction();
+            batchError = e;
+        } finally {
+            Db.db.endTransaction();
+        }
+        if (batchError != null) {
+            if (batch.size() == 1) {
+                batch.get(0).error = batchError;
+            } else {
+                Logger.logDebugMessage("Failed to apply " + batch.size() + " unconfirmed transactions as a batch, will apply them one by one", batchError);
+                for (Admission admission : batch) {
+                    admission.error = null;
+                    applyBatch(Collections.singletonList(admission));
                 }
+            }
+        }
+    }
 
-                unconfirmedTransactionTable.insert(unconfirmedTransaction);
+    /**
+     * Apply the unconfirmed transaction, the caller must hold the write lock and be in a database transaction
+     */
+    private void applyUnconfirmedTransaction(UnconfirmedTransaction unconfirmedTransaction) throws ConchException.ValidationException {
+        TransactionImpl transaction = unconfirmedTransaction.getTransaction();
+        if (Conch.getBlockchain().getHeight() < Constants.LAST_KNOWN_BLOCK && !testUnconfirmedTransactions) {
+            throw new ConchException.NotCurrentlyValidException(String.format("Blockchain not ready to accept transactions caused by current height %d is less than %d", Conch.getBlockchain().getHeight() , Constants.LAST_KNOWN_BLOCK));
+        }
 
-                Db.db.commitTransaction();
-            } catch (Exception e) {
-                Db.db.rollbackTransaction();
-                throw e;
-            } finally {
-                Db.db.endTransaction();
+        if (getUnconfirmedTransaction(transaction.getDbKey()) != null || TransactionDb.hasTransaction(transaction.getId())) {
+            throw new ConchException.ExistingTransactionException("Transaction already processed");
+        }
+
+        if (! transaction.verifySignature()) {
+            if (Account.getAccount(transaction.getSenderId()) != null) {
+                throw new ConchException.NotValidException("Transaction signature verification failed");
+            } else {
+                throw new ConchException.NotCurrentlyValidException("Unknown transaction sender");
             }
-        } finally {
-            BlockchainImpl.getInstance().writeUnlock();
+        }
+
+        if (! transaction.applyUnconfirmed()) {
+            throw new ConchException.InsufficientBalanceException("Insufficient balance");
+        }
+
+        if (transaction.isUnconfirmedDuplicate(unconfirmedDuplicates)) {
+            // the other transactions of the batch are kept, so undo this one only
+            transaction.undoUnconfirmed();
+            throw new ConchException.NotCurrentlyValidException("Duplicate unconfirmed transaction");
+        }
+
+        unconfirmedTransactionTable.insert(unconfirmedTransaction);
+    }
+
+    private void processTransaction(UnconfirmedTransaction unconfirmedTransaction) throws ConchException.ValidationException {
+        checkTransaction(unconfirmedTransaction.getTransaction());
+        Admission admission = new Admission(unconfirmedTransaction);
+        applyAdmissions(Collections.singletonList(admission));
+        admission.throwError();
+    }
+
+    /**
+     * Return the queue depth and latency of the admission stages
+     *
+     * @return admission statistics
+     */
+    public JSONObject getAdmissionStats() {
+        JSONObject json = admissionStats.getJSONObject();
+        json.put("queueDepth", admissionQueue.size());
+        return json;
+    }
+
+    /**
+     * Queue depth and latency of the admission stages: signature verification, admission queue and batched apply
+     */
+    private static final class AdmissionStats {
+
+        private static final long LOG_INTERVAL = 60 * 1000;
+
+        private long verifiedCount, verifyTime;
+        private long queuedCount, queueTime;
+        private int maxQueueDepth;
+        private long batchCount, appliedCount, acceptedCount;
+        private long lockWaitTime, applyTime;
+        private long statsTime = System.currentTimeMillis();
+
+        synchronized void verified(int count, long time) {
+            verifiedCount += count;
+            verifyTime += time;
+        }
+
+        synchronized void queued(int queueDepth) {
+            maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+        }
+
+        void applied(List<Admission> batch, long start, long lockTime, long end) {
+            String stats = null;
+            synchronized (this) {
+                batchCount++;
+                for (Admission admission : batch) {
+                    queuedCount++;
+                    queueTime += start - admission.queueTime;
+                    if (admission.error == null) {
+                        acceptedCount++;
+                    }
+                }
+                appliedCount += batch.size();
+                lockWaitTime += lockTime - start;
+                applyTime += end - lockTime;
+                long now = System.currentTimeMillis();
+                if (now - statsTime >= LOG_INTERVAL) {
+                    stats = getJSONObject().toJSONString();
+                    verifiedCount = verifyTime = queuedCount = queueTime = 0;
+                    maxQueueDepth = 0;
+                    batchCount = appliedCount = acceptedCount = lockWaitTime = applyTime = 0;
+                    statsTime = now;
+                }
+            }
+            if (stats != null) {
+                Logger.logDebugMessage("Unconfirmed transaction admission: " + stats);
+            }
+        }
+
+        synchronized JSONObject getJSONObject() {
+            JSONObject json = new JSONObject();
+            json.put("verified", verifiedCount);
+            json.put("verifyTimeMillis", average(verifyTime, verifiedCount));
+            json.put("queued", queuedCount);
+            json.put("queueTimeMillis", average(queueTime, queuedCount));
+            json.put("maxQueueDepth", maxQueueDepth);
+            json.put("batches", batchCount);
+            json.put("applied", appliedCount);
+            json.put("accepted", acceptedCount);
+            json.put("lockWaitTimeMillis", average(lockWaitTime, batchCount));
+            json.put("applyTimeMillis", average(applyTime, batchCount));
+            return json;
+        }
+
+        private static double average(long nanos, long count) {
+            return count == 0 ? 0 : (double) nanos / count / 1000000;
         }
     }
 
@@ -900,28 +1329,7 @@ public final class TransactionProcessorImpl implements TransactionProcessor {
       
         try {
             Conch.getBlockchain().readLock();
-            //
-            // Initialize the unconfirmed transaction cache if it hasn't been done yet
-            //
-            synchronized(transactionCache) {
-                if (!cacheInitialized) {
-                    DbIterator<UnconfirmedTransaction> it = null;
-                    try{
-                        it = getAllUnconfirmedTransactions();
-                        while (it.hasNext()) {
-                            UnconfirmedTransaction unconfirmedTransaction = it.next();
-                            transactionCache.put(unconfirmedTransaction.getDbKey(), unconfirmedTransaction);
-                        }
-                        cacheInitialized = true;
-                    }finally {
-                        DbUtils.close(it);
-                    }
-                }
-            }
-            //
-            // Build the result set
-            //
-            transactionCache.values().forEach(transaction -> {
+            getMempool().getSortedTransactions().forEach(transaction -> {
                 if (Collections.binarySearch(exclude, transaction.getStringId()) < 0) {
                     transactionSet.add(transaction);
                 }
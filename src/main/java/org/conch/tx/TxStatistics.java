@@ -0,0 +1,320 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.tx;
+
+import org.conch.Conch;
+import org.conch.chain.Block;
+import org.conch.chain.BlockchainProcessor;
+import org.conch.db.Db;
+import org.conch.db.DerivedDbTable;
+import org.conch.db.TransactionalDb;
+import org.conch.util.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transaction statistics of the explorer, maintained with the blocks.
+ * <p>
+ * The tx_statistics table has one row per block with the running totals of the transfers, the
+ * storage uploads, the pool transactions and the coinbase transactions up to the block.  It is a
+ * derived table: the rows are written when a block is applied and they are rolled back with the
+ * blocks.  The totals since a time are the difference of the last row and the last row of a block
+ * before that time.
+ * <p>
+ * The rows of the last day are also kept in memory, so the statistics are read without a query.
+ * The memory copy is dropped when the database transaction is rolled back and loaded again from
+ * the table on the next read.
+ */
+public final class TxStatistics {
+
+    private static final int DAY = 24 * 60 * 60;
+
+    /**
+     * Running totals up to a block
+     */
+    public static final class Totals {
+
+        private final int height;
+        private final int timestamp;
+        private final long transferCount;
+        private final long transferAmountNQT;
+        private final long storageCount;
+        private final long storageDataLength;
+        private final long poolCount;
+        private final long coinBaseCount;
+
+        private Totals(int height, int timestamp, long transferCount, long transferAmountNQT, long storageCount,
+                       long storageDataLength, long poolCount, long coinBaseCount) {
+            this.height = height;
+            this.timestamp = timestamp;
+            this.transferCount = transferCount;
+            this.transferAmountNQT = transferAmountNQT;
+            this.storageCount = storageCount;
+            this.storageDataLength = storageDataLength;
+            this.poolCount = poolCount;
+            this.coinBaseCount = coinBaseCount;
+        }
+
+        private Totals(ResultSet rs) throws SQLException {
+            this.height = rs.getInt("height");
+            this.timestamp = rs.getInt("timestamp");
+            this.transferCount = rs.getLong("transfer_count");
+            this.transferAmountNQT = rs.getLong("transfer_amount");
+            this.storageCount = rs.getLong("storage_count");
+            this.storageDataLength = rs.getLong("storage_length");
+            this.poolCount = rs.getLong("pool_count");
+            this.coinBaseCount = rs.getLong("coinbase_count");
+        }
+
+        private Totals subtract(Totals totals) {
+            return new Totals(height, timestamp, transferCount - totals.transferCount,
+                    transferAmountNQT - totals.transferAmountNQT, storageCount - totals.storageCount,
+                    storageDataLength - totals.storageDataLength, poolCount - totals.poolCount,
+                    coinBaseCount - totals.coinBaseCount);
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public long getTransferCount() {
+            return transferCount;
+        }
+
+        public long getTransferAmountNQT() {
+            return transferAmountNQT;
+        }
+
+        public long getStorageCount() {
+            return storageCount;
+        }
+
+        public long getStorageDataLength() {
+            return storageDataLength;
+        }
+
+        public long getPoolCount() {
+            return poolCount;
+        }
+
+        public long getCoinBaseCount() {
+            return coinBaseCount;
+        }
+    }
+
+    private static final Totals NONE = new Totals(-1, 0, 0, 0, 0, 0, 0, 0);
+
+    private static final DerivedDbTable statisticsTable = new DerivedDbTable("tx_statistics") {
+
+        @Override
+        public void rollback(int height) {
+            super.rollback(height);
+            synchronized (TxStatistics.class) {
+                List<Totals> rows = lastDay;
+                if (rows != null) {
+                    while (!rows.isEmpty() && rows.get(rows.size() - 1).height > height) {
+                        rows.remove(rows.size() - 1);
+                    }
+                    registerCallback();
+                }
+            }
+        }
+
+        @Override
+        public void truncate() {
+            super.truncate();
+            synchronized (TxStatistics.class) {
+                lastDay = null;
+            }
+        }
+
+        @Override
+        public void trim(int height) {
+            // the totals of the last day are read by timestamp, the rows of the day before are kept
+            try (Connection con = db.getConnection();
+                 PreparedStatement pstmt = con.prepareStatement("DELETE FROM tx_statistics WHERE height < ? "
+                         + "AND timestamp < (SELECT timestamp FROM tx_statistics WHERE height = ?) - ?")) {
+                pstmt.setInt(1, height);
+                pstmt.setInt(2, height);
+                pstmt.setInt(3, 2 * DAY);
+                pstmt.executeUpdate();
+            } catch (SQLException e) {
+                throw new RuntimeException(e.toString(), e);
+            }
+        }
+
+    };
+
+    /**
+     * Rows of the last day by height, and the last row before the day
+     */
+    private static List<Totals> lastDay;
+
+    private static final TransactionalDb.TransactionCallback rowsCallback = new TransactionalDb.TransactionCallback() {
+        @Override
+        public void commit() {
+        }
+
+        @Override
+        public void rollback() {
+            synchronized (TxStatistics.class) {
+                lastDay = null;
+            }
+        }
+    };
+
+    static {
+        Conch.getBlockchainProcessor().addListener(TxStatistics::addBlock, BlockchainProcessor.Event.AFTER_BLOCK_APPLY);
+    }
+
+    public static void init() {}
+
+    private TxStatistics() {}
+
+    /**
+     * Return the totals up to the last block
+     */
+    public static synchronized Totals getTotals() {
+        List<Totals> rows = getRows();
+        return rows.isEmpty() ? NONE : rows.get(rows.size() - 1);
+    }
+
+    /**
+     * Return the totals of the blocks of the last day
+     */
+    public static synchronized Totals getLastDayTotals() {
+        List<Totals> rows = getRows();
+        if (rows.isEmpty()) {
+            return NONE;
+        }
+        int from = Conch.getEpochTime() - DAY;
+        int low = 0;
+        int high = rows.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (rows.get(mid).timestamp <= from) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return rows.get(rows.size() - 1).subtract(low == 0 ? NONE : rows.get(low - 1));
+    }
+
+    private static synchronized void addBlock(Block block) {
+        long transferCount = 0;
+        long transferAmountNQT = 0;
+        long storageCount = 0;
+        long storageDataLength = 0;
+        long poolCount = 0;
+        long coinBaseCount = 0;
+        for (Transaction transaction : block.getTransactions()) {
+            TransactionType type = transaction.getType();
+            if (type.getType() == TransactionType.TYPE_SHARDER_POOL) {
+                poolCount++;
+            } else if (type.getType() == TransactionType.TYPE_COIN_BASE) {
+                coinBaseCount++;
+            } else if (transaction.getVersion() >= 3 && block.getHeight() > 0) {
+                if (type == TransactionType.Payment.ORDINARY) {
+                    transferCount++;
+                    transferAmountNQT += transaction.getAmountNQT();
+                } else if (type == TransactionType.Data.TAGGED_DATA_UPLOAD) {
+                    storageCount++;
+                    byte[] data = ((Attachment.TaggedDataUpload) transaction.getAttachment()).getData();
+                    storageDataLength += data == null ? 0 : data.length;
+                }
+            }
+        }
+        List<Totals> rows = getRows();
+        Totals previous = rows.isEmpty() ? NONE : rows.get(rows.size() - 1);
+        Totals totals = new Totals(block.getHeight(), block.getTimestamp(),
+                previous.transferCount + transferCount, previous.transferAmountNQT + transferAmountNQT,
+                previous.storageCount + storageCount, previous.storageDataLength + storageDataLength,
+                previous.poolCount + poolCount, previous.coinBaseCount + coinBaseCount);
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("INSERT INTO tx_statistics (height, timestamp, "
+                     + "transfer_count, transfer_amount, storage_count, storage_length, pool_count, coinbase_count) "
+                     + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)")) {
+            int i = 0;
+            pstmt.setInt(++i, totals.height);
+            pstmt.setInt(++i, totals.timestamp);
+            pstmt.setLong(++i, totals.transferCount);
+            pstmt.setLong(++i, totals.transferAmountNQT);
+            pstmt.setLong(++i, totals.storageCount);
+            pstmt.setLong(++i, totals.storageDataLength);
+            pstmt.setLong(++i, totals.poolCount);
+            pstmt.setLong(++i, totals.coinBaseCount);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        rows.add(totals);
+        int from = totals.timestamp - DAY;
+        int expired = 0;
+        while (expired + 1 < rows.size() && rows.get(expired + 1).timestamp <= from) {
+            expired++;
+        }
+        if (expired > 0) {
+            rows.subList(0, expired).clear();
+        }
+        registerCallback();
+    }
+
+    private static void registerCallback() {
+        if (Db.db.isInTransaction()) {
+            Db.db.registerCallback(rowsCallback);
+        }
+    }
+
+    private static List<Totals> getRows() {
+        if (lastDay == null) {
+            lastDay = loadRows();
+            registerCallback();
+        }
+        return lastDay;
+    }
+
+    private static List<Totals> loadRows() {
+        List<Totals> rows = new ArrayList<>();
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM tx_statistics WHERE height >= "
+                     + "(SELECT IFNULL(MAX(height), 0) FROM tx_statistics WHERE timestamp <= "
+                     + "(SELECT IFNULL(MAX(timestamp), 0) FROM tx_statistics) - ?) ORDER BY height")) {
+            pstmt.setInt(1, DAY);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(new Totals(rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        Logger.logDebugMessage("Loaded " + rows.size() + " transaction statistics rows");
+        return rows;
+    }
+
+}
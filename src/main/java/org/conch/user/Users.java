@@ -31,7 +31,9 @@ import org.conch.peer.Peer;
 import org.conch.peer.Peers;
 import org.conch.tx.Transaction;
 import org.conch.tx.TransactionProcessor;
+import org.conch.util.AsyncSubscriber;
 import org.conch.util.Convert;
+import org.conch.util.Listener;
 import org.conch.util.Logger;
 import org.conch.util.ThreadPool;
 import org.eclipse.jetty.server.*;
@@ -187,13 +189,22 @@ public final class Users {
         return true;
     }
 
+    /**
+     * The user interface updates are sent by the listener service, not by the thread firing the event
+     */
+    private static final AsyncSubscriber uiSubscriber = new AsyncSubscriber("users", AsyncSubscriber.Overflow.DROP_OLDEST);
+
+    private static <T> Listener<T> async(Listener<T> listener) {
+        return uiSubscriber.listener(listener);
+    }
+
     static void enableUIServerListener() {
         if (userServer == null) {
             Logger.logMessage("User server is null, no needs to add listners");
         }
 
         Account.addListener(
-                account -> {
+                async(account -> {
                     JSONObject response = new JSONObject();
                     response.put("response", "setBalance");
                     response.put("balanceNQT", account.getUnconfirmedBalanceNQT());
@@ -207,11 +218,11 @@ public final class Users {
                                             user.send(response);
                                         }
                                     });
-                },
+                }),
                 Account.Event.UNCONFIRMED_BALANCE);
 
         Peers.addListener(
-                peer -> {
+                async(peer -> {
                     JSONObject response = new JSONObject();
                     JSONArray removedActivePeers = new JSONArray();
                     JSONObject removedActivePeer = new JSONObject();
@@ -233,11 +244,11 @@ public final class Users {
                     addedBlacklistedPeers.add(addedBlacklistedPeer);
                     response.put("addedBlacklistedPeers", addedBlacklistedPeers);
                     Users.sendNewDataToAll(response);
-                },
+                }),
                 Peers.Event.BLACKLIST);
 
         Peers.addListener(
-                peer -> {
+                async(peer -> {
                     JSONObject response = new JSONObject();
                     JSONArray removedActivePeers = new JSONArray();
                     JSONObject removedActivePeer = new JSONObject();
@@ -254,11 +265,11 @@ public final class Users {
                     addedKnownPeers.add(addedKnownPeer);
                     response.put("addedKnownPeers", addedKnownPeers);
                     Users.sendNewDataToAll(response);
-                },
+                }),
                 Peers.Event.DEACTIVATE);
 
         Peers.addListener(
-                peer -> {
+                async(peer -> {
                     JSONObject response = new JSONObject();
                     JSONArray removedBlacklistedPeers = new JSONArray();
                     JSONObject removedBlacklistedPeer = new JSONObject();
@@ -275,11 +286,11 @@ public final class Users {
                     addedKnownPeers.add(addedKnownPeer);
                     response.put("addedKnownPeers", addedKnownPeers);
                     Users.sendNewDataToAll(response);
-                },
+                }),
                 Peers.Event.UNBLACKLIST);
 
         Peers.addListener(
-                peer -> {
+                async(peer -> {
                     JSONObject response = new JSONObject();
                     JSONArray removedKnownPeers = new JSONArray();
                     JSONObject removedKnownPeer = new JSONObject();
@@ -287,11 +298,11 @@ public final class Users {
                     removedKnownPeers.add(removedKnownPeer);
                     response.put("removedKnownPeers", removedKnownPeers);
                     Users.sendNewDataToAll(response);
-                },
+                }),
                 Peers.Event.REMOVE);
 
         Peers.addListener(
-                peer -> {
+                async(peer -> {
                     JSONObject response = new JSONObject();
                     JSONArray changedActivePeers = new JSONArray();
                     JSONObject changedActivePeer = new JSONObject();
@@ -300,11 +311,11 @@ public final class Users {
                     changedActivePeers.add(changedActivePeer);
                     response.put("changedActivePeers", changedActivePeers);
                     Users.sendNewDataToAll(response);
-                },
+                }),
                 Peers.Event.DOWNLOADED_VOLUME);
 
         Peers.addListener(
-                peer -> {
+                async(peer -> {
                     JSONObject response = new JSONObject();
                     JSONArray changedActivePeers = new JSONArray();
                     JSONObject changedActivePeer = new JSONObject();
@@ -313,11 +324,11 @@ public final class Users {
                     changedActivePeers.add(changedActivePeer);
                     response.put("changedActivePeers", changedActivePeers);
                     Users.sendNewDataToAll(response);
-                },
+                }),
                 Peers.Event.UPLOADED_VOLUME);
 
         Peers.addListener(
-                peer -> {
+                async(peer -> {
                     JSONObject response = new JSONObject();
                     JSONArray changedActivePeers = new JSONArray();
                     JSONObject changedActivePeer = new JSONObject();
@@ -326,11 +337,11 @@ public final class Users {
                     changedActivePeers.add(changedActivePeer);
                     response.put("changedActivePeers", changedActivePeers);
                     Users.sendNewDataToAll(response);
-                },
+                }),
                 Peers.Event.WEIGHT);
 
         Peers.addListener(
-                peer -> {
+                async(peer -> {
                     JSONObject response = new JSONObject();
                     JSONArray removedKnownPeers = new JSONArray();
                     JSONObject removedKnownPeer = new JSONObject();
@@ -353,11 +364,11 @@ public final class Users {
                     addedActivePeers.add(addedActivePeer);
                     response.put("addedActivePeers", addedActivePeers);
                     Users.sendNewDataToAll(response);
-                },
+                }),
                 Peers.Event.ADDED_ACTIVE_PEER);
 
         Peers.addListener(
-                peer -> {
+                async(peer -> {
                     JSONObject response = new JSONObject();
                     JSONArray changedActivePeers = new JSONArray();
                     JSONObject changedActivePeer = new JSONObject();
@@ -369,11 +380,11 @@ public final class Users {
                     changedActivePeers.add(changedActivePeer);
                     response.put("changedActivePeers", changedActivePeers);
                     Users.sendNewDataToAll(response);
-                },
+                }),
                 Peers.Event.CHANGED_ACTIVE_PEER);
 
         Peers.addListener(
-                peer -> {
+                async(peer -> {
                     JSONObject response = new JSONObject();
                     JSONArray addedKnownPeers = new JSONArray();
                     JSONObject addedKnownPeer = new JSONObject();
@@ -385,12 +396,12 @@ public final class Users {
                     addedKnownPeers.add(addedKnownPeer);
                     response.put("addedKnownPeers", addedKnownPeers);
                     Users.sendNewDataToAll(response);
-                },
+                }),
                 Peers.Event.NEW_PEER);
 
         Conch.getTransactionProcessor()
                 .addListener(
-                        transactions -> {
+                        async(transactions -> {
                             JSONObject response = new JSONObject();
                             JSONArray removedUnconfirmedTransactions = new JSONArray();
                             for (Transaction transaction : transactions) {
@@ -400,12 +411,12 @@ public final class Users {
                             }
                             response.put("removedUnconfirmedTransactions", removedUnconfirmedTransactions);
                             Users.sendNewDataToAll(response);
-                        },
+                        }),
                         TransactionProcessor.Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
 
         Conch.getTransactionProcessor()
                 .addListener(
-                        transactions -> {
+                        async(transactions -> {
                             JSONObject response = new JSONObject();
                             JSONArray addedUnconfirmedTransactions = new JSONArray();
                             for (Transaction transaction : transactions) {
@@ -424,12 +435,12 @@ public final class Users {
                             }
                             response.put("addedUnconfirmedTransactions", addedUnconfirmedTransactions);
                             Users.sendNewDataToAll(response);
-                        },
+                        }),
                         TransactionProcessor.Event.ADDED_UNCONFIRMED_TRANSACTIONS);
 
         Conch.getTransactionProcessor()
                 .addListener(
-                        transactions -> {
+                        async(transactions -> {
                             JSONObject response = new JSONObject();
                             JSONArray addedConfirmedTransactions = new JSONArray();
                             for (Transaction transaction : transactions) {
@@ -448,12 +459,12 @@ public final class Users {
                             }
                             response.put("addedConfirmedTransactions", addedConfirmedTransactions);
                             Users.sendNewDataToAll(response);
-                        },
+                        }),
                         TransactionProcessor.Event.ADDED_CONFIRMED_TRANSACTIONS);
 
         Conch.getBlockchainProcessor()
                 .addListener(
-                        block -> {
+                        async(block -> {
                             JSONObject response = new JSONObject();
                             JSONArray addedOrphanedBlocks = new JSONArray();
                             JSONObject addedOrphanedBlock = new JSONObject();
@@ -475,12 +486,12 @@ public final class Users {
                             addedOrphanedBlocks.add(addedOrphanedBlock);
                             response.put("addedOrphanedBlocks", addedOrphanedBlocks);
                             Users.sendNewDataToAll(response);
-                        },
+                        }),
                         BlockchainProcessor.Event.BLOCK_POPPED);
 
         Conch.getBlockchainProcessor()
                 .addListener(
-                        block -> {
+                        async(block -> {
                             JSONObject response = new JSONObject();
                             JSONArray addedRecentBlocks = new JSONArray();
                             JSONObject addedRecentBlock = new JSONObject();
@@ -502,11 +513,11 @@ public final class Users {
                             addedRecentBlocks.add(addedRecentBlock);
                             response.put("addedRecentBlocks", addedRecentBlocks);
                             Users.sendNewDataToAll(response);
-                        },
+                        }),
                         BlockchainProcessor.Event.BLOCK_PUSHED);
 
         Generator.addListener(
-                generator -> {
+                async(generator -> {
                     JSONObject response = new JSONObject();
                     response.put("response", "setBlockGenerationDeadline");
                     response.put("deadline", generator.getDeadline());
@@ -518,7 +529,7 @@ public final class Users {
                                             user.send(response);
                                         }
                                     });
-                },
+                }),
                 Generator.Event.GENERATION_DEADLINE);
     }
 
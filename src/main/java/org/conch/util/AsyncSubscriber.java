@@ -0,0 +1,221 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+
+package org.conch.util;
+
+import org.conch.Conch;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Subscriber whose listeners are notified asynchronously.
+ * <p>
+ * A listener is notified on the thread which fires the event, some events are fired inside the
+ * block database transaction or while the blockchain lock is held.  A subscriber which only reports
+ * the events (user interface, event notifications) declares it can run later by registering its
+ * listeners wrapped by {@link #listener(Listener)}: the events of all the listeners of the subscriber
+ * are queued in the order they are fired and the listeners are called by a task of the listener
+ * service, one task at a time for each subscriber.  The queue is bounded, the overflow policy
+ * decides whether an event is dropped or the notifying thread waits.
+ * <p>
+ * A listener which reads or changes the state of the event height, or which must see the rollback
+ * of a database transaction, must stay synchronous.
+ * <p>
+ * The queue lag and the dropped events are counted by subscriber name and returned by the
+ * getMetrics API.
+ */
+public final class AsyncSubscriber {
+
+    /**
+     * Action when the queue is full
+     */
+    public enum Overflow {
+        /** Drop the oldest queued event */
+        DROP_OLDEST,
+        /** Drop the new event */
+        DROP_NEWEST,
+        /** Wait until the listener catches up, the notifying thread must not hold a lock the listener needs */
+        BLOCK
+    }
+
+    private static final int defaultQueueSize = Conch.getIntProperty("sharder.listenerQueueSize");
+
+    private static final ExecutorService listenerService = new QueuedThreadPool(1, 4);
+
+    /**
+     * Statistics of the listeners of a subscriber
+     */
+    private static final class Stats {
+        private final LatencyHistogram lag = new LatencyHistogram();
+        private final LongAdder queued = new LongAdder();
+        private final LongAdder delivered = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder blockedNanos = new LongAdder();
+    }
+
+    private static final ConcurrentMap<String, Stats> subscriberStats = new ConcurrentHashMap<>();
+
+    /**
+     * Queued event
+     */
+    private static final class QueuedEvent {
+        private final Runnable notification;
+        private final long time = System.nanoTime();
+
+        private QueuedEvent(Runnable notification) {
+            this.notification = notification;
+        }
+    }
+
+    private final int queueSize;
+    private final Overflow overflow;
+    private final Stats stats;
+    private final ArrayDeque<QueuedEvent> queue = new ArrayDeque<>();
+    private boolean draining;
+
+    /**
+     * Create a subscriber with the default queue size
+     *
+     * @param name Subscriber name used in the statistics
+     * @param overflow Action when the queue is full
+     */
+    public AsyncSubscriber(String name, Overflow overflow) {
+        this(name, defaultQueueSize, overflow);
+    }
+
+    /**
+     * Create a subscriber
+     *
+     * @param name Subscriber name used in the statistics
+     * @param queueSize Maximum number of queued events
+     * @param overflow Action when the queue is full
+     */
+    public AsyncSubscriber(String name, int queueSize, Overflow overflow) {
+        this.queueSize = Math.max(1, queueSize);
+        this.overflow = overflow;
+        this.stats = subscriberStats.computeIfAbsent(name, key -> new Stats());
+    }
+
+    /**
+     * Return a listener which queues the events for a listener of the subscriber
+     *
+     * @param listener Listener
+     * @return Listener to register, it must also be used to remove the listener
+     */
+    public <T> Listener<T> listener(Listener<T> listener) {
+        return t -> enqueue(() -> listener.notify(t));
+    }
+
+    private void enqueue(Runnable notification) {
+        synchronized (this) {
+            while (queue.size() >= queueSize) {
+                if (overflow == Overflow.DROP_NEWEST) {
+                    stats.dropped.increment();
+                    return;
+                }
+                if (overflow == Overflow.DROP_OLDEST) {
+                    queue.poll();
+                    stats.queued.decrement();
+                    stats.dropped.increment();
+                    break;
+                }
+                long start = System.nanoTime();
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    stats.dropped.increment();
+                    return;
+                } finally {
+                    stats.blockedNanos.add(System.nanoTime() - start);
+                }
+            }
+            queue.add(new QueuedEvent(notification));
+            stats.queued.increment();
+            if (!draining) {
+                draining = true;
+                try {
+                    listenerService.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // shutting down
+                    draining = false;
+                }
+            }
+        }
+    }
+
+    private synchronized QueuedEvent poll() {
+        QueuedEvent event = queue.poll();
+        if (event == null) {
+            draining = false;
+        } else {
+            stats.queued.decrement();
+            notifyAll();
+        }
+        return event;
+    }
+
+    private void drain() {
+        QueuedEvent event;
+        while ((event = poll()) != null) {
+            stats.lag.recordNanos(System.nanoTime() - event.time);
+            try {
+                event.notification.run();
+            } catch (RuntimeException e) {
+                Logger.logErrorMessage("Error in asynchronous listener", e);
+            }
+            stats.delivered.increment();
+        }
+    }
+
+    /**
+     * Return the statistics by subscriber
+     */
+    @SuppressWarnings("unchecked")
+    public static JSONObject getStats() {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<String, Stats> entry : new TreeMap<>(subscriberStats).entrySet()) {
+            Stats stats = entry.getValue();
+            JSONObject statsJSON = new JSONObject();
+            statsJSON.put("queued", stats.queued.sum());
+            statsJSON.put("delivered", stats.delivered.sum());
+            statsJSON.put("dropped", stats.dropped.sum());
+            statsJSON.put("blockedMicros", stats.blockedNanos.sum() / 1000);
+            statsJSON.put("lag", stats.lag.getJSONObject());
+            json.put(entry.getKey(), statsJSON);
+        }
+        return json;
+    }
+
+    public static void shutdown() {
+        ThreadPool.shutdownExecutor("listenerService", listenerService, 2);
+    }
+
+}
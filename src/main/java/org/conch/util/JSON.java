@@ -198,6 +198,8 @@ public final class JSON {
             encodeObject((Map<Object, Object>)value, sb);
         } else if (value instanceof List) {
             encodeArray((List<Object>)value, sb);
+        } else if (value instanceof JSONStreamAware) {
+            sb.append(toString((JSONStreamAware)value));
         } else {
             sb.append('\"');
             escapeString(value.toString(), sb);
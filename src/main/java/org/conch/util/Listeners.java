@@ -50,6 +50,11 @@ public final class Listeners<T,E extends Enum<E>> {
         return false;
     }
 
+    public boolean hasListeners(Enum<E> eventType) {
+        List<Listener<T>> listeners = listenersMap.get(eventType);
+        return listeners != null && !listeners.isEmpty();
+    }
+
     public void notify(T t, Enum<E> eventType) {
         List<Listener<T>> listeners = listenersMap.get(eventType);
         if (listeners == null)  return;
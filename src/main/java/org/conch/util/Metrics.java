@@ -0,0 +1,346 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.util;
+
+import org.conch.Conch;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Latency and volume metrics of the node.
+ * <p>
+ * <ul>
+ * <li>API requests: latency by request type, with the SQL time and the lock wait of the requests</li>
+ * <li>Locks: wait of the named {@link ReadWriteUpdateLock} locks by mode, and the total wait by the
+ * thread which held the lock when the wait started</li>
+ * <li>SQL: statement time by table, the first table named by the statement</li>
+ * <li>Peer requests: count, latency and bytes received and sent by request type</li>
+ * </ul>
+ * The metrics are returned by the getMetrics API and in the Prometheus text format on /metrics.
+ */
+public final class Metrics {
+
+    private static final boolean enabled = Conch.getBooleanProperty("sharder.metrics");
+
+    /** Lock waits shorter than this are uncontended acquisitions, they are not recorded */
+    private static final long MIN_LOCK_WAIT = 10 * 1000;
+
+    private static final Pattern SQL_TABLE = Pattern.compile("\\b(?:FROM|INTO|UPDATE|TABLE)\\s+([A-Za-z_][A-Za-z0-9_]*)",
+            Pattern.CASE_INSENSITIVE);
+    private static final int MAX_CACHED_STATEMENTS = 10000;
+
+    /**
+     * Metrics of an API request type
+     */
+    private static final class ApiStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram sqlTime = new LatencyHistogram();
+        private final LatencyHistogram lockWait = new LatencyHistogram();
+    }
+
+    /**
+     * Waits of a lock
+     */
+    private static final class LockStats {
+        private final ConcurrentMap<String, LatencyHistogram> waits = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, LongAdder> holderWaits = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Metrics of a peer request type
+     */
+    private static final class PeerStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder bytesReceived = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+    }
+
+    /**
+     * SQL time and lock wait of the API request of the thread
+     */
+    private static final class RequestTimes {
+        private long sqlNanos;
+        private long lockWaitNanos;
+    }
+
+    private static final ConcurrentMap<String, ApiStats> apiStats = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LockStats> lockStats = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LatencyHistogram> sqlStats = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, PeerStats> peerStats = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, String> statementTables = new ConcurrentHashMap<>();
+    private static final ThreadLocal<RequestTimes> requestTimes = new ThreadLocal<>();
+
+    private Metrics() {}
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start the SQL time and lock wait accounting of an API request on the current thread
+     */
+    public static void beginApiRequest() {
+        if (enabled) {
+            requestTimes.set(new RequestTimes());
+        }
+    }
+
+    /**
+     * Record an API request started by {@link #beginApiRequest()}
+     *
+     * @param requestType Request type of a registered handler
+     * @param nanos Request time
+     */
+    public static void endApiRequest(String requestType, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        RequestTimes times = requestTimes.get();
+        requestTimes.remove();
+        ApiStats stats = apiStats.computeIfAbsent(requestType, type -> new ApiStats());
+        stats.latency.recordNanos(nanos);
+        if (times != null) {
+            stats.sqlTime.recordNanos(times.sqlNanos);
+            stats.lockWait.recordNanos(times.lockWaitNanos);
+        }
+    }
+
+    /**
+     * Record the wait for a lock
+     *
+     * @param lock Lock name
+     * @param mode Lock mode: read, update or write
+     * @param holder Thread which held the lock when the wait started
+     * @param nanos Wait time
+     */
+    public static void recordLockWait(String lock, String mode, String holder, long nanos) {
+        if (!enabled || nanos < MIN_LOCK_WAIT) {
+            return;
+        }
+        LockStats stats = lockStats.computeIfAbsent(lock, name -> new LockStats());
+        stats.waits.computeIfAbsent(mode, name -> new LatencyHistogram()).recordNanos(nanos);
+        stats.holderWaits.computeIfAbsent(holder, name -> new LongAdder()).add(nanos);
+        RequestTimes times = requestTimes.get();
+        if (times != null) {
+            times.lockWaitNanos += nanos;
+        }
+    }
+
+    /**
+     * Record the execution of a SQL statement
+     *
+     * @param sql SQL statement
+     * @param nanos Execution time
+     */
+    public static void recordSql(String sql, long nanos) {
+        if (!enabled || sql == null) {
+            return;
+        }
+        String table = statementTables.get(sql);
+        if (table == null) {
+            Matcher matcher = SQL_TABLE.matcher(sql);
+            table = matcher.find() ? matcher.group(1).toLowerCase(Locale.ROOT) : "other";
+            if (statementTables.size() < MAX_CACHED_STATEMENTS) {
+                statementTables.put(sql, table);
+            }
+        }
+        sqlStats.computeIfAbsent(table, name -> new LatencyHistogram()).recordNanos(nanos);
+        RequestTimes times = requestTimes.get();
+        if (times != null) {
+            times.sqlNanos += nanos;
+        }
+    }
+
+    /**
+     * Record a peer request
+     *
+     * @param requestType Request type of a registered handler
+     * @param bytesReceived Request size
+     * @param nanos Processing time
+     */
+    public static void recordPeerRequest(String requestType, long bytesReceived, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        PeerStats stats = peerStats.computeIfAbsent(requestType, type -> new PeerStats());
+        stats.latency.recordNanos(nanos);
+        stats.bytesReceived.add(bytesReceived);
+    }
+
+    /**
+     * Record the response to a peer request
+     *
+     * @param requestType Request type of a registered handler
+     * @param bytesSent Response size
+     */
+    public static void recordPeerResponse(String requestType, long bytesSent) {
+        if (!enabled) {
+            return;
+        }
+        peerStats.computeIfAbsent(requestType, type -> new PeerStats()).bytesSent.add(bytesSent);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static JSONObject getJSONObject() {
+        JSONObject json = new JSONObject();
+        json.put("enabled", enabled);
+        JSONObject apiJSON = new JSONObject();
+        new TreeMap<>(apiStats).forEach((type, stats) -> {
+            JSONObject statsJSON = stats.latency.getJSONObject();
+            statsJSON.put("sql", stats.sqlTime.getJSONObject());
+            statsJSON.put("lockWait", stats.lockWait.getJSONObject());
+            apiJSON.put(type, statsJSON);
+        });
+        json.put("apiRequests", apiJSON);
+        JSONObject locksJSON = new JSONObject();
+        new TreeMap<>(lockStats).forEach((lock, stats) -> {
+            JSONObject lockJSON = new JSONObject();
+            stats.waits.forEach((mode, histogram) -> lockJSON.put(mode, histogram.getJSONObject()));
+            JSONObject holdersJSON = new JSONObject();
+            stats.holderWaits.forEach((holder, nanos) -> holdersJSON.put(holder, nanos.sum() / 1000));
+            lockJSON.put("waitMicrosByHolder", holdersJSON);
+            locksJSON.put(lock, lockJSON);
+        });
+        json.put("locks", locksJSON);
+        JSONObject sqlJSON = new JSONObject();
+        new TreeMap<>(sqlStats).forEach((table, histogram) -> sqlJSON.put(table, histogram.getJSONObject()));
+        json.put("sql", sqlJSON);
+        JSONObject peerJSON = new JSONObject();
+        new TreeMap<>(peerStats).forEach((type, stats) -> {
+            JSONObject statsJSON = stats.latency.getJSONObject();
+            statsJSON.put("bytesReceived", stats.bytesReceived.sum());
+            statsJSON.put("bytesSent", stats.bytesSent.sum());
+            peerJSON.put(type, statsJSON);
+        });
+        json.put("peerRequests", peerJSON);
+        return json;
+    }
+
+    /**
+     * Write the metrics in the Prometheus text format
+     *
+     * @param writer Output
+     * @throws IOException Unable to write
+     */
+    public static void writePrometheus(Writer writer) throws IOException {
+        writeSummaries(writer, "sharder_api_request_duration_seconds", "API request time", "request_type",
+                apiStats, stats -> stats.latency);
+        writeSummaries(writer, "sharder_api_request_sql_seconds", "SQL time of an API request", "request_type",
+                apiStats, stats -> stats.sqlTime);
+        writeSummaries(writer, "sharder_api_request_lock_wait_seconds", "Lock wait of an API request", "request_type",
+                apiStats, stats -> stats.lockWait);
+        writer.write("# HELP sharder_lock_wait_seconds Contended lock acquisition wait\n");
+        writer.write("# TYPE sharder_lock_wait_seconds summary\n");
+        for (Map.Entry<String, LockStats> lock : new TreeMap<>(lockStats).entrySet()) {
+            for (Map.Entry<String, LatencyHistogram> mode : new TreeMap<>(lock.getValue().waits).entrySet()) {
+                writeSummary(writer, "sharder_lock_wait_seconds",
+                        "lock=\"" + escape(lock.getKey()) + "\",mode=\"" + escape(mode.getKey()) + "\"", mode.getValue());
+            }
+        }
+        writer.write("# HELP sharder_lock_wait_by_holder_seconds_total Lock wait by the thread holding the lock\n");
+        writer.write("# TYPE sharder_lock_wait_by_holder_seconds_total counter\n");
+        for (Map.Entry<String, LockStats> lock : new TreeMap<>(lockStats).entrySet()) {
+            for (Map.Entry<String, LongAdder> holder : new TreeMap<>(lock.getValue().holderWaits).entrySet()) {
+                writer.write("sharder_lock_wait_by_holder_seconds_total{lock=\"" + escape(lock.getKey()) + "\",holder=\""
+                        + escape(holder.getKey()) + "\"} " + holder.getValue().sum() / 1e9 + "\n");
+            }
+        }
+        writeSummaries(writer, "sharder_sql_duration_seconds", "SQL statement time by table", "table",
+                sqlStats, histogram -> histogram);
+        writeSummaries(writer, "sharder_peer_request_duration_seconds", "Peer request time", "request_type",
+                peerStats, stats -> stats.latency);
+        writeCounters(writer, "sharder_peer_received_bytes_total", "Bytes received in peer requests", peerStats,
+                stats -> stats.bytesReceived.sum());
+        writeCounters(writer, "sharder_peer_sent_bytes_total", "Bytes sent in peer responses", peerStats,
+                stats -> stats.bytesSent.sum());
+    }
+
+    /**
+     * Write the numbers of a statistics object as Prometheus gauges, the nested objects are
+     * flattened into the gauge names
+     *
+     * @param writer Output
+     * @param prefix Gauge name prefix
+     * @param json Statistics
+     * @throws IOException Unable to write
+     */
+    public static void writeGauges(Writer writer, String prefix, JSONObject json) throws IOException {
+        for (Object entry : new TreeMap<Object, Object>(json).entrySet()) {
+            Map.Entry<?, ?> field = (Map.Entry<?, ?>) entry;
+            String name = prefix + "_" + field.getKey().toString().replaceAll("([a-z])([A-Z])", "$1_$2")
+                    .replaceAll("[^A-Za-z0-9_]", "_").toLowerCase(Locale.ROOT);
+            Object value = field.getValue();
+            if (value instanceof JSONObject) {
+                writeGauges(writer, name, (JSONObject) value);
+            } else if (value instanceof Number) {
+                writer.write("# TYPE " + name + " gauge\n");
+                writer.write(name + " " + value + "\n");
+            } else if (value instanceof Boolean) {
+                writer.write("# TYPE " + name + " gauge\n");
+                writer.write(name + " " + ((Boolean) value ? 1 : 0) + "\n");
+            }
+        }
+    }
+
+    private static <T> void writeSummaries(Writer writer, String name, String help, String label,
+                                           Map<String, T> stats, Function<T, LatencyHistogram> selector) throws IOException {
+        writer.write("# HELP " + name + " " + help + "\n");
+        writer.write("# TYPE " + name + " summary\n");
+        for (Map.Entry<String, T> entry : new TreeMap<>(stats).entrySet()) {
+            writeSummary(writer, name, label + "=\"" + escape(entry.getKey()) + "\"", selector.apply(entry.getValue()));
+        }
+    }
+
+    private static void writeSummary(Writer writer, String name, String labels, LatencyHistogram histogram) throws IOException {
+        for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999}) {
+            writer.write(name + "{" + labels + ",quantile=\"" + quantile + "\"} " + histogram.getPercentile(quantile * 100) / 1e6 + "\n");
+        }
+        writer.write(name + "_sum{" + labels + "} " + histogram.getSum() / 1e6 + "\n");
+        writer.write(name + "_count{" + labels + "} " + histogram.getCount() + "\n");
+    }
+
+    private static <T> void writeCounters(Writer writer, String name, String help, Map<String, T> stats,
+                                          ToLongFunction<T> selector) throws IOException {
+        writer.write("# HELP " + name + " " + help + "\n");
+        writer.write("# TYPE " + name + " counter\n");
+        for (Map.Entry<String, T> entry : new TreeMap<>(stats).entrySet()) {
+            writer.write(name + "{request_type=\"" + escape(entry.getKey()) + "\"} " + selector.applyAsLong(entry.getValue()) + "\n");
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+}
@@ -46,6 +46,12 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  */
 public class ReadWriteUpdateLock {
 
+    /** Lock name in the metrics, null if the waits are not recorded */
+    private final String name;
+
+    /** Thread holding the update or write lock */
+    private volatile Thread exclusiveOwner;
+
     /** Lock shared by the read and write locks */
     private final ReentrantReadWriteLock sharedLock = new ReentrantReadWriteLock();
 
@@ -64,6 +70,22 @@ public class ReadWriteUpdateLock {
     /** Write lock */
     private final WriteLock writeLock = new WriteLock();
 
+    /**
+     * Create a lock whose waits are not recorded
+     */
+    public ReadWriteUpdateLock() {
+        this(null);
+    }
+
+    /**
+     * Create a lock whose waits are recorded in the metrics
+     *
+     * @param   name                Lock name
+     */
+    public ReadWriteUpdateLock(String name) {
+        this.name = name;
+    }
+
     /**
      * Return the read lock
      *
@@ -91,6 +113,25 @@ public class ReadWriteUpdateLock {
         return writeLock;
     }
 
+    /**
+     * Obtain a lock and record the wait, with the thread holding the lock when the wait started
+     *
+     * @param   lock                Lock
+     * @param   mode                Lock mode
+     */
+    private void acquire(java.util.concurrent.locks.Lock lock, String mode) {
+        if (name == null || !Metrics.isEnabled()) {
+            lock.lock();
+            return;
+        }
+        Thread owner = exclusiveOwner;
+        String holder = owner != null && owner != Thread.currentThread() ? owner.getName()
+                : sharedLock.getReadLockCount() > 0 ? "readers" : "none";
+        long start = System.nanoTime();
+        lock.lock();
+        Metrics.recordLockWait(name, mode, holder, System.nanoTime() - start);
+    }
+
     /**
      * Lock interface
      */
@@ -124,7 +165,7 @@ public class ReadWriteUpdateLock {
          */
         @Override
         public void lock() {
-            sharedLock.readLock().lock();
+            acquire(sharedLock.readLock(), "read");
             lockCount.get().readCount++;
         }
 
@@ -167,8 +208,10 @@ public class ReadWriteUpdateLock {
             if (counts.writeCount != 0) {
                 throw new IllegalStateException("Update lock cannot be obtained while holding the write lock");
             }
-            mutexLock.lock();
-            counts.updateCount++;
+            acquire(mutexLock, "update");
+            if (counts.updateCount++ == 0) {
+                exclusiveOwner = Thread.currentThread();
+            }
         }
 
         /**
@@ -176,8 +219,12 @@ public class ReadWriteUpdateLock {
          */
         @Override
         public void unlock() {
+            LockCount counts = lockCount.get();
+            if (counts.updateCount == 1) {
+                exclusiveOwner = null;
+            }
             mutexLock.unlock();
-            lockCount.get().updateCount--;
+            counts.updateCount--;
         }
 
         /**
@@ -209,13 +256,18 @@ public class ReadWriteUpdateLock {
             }
             boolean lockObtained = false;
             try {
-                mutexLock.lock();
-                counts.updateCount++;
+                acquire(mutexLock, "write");
+                if (counts.updateCount++ == 0) {
+                    exclusiveOwner = Thread.currentThread();
+                }
                 lockObtained = true;
-                sharedLock.writeLock().lock();
+                acquire(sharedLock.writeLock(), "write");
                 counts.writeCount++;
             } catch (Exception exc) {
                 if (lockObtained) {
+                    if (counts.updateCount == 1) {
+                        exclusiveOwner = null;
+                    }
                     mutexLock.unlock();
                     counts.updateCount--;
                 }
@@ -231,6 +283,9 @@ public class ReadWriteUpdateLock {
             LockCount counts = lockCount.get();
             sharedLock.writeLock().unlock();
             counts.writeCount--;
+            if (counts.updateCount == 1) {
+                exclusiveOwner = null;
+            }
             mutexLock.unlock();
             counts.updateCount--;
         }
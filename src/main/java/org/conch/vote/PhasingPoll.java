@@ -246,18 +246,18 @@ public final class PhasingPoll extends AbstractPoll {
         return phasingPollTable.get(phasingPollDbKeyFactory.newKey(id));
     }
 
-    public static DbIterator<TransactionImpl> getFinishingTransactions(int height) {
-        Connection con = null;
-        try {
-            con = Db.db.getConnection();
-            PreparedStatement pstmt = con.prepareStatement("SELECT transaction.* FROM transaction, phasing_poll " +
-                    "WHERE phasing_poll.id = transaction.id AND phasing_poll.finish_height = ? " +
-                    "ORDER BY transaction.height, transaction.transaction_index"); // ASC, not DESC
-            pstmt.setInt(1, height);
-            return BlockchainImpl.getInstance().getTransactions(con, pstmt);
-        } catch (SQLException e) {
-            throw new RuntimeException(e.toString(), e);
-        }
+    /**
+     * Return the phased transactions finishing at a height, in the order they were included in the blockchain
+     */
+    public static List<TransactionImpl> getFinishingTransactions(int height) {
+        List<Long> pollIds = PhasingPollIndex.getFinishingPolls(height);
+        if (pollIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<TransactionImpl> transactions = new ArrayList<>(pollIds.size());
+        pollIds.forEach(pollId -> transactions.add(TransactionDb.findTransaction(pollId)));
+        transactions.sort(Comparator.comparingInt(TransactionImpl::getHeight).thenComparingInt(TransactionImpl::getIndex));
+        return transactions;
     }
 
     public static DbIterator<TransactionImpl> getVoterPhasedTransactions(long voterId, int from, int to) {
@@ -384,6 +384,19 @@ public final class PhasingPoll extends AbstractPoll {
         }
     }
 
+    /**
+     * Return the phased transactions linked to a transaction whose poll finishes after a height
+     */
+    public static List<TransactionImpl> getLinkedPhasedTransactions(byte[] linkedTransactionFullHash, int height) {
+        List<Long> pollIds = PhasingPollIndex.getLinkedPolls(linkedTransactionFullHash, height);
+        if (pollIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<TransactionImpl> transactions = new ArrayList<>(pollIds.size());
+        pollIds.forEach(pollId -> transactions.add(TransactionDb.findTransaction(pollId)));
+        return transactions;
+    }
+
     public static long getSenderPhasedTransactionFees(long accountId) {
         try (Connection con = Db.db.getConnection();
              PreparedStatement pstmt = con.prepareStatement("SELECT SUM(transaction.fee) AS fees FROM transaction, phasing_poll " +
@@ -416,9 +429,11 @@ public final class PhasingPoll extends AbstractPoll {
             Collections.addAll(linkedFullHashes, appendix.getLinkedFullHashes());
             linkedTransactionTable.insert(poll, linkedFullHashes);
         }
+        PhasingPollIndex.addPoll(poll.getId(), poll.getFinishHeight(), appendix.getLinkedFullHashes());
     }
 
     public static void init() {
+        PhasingPollIndex.init();
     }
 
     private final DbKey dbKey;
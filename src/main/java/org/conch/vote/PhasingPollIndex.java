@@ -0,0 +1,245 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.vote;
+
+import org.conch.Conch;
+import org.conch.chain.Block;
+import org.conch.chain.BlockchainProcessor;
+import org.conch.db.Db;
+import org.conch.db.TransactionalDb;
+import org.conch.util.Convert;
+import org.conch.util.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Index of the phasing polls which are still open, by linked transaction and by finish height.
+ * <p>
+ * Each block looks up the phased transactions linked to every one of its transactions and the
+ * phased transactions finishing at the next height.  The open polls are loaded once, a poll is
+ * then added when it is created and dropped once the block at its finish height is applied, so
+ * these lookups don't query the database for a block without phased activity.  A poll is only
+ * trimmed from the database long after it was dropped from the index.  The index is dropped when a
+ * block is popped off, a scan starts or the database transaction is rolled back, it is loaded
+ * again on the next lookup.
+ */
+final class PhasingPollIndex {
+
+    private static final class OpenPoll {
+
+        private final long id;
+        private final int finishHeight;
+        private final List<byte[]> linkedFullHashes = new ArrayList<>(1);
+
+        private OpenPoll(long id, int finishHeight) {
+            this.id = id;
+            this.finishHeight = finishHeight;
+        }
+
+        private boolean isLinkedTo(byte[] fullHash) {
+            for (byte[] linkedFullHash : linkedFullHashes) {
+                if (Arrays.equals(linkedFullHash, fullHash)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** Open polls by linked transaction id */
+    private static Map<Long, List<OpenPoll>> linkedPolls;
+
+    /** Open polls by finish height */
+    private static NavigableMap<Integer, List<OpenPoll>> finishingPolls;
+
+    /** The index contains the polls with a finish height greater than this height */
+    private static int indexHeight;
+
+    private static final TransactionalDb.TransactionCallback indexCallback = new TransactionalDb.TransactionCallback() {
+        @Override
+        public void commit() {
+        }
+
+        @Override
+        public void rollback() {
+            reset();
+        }
+    };
+
+    static {
+        Conch.getBlockchainProcessor().addListener(PhasingPollIndex::finish, BlockchainProcessor.Event.AFTER_BLOCK_APPLY);
+        Conch.getBlockchainProcessor().addListener(block -> reset(), BlockchainProcessor.Event.BLOCK_POPPED);
+        Conch.getBlockchainProcessor().addListener(block -> reset(), BlockchainProcessor.Event.RESCAN_BEGIN);
+    }
+
+    static void init() {}
+
+    private PhasingPollIndex() {}
+
+    /**
+     * Return the ids of the open polls linked to a transaction
+     *
+     * @param linkedFullHash Full hash of the linked transaction
+     * @param height Only the polls with a finish height greater than this height are returned
+     * @return Poll ids
+     */
+    static synchronized List<Long> getLinkedPolls(byte[] linkedFullHash, int height) {
+        load(height);
+        List<OpenPoll> polls = linkedPolls.get(Convert.fullHashToId(linkedFullHash));
+        if (polls == null) {
+            return Collections.emptyList();
+        }
+        List<Long> pollIds = new ArrayList<>(polls.size());
+        for (OpenPoll poll : polls) {
+            if (poll.finishHeight > height && poll.isLinkedTo(linkedFullHash)) {
+                pollIds.add(poll.id);
+            }
+        }
+        return pollIds;
+    }
+
+    /**
+     * Return the ids of the polls finishing at a height
+     *
+     * @param height Finish height
+     * @return Poll ids
+     */
+    static synchronized List<Long> getFinishingPolls(int height) {
+        load(height - 1);
+        List<OpenPoll> polls = finishingPolls.get(height);
+        if (polls == null) {
+            return Collections.emptyList();
+        }
+        List<Long> pollIds = new ArrayList<>(polls.size());
+        polls.forEach(poll -> pollIds.add(poll.id));
+        return pollIds;
+    }
+
+    /**
+     * Add a new poll
+     *
+     * @param id Poll id
+     * @param finishHeight Finish height
+     * @param linkedFullHashes Full hashes of the linked transactions
+     */
+    static synchronized void addPoll(long id, int finishHeight, byte[][] linkedFullHashes) {
+        if (finishingPolls == null) {
+            return;
+        }
+        OpenPoll poll = new OpenPoll(id, finishHeight);
+        Collections.addAll(poll.linkedFullHashes, linkedFullHashes);
+        add(poll);
+        if (Db.db.isInTransaction()) {
+            Db.db.registerCallback(indexCallback);
+        }
+    }
+
+    static synchronized void reset() {
+        linkedPolls = null;
+        finishingPolls = null;
+    }
+
+    /**
+     * Drop the polls finishing at the height of an applied block
+     */
+    static synchronized void finish(Block block) {
+        if (finishingPolls == null) {
+            return;
+        }
+        Iterator<List<OpenPoll>> it = finishingPolls.headMap(block.getHeight(), true).values().iterator();
+        while (it.hasNext()) {
+            for (OpenPoll poll : it.next()) {
+                for (byte[] linkedFullHash : poll.linkedFullHashes) {
+                    Long linkedId = Convert.fullHashToId(linkedFullHash);
+                    List<OpenPoll> polls = linkedPolls.get(linkedId);
+                    if (polls != null && polls.remove(poll) && polls.isEmpty()) {
+                        linkedPolls.remove(linkedId);
+                    }
+                }
+            }
+            it.remove();
+        }
+        indexHeight = Math.max(indexHeight, block.getHeight());
+        if (Db.db.isInTransaction()) {
+            Db.db.registerCallback(indexCallback);
+        }
+    }
+
+    private static void add(OpenPoll poll) {
+        finishingPolls.computeIfAbsent(poll.finishHeight, height -> new ArrayList<>()).add(poll);
+        for (byte[] linkedFullHash : poll.linkedFullHashes) {
+            linkedPolls.computeIfAbsent(Convert.fullHashToId(linkedFullHash), linkedId -> new ArrayList<>(1)).add(poll);
+        }
+    }
+
+    /**
+     * Load the polls with a finish height greater than a height unless they are already indexed
+     */
+    private static void load(int height) {
+        if (finishingPolls != null && height >= indexHeight) {
+            return;
+        }
+        Map<Long, OpenPoll> polls = new LinkedHashMap<>();
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT phasing_poll.id, phasing_poll.finish_height, "
+                     + "phasing_poll_linked_transaction.linked_full_hash FROM phasing_poll "
+                     + "LEFT JOIN phasing_poll_linked_transaction ON phasing_poll.id = phasing_poll_linked_transaction.transaction_id "
+                     + "WHERE phasing_poll.finish_height > ?")) {
+            pstmt.setInt(1, height);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    long id = rs.getLong("id");
+                    int finishHeight = rs.getInt("finish_height");
+                    OpenPoll poll = polls.computeIfAbsent(id, pollId -> new OpenPoll(pollId, finishHeight));
+                    byte[] linkedFullHash = rs.getBytes("linked_full_hash");
+                    if (linkedFullHash != null) {
+                        poll.linkedFullHashes.add(linkedFullHash);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        linkedPolls = new HashMap<>();
+        finishingPolls = new TreeMap<>();
+        polls.values().forEach(PhasingPollIndex::add);
+        indexHeight = height;
+        if (Db.db.isInTransaction()) {
+            Db.db.registerCallback(indexCallback);
+        }
+        Logger.logDebugMessage("Loaded " + polls.size() + " open phasing polls");
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.account;
+
+import org.conch.account.AccountLedger.LedgerEntry;
+import org.conch.account.AccountLedger.LedgerEvent;
+import org.conch.account.AccountLedger.LedgerHolding;
+import org.conch.bench.SyntheticChain;
+import org.conch.chain.BlockDb;
+import org.conch.chain.BlockImpl;
+import org.conch.chain.BlockchainImpl;
+import org.conch.db.Db;
+import org.conch.db.TestDb;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Test of the pending entries of {@link AccountLedger} and of its background writer.
+ * <p>
+ * Usage: AccountLedgerTest [seed]
+ * <p>
+ * The entries of an event logged twice in a block are merged and the running balances of the
+ * entries in between are computed again, the entries are saved with their identifiers.  Then the
+ * blocks are applied in another JVM with the background writer, which is stopped so the entries of
+ * the last blocks are lost, and the blocks must be scanned again from the last saved height when
+ * the ledger is initialized on the next start.
+ */
+public final class AccountLedgerTest {
+
+    private static final long ACCOUNT_A = 1;
+    private static final long ACCOUNT_B = 2;
+    private static final int SAVED_BLOCKS = 5;
+    private static final int LOST_BLOCKS = 3;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("lostWrite")) {
+            lostWrite(Long.parseLong(args[1]));
+            return;
+        }
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1L;
+        TestDb.init("account-ledger", "sharder.ledgerAccounts=*");
+        AccountLedger.init();
+        mergePendingEntries(seed);
+        TestDb.check(TestDb.runChild(AccountLedgerTest.class, "lostWrite", Long.toString(seed)) == 0,
+                "blocks of the lost background writes scanned again");
+        TestDb.exit("AccountLedgerTest, seed " + seed);
+    }
+
+    private static void mergePendingEntries(long seed) throws Exception {
+        List<BlockImpl> blocks = new SyntheticChain(seed, 10).newChain(3, 0);
+        List<LedgerEntry> addedEntries = new ArrayList<>();
+        AccountLedger.addListener(addedEntries::add, AccountLedger.Event.ADD_ENTRY);
+        apply(blocks.get(0), null);
+        apply(blocks.get(1), null);
+        TestDb.check(addedEntries.isEmpty(), "no entries added without logged events");
+        apply(blocks.get(2), () -> {
+            AccountLedger.logEntry(newEntry(LedgerEvent.ORDINARY_PAYMENT, 10, ACCOUNT_A, 100, 100));
+            AccountLedger.logEntry(newEntry(LedgerEvent.TRANSACTION_FEE, 10, ACCOUNT_A, -5, 95));
+            AccountLedger.logEntry(newEntry(LedgerEvent.ORDINARY_PAYMENT, 11, ACCOUNT_B, 7, 7));
+            AccountLedger.logEntry(newEntry(LedgerEvent.ORDINARY_PAYMENT, 10, ACCOUNT_A, 30, 125));
+        });
+        TestDb.check(addedEntries.size() == 3, "3 merged entries added, not " + addedEntries.size());
+        if (addedEntries.size() != 3) {
+            return;
+        }
+        // the merged payment takes the place of its last entry, the fee no longer follows the first one
+        checkEntry(addedEntries.get(0), LedgerEvent.TRANSACTION_FEE, ACCOUNT_A, -5, -5);
+        checkEntry(addedEntries.get(1), LedgerEvent.ORDINARY_PAYMENT, ACCOUNT_B, 7, 7);
+        checkEntry(addedEntries.get(2), LedgerEvent.ORDINARY_PAYMENT, ACCOUNT_A, 130, 125);
+        Set<Long> ledgerIds = new HashSet<>();
+        for (LedgerEntry entry : addedEntries) {
+            ledgerIds.add(entry.getLedgerId());
+            LedgerEntry savedEntry = AccountLedger.getEntry(entry.getLedgerId());
+            TestDb.check(savedEntry != null && savedEntry.getEvent() == entry.getEvent() && savedEntry.getAccountId() == entry.getAccountId()
+                            && savedEntry.getChange() == entry.getChange() && savedEntry.getBalance() == entry.getBalance(),
+                    "entry " + entry.getLedgerId() + " saved with its identifier");
+        }
+        TestDb.check(ledgerIds.size() == 3, "entries have distinct identifiers");
+        List<LedgerEntry> accountEntries = AccountLedger.getEntries(ACCOUNT_A, null, 0, null, 0, 0, 10);
+        TestDb.check(accountEntries.size() == 2 && accountEntries.get(0).getEvent() == LedgerEvent.ORDINARY_PAYMENT
+                && accountEntries.get(1).getEvent() == LedgerEvent.TRANSACTION_FEE, "entries of the account in descending insert order");
+    }
+
+    /**
+     * Apply the blocks with the background writer, stop it and initialize the ledger as on the
+     * next start
+     */
+    private static void lostWrite(long seed) throws Exception {
+        TestDb.init("account-ledger-writer", "sharder.ledgerAccounts=*", "sharder.ledgerAsyncWriter=true");
+        // the scans scheduled by the updates of the new database are done
+        try (Connection con = Db.db.getConnection();
+             Statement stmt = con.createStatement()) {
+            stmt.executeUpdate("UPDATE scan SET rescan = FALSE, height = 0");
+        }
+        AccountLedger.init();
+        checkScan(false, 0, "scan not scheduled by the first start");
+        List<BlockImpl> blocks = new SyntheticChain(seed, 10).newChain(SAVED_BLOCKS + LOST_BLOCKS, 0);
+        for (int i = 0; i < SAVED_BLOCKS; i++) {
+            BlockImpl block = blocks.get(i);
+            apply(block, () -> AccountLedger.logEntry(newEntry(LedgerEvent.BLOCK_GENERATED, block.getId(), ACCOUNT_A, 1, block.getHeight() + 1)));
+        }
+        AccountLedger.shutdown();
+        int savedHeight = SAVED_BLOCKS - 1;
+        TestDb.check(getLedgerHeight() == savedHeight, "ledger height " + savedHeight + " saved by the writer");
+        TestDb.check(countEntries() == SAVED_BLOCKS, "entries of the saved blocks written");
+        for (int i = SAVED_BLOCKS; i < SAVED_BLOCKS + LOST_BLOCKS; i++) {
+            BlockImpl block = blocks.get(i);
+            apply(block, () -> AccountLedger.logEntry(newEntry(LedgerEvent.BLOCK_GENERATED, block.getId(), ACCOUNT_A, 1, block.getHeight() + 1)));
+        }
+        TestDb.check(getLedgerHeight() == savedHeight, "ledger height stays at " + savedHeight + " after the lost writes");
+        TestDb.check(countEntries() == SAVED_BLOCKS, "entries of the blocks applied after the writer stopped are lost");
+        AccountLedger.init();
+        checkScan(true, savedHeight, "scan scheduled from the ledger height");
+        TestDb.check(getLedgerHeight() == savedHeight, "ledger height kept until the scan");
+        TestDb.exit("AccountLedgerTest lostWrite");
+    }
+
+    /**
+     * Save a block and log its entries in one database transaction, like a pushed block
+     */
+    private static void apply(BlockImpl block, Runnable logEntries) {
+        BlockchainImpl blockchain = BlockchainImpl.getInstance();
+        BlockImpl previousBlock = blockchain.getLastBlock();
+        block.setPrevious(previousBlock);
+        try {
+            Connection con = Db.db.beginTransaction();
+            BlockDb.saveBlock(con, block);
+            blockchain.setLastBlock(block);
+            if (logEntries != null) {
+                logEntries.run();
+            }
+            AccountLedger.commitEntries();
+            Db.db.commitTransaction();
+        } finally {
+            Db.db.endTransaction();
+            AccountLedger.clearEntries();
+        }
+    }
+
+    private static LedgerEntry newEntry(LedgerEvent event, long eventId, long accountId, long change, long balance) {
+        return new LedgerEntry(event, eventId, accountId, LedgerHolding.CONCH_BALANCE, null, change, balance);
+    }
+
+    private static void checkEntry(LedgerEntry entry, LedgerEvent event, long accountId, long change, long balance) {
+        TestDb.check(entry.getEvent() == event && entry.getAccountId() == accountId && entry.getChange() == change
+                        && entry.getBalance() == balance,
+                event + " of account " + accountId + " has change " + change + " and balance " + balance
+                        + ", not " + entry.getChange() + " and " + entry.getBalance());
+    }
+
+    private static void checkScan(boolean rescan, int height, String message) throws SQLException {
+        try (Connection con = Db.db.getConnection();
+             Statement stmt = con.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT rescan, height FROM scan")) {
+            TestDb.check(rs.next() && rs.getBoolean(1) == rescan && (!rescan || rs.getInt(2) == height), message);
+        }
+    }
+
+    private static int getLedgerHeight() throws SQLException {
+        return queryInt("SELECT ledger_height FROM ledger_writer");
+    }
+
+    private static int countEntries() throws SQLException {
+        return queryInt("SELECT COUNT(*) FROM account_ledger");
+    }
+
+    private static int queryInt(String sql) throws SQLException {
+        try (Connection con = Db.db.getConnection();
+             Statement stmt = con.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
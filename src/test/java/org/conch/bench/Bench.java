@@ -0,0 +1,90 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Minimal micro-benchmark runner for the main()-style benchmarks.
+ * <p>
+ * Each benchmark is warmed up, then measured in several rounds of fixed duration.  The result of
+ * every operation is stored in a volatile field, so the JIT can't remove the measured code.
+ */
+final class Bench {
+
+    interface Operation {
+        Object run() throws Exception;
+    }
+
+    private static volatile Object sink;
+
+    private final long warmupMillis;
+    private final long roundMillis;
+    private final int rounds;
+    private final List<String> results = new ArrayList<>();
+
+    Bench(long warmupMillis, long roundMillis, int rounds) {
+        this.warmupMillis = warmupMillis;
+        this.roundMillis = roundMillis;
+        this.rounds = rounds;
+    }
+
+    /**
+     * Measure an operation and print the average time per operation
+     *
+     * @param name Benchmark name
+     * @param operation Measured operation
+     */
+    void run(String name, Operation operation) throws Exception {
+        loop(operation, warmupMillis);
+        double best = Double.MAX_VALUE;
+        double total = 0;
+        for (int i = 0; i < rounds; i++) {
+            double nanosPerOp = loop(operation, roundMillis);
+            best = Math.min(best, nanosPerOp);
+            total += nanosPerOp;
+        }
+        double average = total / rounds;
+        String result = String.format(Locale.ROOT, "%-40s %14.1f ns/op %14.1f ops/s  (best %.1f ns/op)",
+                name, average, 1e9 / average, best);
+        results.add(result);
+        System.out.println(result);
+    }
+
+    private static double loop(Operation operation, long millis) throws Exception {
+        long count = 0;
+        long start = System.nanoTime();
+        long end = start + millis * 1000000L;
+        long now;
+        do {
+            sink = operation.run();
+            count++;
+        } while ((now = System.nanoTime()) < end);
+        return (double) (now - start) / count;
+    }
+
+    List<String> getResults() {
+        return results;
+    }
+}
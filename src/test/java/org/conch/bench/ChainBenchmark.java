@@ -0,0 +1,240 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.bench;
+
+import org.conch.chain.BlockImpl;
+import org.conch.common.Constants;
+import org.conch.consensus.poc.PocScore;
+import org.conch.consensus.poc.hardware.SystemInfo;
+import org.conch.consensus.poc.tx.PocTxBody;
+import org.conch.crypto.Crypto;
+import org.conch.mint.Generator;
+import org.conch.mint.HitMath;
+import org.conch.mint.HitMathTest;
+import org.conch.peer.Peer;
+import org.conch.tx.TransactionImpl;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Micro-benchmarks of the consensus and chain hot paths on synthetic data.
+ * <p>
+ * Usage: ChainBenchmark [seed] [result file]
+ * <p>
+ * The benchmarks don't start a node.  The entity table benchmarks run the statements of
+ * {@code EntityDbTable.get()} and {@code EntityDbTable.insert()} against a temporary H2 database,
+ * with one statement per entity and with the JDBC batches used while a block is applied.
+ * Keep the result file of a release build as the baseline and compare the later runs with it,
+ * the results are only comparable on the same machine and JVM.
+ */
+public final class ChainBenchmark {
+
+    private static final int ACCOUNT_COUNT = 1000;
+    private static final int BLOCK_TRANSACTIONS = 100;
+    private static final int ENTITY_COUNT = 10000;
+
+    public static void main(String[] args) throws Exception {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1L;
+        Bench bench = new Bench(2000, 1000, 5);
+        SyntheticChain chain = new SyntheticChain(seed, ACCOUNT_COUNT);
+
+        cryptoBenchmarks(bench, chain);
+        transactionBenchmarks(bench, chain);
+        blockBenchmarks(bench, chain);
+        generatorBenchmarks(bench, chain);
+        pocBenchmarks(bench);
+        entityTableBenchmarks(bench, seed);
+
+        if (args.length > 1) {
+            Files.write(Paths.get(args[1]), bench.getResults(), StandardCharsets.UTF_8);
+            System.out.println("Results written to " + args[1]);
+        }
+    }
+
+    private static void cryptoBenchmarks(Bench bench, SyntheticChain chain) throws Exception {
+        byte[] message = chain.newPayment().getUnsignedBytes();
+        String secretPhrase = chain.getSecretPhrase(0);
+        byte[] publicKey = chain.getPublicKey(0);
+        byte[] signature = Crypto.sign(message, secretPhrase);
+        bench.run("Crypto.sign", () -> Crypto.sign(message, secretPhrase));
+        bench.run("Crypto.verify", () -> Crypto.verify(signature, message, publicKey, true));
+    }
+
+    private static void transactionBenchmarks(Bench bench, SyntheticChain chain) throws Exception {
+        TransactionImpl transaction = chain.newPayment();
+        byte[] bytes = transaction.bytes();
+        JSONObject json = transaction.getJSONObject();
+        bench.run("TransactionImpl parse bytes", () -> TransactionImpl.newTransactionBuilder(bytes).build());
+        bench.run("TransactionImpl parse bytes + bytes()", () -> TransactionImpl.newTransactionBuilder(bytes).build().bytes());
+        bench.run("TransactionImpl.parseTransaction(JSON)", () -> TransactionImpl.parseTransaction(json, false));
+        bench.run("TransactionImpl.getJSONObject", transaction::getJSONObject);
+    }
+
+    private static void blockBenchmarks(Bench bench, SyntheticChain chain) throws Exception {
+        List<BlockImpl> blocks = chain.newChain(2, BLOCK_TRANSACTIONS);
+        BlockImpl block = blocks.get(1);
+        JSONObject json = block.getJSONObject();
+        byte[] bytes = block.bytes();
+        bench.run("BlockImpl.getJSONObject (" + BLOCK_TRANSACTIONS + " txs)", block::getJSONObject);
+        bench.run("BlockImpl.parseBlock(JSON) (" + BLOCK_TRANSACTIONS + " txs)", () -> BlockImpl.parseBlock(json, false));
+        bench.run("BlockImpl.parseBlock(bytes) (" + BLOCK_TRANSACTIONS + " txs)", () ->
+                BlockImpl.parseBlock(bytes, block.getTotalAmountNQT(), block.getTotalFeeNQT(), block.getTransactions(), false));
+        bench.run("BlockImpl.parseBlock(JSON) + signatures", () -> BlockImpl.parseBlock(json, true));
+    }
+
+    private static void generatorBenchmarks(Bench bench, SyntheticChain chain) throws Exception {
+        BlockImpl synthetic = chain.newFirstBlock(0);
+        // a stored block, which has a base target
+        BlockImpl block = new BlockImpl(synthetic.getVersion(), synthetic.getTimestamp(), 0, 0, 0, 0,
+                synthetic.getPayloadHash(), synthetic.getGeneratorId(), synthetic.getGenerationSignature(),
+                synthetic.getBlockSignature(), synthetic.getPreviousBlockHash(), BigInteger.ZERO,
+                Constants.INITIAL_BASE_TARGET, 0, 1, synthetic.getId(), null);
+        byte[] publicKey = chain.getPublicKey(1);
+        long hit = Generator.getHit(publicKey, block);
+        // large enough for a valid hit, so the failure is not logged
+        BigInteger pocScore = BigInteger.valueOf(Long.divideUnsigned(hit, Constants.INITIAL_BASE_TARGET) + 1);
+        int timestamp = block.getTimestamp() + Constants.getBlockGapSeconds() + 10;
+        bench.run("Generator.getHit", () -> Generator.getHit(publicKey, block));
+        bench.run("Generator.verifyHit", () -> Generator.verifyHit(hit, pocScore, block, timestamp));
+
+        // the hit arithmetic of a generator sort, against the former BigInteger form
+        BigInteger bigHit = HitMath.toBigInteger(hit);
+        long otherHit = hit ^ 0x5555555555555555L;
+        BigInteger otherBigHit = HitMath.toBigInteger(otherHit);
+        BigInteger otherPocScore = pocScore.add(BigInteger.TEN);
+        long baseTarget = Constants.INITIAL_BASE_TARGET;
+        bench.run("HitMath.hitDelay", () -> HitMath.hitDelay(hit, baseTarget, pocScore));
+        bench.run("BigInteger hit delay", () -> HitMathTest.referenceHitDelay(bigHit, baseTarget, pocScore));
+        bench.run("HitMath.isHitInTarget", () -> HitMath.isHitInTarget(hit, baseTarget, pocScore, 9, false));
+        bench.run("BigInteger hit in target", () -> HitMathTest.referenceHitInTarget(bigHit, baseTarget, pocScore, 9, false));
+        bench.run("HitMath.compare", () -> HitMath.compare(hit, pocScore, otherHit, otherPocScore));
+        bench.run("BigInteger hit compare", () -> HitMathTest.referenceCompare(bigHit, pocScore, otherBigHit, otherPocScore));
+    }
+
+    private static void pocBenchmarks(Bench bench) throws Exception {
+        SystemInfo systemInfo = new SystemInfo().setCore(8).setAverageMHz(3600).setMemoryTotal(16)
+                .setHardDiskSize(10 * 1000).setHadPublicIp(true).setBandWidth(10).setTradePerformance(1000)
+                .setOpenServices(new Long[0]);
+        PocTxBody.PocNodeConf nodeConf = new PocTxBody.PocNodeConf("127.0.0.1", "3218", systemInfo);
+        PocTxBody.PocNodeType nodeType = new PocTxBody.PocNodeType("127.0.0.1", Peer.Type.HUB);
+        bench.run("PocScore node type + node conf", () -> new PocScore().nodeTypeCal(nodeType).nodeConfCal(nodeConf));
+    }
+
+    /**
+     * Statements of the versioned entity tables, on a table shaped like the account table
+     */
+    private static void entityTableBenchmarks(Bench bench, long seed) throws Exception {
+        Path dir = Files.createTempDirectory("sharder-bench");
+        try (Connection con = DriverManager.getConnection("jdbc:h2:" + dir.resolve("bench").toAbsolutePath(), "sa", "sa")) {
+            try (Statement stmt = con.createStatement()) {
+                stmt.executeUpdate("CREATE TABLE account (db_id IDENTITY, id BIGINT NOT NULL, balance BIGINT NOT NULL, "
+                        + "height INT NOT NULL, latest BOOLEAN NOT NULL DEFAULT TRUE)");
+                stmt.executeUpdate("CREATE UNIQUE INDEX account_id_height_idx ON account (id, height DESC)");
+            }
+            con.setAutoCommit(false);
+            Random random = new Random(seed);
+            long[] ids = new long[ENTITY_COUNT];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = random.nextLong();
+            }
+            int[] height = {0};
+            insert(con, ids, ++height[0], false);
+            con.commit();
+
+            bench.run("EntityDbTable.get (H2)", () -> {
+                try (PreparedStatement pstmt = con.prepareStatement("SELECT * FROM account WHERE id = ? AND latest = TRUE LIMIT 1")) {
+                    pstmt.setLong(1, ids[random.nextInt(ids.length)]);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        return rs.next() ? rs.getLong("balance") : 0;
+                    }
+                }
+            });
+            long[] blockIds = new long[BLOCK_TRANSACTIONS * 2];
+            bench.run("EntityDbTable.insert x" + blockIds.length + " (H2)", () -> {
+                pick(random, ids, blockIds);
+                insert(con, blockIds, ++height[0], false);
+                con.commit();
+                return height[0];
+            });
+            bench.run("EntityDbTable.insert x" + blockIds.length + " batched (H2)", () -> {
+                pick(random, ids, blockIds);
+                insert(con, blockIds, ++height[0], true);
+                con.commit();
+                return height[0];
+            });
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static void pick(Random random, long[] ids, long[] result) {
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids[random.nextInt(ids.length)];
+        }
+    }
+
+    private static void insert(Connection con, long[] ids, int height, boolean batch) throws SQLException {
+        try (PreparedStatement pstmtUpdate = con.prepareStatement("UPDATE account SET latest = FALSE WHERE id = ? AND latest = TRUE LIMIT 1");
+             PreparedStatement pstmtMerge = con.prepareStatement("MERGE INTO account (id, balance, height, latest) "
+                     + "KEY (id, height) VALUES (?, ?, ?, TRUE)")) {
+            for (long id : ids) {
+                pstmtUpdate.setLong(1, id);
+                pstmtMerge.setLong(1, id);
+                pstmtMerge.setLong(2, height);
+                pstmtMerge.setInt(3, height);
+                if (batch) {
+                    pstmtUpdate.addBatch();
+                    pstmtMerge.addBatch();
+                } else {
+                    pstmtUpdate.executeUpdate();
+                    pstmtMerge.executeUpdate();
+                }
+            }
+            if (batch) {
+                pstmtUpdate.executeBatch();
+                pstmtMerge.executeBatch();
+            }
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
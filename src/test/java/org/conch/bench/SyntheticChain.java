@@ -0,0 +1,170 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.bench;
+
+import org.conch.account.Account;
+import org.conch.chain.BlockImpl;
+import org.conch.common.ConchException;
+import org.conch.common.Constants;
+import org.conch.crypto.Crypto;
+import org.conch.tx.Attachment;
+import org.conch.tx.TransactionImpl;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reproducible generator of synthetic accounts, payment transactions and blocks.
+ * <p>
+ * The same seed always gives the same accounts, transactions and blocks, so the benchmark
+ * results of different builds are comparable.  The blocks are linked and signed like forged
+ * blocks, but they are not pushed to a blockchain.
+ */
+public final class SyntheticChain {
+
+    private static final int BLOCK_VERSION = 3;
+    private static final int BLOCK_INTERVAL = 60;
+
+    private final Random random;
+    private final String[] secretPhrases;
+    private final byte[][] publicKeys;
+    private final long[] accountIds;
+    private int timestamp;
+
+    /**
+     * @param seed Random seed
+     * @param accountCount Number of synthetic accounts
+     */
+    public SyntheticChain(long seed, int accountCount) {
+        this.random = new Random(seed);
+        this.secretPhrases = new String[accountCount];
+        this.publicKeys = new byte[accountCount][];
+        this.accountIds = new long[accountCount];
+        for (int i = 0; i < accountCount; i++) {
+            secretPhrases[i] = "synthetic account " + seed + " " + i;
+            publicKeys[i] = Crypto.getPublicKey(secretPhrases[i]);
+            accountIds[i] = Account.getId(publicKeys[i]);
+        }
+        this.timestamp = 1000;
+    }
+
+    public String getSecretPhrase(int index) {
+        return secretPhrases[index];
+    }
+
+    public byte[] getPublicKey(int index) {
+        return publicKeys[index];
+    }
+
+    public long getAccountId(int index) {
+        return accountIds[index];
+    }
+
+    public int getAccountCount() {
+        return accountIds.length;
+    }
+
+    /**
+     * Create a signed payment between two random accounts
+     *
+     * @return Payment transaction
+     */
+    public TransactionImpl newPayment() throws ConchException.NotValidException {
+        int sender = random.nextInt(accountIds.length);
+        int recipient = random.nextInt(accountIds.length);
+        long amountNQT = (1 + random.nextInt(1000)) * Constants.ONE_SS;
+        return new TransactionImpl.BuilderImpl(publicKeys[sender], amountNQT, Constants.ONE_SS, (short) 1440,
+                Attachment.ORDINARY_PAYMENT)
+                .timestamp(timestamp)
+                .recipientId(accountIds[recipient])
+                .ecBlockHeight(0)
+                .ecBlockId(0)
+                .build(secretPhrases[sender]);
+    }
+
+    /**
+     * Create the first block of a synthetic chain
+     *
+     * @param transactionCount Number of payments in the block
+     * @return Block
+     */
+    public BlockImpl newFirstBlock(int transactionCount) throws ConchException.NotValidException {
+        return newBlock(0, new byte[32], new byte[32], transactionCount);
+    }
+
+    /**
+     * Create a block forged by a random account on top of a block
+     *
+     * @param previousBlock Previous block
+     * @param transactionCount Number of payments in the block
+     * @return Block
+     */
+    public BlockImpl newBlock(BlockImpl previousBlock, int transactionCount) throws ConchException.NotValidException {
+        return newBlock(previousBlock.getId(), previousBlock.getGenerationSignature(),
+                Crypto.sha256().digest(previousBlock.bytes()), transactionCount);
+    }
+
+    /**
+     * Create a chain of linked blocks
+     *
+     * @param blockCount Number of blocks
+     * @param transactionCount Number of payments in each block
+     * @return Blocks in chain order
+     */
+    public List<BlockImpl> newChain(int blockCount, int transactionCount) throws ConchException.NotValidException {
+        List<BlockImpl> blocks = new ArrayList<>(blockCount);
+        BlockImpl block = newFirstBlock(transactionCount);
+        blocks.add(block);
+        for (int i = 1; i < blockCount; i++) {
+            block = newBlock(block, transactionCount);
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    private BlockImpl newBlock(long previousBlockId, byte[] previousGenerationSignature, byte[] previousBlockHash,
+                               int transactionCount) throws ConchException.NotValidException {
+        timestamp += BLOCK_INTERVAL;
+        List<TransactionImpl> transactions = new ArrayList<>(transactionCount);
+        MessageDigest digest = Crypto.sha256();
+        long totalAmountNQT = 0;
+        long totalFeeNQT = 0;
+        int payloadLength = 0;
+        for (int i = 0; i < transactionCount; i++) {
+            TransactionImpl transaction = newPayment();
+            transactions.add(transaction);
+            digest.update(transaction.bytes());
+            totalAmountNQT += transaction.getAmountNQT();
+            totalFeeNQT += transaction.getFeeNQT();
+            payloadLength += transaction.getFullSize();
+        }
+        byte[] payloadHash = digest.digest();
+        int generator = random.nextInt(accountIds.length);
+        digest.update(previousGenerationSignature);
+        byte[] generationSignature = digest.digest(publicKeys[generator]);
+        return new BlockImpl(BLOCK_VERSION, timestamp, previousBlockId, totalAmountNQT, totalFeeNQT, payloadLength,
+                payloadHash, publicKeys[generator], generationSignature, previousBlockHash, transactions,
+                secretPhrases[generator]);
+    }
+}
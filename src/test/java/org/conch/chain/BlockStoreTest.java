@@ -0,0 +1,208 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.chain;
+
+import org.conch.Conch;
+import org.conch.bench.SyntheticChain;
+import org.conch.db.Db;
+import org.conch.db.TestDb;
+import org.conch.storage.BlockStore;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test of the block records of {@link BlockStore} as they are written and read by {@link BlockDb}.
+ * <p>
+ * Usage: BlockStoreTest [seed]
+ * <p>
+ * A synthetic chain is saved to a new database with the block store enabled.  The blocks are
+ * loaded back from their records, the records of the blocks deleted from a height are overwritten,
+ * a damaged last record is dropped when the store is recovered at the start and the records of a
+ * rolled back database transaction are overwritten.
+ */
+public final class BlockStoreTest {
+
+    private static final int BLOCK_COUNT = 20;
+    private static final int BLOCK_TRANSACTIONS = 10;
+
+    public static void main(String[] args) throws Exception {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1L;
+        TestDb.init("block-store", "sharder.blockStore=true");
+        BlockDb.recoverBlockStore();
+        List<BlockImpl> blocks = new SyntheticChain(seed, 20).newChain(BLOCK_COUNT, BLOCK_TRANSACTIONS);
+        appendAndLoad(blocks);
+        deleteBlocks(blocks);
+        recoverDamagedRecord(blocks, false);
+        recoverDamagedRecord(blocks, true);
+        rollback(blocks);
+        TestDb.exit("BlockStoreTest, seed " + seed);
+    }
+
+    private static void appendAndLoad(List<BlockImpl> blocks) throws SQLException {
+        long previousOffset = -1;
+        BlockImpl previousBlock = null;
+        for (BlockImpl block : blocks) {
+            block.setPrevious(previousBlock);
+            previousBlock = block;
+            save(block, true);
+            long offset = getStoreOffset(block);
+            TestDb.check(offset > previousOffset, "block " + block.getHeight() + " record at " + offset + " follows the record at " + previousOffset);
+            previousOffset = offset;
+        }
+        for (BlockImpl block : blocks) {
+            checkLoaded(block, "appended");
+        }
+    }
+
+    private static void deleteBlocks(List<BlockImpl> blocks) throws SQLException {
+        int height = BLOCK_COUNT / 2;
+        long offset = getStoreOffset(blocks.get(height));
+        BlockImpl lastBlock = BlockDb.deleteBlocksFrom(blocks.get(height).getId());
+        TestDb.check(lastBlock.getId() == blocks.get(height - 1).getId(), "last block after the deletion is at height " + (height - 1));
+        for (BlockImpl block : blocks.subList(height, BLOCK_COUNT)) {
+            TestDb.check(BlockDb.findBlock(block.getId()) == null, "deleted block " + block.getHeight() + " not found");
+        }
+        save(blocks.get(height), true);
+        TestDb.check(getStoreOffset(blocks.get(height)) == offset, "record of the block saved after the deletion overwrites the deleted records");
+        for (BlockImpl block : blocks.subList(height + 1, BLOCK_COUNT)) {
+            save(block, true);
+        }
+        for (BlockImpl block : blocks) {
+            checkLoaded(block, "saved again");
+        }
+    }
+
+    /**
+     * Damage the record of the last block, as a crash while it was written, and recover the store
+     *
+     * @param torn TRUE to zero the end of the record, FALSE to change one byte of its payload
+     */
+    private static void recoverDamagedRecord(List<BlockImpl> blocks, boolean torn) throws SQLException, IOException {
+        String damage = torn ? "torn" : "corrupt";
+        BlockImpl lastBlock = blocks.get(BLOCK_COUNT - 1);
+        long offset = getStoreOffset(lastBlock);
+        long end = BlockStore.getRecordEnd(offset, lastBlock.getId());
+        try (RandomAccessFile file = new RandomAccessFile(getSegment(0).toFile(), "rw")) {
+            if (torn) {
+                long tornOffset = (offset + end) / 2;
+                file.seek(tornOffset);
+                file.write(new byte[(int) (end - tornOffset)]);
+            } else {
+                file.seek(end - 1);
+                int b = file.read();
+                file.seek(end - 1);
+                file.write(b ^ 0xFF);
+            }
+        }
+        TestDb.check(BlockStore.read(offset, lastBlock.getId()) == null, damage + " record is not read");
+        BlockDb.recoverBlockStore();
+        TestDb.check(getStoreOffset(lastBlock) < 0, "store offset of the " + damage + " record is cleared");
+        checkLoaded(lastBlock, "loaded from the database after the " + damage + " record");
+        BlockImpl deletedBlock = BlockDb.deleteBlocksFrom(lastBlock.getId());
+        TestDb.check(deletedBlock.getId() == blocks.get(BLOCK_COUNT - 2).getId(), "block with the " + damage + " record deleted");
+        save(lastBlock, true);
+        TestDb.check(getStoreOffset(lastBlock) == offset, "record appended after the recovery overwrites the " + damage + " record");
+        checkLoaded(lastBlock, "saved again after the " + damage + " record");
+    }
+
+    private static void rollback(List<BlockImpl> blocks) throws SQLException {
+        BlockImpl lastBlock = blocks.get(BLOCK_COUNT - 1);
+        long offset = getStoreOffset(lastBlock);
+        BlockDb.deleteBlocksFrom(lastBlock.getId());
+        save(lastBlock, false);
+        TestDb.check(BlockDb.findBlock(lastBlock.getId()) == null, "block of the rolled back transaction not found");
+        save(lastBlock, true);
+        TestDb.check(getStoreOffset(lastBlock) == offset, "record appended after the rollback overwrites the rolled back record");
+        checkLoaded(lastBlock, "saved again after the rollback");
+    }
+
+    private static void save(BlockImpl block, boolean commit) {
+        try {
+            Connection con = Db.db.beginTransaction();
+            BlockDb.saveBlock(con, block);
+            if (commit) {
+                Db.db.commitTransaction();
+            } else {
+                Db.db.rollbackTransaction();
+            }
+        } finally {
+            Db.db.endTransaction();
+        }
+    }
+
+    /**
+     * Check that a block is loaded with its transactions, from its record if it has one
+     */
+    private static void checkLoaded(BlockImpl block, String state) throws SQLException {
+        BlockImpl loadedBlock = null;
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block WHERE id = ?")) {
+            pstmt.setLong(1, block.getId());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    loadedBlock = BlockDb.loadBlock(con, rs, true);
+                }
+            }
+        }
+        boolean loaded = loadedBlock != null && loadedBlock.getHeight() == block.getHeight()
+                && loadedBlock.getTransactions().size() == block.getTransactions().size();
+        for (int i = 0; loaded && i < block.getTransactions().size(); i++) {
+            loaded = loadedBlock.getTransactions().get(i).getId() == block.getTransactions().get(i).getId();
+        }
+        // the public keys are not in the database, the bytes are only known from the record
+        if (loaded && getStoreOffset(block) >= 0) {
+            loaded = Arrays.equals(loadedBlock.bytes(), block.bytes());
+            for (int i = 0; loaded && i < block.getTransactions().size(); i++) {
+                loaded = Arrays.equals(loadedBlock.getTransactions().get(i).bytes(), block.getTransactions().get(i).bytes());
+            }
+        }
+        TestDb.check(loaded, "block " + block.getHeight() + " " + state + " is loaded");
+    }
+
+    private static long getStoreOffset(BlockImpl block) throws SQLException {
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT store_offset FROM block WHERE id = ?")) {
+            pstmt.setLong(1, block.getId());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return -2;
+                }
+                long offset = rs.getLong(1);
+                return rs.wasNull() ? -1 : offset;
+            }
+        }
+    }
+
+    private static Path getSegment(long start) {
+        return Paths.get(Conch.getUserHomeDir(), Db.getDir()).getParent().resolve("blocks")
+                .resolve(String.format("blocks_%015d.dat", start));
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.db;
+
+import org.conch.account.Account;
+import org.conch.account.AccountLedger;
+import org.conch.bench.SyntheticChain;
+import org.conch.chain.BlockDb;
+import org.conch.chain.BlockImpl;
+import org.conch.chain.BlockchainImpl;
+import org.conch.chain.BlockchainProcessorImpl;
+import org.conch.common.Constants;
+import org.conch.tx.TransactionImpl;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Check that the buffered entity writes of {@code sharder.batchBlockWrites} give the same derived
+ * tables as the writes of one statement per entity.
+ * <p>
+ * Usage: BatchBlockWritesTest [seed]
+ * <p>
+ * The synthetic chain is applied twice, with and without the write buffering, each time in its own
+ * JVM since the property is read once.  The blocks are saved and applied like pushed blocks without
+ * their validation: the accounts are funded in the first block, a block is rolled back once in the
+ * middle of its transactions and the last blocks are popped off and applied again.  Then all the
+ * rows of all the tables but their db_id are compared.
+ */
+public final class BatchBlockWritesTest {
+
+    private static final int ACCOUNT_COUNT = 50;
+    private static final int BLOCK_COUNT = 40;
+    private static final int BLOCK_TRANSACTIONS = 20;
+    private static final int POPPED_BLOCKS = 5;
+
+    private static final class RollbackException extends RuntimeException {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("apply")) {
+            apply(Boolean.parseBoolean(args[1]), Long.parseLong(args[2]), Paths.get(args[3]));
+            return;
+        }
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1L;
+        Path dir = Files.createTempDirectory("batch-block-writes");
+        Path batched = dir.resolve("batched.txt");
+        Path unbatched = dir.resolve("unbatched.txt");
+        if (TestDb.runChild(BatchBlockWritesTest.class, "apply", "true", Long.toString(seed), batched.toString()) != 0
+                || TestDb.runChild(BatchBlockWritesTest.class, "apply", "false", Long.toString(seed), unbatched.toString()) != 0) {
+            System.out.println("BatchBlockWritesTest: unable to apply the chain");
+            System.exit(1);
+        }
+        List<String> batchedRows = Files.readAllLines(batched, StandardCharsets.UTF_8);
+        List<String> unbatchedRows = Files.readAllLines(unbatched, StandardCharsets.UTF_8);
+        int differences = 0;
+        for (int i = 0; i < Math.max(batchedRows.size(), unbatchedRows.size()); i++) {
+            String batchedRow = i < batchedRows.size() ? batchedRows.get(i) : "";
+            String unbatchedRow = i < unbatchedRows.size() ? unbatchedRows.get(i) : "";
+            if (!batchedRow.equals(unbatchedRow) && differences++ < 20) {
+                System.out.println("batched:   " + batchedRow);
+                System.out.println("unbatched: " + unbatchedRow);
+            }
+        }
+        System.out.println("BatchBlockWritesTest, seed " + seed + ", " + batchedRows.size() + " rows: "
+                + (differences == 0 ? "OK" : differences + " differences"));
+        System.exit(differences == 0 ? 0 : 1);
+    }
+
+    private static void apply(boolean batchBlockWrites, long seed, Path result) throws Exception {
+        TestDb.init("batch-block-writes", "sharder.batchBlockWrites=" + batchBlockWrites, "sharder.ledgerAccounts=*");
+        Account.init();
+        AccountLedger.init();
+        SyntheticChain chain = new SyntheticChain(seed, ACCOUNT_COUNT);
+        List<BlockImpl> blocks = chain.newChain(BLOCK_COUNT, BLOCK_TRANSACTIONS);
+        BlockImpl previousBlock = null;
+        for (BlockImpl block : blocks) {
+            block.setPrevious(previousBlock);
+            if (block.getHeight() == 0) {
+                apply(block, chain, false);
+            } else {
+                if (block.getHeight() == BLOCK_COUNT / 2) {
+                    apply(block, chain, true);
+                }
+                apply(block, chain, false);
+            }
+            previousBlock = block;
+        }
+        popOff(BLOCK_COUNT - 1 - POPPED_BLOCKS);
+        for (BlockImpl block : blocks.subList(BLOCK_COUNT - POPPED_BLOCKS, BLOCK_COUNT)) {
+            apply(block, chain, false);
+        }
+        Files.write(result, dump(), StandardCharsets.UTF_8);
+        TestDb.exit("BatchBlockWritesTest apply, batchBlockWrites=" + batchBlockWrites);
+    }
+
+    /**
+     * Save and apply a block in one database transaction, like a pushed block
+     *
+     * @param rollback Roll the transaction back after half of the transactions
+     */
+    private static void apply(BlockImpl block, SyntheticChain chain, boolean rollback) {
+        BlockchainImpl blockchain = BlockchainImpl.getInstance();
+        BlockImpl previousLastBlock = blockchain.getLastBlock();
+        try {
+            Connection con = Db.db.beginTransaction();
+            BlockDb.saveBlock(con, block);
+            blockchain.setLastBlock(block);
+            Db.db.beginWriteBuffering();
+            if (block.getHeight() == 0) {
+                for (int i = 0; i < chain.getAccountCount(); i++) {
+                    Account.addOrGetAccount(chain.getAccountId(i))
+                            .addBalanceAddUnconfirmed(AccountLedger.LedgerEvent.BLOCK_GENERATED, block.getId(), 1000000 * Constants.ONE_SS);
+                }
+            }
+            List<TransactionImpl> transactions = block.getTransactions();
+            for (TransactionImpl transaction : transactions) {
+                TestDb.check(transaction.applyUnconfirmed(), "unconfirmed balance of " + transaction.getStringId());
+            }
+            block.apply();
+            for (int i = 0; i < transactions.size(); i++) {
+                if (rollback && i == transactions.size() / 2) {
+                    throw new RollbackException();
+                }
+                transactions.get(i).apply();
+            }
+            Db.db.endWriteBuffering();
+            AccountLedger.commitEntries();
+            Db.db.commitTransaction();
+        } catch (RollbackException e) {
+            Db.db.rollbackTransaction();
+            blockchain.setLastBlock(previousLastBlock);
+        } finally {
+            Db.db.endTransaction();
+            AccountLedger.clearEntries();
+        }
+    }
+
+    /**
+     * Pop off the blocks above a height, like a fork switch
+     */
+    private static void popOff(int height) {
+        BlockchainImpl blockchain = BlockchainImpl.getInstance();
+        try {
+            Db.db.beginTransaction();
+            for (DerivedDbTable table : BlockchainProcessorImpl.getInstance().getDerivedTables()) {
+                table.rollback(height);
+            }
+            Db.db.clearCache();
+            Db.db.commitTransaction();
+        } catch (RuntimeException e) {
+            Db.db.rollbackTransaction();
+            throw e;
+        } finally {
+            Db.db.endTransaction();
+        }
+        blockchain.setLastBlock(BlockDb.deleteBlocksFrom(BlockDb.findBlockIdAtHeight(height + 1)));
+    }
+
+    /**
+     * Return the rows of all the tables but their db_id, sorted
+     */
+    private static List<String> dump() throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Connection con = Db.db.getConnection();
+             Statement stmt = con.createStatement()) {
+            List<String> tables = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery("SELECT table_name FROM information_schema.tables "
+                    + "WHERE table_schema = 'PUBLIC' AND table_type = 'TABLE' ORDER BY table_name")) {
+                while (rs.next()) {
+                    tables.add(rs.getString(1));
+                }
+            }
+            for (String table : tables) {
+                List<String> columns = new ArrayList<>();
+                try (ResultSet rs = stmt.executeQuery("SELECT column_name FROM information_schema.columns "
+                        + "WHERE table_schema = 'PUBLIC' AND table_name = '" + table + "' AND column_name <> 'DB_ID' ORDER BY ordinal_position")) {
+                    while (rs.next()) {
+                        columns.add(rs.getString(1));
+                    }
+                }
+                String columnList = String.join(", ", columns);
+                try (ResultSet rs = stmt.executeQuery("SELECT " + columnList + " FROM " + table + " ORDER BY " + columnList)) {
+                    ResultSetMetaData metaData = rs.getMetaData();
+                    while (rs.next()) {
+                        StringBuilder row = new StringBuilder(table);
+                        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                            row.append(' ').append(rs.getString(i));
+                        }
+                        rows.add(row.toString());
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+}
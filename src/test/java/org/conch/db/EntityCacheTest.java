@@ -0,0 +1,183 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.db;
+
+import org.conch.account.Account;
+import org.conch.account.AccountLedger;
+import org.conch.bench.SyntheticChain;
+import org.conch.chain.BlockDb;
+import org.conch.chain.BlockImpl;
+import org.conch.chain.BlockchainImpl;
+import org.conch.chain.BlockchainProcessorImpl;
+import org.conch.common.Constants;
+import org.json.simple.JSONObject;
+
+import java.sql.Connection;
+import java.util.List;
+
+/**
+ * Test of the shared {@link EntityCache} of the account table.
+ * <p>
+ * Usage: EntityCacheTest [seed]
+ * <p>
+ * The accounts read outside of a database transaction are served from the cache.  An account
+ * modified in a rolled back database transaction, and an account of a block popped off, are loaded
+ * again from the database, a load done while the table is modified is not cached and the cache
+ * keeps at most {@code sharder.entityCacheSize} accounts.
+ */
+public final class EntityCacheTest {
+
+    private static final int ACCOUNT_COUNT = 6;
+    private static final int CACHE_SIZE = 4;
+    private static final long BALANCE = 1000 * Constants.ONE_SS;
+    private static final String TEST_TABLE = "entity_cache_test";
+
+    private static SyntheticChain chain;
+
+    public static void main(String[] args) throws Exception {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1L;
+        TestDb.init("entity-cache", "sharder.entityCacheTables=account;" + TEST_TABLE, "sharder.entityCacheSize=" + CACHE_SIZE);
+        chain = new SyntheticChain(seed, ACCOUNT_COUNT);
+        List<BlockImpl> blocks = chain.newChain(2, 0);
+        apply(blocks.get(0), null, 0, BALANCE);
+        cacheHits();
+        transactionRollback();
+        popOff(blocks.get(1));
+        concurrentLoad();
+        sizeBound();
+        TestDb.exit("EntityCacheTest, seed " + seed);
+    }
+
+    private static void cacheHits() {
+        long hits = getStats("hits");
+        Account account = Account.getAccount(chain.getAccountId(0));
+        TestDb.check(account != null && account.getBalanceNQT() == BALANCE, "account loaded with its balance");
+        TestDb.check(Account.getAccount(chain.getAccountId(0)) == account, "account read again served from the cache");
+        TestDb.check(getStats("hits") == hits + 1, "cache hit counted");
+    }
+
+    /**
+     * Modify a cached account in a database transaction which is rolled back
+     */
+    private static void transactionRollback() {
+        long accountId = chain.getAccountId(0);
+        Account cachedAccount = Account.getAccount(accountId);
+        Account modifiedAccount;
+        try {
+            Db.db.beginTransaction();
+            modifiedAccount = Account.getAccount(accountId);
+            TestDb.check(modifiedAccount != cachedAccount, "database transaction loads its own account");
+            modifiedAccount.addBalanceAddUnconfirmed(AccountLedger.LedgerEvent.BLOCK_GENERATED, 1, Constants.ONE_SS);
+            Db.db.rollbackTransaction();
+        } finally {
+            Db.db.endTransaction();
+        }
+        Account account = Account.getAccount(accountId);
+        TestDb.check(account != cachedAccount && account != modifiedAccount, "account invalidated by the rolled back transaction");
+        TestDb.check(account.getBalanceNQT() == BALANCE, "balance of the rolled back transaction not seen");
+        TestDb.check(Account.getAccount(accountId) == account, "account loaded after the rollback cached again");
+    }
+
+    /**
+     * Apply a block which modifies a cached account, then pop it off
+     */
+    private static void popOff(BlockImpl block) {
+        long accountId = chain.getAccountId(0);
+        apply(block, BlockchainImpl.getInstance().getLastBlock(), 1, Constants.ONE_SS);
+        Account account = Account.getAccount(accountId);
+        TestDb.check(account.getBalanceNQT() == BALANCE + Constants.ONE_SS, "balance of the block read after the commit");
+        TestDb.check(Account.getAccount(accountId) == account, "account of the block cached");
+        try {
+            Db.db.beginTransaction();
+            for (DerivedDbTable table : BlockchainProcessorImpl.getInstance().getDerivedTables()) {
+                table.rollback(0);
+            }
+            Db.db.clearCache();
+            Db.db.commitTransaction();
+        } finally {
+            Db.db.endTransaction();
+        }
+        BlockchainImpl.getInstance().setLastBlock(BlockDb.deleteBlocksFrom(block.getId()));
+        TestDb.check(Account.getAccount(accountId).getBalanceNQT() == BALANCE, "balance of the popped off block not served from the cache");
+    }
+
+    /**
+     * Cache a load done while the table is modified by a database transaction
+     */
+    private static void concurrentLoad() {
+        EntityCache<String> entityCache = EntityCache.create(TEST_TABLE);
+        DbKey dbKey = new DbKey.LongKeyFactory<String>("id") {
+
+            @Override
+            public DbKey newKey(String s) {
+                return newKey(Long.parseLong(s));
+            }
+
+        }.newKey(1);
+        long modCount = entityCache.getModCount();
+        try {
+            Db.db.beginTransaction();
+            entityCache.invalidate(Db.db, dbKey);
+            entityCache.put(dbKey, "stale", modCount);
+            Db.db.commitTransaction();
+        } finally {
+            Db.db.endTransaction();
+        }
+        TestDb.check(entityCache.get(dbKey) == null, "load done while the table was modified not cached");
+        entityCache.put(dbKey, "loaded", entityCache.getModCount());
+        TestDb.check("loaded".equals(entityCache.get(dbKey)), "load done after the commit cached");
+    }
+
+    private static void sizeBound() {
+        for (int n = 0; n < 2; n++) {
+            for (int i = 0; i < ACCOUNT_COUNT; i++) {
+                TestDb.check(Account.getAccount(chain.getAccountId(i)).getBalanceNQT() == BALANCE, "balance of account " + i);
+            }
+        }
+        TestDb.check(getStats("size") <= CACHE_SIZE, "cache size " + getStats("size") + " bounded by " + CACHE_SIZE);
+        TestDb.check(getStats("evictions") >= ACCOUNT_COUNT - CACHE_SIZE, "accounts above the cache size evicted");
+    }
+
+    /**
+     * Save a block and add an amount to the balances of the accounts, like a pushed block
+     */
+    private static void apply(BlockImpl block, BlockImpl previousBlock, int accountCount, long amountNQT) {
+        block.setPrevious(previousBlock);
+        try {
+            Connection con = Db.db.beginTransaction();
+            BlockDb.saveBlock(con, block);
+            BlockchainImpl.getInstance().setLastBlock(block);
+            for (int i = 0; i < (accountCount > 0 ? accountCount : ACCOUNT_COUNT); i++) {
+                Account.addOrGetAccount(chain.getAccountId(i))
+                        .addBalanceAddUnconfirmed(AccountLedger.LedgerEvent.BLOCK_GENERATED, block.getId(), amountNQT);
+            }
+            Db.db.commitTransaction();
+        } finally {
+            Db.db.endTransaction();
+        }
+    }
+
+    private static long getStats(String name) {
+        JSONObject stats = (JSONObject) EntityCache.getStats().get("account");
+        return ((Number) stats.get(name)).longValue();
+    }
+}
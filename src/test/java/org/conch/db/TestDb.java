@@ -0,0 +1,115 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Temporary database of the tests which run the database code of the node without starting it.
+ * <p>
+ * {@link #init} writes the properties of a new database in a temporary folder and must be called
+ * before a class of the node is loaded, the properties are read once.  The tests are run from the
+ * application folder like the node, a test which needs other values of the properties read by
+ * static fields runs each configuration in its own JVM with {@link #runChild}.
+ */
+public final class TestDb {
+
+    private static int failures;
+
+    private TestDb() {}
+
+    /**
+     * Create a new database and open it
+     *
+     * @param name Folder name prefix
+     * @param properties Additional properties, "name=value"
+     * @return Temporary folder of the database
+     * @throws IOException Unable to write the properties
+     */
+    public static Path init(String name, String... properties) throws IOException {
+        Path dir = Files.createTempDirectory(name);
+        String dbDir = dir.resolve("db").resolve("sharder").toAbsolutePath().toString().replace('\\', '/');
+        List<String> lines = new ArrayList<>();
+        for (String prefix : new String[] {"sharder.db", "sharder.testDb"}) {
+            lines.add(prefix + "Dir=" + dbDir);
+            lines.add(prefix + "Url=jdbc:h2:" + dbDir + ";DB_CLOSE_ON_EXIT=FALSE;MVCC=TRUE;MV_STORE=FALSE");
+        }
+        // the address is not looked up and conf/sharder.properties is not rewritten
+        lines.add("sharder.closeAutoSwitchIp=true");
+        lines.addAll(Arrays.asList(properties));
+        Path file = dir.resolve("sharder.properties");
+        Files.write(file, lines, StandardCharsets.ISO_8859_1);
+        System.setProperty("sharder.properties", file.toAbsolutePath().toString());
+        Db.init();
+        return dir;
+    }
+
+    /**
+     * Run the main method of a test class in a new JVM with the class path of this JVM
+     *
+     * @param mainClass Test class
+     * @param args Arguments
+     * @return Exit code
+     * @throws IOException Unable to start the JVM
+     * @throws InterruptedException Interrupted while waiting for the JVM
+     */
+    public static int runChild(Class<?> mainClass, String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass.getName());
+        command.addAll(Arrays.asList(args));
+        return new ProcessBuilder(command).inheritIO().start().waitFor();
+    }
+
+    /**
+     * Count a failed check
+     *
+     * @param condition Checked condition
+     * @param message Printed if the condition is false
+     */
+    public static void check(boolean condition, String message) {
+        if (!condition) {
+            failures++;
+            System.out.println("FAILED: " + message);
+        }
+    }
+
+    /**
+     * Print the result of the checks and exit, with the code 1 if a check failed
+     *
+     * @param test Test name
+     */
+    public static void exit(String test) {
+        System.out.println(test + ": " + (failures == 0 ? "OK" : failures + " failed checks"));
+        // the node threads started by the loaded classes don't end
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
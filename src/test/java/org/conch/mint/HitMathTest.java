@@ -0,0 +1,150 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.mint;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Differential test of {@link HitMath} against the former {@link BigInteger} computation of
+ * the hit, the hit time delay, the target check and the generator order.
+ * <p>
+ * Usage: HitMathTest [rounds] [seed], default 10 million rounds
+ */
+public final class HitMathTest {
+
+    private static final long[] EDGE_HITS = {0, 1, 2, Long.MAX_VALUE, Long.MIN_VALUE, -1, -2, 0xFFFFFFFFL, 0x100000000L};
+    private static final long[] EDGE_LONGS = {1, 2, 60, 153722867, 0xFFFFFFFFL, 0x100000000L, Long.MAX_VALUE / 2, Long.MAX_VALUE};
+
+    public static BigInteger referenceHit(byte[] hash) {
+        return new BigInteger(1, new byte[] {hash[7], hash[6], hash[5], hash[4], hash[3], hash[2], hash[1], hash[0]});
+    }
+
+    public static long referenceHitDelay(BigInteger hit, long baseTarget, BigInteger pocScore) {
+        return hit.divide(BigInteger.valueOf(baseTarget).multiply(pocScore)).longValue();
+    }
+
+    public static boolean referenceHitInTarget(BigInteger hit, long baseTarget, BigInteger pocScore, long intervals, boolean ignorePreviousTarget) {
+        BigInteger effectiveBaseTarget = BigInteger.valueOf(baseTarget).multiply(pocScore);
+        BigInteger prevTarget = effectiveBaseTarget.multiply(BigInteger.valueOf(intervals));
+        BigInteger target = prevTarget.add(effectiveBaseTarget);
+        return hit.compareTo(target) < 0 && (hit.compareTo(prevTarget) >= 0 || ignorePreviousTarget);
+    }
+
+    public static int referenceCompare(BigInteger hit1, BigInteger pocScore1, BigInteger hit2, BigInteger pocScore2) {
+        return hit1.multiply(pocScore2).compareTo(hit2.multiply(pocScore1));
+    }
+
+    public static void main(String[] args) {
+        long rounds = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000L;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+        Random random = new Random(seed);
+        long failures = 0;
+
+        for (long hit : EDGE_HITS) {
+            for (long baseTarget : EDGE_LONGS) {
+                for (long score : EDGE_LONGS) {
+                    for (long intervals : new long[] {-2, -1, 0, 1, 2, 59, 3600}) {
+                        failures += check(hit, baseTarget, BigInteger.valueOf(score), intervals, hit, BigInteger.valueOf(score + 1 > 0 ? score + 1 : score));
+                    }
+                }
+            }
+        }
+        byte[] hash = new byte[32];
+        for (long i = 0; i < rounds; i++) {
+            random.nextBytes(hash);
+            if (HitMath.hit(hash) != referenceHit(hash).longValue()) {
+                failures++;
+                System.out.println("hit mismatch at round " + i);
+            }
+            long hit = HitMath.hit(hash);
+            long baseTarget = randomLong(random);
+            BigInteger pocScore = randomScore(random);
+            long intervals = random.nextInt(4) == 0 ? random.nextInt(3) : random.nextInt(Integer.MAX_VALUE);
+            failures += check(hit, baseTarget, pocScore, intervals, random.nextLong(), randomScore(random));
+            if (failures > 100) {
+                break;
+            }
+        }
+        System.out.println("HitMath differential test, seed " + seed + ", " + rounds + " rounds: "
+                + (failures == 0 ? "OK" : failures + " mismatches"));
+        if (failures != 0) {
+            System.exit(1);
+        }
+    }
+
+    private static long randomLong(Random random) {
+        // mix of small, 32-bit and full 63-bit magnitudes
+        switch (random.nextInt(3)) {
+            case 0:
+                return 1 + random.nextInt(Integer.MAX_VALUE);
+            case 1:
+                return 1 + (random.nextLong() >>> 20);
+            default:
+                return Math.max(1, random.nextLong() >>> 1);
+        }
+    }
+
+    private static BigInteger randomScore(Random random) {
+        // the out of range scores are checked to take the BigInteger path
+        switch (random.nextInt(8)) {
+            case 0:
+                return BigInteger.ZERO.subtract(BigInteger.valueOf(1 + random.nextInt(1000)));
+            case 1:
+                return new BigInteger(64 + random.nextInt(8), random);
+            default:
+                return BigInteger.valueOf(randomLong(random));
+        }
+    }
+
+    private static long check(long hit, long baseTarget, BigInteger pocScore, long intervals, long otherHit, BigInteger otherPocScore) {
+        long failures = 0;
+        BigInteger bigHit = HitMath.toBigInteger(hit);
+        if (pocScore.signum() != 0) {
+            long expected = referenceHitDelay(bigHit, baseTarget, pocScore);
+            long actual = HitMath.hitDelay(hit, baseTarget, pocScore);
+            if (expected != actual) {
+                failures++;
+                System.out.println("hitDelay mismatch: hit=" + bigHit + " baseTarget=" + baseTarget + " pocScore=" + pocScore
+                        + " expected=" + expected + " actual=" + actual);
+            }
+        }
+        for (boolean ignore : new boolean[] {false, true}) {
+            boolean expected = referenceHitInTarget(bigHit, baseTarget, pocScore, intervals, ignore);
+            boolean actual = HitMath.isHitInTarget(hit, baseTarget, pocScore, intervals, ignore);
+            if (expected != actual) {
+                failures++;
+                System.out.println("isHitInTarget mismatch: hit=" + bigHit + " baseTarget=" + baseTarget + " pocScore=" + pocScore
+                        + " intervals=" + intervals + " ignore=" + ignore + " expected=" + expected);
+            }
+        }
+        int expected = referenceCompare(bigHit, pocScore, HitMath.toBigInteger(otherHit), otherPocScore);
+        int actual = HitMath.compare(hit, pocScore, otherHit, otherPocScore);
+        if (Integer.signum(expected) != Integer.signum(actual)) {
+            failures++;
+            System.out.println("compare mismatch: hit=" + bigHit + " pocScore=" + pocScore + " otherHit=" + Long.toUnsignedString(otherHit)
+                    + " otherPocScore=" + otherPocScore + " expected=" + expected + " actual=" + actual);
+        }
+        return failures;
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.tx;
+
+import org.conch.account.Account;
+import org.conch.account.AccountLedger;
+import org.conch.bench.SyntheticChain;
+import org.conch.chain.BlockDb;
+import org.conch.chain.BlockImpl;
+import org.conch.chain.BlockchainImpl;
+import org.conch.common.ConchException;
+import org.conch.common.Constants;
+import org.conch.db.Db;
+import org.conch.db.TestDb;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Test of the in-memory index of the unconfirmed transaction pool.
+ * <p>
+ * Usage: MempoolTest [seed]
+ * <p>
+ * The pool returns its transactions in the forging order and keeps the pending amounts of the
+ * senders.  The pool of the transaction processor is loaded from the unconfirmed_transaction
+ * table, a new block removes its transactions and the other transactions of their senders from
+ * the pool and the table, and the requeued transactions are dropped from the bounded waiting
+ * queue by increasing fee.
+ */
+public final class MempoolTest {
+
+    private static final int ACCOUNT_COUNT = 6;
+    private static final int MAX_WAITING = 4;
+    private static final int HEIGHT = 1;
+
+    private static SyntheticChain chain;
+    private static int nextAmount = 1;
+
+    public static void main(String[] args) throws Exception {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1L;
+        TestDb.init("mempool", "sharder.maxUnconfirmedTransactions=" + MAX_WAITING);
+        chain = new SyntheticChain(seed, ACCOUNT_COUNT);
+        forgingOrder();
+        senders();
+        blockApply();
+        TestDb.exit("MempoolTest, seed " + seed);
+    }
+
+    private static void forgingOrder() throws ConchException.NotValidException {
+        Mempool mempool = new Mempool();
+        UnconfirmedTransaction lowFee = newUnconfirmed(0, 1, 100, HEIGHT);
+        UnconfirmedTransaction highFee = newUnconfirmed(1, 3, 400, HEIGHT);
+        UnconfirmedTransaction lateArrival = newUnconfirmed(2, 2, 300, HEIGHT);
+        UnconfirmedTransaction earlyArrival = newUnconfirmed(3, 2, 200, HEIGHT);
+        UnconfirmedTransaction lowHeight = newUnconfirmed(4, 1, 500, HEIGHT - 1);
+        for (UnconfirmedTransaction unconfirmedTransaction : Arrays.asList(lowFee, highFee, lateArrival, earlyArrival, lowHeight)) {
+            TestDb.check(mempool.add(unconfirmedTransaction), "transaction " + unconfirmedTransaction.getStringId() + " added");
+        }
+        TestDb.check(!mempool.add(highFee), "transaction added twice is rejected");
+        checkIds(mempool.getSortedTransactions(), Arrays.asList(lowHeight, highFee, earlyArrival, lateArrival, lowFee),
+                "forging order by height, fee per byte and arrival");
+        TestDb.check(mempool.remove(highFee.getId()) == highFee && mempool.get(highFee.getId()) == null, "removed transaction not found");
+        TestDb.check(mempool.remove(highFee.getId()) == null, "transaction removed twice not found");
+        checkIds(mempool.getSortedTransactions(), Arrays.asList(lowHeight, earlyArrival, lateArrival, lowFee),
+                "forging order after a removal");
+        mempool.clear();
+        TestDb.check(mempool.size() == 0 && mempool.getSortedTransactions().isEmpty(), "cleared pool is empty");
+    }
+
+    private static void senders() throws ConchException.NotValidException {
+        Mempool mempool = new Mempool();
+        UnconfirmedTransaction first = newUnconfirmed(0, 1, 100, HEIGHT);
+        UnconfirmedTransaction second = newUnconfirmed(0, 2, 200, HEIGHT);
+        UnconfirmedTransaction other = newUnconfirmed(1, 1, 300, HEIGHT);
+        mempool.add(first);
+        mempool.add(second);
+        mempool.add(other);
+        long senderId = chain.getAccountId(0);
+        Mempool.Sender sender = mempool.getSender(senderId);
+        TestDb.check(sender != null && sender.getTransactionCount() == 2
+                        && sender.getAmountNQT() == first.getAmountNQT() + second.getAmountNQT()
+                        && sender.getFeeNQT() == first.getFeeNQT() + second.getFeeNQT(),
+                "pending amounts of a sender with 2 transactions");
+        checkIds(mempool.getSenderTransactions(senderId), Arrays.asList(first, second), "transactions of a sender in arrival order");
+        mempool.remove(first.getId());
+        sender = mempool.getSender(senderId);
+        TestDb.check(sender != null && sender.getTransactionCount() == 1 && sender.getAmountNQT() == second.getAmountNQT()
+                && sender.getFeeNQT() == second.getFeeNQT(), "pending amounts of the sender after a removal");
+        mempool.remove(second.getId());
+        TestDb.check(mempool.getSender(senderId) == null && mempool.getSenderTransactions(senderId).isEmpty(),
+                "sender without transactions removed");
+        TestDb.check(mempool.getSender(chain.getAccountId(1)) != null, "other sender kept");
+    }
+
+    /**
+     * Load the pool of the transaction processor from the table, requeue the transactions of the
+     * senders of a block and fill the waiting queue above its size
+     */
+    private static void blockApply() throws Exception {
+        BlockImpl genesis = chain.newFirstBlock(0);
+        List<UnconfirmedTransaction> pool = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            // two transactions of each of the first 4 accounts, the fees increase with the account index
+            pool.add(newUnconfirmed(i, 2 * i + 1, 100 + i, HEIGHT));
+            pool.add(newUnconfirmed(i, 2 * i + 2, 200 + i, HEIGHT));
+        }
+        try {
+            Connection con = Db.db.beginTransaction();
+            BlockDb.saveBlock(con, genesis);
+            BlockchainImpl.getInstance().setLastBlock(genesis);
+            for (int i = 0; i < ACCOUNT_COUNT; i++) {
+                Account.addOrGetAccount(chain.getAccountId(i))
+                        .addBalanceAddUnconfirmed(AccountLedger.LedgerEvent.BLOCK_GENERATED, genesis.getId(), 1000000 * Constants.ONE_SS);
+            }
+            for (UnconfirmedTransaction unconfirmedTransaction : pool) {
+                TestDb.check(unconfirmedTransaction.getTransaction().applyUnconfirmed(), "unconfirmed balance of " + unconfirmedTransaction.getStringId());
+                unconfirmedTransaction.save(con);
+            }
+            Db.db.commitTransaction();
+        } finally {
+            Db.db.endTransaction();
+        }
+        TransactionProcessorImpl transactionProcessor = TransactionProcessorImpl.getInstance();
+        List<UnconfirmedTransaction> sorted = new ArrayList<>(pool);
+        sorted.sort((t1, t2) -> Long.compare(t2.getFeeNQT(), t1.getFeeNQT()));
+        checkIds(transactionProcessor.getSortedUnconfirmedTransactions(), sorted, "pool loaded from the table in the forging order");
+
+        // a block with a pool transaction of account 0 and a new transaction of account 1
+        UnconfirmedTransaction blockTransaction = pool.get(0);
+        TransactionImpl otherBlockTransaction = newUnconfirmed(1, 1, 600, HEIGHT).getTransaction();
+        BlockchainImpl.getInstance().writeLock();
+        try {
+            Db.db.beginTransaction();
+            transactionProcessor.requeueUnconfirmedTransactions(Arrays.asList(blockTransaction.getTransaction(), otherBlockTransaction));
+            Db.db.commitTransaction();
+        } finally {
+            Db.db.endTransaction();
+            BlockchainImpl.getInstance().writeUnlock();
+        }
+        List<UnconfirmedTransaction> kept = sorted.subList(0, 4);
+        checkIds(transactionProcessor.getSortedUnconfirmedTransactions(), kept, "transactions of the block senders removed from the pool");
+        TestDb.check(countRows() == kept.size(), "transactions of the block senders removed from the table");
+        TestDb.check(transactionProcessor.getSenderUnconfirmedTransactions(chain.getAccountId(0)).isEmpty()
+                && transactionProcessor.getSenderUnconfirmedAmountNQT(chain.getAccountId(1)) == 0, "senders of the block have no pending transactions");
+        checkWaiting(transactionProcessor, sorted.subList(4, 8), "requeued transactions waiting");
+
+        // the waiting queue is full, the lowest fees are dropped first
+        UnconfirmedTransaction highFee = newUnconfirmed(5, 20, 700, HEIGHT);
+        UnconfirmedTransaction lowFee = newUnconfirmed(5, 1, 800, HEIGHT);
+        transactionProcessor.processLater(Collections.singletonList(highFee.getTransaction()));
+        transactionProcessor.processLater(Collections.singletonList(lowFee.getTransaction()));
+        List<UnconfirmedTransaction> waiting = new ArrayList<>(sorted.subList(4, 7));
+        waiting.add(highFee);
+        checkWaiting(transactionProcessor, waiting, "lowest fees dropped from the full waiting queue");
+    }
+
+    private static UnconfirmedTransaction newUnconfirmed(int sender, long feeSS, long arrivalTimestamp, int height)
+            throws ConchException.NotValidException {
+        TransactionImpl transaction = new TransactionImpl.BuilderImpl(chain.getPublicKey(sender), nextAmount++ * Constants.ONE_SS,
+                feeSS * Constants.ONE_SS, (short) 1440, Attachment.ORDINARY_PAYMENT)
+                .timestamp(1000)
+                .recipientId(chain.getAccountId((sender + 1) % ACCOUNT_COUNT))
+                .ecBlockHeight(0)
+                .ecBlockId(0)
+                .build(chain.getSecretPhrase(sender));
+        transaction.setHeight(height);
+        return new UnconfirmedTransaction(transaction, arrivalTimestamp);
+    }
+
+    private static void checkIds(List<? extends Transaction> transactions, List<? extends Transaction> expected, String message) {
+        List<Long> ids = new ArrayList<>();
+        transactions.forEach(transaction -> ids.add(transaction.getId()));
+        List<Long> expectedIds = new ArrayList<>();
+        expected.forEach(transaction -> expectedIds.add(transaction.getId()));
+        TestDb.check(ids.equals(expectedIds), message + ": " + ids + ", expected " + expectedIds);
+    }
+
+    private static void checkWaiting(TransactionProcessorImpl transactionProcessor, List<UnconfirmedTransaction> expected, String message) {
+        Set<Long> ids = new HashSet<>();
+        for (UnconfirmedTransaction unconfirmedTransaction : transactionProcessor.getAllWaitingTransactions()) {
+            ids.add(unconfirmedTransaction.getId());
+        }
+        Set<Long> expectedIds = new HashSet<>();
+        expected.forEach(transaction -> expectedIds.add(transaction.getId()));
+        TestDb.check(ids.equals(expectedIds), message + ": " + ids + ", expected " + expectedIds);
+    }
+
+    private static int countRows() throws SQLException {
+        try (Connection con = Db.db.getConnection();
+             Statement stmt = con.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM unconfirmed_transaction")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ *  Copyright © 2017-2018 Sharder Foundation.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU General Public License
+ *  version 2 as published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, you can visit it at:
+ *  https://www.gnu.org/licenses/old-licenses/gpl-2.0.txt
+ *
+ *  This software uses third party libraries and open-source programs,
+ *  distributed under licenses described in 3RD-PARTY-LICENSES.
+ *
+ */
+
+package org.conch.vote;
+
+import org.conch.bench.SyntheticChain;
+import org.conch.chain.BlockDb;
+import org.conch.chain.BlockImpl;
+import org.conch.chain.BlockchainImpl;
+import org.conch.db.Db;
+import org.conch.db.TestDb;
+import org.conch.util.Convert;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Test of the lookups of {@link PhasingPollIndex} against the phasing_poll and
+ * phasing_poll_linked_transaction tables.
+ * <p>
+ * Usage: PhasingPollIndexTest [seed]
+ * <p>
+ * A few polls check the linked transactions sharing an id and the finish height buckets.  Then
+ * random polls, saved before the index is loaded or added to the loaded index, must all be found
+ * by each of their linked transactions and their finish height, and random transactions are not
+ * linked to any poll.  A poll added in a rolled back database transaction is dropped, the polls
+ * of an applied block are dropped and loaded again for a lower height, and the polls deleted
+ * from the database by the trim are not loaded again.
+ */
+public final class PhasingPollIndexTest {
+
+    private static final int POLL_COUNT = 500;
+    private static final int MAX_FINISH_HEIGHT = 50;
+    private static final int LOOKUP_COUNT = 2000;
+
+    private static Random random;
+    /** The polls 1 to 3 are the polls of linkedLookup */
+    private static long nextId = 4;
+    private static byte[] linkedHash;
+    private static byte[] sameIdHash;
+
+    public static void main(String[] args) throws Exception {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1L;
+        TestDb.init("phasing-poll-index");
+        random = new Random(seed);
+        linkedLookup();
+        randomPolls();
+        transactionRollback();
+        finishAndTrim(saveBlocks(new SyntheticChain(seed, 1).newChain(11, 0)));
+        TestDb.exit("PhasingPollIndexTest, seed " + seed);
+    }
+
+    /**
+     * Polls linked to transactions whose full hashes have the same first 8 bytes
+     */
+    private static void linkedLookup() throws SQLException {
+        linkedHash = newFullHash();
+        byte[] otherHash = newFullHash();
+        sameIdHash = Arrays.copyOf(linkedHash, 32);
+        sameIdHash[31] ^= 1;
+        save(1, 10, linkedHash, otherHash);
+        save(2, 12, linkedHash);
+        save(3, 10, sameIdHash);
+        PhasingPollIndex.reset();
+        checkIds(PhasingPollIndex.getLinkedPolls(linkedHash, 5), 1, 2);
+        checkIds(PhasingPollIndex.getLinkedPolls(otherHash, 5), 1);
+        checkIds(PhasingPollIndex.getLinkedPolls(sameIdHash, 5), 3);
+        checkIds(PhasingPollIndex.getLinkedPolls(linkedHash, 10), 2);
+        checkIds(PhasingPollIndex.getLinkedPolls(linkedHash, 12));
+        checkIds(PhasingPollIndex.getFinishingPolls(10), 1, 3);
+        checkIds(PhasingPollIndex.getFinishingPolls(11));
+        checkIds(PhasingPollIndex.getFinishingPolls(12), 2);
+    }
+
+    /**
+     * Random polls, half of them saved before the index is loaded and half added to the loaded index
+     */
+    private static void randomPolls() throws SQLException {
+        Map<Long, List<byte[]>> linkedHashes = new HashMap<>();
+        List<byte[]> allHashes = new ArrayList<>();
+        Map<Integer, Set<Long>> finishing = new HashMap<>();
+        Map<Long, Integer> finishHeights = new HashMap<>();
+        // the polls of linkedLookup are still open below height 10
+        finishing.computeIfAbsent(10, height -> new HashSet<>()).addAll(Arrays.asList(1L, 3L));
+        finishing.computeIfAbsent(12, height -> new HashSet<>()).add(2L);
+        PhasingPollIndex.reset();
+        for (int i = 0; i < POLL_COUNT; i++) {
+            long id = nextId++;
+            int finishHeight = 1 + random.nextInt(MAX_FINISH_HEIGHT);
+            byte[][] hashes = new byte[random.nextInt(4)][];
+            for (int j = 0; j < hashes.length; j++) {
+                // some polls are linked to the transaction of another poll
+                hashes[j] = j == 0 && !allHashes.isEmpty() && random.nextInt(10) == 0
+                        ? allHashes.get(random.nextInt(allHashes.size())) : newFullHash();
+                allHashes.add(hashes[j]);
+            }
+            if (i == POLL_COUNT / 2) {
+                PhasingPollIndex.getFinishingPolls(1);
+            }
+            save(id, finishHeight, hashes);
+            if (i >= POLL_COUNT / 2) {
+                PhasingPollIndex.addPoll(id, finishHeight, hashes);
+            }
+            linkedHashes.put(id, Arrays.asList(hashes));
+            finishHeights.put(id, finishHeight);
+            finishing.computeIfAbsent(finishHeight, height -> new HashSet<>()).add(id);
+        }
+        int missing = 0;
+        for (Map.Entry<Long, List<byte[]>> entry : linkedHashes.entrySet()) {
+            for (byte[] hash : entry.getValue()) {
+                if (!PhasingPollIndex.getLinkedPolls(hash, 0).contains(entry.getKey())
+                        || !PhasingPollIndex.getLinkedPolls(hash, finishHeights.get(entry.getKey()) - 1).contains(entry.getKey())) {
+                    missing++;
+                }
+            }
+        }
+        TestDb.check(missing == 0, missing + " linked transactions of the random polls not found");
+        for (int height = 1; height <= MAX_FINISH_HEIGHT; height++) {
+            Set<Long> expected = finishing.getOrDefault(height, Collections.emptySet());
+            TestDb.check(new HashSet<>(PhasingPollIndex.getFinishingPolls(height)).equals(expected), "polls finishing at " + height);
+        }
+        int found = 0;
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+            if (!PhasingPollIndex.getLinkedPolls(newFullHash(), 0).isEmpty()) {
+                found++;
+            }
+        }
+        TestDb.check(found == 0, found + " random transactions linked to a poll");
+    }
+
+    /**
+     * Add a poll in a database transaction which is rolled back, and one in a committed transaction
+     */
+    private static void transactionRollback() throws SQLException {
+        byte[] rolledBackHash = newFullHash();
+        byte[] committedHash = newFullHash();
+        long rolledBackId = nextId++;
+        long committedId = nextId++;
+        PhasingPollIndex.getFinishingPolls(1);
+        try {
+            Db.db.beginTransaction();
+            save(rolledBackId, 20, rolledBackHash);
+            PhasingPollIndex.addPoll(rolledBackId, 20, new byte[][] {rolledBackHash});
+            checkIds(PhasingPollIndex.getLinkedPolls(rolledBackHash, 5), rolledBackId);
+            Db.db.rollbackTransaction();
+        } finally {
+            Db.db.endTransaction();
+        }
+        checkIds(PhasingPollIndex.getLinkedPolls(rolledBackHash, 5));
+        TestDb.check(!PhasingPollIndex.getFinishingPolls(20).contains(rolledBackId), "poll of the rolled back transaction not finishing");
+        try {
+            Db.db.beginTransaction();
+            save(committedId, 20, committedHash);
+            PhasingPollIndex.addPoll(committedId, 20, new byte[][] {committedHash});
+            Db.db.commitTransaction();
+        } finally {
+            Db.db.endTransaction();
+        }
+        checkIds(PhasingPollIndex.getLinkedPolls(committedHash, 5), committedId);
+        PhasingPollIndex.reset();
+        checkIds(PhasingPollIndex.getLinkedPolls(committedHash, 5), committedId);
+    }
+
+    /**
+     * Apply the block at the finish height of the polls of linkedLookup and trim the finished polls
+     */
+    private static void finishAndTrim(BlockImpl block) throws SQLException {
+        List<Long> finished = PhasingPollIndex.getFinishingPolls(block.getHeight());
+        TestDb.check(finished.containsAll(Arrays.asList(1L, 3L)), "polls 1 and 3 finishing at " + block.getHeight());
+        PhasingPollIndex.finish(block);
+        checkIds(PhasingPollIndex.getLinkedPolls(linkedHash, block.getHeight()), 2);
+        checkIds(PhasingPollIndex.getLinkedPolls(sameIdHash, block.getHeight()));
+        TestDb.check(new HashSet<>(PhasingPollIndex.getFinishingPolls(block.getHeight() + 1))
+                .equals(new HashSet<>(idsFinishingAt(block.getHeight() + 1))), "polls finishing after the applied block kept");
+        // a lookup below the applied block loads the finished polls again
+        TestDb.check(new HashSet<>(PhasingPollIndex.getFinishingPolls(block.getHeight())).equals(new HashSet<>(finished)),
+                "finished polls loaded again below the applied block");
+        checkIds(PhasingPollIndex.getLinkedPolls(linkedHash, block.getHeight() - 1), 1, 2);
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("DELETE FROM phasing_poll_linked_transaction WHERE transaction_id IN "
+                     + "(SELECT id FROM phasing_poll WHERE finish_height <= ?)");
+             PreparedStatement pstmt2 = con.prepareStatement("DELETE FROM phasing_poll WHERE finish_height <= ?")) {
+            pstmt.setInt(1, block.getHeight());
+            pstmt.executeUpdate();
+            pstmt2.setInt(1, block.getHeight());
+            pstmt2.executeUpdate();
+        }
+        PhasingPollIndex.reset();
+        checkIds(PhasingPollIndex.getLinkedPolls(linkedHash, 0), 2);
+        checkIds(PhasingPollIndex.getFinishingPolls(block.getHeight()));
+        TestDb.check(new HashSet<>(PhasingPollIndex.getFinishingPolls(block.getHeight() + 2))
+                .equals(new HashSet<>(idsFinishingAt(block.getHeight() + 2))), "polls finishing after the trim height kept");
+    }
+
+    /**
+     * Save the blocks up to the finish height of the polls of linkedLookup
+     *
+     * @return Last block
+     */
+    private static BlockImpl saveBlocks(List<BlockImpl> blocks) {
+        BlockImpl previousBlock = null;
+        for (BlockImpl block : blocks) {
+            block.setPrevious(previousBlock);
+            try {
+                Connection con = Db.db.beginTransaction();
+                BlockDb.saveBlock(con, block);
+                BlockchainImpl.getInstance().setLastBlock(block);
+                Db.db.commitTransaction();
+            } finally {
+                Db.db.endTransaction();
+            }
+            previousBlock = block;
+        }
+        return previousBlock;
+    }
+
+    private static void save(long id, int finishHeight, byte[]... linkedFullHashes) throws SQLException {
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("INSERT INTO phasing_poll (id, account_id, finish_height, "
+                     + "voting_model, height) VALUES (?, 1, ?, 0, 0)");
+             PreparedStatement pstmt2 = con.prepareStatement("INSERT INTO phasing_poll_linked_transaction (transaction_id, "
+                     + "linked_full_hash, linked_transaction_id, height) VALUES (?, ?, ?, 0)")) {
+            pstmt.setLong(1, id);
+            pstmt.setInt(2, finishHeight);
+            pstmt.executeUpdate();
+            for (byte[] linkedFullHash : linkedFullHashes) {
+                pstmt2.setLong(1, id);
+                pstmt2.setBytes(2, linkedFullHash);
+                pstmt2.setLong(3, Convert.fullHashToId(linkedFullHash));
+                pstmt2.executeUpdate();
+            }
+        }
+    }
+
+    private static List<Long> idsFinishingAt(int height) throws SQLException {
+        List<Long> ids = new ArrayList<>();
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT id FROM phasing_poll WHERE finish_height = ?")) {
+            pstmt.setInt(1, height);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static byte[] newFullHash() {
+        byte[] hash = new byte[32];
+        random.nextBytes(hash);
+        return hash;
+    }
+
+    private static void checkIds(List<Long> pollIds, long... expectedIds) {
+        Set<Long> expected = new HashSet<>();
+        for (long id : expectedIds) {
+            expected.add(id);
+        }
+        TestDb.check(pollIds.size() == expected.size() && expected.equals(new HashSet<>(pollIds)),
+                "poll ids " + pollIds + ", expected " + expected);
+    }
+}